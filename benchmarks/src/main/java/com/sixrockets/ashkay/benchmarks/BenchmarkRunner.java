@@ -0,0 +1,51 @@
+/*
+ *  Copyright 2004 David C. Brown
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sixrockets.ashkay.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the selected benchmarks once per thread count, doubling from one
+ * thread up to the number of cores (or the given maximum), with the GC
+ * profiler on so allocation per operation is reported. Results for each
+ * thread count are written to jmh-&lt;threads&gt;.json.
+ * <br><br>
+ * Usage: BenchmarkRunner [maxThreads] [benchmark regex]
+ *
+ * @author <a href="mailto:dave@sixrockets.com">Dave Brown</a>
+ */
+public class BenchmarkRunner {
+
+  public static void main(String[] args) throws Exception {
+    int maxThreads = (args.length > 0) ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+    String include = (args.length > 1) ? args[1] : ".*Benchmark.*";
+
+    for (int threads = 1; threads <= maxThreads; threads = (threads == maxThreads) ? threads + 1 : Math.min(threads * 2, maxThreads)) {
+      Options options = new OptionsBuilder()
+          .include(include)
+          .threads(threads)
+          .addProfiler(GCProfiler.class)
+          .resultFormat(ResultFormatType.JSON)
+          .result("jmh-" + threads + ".json")
+          .build();
+      new Runner(options).run();
+    }
+  }
+}
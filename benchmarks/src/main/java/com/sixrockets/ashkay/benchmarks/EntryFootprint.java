@@ -0,0 +1,64 @@
+/*
+ *  Copyright 2004 David C. Brown
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sixrockets.ashkay.benchmarks;
+
+import com.sixrockets.ashkay.CacheEntry;
+import com.sixrockets.ashkay.ObjectCache;
+import com.sixrockets.ashkay.strategies.LastModifiedCachingStrategy;
+import com.sixrockets.ashkay.strategies.TimeExpirationCachingStrategy;
+
+import java.util.HashMap;
+
+import org.openjdk.jol.info.GraphLayout;
+import org.openjdk.jol.vm.VM;
+
+/**
+ * Prints the retained size of a cache entry, measured with JOL: bare, with the
+ * metadata TimeExpirationCachingStrategy and LastModifiedCachingStrategy keep
+ * in slots, and with the same metadata stored the old way, as boxed values in
+ * a properties HashMap. The key, the cached object and the cache itself are
+ * excluded.
+ *
+ * @author <a href="mailto:dave@sixrockets.com">Dave Brown</a>
+ */
+public class EntryFootprint {
+
+  public static void main(String[] args) throws Exception {
+    System.out.println(VM.current().details());
+
+    String key = "key";
+    Object value = new Object();
+    ObjectCache<Object, String> cache = new ObjectCache<>();
+
+    CacheEntry<Object, String> bare = new CacheEntry<>(key, value);
+    print("bare entry", bare, key, value, cache);
+
+    CacheEntry<Object, String> slotted = new CacheEntry<>(key, value, null, cache);
+    slotted = new TimeExpirationCachingStrategy(60000).prepare(slotted);
+    slotted = new LastModifiedCachingStrategy().prepare(slotted);
+    print("slots", slotted, key, value, cache);
+
+    CacheEntry<Object, String> mapped = new CacheEntry<>(key, value, new HashMap(), null);
+    mapped.addProperty("com.cepm_us.util.cache.TimeExpirationCachingStrategy.Timeout", Long.valueOf(System.currentTimeMillis()));
+    mapped.addProperty(LastModifiedCachingStrategy.class.getName() + ".fileModified", Long.valueOf(System.currentTimeMillis()));
+    print("properties", mapped, key, value, cache);
+  }
+
+  private static void print(String name, CacheEntry<?, ?> entry, Object... excluded) {
+    GraphLayout layout = GraphLayout.parseInstance(entry).subtract(GraphLayout.parseInstance(excluded));
+    System.out.printf("%-12s %5d bytes in %d objects%n", name, layout.totalSize(), layout.totalCount());
+  }
+}
@@ -0,0 +1,115 @@
+/*
+ *  Copyright 2004 David C. Brown
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sixrockets.ashkay.benchmarks;
+
+import com.sixrockets.ashkay.BulkObjectFactory;
+import com.sixrockets.ashkay.CreationException;
+import com.sixrockets.ashkay.ObjectCache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares getAll against the same keys fetched by N sequential gets, with a
+ * factory whose every call costs a simulated backend round trip. Some of the
+ * keys are already cached, the rest miss.
+ *
+ * @author <a href="mailto:dave@sixrockets.com">Dave Brown</a>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GetAllBenchmark {
+
+  @Param({ "10", "200" })
+  public int keyCount;
+
+  @Param({ "50" })
+  public int hitPercent;
+
+  @Param({ "100" })
+  public long roundTripMicros;
+
+  private ObjectCache<String, String> cache;
+  private List<String> keys;
+
+  @Setup
+  public void setUp() {
+    keys = new ArrayList<>();
+    for (int i = 0; i < keyCount; i++) {
+      keys.add("key-" + i);
+    }
+    cache = new ObjectCache<>(new RoundTripFactory());
+  }
+
+  @Setup(Level.Invocation)
+  public void reset() {
+    cache.clear();
+    for (int i = 0; i < keyCount * hitPercent / 100; i++) {
+      cache.put(keys.get(i), keys.get(i));
+    }
+  }
+
+  @Benchmark
+  public Map<String, String> getAll() throws CreationException {
+    return cache.getAll(keys);
+  }
+
+  @Benchmark
+  public void sequentialGets(Blackhole blackhole) throws CreationException {
+    for (String key : keys) {
+      blackhole.consume(cache.get(key));
+    }
+  }
+
+  private class RoundTripFactory implements BulkObjectFactory<String, String> {
+    public String createObjectFor(String key, Object data) {
+      LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(roundTripMicros));
+      return key;
+    }
+
+    public Map<String, String> createObjectsFor(Collection<String> keys) {
+      LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(roundTripMicros));
+      Map<String, String> objects = new HashMap<>();
+      for (String key : keys) {
+        objects.put(key, key);
+      }
+      return objects;
+    }
+  }
+}
@@ -0,0 +1,115 @@
+/*
+ *  Copyright 2004 David C. Brown
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sixrockets.ashkay.benchmarks;
+
+import com.sixrockets.ashkay.CachingStrategy;
+import com.sixrockets.ashkay.ObjectCache;
+import com.sixrockets.ashkay.strategies.TinyLfuCachingStrategy;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Replays access traces through a bounded ObjectCache and prints the hit ratio
+ * of TinyLfuCachingStrategy next to a plain LRU of the same size.
+ * <br><br>
+ * Usage: HitRatioSimulator capacity[,capacity...] [trace ...]
+ * <br><br>
+ * A trace file has one access per line, the key being the first whitespace
+ * separated field, which reads the common ARC and LIRS trace formats. With no
+ * trace files synthetic traces are used: a Zipfian trace, the same with a
+ * scan of one-off keys through the middle of it, and a loop over slightly
+ * more keys than the cache holds, which LRU never hits.
+ *
+ * @author <a href="mailto:dave@sixrockets.com">Dave Brown</a>
+ */
+public class HitRatioSimulator {
+
+  public static void main(String[] args) throws Exception {
+    String[] capacities = ((args.length > 0) ? args[0] : "1000").split(",");
+    for (String capacity : capacities) {
+      simulate(Long.parseLong(capacity), args);
+    }
+  }
+
+  private static void simulate(long capacity, String[] args) throws Exception {
+    System.out.printf("capacity %,d%n", capacity);
+    if (args.length > 1) {
+      for (int i = 1; i < args.length; i++) {
+        report(args[i], read(args[i]), capacity);
+      }
+    } else {
+      int[] zipf = new ZipfGenerator(100_000, 0.9).trace(1_000_000, 1);
+      List<Object> trace = new ArrayList<>();
+      for (int key : zipf) {
+        trace.add(Integer.valueOf(key));
+      }
+      report("zipf", trace, capacity);
+
+      List<Object> scan = new ArrayList<>(trace.subList(0, trace.size() / 2));
+      for (int i = 0; i < 10 * capacity; i++) {
+        scan.add("scan" + i);
+      }
+      scan.addAll(trace.subList(trace.size() / 2, trace.size()));
+      report("zipf+scan", scan, capacity);
+
+      List<Object> loop = new ArrayList<>();
+      long loopKeys = capacity + capacity / 4;
+      for (int i = 0; i < 100 * loopKeys; i++) {
+        loop.add(Integer.valueOf((int) (i % loopKeys)));
+      }
+      report("loop", loop, capacity);
+    }
+  }
+
+  private static List<Object> read(String file) throws IOException {
+    List<Object> trace = new ArrayList<>();
+    try (BufferedReader reader = Files.newBufferedReader(Paths.get(file))) {
+      String line;
+      while (null != (line = reader.readLine())) {
+        line = line.trim();
+        if (!line.isEmpty()) {
+          trace.add(line.split("\\s+", 2)[0]);
+        }
+      }
+    }
+    return trace;
+  }
+
+  private static void report(String name, List<Object> trace, long capacity) throws Exception {
+    System.out.printf("%-12s %,10d accesses  lru %6.2f%%  tinyLfu %6.2f%%%n", name, trace.size(),
+        hitRatio(trace, new LruCachingStrategy(capacity)),
+        hitRatio(trace, new TinyLfuCachingStrategy(capacity)));
+  }
+
+  private static double hitRatio(List<Object> trace, CachingStrategy strategy) throws Exception {
+    long[] misses = new long[1];
+    ObjectCache<Object, Object> cache = new ObjectCache<>((key, data) -> {
+      misses[0]++;
+      return key;
+    });
+    cache.addStrategy(strategy);
+
+    for (Object key : trace) {
+      cache.get(key);
+    }
+    return 100.0 * (trace.size() - misses[0]) / trace.size();
+  }
+}
@@ -0,0 +1,200 @@
+/*
+ *  Copyright 2004 David C. Brown
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sixrockets.ashkay.benchmarks;
+
+import com.sixrockets.ashkay.CacheEvent;
+import com.sixrockets.ashkay.JavaSerializer;
+import com.sixrockets.ashkay.ObjectCache;
+import com.sixrockets.ashkay.cluster.ClusterInvalidator;
+import com.sixrockets.ashkay.cluster.InvalidationTransport;
+import com.sixrockets.ashkay.cluster.LoopbackTransport;
+import com.sixrockets.ashkay.cluster.TcpTransport;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs a cluster of caches in one JVM joined by ClusterInvalidators and
+ * measures how long a put on one node takes to evict the key on all the
+ * others, then how many puts a second the cluster keeps up with when every
+ * node writes at once, and how far batching compacts them.
+ * <br><br>
+ * Usage: InvalidationStormSimulator [loopback|tcp] [nodes] [flushMillis] [writersPerNode] [seconds]
+ *
+ * @author <a href="mailto:dave@sixrockets.com">Dave Brown</a>
+ */
+public class InvalidationStormSimulator {
+
+  private static final int SAMPLES = 2000;
+  private static final int KEYS = 10_000;
+
+  private final String transport;
+  private final int nodes;
+  private final long flushMillis;
+  private final int writers;
+  private final int seconds;
+
+  private final List<ObjectCache<Object, Integer>> caches = new ArrayList<>();
+  private final List<ClusterInvalidator<Object, Integer>> invalidators = new ArrayList<>();
+  private volatile Integer watched;
+  private volatile CountDownLatch arrived;
+
+  InvalidationStormSimulator(String transport, int nodes, long flushMillis, int writers, int seconds) {
+    this.transport = transport;
+    this.nodes = nodes;
+    this.flushMillis = flushMillis;
+    this.writers = writers;
+    this.seconds = seconds;
+  }
+
+  public static void main(String[] args) throws Exception {
+    String transport = (args.length > 0) ? args[0] : "loopback";
+    int nodes = (args.length > 1) ? Integer.parseInt(args[1]) : 4;
+    long flushMillis = (args.length > 2) ? Long.parseLong(args[2]) : 5;
+    int writers = (args.length > 3) ? Integer.parseInt(args[3]) : 2;
+    int seconds = (args.length > 4) ? Integer.parseInt(args[4]) : 5;
+    new InvalidationStormSimulator(transport, nodes, flushMillis, writers, seconds).run();
+  }
+
+  private void run() throws Exception {
+    join();
+    try {
+      System.out.printf("%s, %d nodes, %d ms flush interval%n", transport, nodes, flushMillis);
+      propagation();
+      storm();
+    } finally {
+      for (ClusterInvalidator<Object, Integer> invalidator : invalidators) {
+        invalidator.close();
+      }
+    }
+  }
+
+  private void join() throws Exception {
+    LoopbackTransport.Group group = new LoopbackTransport.Group();
+    List<TcpTransport> tcp = new ArrayList<>();
+    InetAddress localhost = InetAddress.getLoopbackAddress();
+    for (int i = 0; i < nodes; i++) {
+      InvalidationTransport node;
+      if ("tcp".equals(transport)) {
+        TcpTransport t = new TcpTransport(new InetSocketAddress(localhost, 0));
+        tcp.add(t);
+        node = t;
+      } else {
+        node = new LoopbackTransport(group);
+      }
+      ObjectCache<Object, Integer> cache = new ObjectCache<>((key, data) -> key);
+      cache.addSynchronousListener(this::arrived);
+      caches.add(cache);
+      invalidators.add(new ClusterInvalidator<>(cache, node, new JavaSerializer<>(), flushMillis, 1024));
+    }
+    for (TcpTransport from : tcp) {
+      for (TcpTransport to : tcp) {
+        if (from != to) {
+          from.addPeer(new InetSocketAddress(localhost, to.getLocalPort()));
+        }
+      }
+    }
+  }
+
+  private void arrived(CacheEvent<Object, Integer> event) {
+    if ((CacheEvent.Type.EVICTED == event.getType()) && event.getKey().equals(watched)) {
+      arrived.countDown();
+    }
+  }
+
+  /**
+   * Puts keys on the first node one at a time, each loaded on every other
+   * node beforehand, and times until the last of them has evicted it.
+   */
+  private void propagation() throws Exception {
+    long[] latencies = new long[SAMPLES];
+    for (int i = 0; i < SAMPLES; i++) {
+      Integer key = -1 - i;
+      for (int n = 1; n < nodes; n++) {
+        caches.get(n).get(key);
+      }
+      arrived = new CountDownLatch(nodes - 1);
+      watched = key;
+      long start = System.nanoTime();
+      caches.get(0).put(key, i);
+      if (!arrived.await(5, TimeUnit.SECONDS)) {
+        throw new IllegalStateException("Invalidation of " + key + " lost");
+      }
+      latencies[i] = System.nanoTime() - start;
+    }
+    watched = null;
+    Arrays.sort(latencies);
+    System.out.printf("propagation  p50 %7.0f us  p99 %7.0f us  max %7.0f us%n",
+        latencies[SAMPLES / 2] / 1e3, latencies[SAMPLES * 99 / 100] / 1e3, latencies[SAMPLES - 1] / 1e3);
+  }
+
+  /**
+   * Has every node put random keys as fast as it can, counting the puts and
+   * the keys that went over the wire for them.
+   */
+  private void storm() throws Exception {
+    long sentBefore = sum(true);
+    long receivedBefore = sum(false);
+    LongAdder puts = new LongAdder();
+    AtomicBoolean stop = new AtomicBoolean();
+    List<Thread> threads = new ArrayList<>();
+    for (ObjectCache<Object, Integer> cache : caches) {
+      for (int w = 0; w < writers; w++) {
+        Thread thread = new Thread(() -> {
+          ThreadLocalRandom random = ThreadLocalRandom.current();
+          while (!stop.get()) {
+            cache.put(random.nextInt(KEYS), 0);
+            puts.increment();
+          }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        threads.add(thread);
+      }
+    }
+
+    Thread.sleep(TimeUnit.SECONDS.toMillis(seconds));
+    stop.set(true);
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    for (ClusterInvalidator<Object, Integer> invalidator : invalidators) {
+      invalidator.flush();
+    }
+    Thread.sleep(500);
+
+    long sent = sum(true) - sentBefore;
+    long received = sum(false) - receivedBefore;
+    System.out.printf("storm        %,d puts/s, %,d keys sent/s (1 per %.1f puts), %,d keys applied/s%n",
+        puts.sum() / seconds, sent / seconds, (double) puts.sum() / Math.max(1, sent), received / seconds);
+  }
+
+  private long sum(boolean sent) {
+    long total = 0;
+    for (ClusterInvalidator<Object, Integer> invalidator : invalidators) {
+      total += sent ? invalidator.getKeysSent() : invalidator.getKeysReceived();
+    }
+    return total;
+  }
+}
@@ -0,0 +1,180 @@
+/*
+ *  Copyright 2004 David C. Brown
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sixrockets.ashkay.benchmarks;
+
+import com.sixrockets.ashkay.CacheEntry;
+import com.sixrockets.ashkay.CachingStrategy;
+import com.sixrockets.ashkay.CreationException;
+import com.sixrockets.ashkay.ObjectCache;
+import com.sixrockets.ashkay.ObjectFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * LegacyObjectCache is the ObjectCache get, put and evict path as it was
+ * before the cache moved to a ConcurrentHashMap, kept so benchmarks can
+ * compare against it: a HashMap read without a lock and written under
+ * synchronized (cache), a latch put in the map while an object loads, and
+ * the strategy list walked under its own monitor on every hit. The only
+ * change is a CountDownLatch standing in for the old util.concurrent Latch.
+ * <br><br>
+ * It overrides the operations the benchmarks use and nothing else; the
+ * statistics, events and other features of ObjectCache do not see it.
+ *
+ * @author <a href="mailto:dave@sixrockets.com">Dave Brown</a>
+ */
+class LegacyObjectCache<T, K> extends ObjectCache<T, K> {
+
+  private final ObjectFactory<T, K> factory;
+  private final List<CachingStrategy> strategies;
+  private final Map<K, Object> cache = new HashMap<>();
+
+  LegacyObjectCache(ObjectFactory<T, K> aFactory, List<CachingStrategy> theStrategies) {
+    factory = aFactory;
+    strategies = new ArrayList<>(theStrategies);
+  }
+
+  public ObjectCache<T, K> addStrategy(CachingStrategy aStrategy) {
+    synchronized (strategies) {
+      strategies.add(aStrategy);
+    }
+    return this;
+  }
+
+  public T get(K key) throws CreationException {
+    return get(key, null);
+  }
+
+  public T evict(K key) {
+    T val = null;
+    Object entry = cache.get(key);
+    if (entry instanceof CacheEntry) {
+      val = ((CacheEntry<T, K>) entry).getEntryObject();
+      synchronized (cache) {
+        cache.remove(key);
+      }
+    }
+    return val;
+  }
+
+  public T get(K key, Object data) throws CreationException {
+    CacheEntry<T, K> entry = findCacheEntry(key);
+    if (!validateEntry(entry)) {
+      CountDownLatch buildLatch = prepareLatch(key);
+      entry = null;
+      try {
+        entry = createObjectFor(key, data);
+      } finally {
+        if (null == entry) {
+          synchronized (cache) {
+            cache.put(key, null);
+          }
+        }
+        buildLatch.countDown();
+      }
+    }
+    return (null == entry) ? null : entry.getEntryObject();
+  }
+
+  public void put(K key, T value) {
+    CacheEntry<T, K> entry = new CacheEntry<>(key, value);
+    entry.setCache(this);
+    entry = prepareEntry(entry);
+    cache.put(key, entry);
+  }
+
+  public void clear() {
+    cache.clear();
+  }
+
+  public int size() {
+    return cache.size();
+  }
+
+  private CacheEntry<T, K> createObjectFor(K key, Object data) throws CreationException {
+    CacheEntry<T, K> entry = null;
+    if (null != factory) {
+      T tempO = factory.createObjectFor(key, data);
+      if (null != tempO) {
+        entry = new CacheEntry<>(key, tempO);
+        entry.setCache(this);
+        entry = prepareEntry(entry);
+      }
+    }
+    synchronized (cache) {
+      cache.put(key, entry);
+    }
+    return entry;
+  }
+
+  private CacheEntry<T, K> prepareEntry(CacheEntry<T, K> entry) {
+    synchronized (strategies) {
+      Iterator<CachingStrategy> strategyIter = strategies.iterator();
+      while (strategyIter.hasNext()) {
+        entry = strategyIter.next().prepare(entry);
+      }
+    }
+    return entry;
+  }
+
+  private CountDownLatch prepareLatch(K key) {
+    CountDownLatch buildLatch;
+    synchronized (cache) {
+      buildLatch = new CountDownLatch(1);
+      cache.put(key, buildLatch);
+    }
+    return buildLatch;
+  }
+
+  private boolean validateEntry(CacheEntry<T, K> entry) {
+    boolean passes = false;
+    if (entry != null) {
+      passes = true;
+      synchronized (strategies) {
+        Iterator<CachingStrategy> strategyIter = strategies.iterator();
+        while (strategyIter.hasNext()) {
+          if (!strategyIter.next().validate(entry)) {
+            passes = false;
+          }
+        }
+      }
+    }
+    return passes;
+  }
+
+  private CacheEntry<T, K> findCacheEntry(K key) throws CreationException {
+    CacheEntry<T, K> entry = null;
+    Object cacheObject = cache.get(key);
+    if (cacheObject != null) {
+      if (cacheObject instanceof CountDownLatch) {
+        try {
+          ((CountDownLatch) cacheObject).await();
+        } catch (InterruptedException e) {
+          throw new CreationException(e);
+        }
+        entry = findCacheEntry(key);
+      } else {
+        entry = (CacheEntry<T, K>) cacheObject;
+      }
+    }
+    return entry;
+  }
+}
@@ -0,0 +1,71 @@
+/*
+ *  Copyright 2004 David C. Brown
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sixrockets.ashkay.benchmarks;
+
+import com.sixrockets.ashkay.CacheEntry;
+import com.sixrockets.ashkay.CachingStrategy;
+import com.sixrockets.ashkay.EvictionCause;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * A plain LRU bound, as a baseline for the hit ratio simulator to measure
+ * TinyLfuCachingStrategy against.
+ *
+ * @author <a href="mailto:dave@sixrockets.com">Dave Brown</a>
+ */
+class LruCachingStrategy implements CachingStrategy {
+
+  private final long maximumSize;
+  private final LinkedHashMap<Object, CacheEntry<?, ?>> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+  LruCachingStrategy(long maximumSize) {
+    this.maximumSize = maximumSize;
+  }
+
+  public <T, K> CacheEntry<T, K> prepare(CacheEntry<T, K> entry) {
+    CacheEntry victim = null;
+    synchronized (entries) {
+      entries.put(entry.getEntryKey(), entry);
+      if (entries.size() > maximumSize) {
+        Iterator<CacheEntry<?, ?>> iter = entries.values().iterator();
+        victim = iter.next();
+        iter.remove();
+      }
+    }
+
+    if (null != victim) {
+      victim.getCache().evictEntry(victim, EvictionCause.SIZE, this);
+    }
+    return entry;
+  }
+
+  public boolean validate(CacheEntry<?, ?> entry) {
+    synchronized (entries) {
+      return null != entries.get(entry.getEntryKey());
+    }
+  }
+
+  public void evicted(CacheEntry<?, ?> entry, EvictionCause cause) {
+    synchronized (entries) {
+      CacheEntry<?, ?> current = entries.get(entry.getEntryKey());
+      if ((null != current) && entry.isEntry(current)) {
+        entries.remove(entry.getEntryKey());
+      }
+    }
+  }
+}
@@ -0,0 +1,120 @@
+/*
+ *  Copyright 2004 David C. Brown
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sixrockets.ashkay.benchmarks;
+
+import com.sixrockets.ashkay.CreationException;
+import com.sixrockets.ashkay.ObjectCache;
+import com.sixrockets.ashkay.server.CacheClient;
+import com.sixrockets.ashkay.server.CacheServer;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares the ways of reaching an object shared through a CacheServer over
+ * localhost: a hit in the near cache, a get from the server waited for one
+ * at a time, the same gets pipelined on one connection, and one multi-get.
+ *
+ * @author <a href="mailto:dave@sixrockets.com">Dave Brown</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NearCacheBenchmark {
+
+  @Param({ "100" })
+  public int keyCount;
+
+  @Param({ "100" })
+  public int valueSize;
+
+  private CacheServer server;
+  private CacheClient client;
+  private ObjectCache<byte[], String> nearCache;
+  private List<byte[]> keys;
+
+  @Setup
+  public void setUp() throws Exception {
+    server = new CacheServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 64L << 20);
+    server.start();
+    client = new CacheClient(new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getLocalPort()));
+    nearCache = new ObjectCache<>();
+    keys = new ArrayList<>();
+    for (int i = 0; i < keyCount; i++) {
+      byte[] key = ("key-" + i).getBytes();
+      keys.add(key);
+      client.put(key, new byte[valueSize]).get();
+      nearCache.put("key-" + i, new byte[valueSize]);
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    client.close();
+    server.close();
+  }
+
+  @Benchmark
+  public void nearHits(Blackhole blackhole) throws CreationException {
+    for (int i = 0; i < keyCount; i++) {
+      blackhole.consume(nearCache.get("key-" + i));
+    }
+  }
+
+  @Benchmark
+  public void sequentialGets(Blackhole blackhole) throws Exception {
+    for (byte[] key : keys) {
+      blackhole.consume(client.get(key).get());
+    }
+  }
+
+  @Benchmark
+  public void pipelinedGets(Blackhole blackhole) throws Exception {
+    List<CompletableFuture<byte[]>> gets = new ArrayList<>(keyCount);
+    for (byte[] key : keys) {
+      gets.add(client.get(key));
+    }
+    for (CompletableFuture<byte[]> get : gets) {
+      blackhole.consume(get.get());
+    }
+  }
+
+  @Benchmark
+  public List<byte[]> multiGet() throws Exception {
+    return client.getAll(keys).get();
+  }
+}
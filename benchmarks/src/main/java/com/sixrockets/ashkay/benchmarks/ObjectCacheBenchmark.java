@@ -0,0 +1,118 @@
+/*
+ *  Copyright 2004 David C. Brown
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sixrockets.ashkay.benchmarks;
+
+import com.sixrockets.ashkay.CachingStrategy;
+import com.sixrockets.ashkay.CreationException;
+import com.sixrockets.ashkay.ObjectCache;
+import com.sixrockets.ashkay.ObjectFactory;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the basic ObjectCache operations for each shipped strategy: a get
+ * that hits, a get that misses (and the evict that makes the next one miss
+ * too), a put over an existing key and an evict followed by a put. Each runs
+ * with and without the cache recording statistics, and against
+ * LegacyObjectCache, the synchronized HashMap implementation ObjectCache
+ * replaced, which records no statistics either way.
+ *
+ * @author <a href="mailto:dave@sixrockets.com">Dave Brown</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ObjectCacheBenchmark {
+
+  private static final int KEYS = 1 << 10;
+  private static final int MASK = KEYS - 1;
+  private static final Object VALUE = new Object();
+
+  @Param({ "full", "soft", "time", "lastModified", "lastModifiedWatch", "stacked", "tinyLfu" })
+  public String strategy;
+
+  @Param({ "false", "true" })
+  public boolean recordStats;
+
+  @Param({ "current", "legacy" })
+  public String implementation;
+
+  private ObjectCache<Object, Object> cache;
+  private String[] keys;
+
+  @Setup
+  public void setUp() throws Exception {
+    keys = Strategies.fileKeys(KEYS);
+    ObjectFactory<Object, Object> factory = (key, data) -> VALUE;
+    List<CachingStrategy> strategies = Strategies.create(strategy, 2 * KEYS);
+    cache = "legacy".equals(implementation) ? new LegacyObjectCache<>(factory, strategies) : new ObjectCache<>(factory, strategies);
+    cache.setRecordStats(recordStats);
+    for (String key : keys) {
+      cache.get(key);
+    }
+  }
+
+  /**
+   * Per thread position in the key space.
+   */
+  @State(Scope.Thread)
+  public static class Cursor {
+    int index = (int) Thread.currentThread().getId() * 31;
+    long miss = Thread.currentThread().getId() << 40;
+  }
+
+  @Benchmark
+  public Object getHit(Cursor cursor) throws CreationException {
+    return cache.get(keys[cursor.index++ & MASK]);
+  }
+
+  @Benchmark
+  public Object getMiss(Cursor cursor) throws CreationException {
+    Long key = Long.valueOf(cursor.miss++);
+    Object val = cache.get(key);
+    cache.evict(key);
+    return val;
+  }
+
+  @Benchmark
+  public void put(Cursor cursor) {
+    cache.put(keys[cursor.index++ & MASK], VALUE);
+  }
+
+  @Benchmark
+  public Object evict(Cursor cursor) {
+    String key = keys[cursor.index++ & MASK];
+    Object val = cache.evict(key);
+    cache.put(key, VALUE);
+    return val;
+  }
+}
@@ -0,0 +1,120 @@
+/*
+ *  Copyright 2004 David C. Brown
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sixrockets.ashkay.benchmarks;
+
+import com.sixrockets.ashkay.CreationException;
+import com.sixrockets.ashkay.ObjectCache;
+import com.sixrockets.ashkay.ObjectFactory;
+import com.sixrockets.ashkay.Serializer;
+import com.sixrockets.ashkay.strategies.TinyLfuCachingStrategy;
+import com.sixrockets.ashkay.tiers.OffHeapTier;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares a cache holding all of its data on the heap with one holding a
+ * small hot set on the heap and the rest in an OffHeapTier, under a Zipfian
+ * read load. Run it through BenchmarkRunner, or with -prof gc, to see
+ * collection counts and times next to throughput. For the 10 GB comparison,
+ * run with -p dataMB=10240 and give the forked JVM room for it, for example
+ * -jvmArgs "-Xmx14g -XX:MaxDirectMemorySize=14g".
+ *
+ * @author <a href="mailto:dave@sixrockets.com">Dave Brown</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OffHeapBenchmark {
+
+  private static final int TRACE = 1 << 20;
+
+  @Param({ "heap", "offHeap" })
+  public String tier;
+
+  @Param({ "256" })
+  public int dataMB;
+
+  @Param({ "16" })
+  public int valueKB;
+
+  private ObjectCache<byte[], Integer> cache;
+  private int[] trace;
+
+  @Setup
+  public void setUp() throws CreationException {
+    int entries = (int) ((long) dataMB * 1024 / valueKB);
+    ObjectFactory<byte[], Integer> factory = (key, data) -> new byte[valueKB * 1024];
+
+    if ("heap".equals(tier)) {
+      cache = new ObjectCache<>(factory);
+      cache.addStrategy(new TinyLfuCachingStrategy(entries));
+    } else {
+      long capacity = (long) dataMB * 1024 * 1024 * 5 / 4;
+      OffHeapTier<byte[], Integer> offHeap = new OffHeapTier<>(factory, new BytesSerializer(), capacity);
+      cache = new ObjectCache<>(offHeap);
+      cache.addStrategy(new TinyLfuCachingStrategy(Math.max(1, entries / 100))).addStrategy(offHeap);
+    }
+
+    for (int i = 0; i < entries; i++) {
+      cache.get(i);
+    }
+    trace = new ZipfGenerator(entries, 0.99).trace(TRACE, 1);
+  }
+
+  /**
+   * Per thread position in the trace.
+   */
+  @State(Scope.Thread)
+  public static class Cursor {
+    int index = (int) Thread.currentThread().getId() * 7919;
+  }
+
+  @Benchmark
+  public byte[] get(Cursor cursor) throws CreationException {
+    return cache.get(trace[cursor.index++ & (TRACE - 1)]);
+  }
+
+  private static class BytesSerializer implements Serializer<byte[]> {
+    public byte[] serialize(byte[] object) {
+      return object;
+    }
+
+    public byte[] deserialize(ByteBuffer buffer) {
+      if (buffer.hasArray() && (buffer.arrayOffset() == 0) && (buffer.remaining() == buffer.array().length)) {
+        return buffer.array();
+      }
+      byte[] bytes = new byte[buffer.remaining()];
+      buffer.get(bytes);
+      return bytes;
+    }
+  }
+}
@@ -0,0 +1,176 @@
+/*
+ *  Copyright 2004 David C. Brown
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sixrockets.ashkay.benchmarks;
+
+import com.sixrockets.ashkay.BulkObjectFactory;
+import com.sixrockets.ashkay.CreationException;
+import com.sixrockets.ashkay.ObjectCache;
+import com.sixrockets.ashkay.cluster.PartitionedCache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures what partitioning costs and buys: a hit through a PartitionedCache
+ * against a hit in a single ObjectCache, adding and removing a shard of a
+ * full cache, and getAll of missing keys from a single cache against the
+ * same keys fanned out over the shards, with a factory whose every call
+ * costs a simulated backend round trip.
+ *
+ * @author <a href="mailto:dave@sixrockets.com">Dave Brown</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PartitionedCacheBenchmark {
+
+  private static final int KEYS = 100_000;
+
+  @Param({ "8" })
+  public int shards;
+
+  private ObjectCache<Integer, Integer> single;
+  private PartitionedCache<Integer, Integer> partitioned;
+
+  @Setup
+  public void setUp() throws CreationException {
+    single = new ObjectCache<>((key, data) -> key);
+    partitioned = new PartitionedCache<>();
+    for (int s = 0; s < shards; s++) {
+      partitioned.addShard("shard-" + s, new ObjectCache<>((key, data) -> key));
+    }
+    for (int i = 0; i < KEYS; i++) {
+      single.get(i);
+      partitioned.get(i);
+    }
+  }
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public Integer singleHit() throws CreationException {
+    return single.get(ThreadLocalRandom.current().nextInt(KEYS));
+  }
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public Integer partitionedHit() throws CreationException {
+    return partitioned.get(ThreadLocalRandom.current().nextInt(KEYS));
+  }
+
+  /**
+   * Adds a shard, taking about 1/(N+1) of the keys, then removes it again.
+   */
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public int rebalance() {
+    int moved = partitioned.addShard("extra", new ObjectCache<>((key, data) -> key));
+    return moved + partitioned.removeShard("extra");
+  }
+
+  /**
+   * Caches whose every key misses, so getAll goes to the factory.
+   */
+  @State(Scope.Thread)
+  public static class FanOut {
+
+    @Param({ "200" })
+    public int keyCount;
+
+    @Param({ "100" })
+    public long roundTripMicros;
+
+    @Param({ "8" })
+    public int shards;
+
+    ObjectCache<Integer, Integer> single;
+    PartitionedCache<Integer, Integer> partitioned;
+    List<Integer> keys = new ArrayList<>();
+
+    @Setup
+    public void setUp() {
+      single = new ObjectCache<>(new RoundTripFactory(roundTripMicros));
+      partitioned = new PartitionedCache<>();
+      for (int s = 0; s < shards; s++) {
+        partitioned.addShard("shard-" + s, new ObjectCache<>(new RoundTripFactory(roundTripMicros)));
+      }
+      for (int i = 0; i < keyCount; i++) {
+        keys.add(i);
+      }
+    }
+
+    @Setup(Level.Invocation)
+    public void reset() {
+      single.clear();
+      partitioned.clear();
+    }
+  }
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public Map<Integer, Integer> singleGetAll(FanOut state) throws CreationException {
+    return state.single.getAll(state.keys);
+  }
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public Map<Integer, Integer> partitionedGetAll(FanOut state) throws CreationException {
+    return state.partitioned.getAll(state.keys);
+  }
+
+  private static final class RoundTripFactory implements BulkObjectFactory<Integer, Integer> {
+    private final long roundTripNanos;
+
+    RoundTripFactory(long roundTripMicros) {
+      roundTripNanos = TimeUnit.MICROSECONDS.toNanos(roundTripMicros);
+    }
+
+    public Integer createObjectFor(Integer key, Object data) {
+      LockSupport.parkNanos(roundTripNanos);
+      return key;
+    }
+
+    public Map<Integer, Integer> createObjectsFor(Collection<Integer> keys) {
+      // a bulk call's round trip grows with the batch it carries
+      LockSupport.parkNanos(roundTripNanos + keys.size() * roundTripNanos / 20);
+      Map<Integer, Integer> objects = new HashMap<>();
+      for (Integer key : keys) {
+        objects.put(key, key);
+      }
+      return objects;
+    }
+  }
+}
@@ -0,0 +1,103 @@
+/*
+ *  Copyright 2004 David C. Brown
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sixrockets.ashkay.benchmarks;
+
+import com.sixrockets.ashkay.CachingStrategy;
+import com.sixrockets.ashkay.strategies.FullCachingStrategy;
+import com.sixrockets.ashkay.strategies.LastModifiedCachingStrategy;
+import com.sixrockets.ashkay.strategies.SoftReferenceCachingStrategy;
+import com.sixrockets.ashkay.strategies.TimeExpirationCachingStrategy;
+import com.sixrockets.ashkay.strategies.TinyLfuCachingStrategy;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Strategies builds the strategy lists the benchmarks are parameterized by,
+ * and the keys they look up.
+ *
+ * @author <a href="mailto:dave@sixrockets.com">Dave Brown</a>
+ */
+final class Strategies {
+
+  /**
+   * Every strategy setup, for use in a JMH @Param.
+   */
+  static final String ALL = "full,soft,time,lastModified,lastModifiedWatch,stacked,tinyLfu";
+
+  private static final long HOUR = 60 * 60 * 1000;
+
+  private Strategies() {}
+
+  /**
+   * Creates the strategy list for a setup name. "stacked" is the combination
+   * suggested in the package docs: soft references, a timeout and last
+   * modified checks together.
+   */
+  static List<CachingStrategy> create(String name, long capacity) {
+    List<CachingStrategy> strategies = new ArrayList<>();
+    switch (name) {
+      case "full":
+        strategies.add(new FullCachingStrategy());
+        break;
+      case "soft":
+        strategies.add(new SoftReferenceCachingStrategy());
+        break;
+      case "time":
+        strategies.add(new TimeExpirationCachingStrategy(HOUR));
+        break;
+      case "lastModified":
+        strategies.add(new LastModifiedCachingStrategy());
+        break;
+      case "lastModifiedWatch":
+        strategies.add(new LastModifiedCachingStrategy(false, true));
+        break;
+      case "stacked":
+        strategies.add(new SoftReferenceCachingStrategy());
+        strategies.add(new TimeExpirationCachingStrategy(HOUR));
+        strategies.add(new LastModifiedCachingStrategy());
+        break;
+      case "tinyLfu":
+        strategies.add(new TinyLfuCachingStrategy(capacity));
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown strategy setup " + name);
+    }
+    return strategies;
+  }
+
+  /**
+   * Creates empty temporary files to use as keys, so LastModifiedCachingStrategy
+   * checks real files. Other strategies just see the paths as strings.
+   */
+  static String[] fileKeys(int count) throws IOException {
+    File dir = File.createTempFile("ashkay-bench", "");
+    dir.delete();
+    dir.mkdirs();
+    dir.deleteOnExit();
+
+    String[] keys = new String[count];
+    for (int i = 0; i < count; i++) {
+      File file = new File(dir, "key-" + i);
+      file.createNewFile();
+      file.deleteOnExit();
+      keys[i] = file.getAbsolutePath();
+    }
+    return keys;
+  }
+}
@@ -0,0 +1,106 @@
+/*
+ *  Copyright 2004 David C. Brown
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sixrockets.ashkay.benchmarks;
+
+import com.sixrockets.ashkay.CreationException;
+import com.sixrockets.ashkay.ObjectCache;
+import com.sixrockets.ashkay.ObjectFactory;
+import com.sixrockets.ashkay.strategies.TimeExpirationCachingStrategy;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Every thread asks for the same few keys, which expire every few milliseconds and
+ * take a millisecond to load, so each expiry sets off a stampede. With
+ * single-flight loading the "loads" counter stays near one per key per expiry
+ * however many threads run. Run with -t to vary the herd size; the "legacy"
+ * implementation is LegacyObjectCache, the cache before single-flight
+ * loading, where every thread that finds a key expired loads it.
+ *
+ * @author <a href="mailto:dave@sixrockets.com">Dave Brown</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ThunderingHerdBenchmark {
+
+  private static final String[] KEYS = { "a", "b", "c", "d" };
+
+  @Param({ "current", "legacy" })
+  public String implementation;
+
+  @Param({ "5" })
+  public long expiryMillis;
+
+  /** Loads made by each thread, so the summed counters count each load once. */
+  private static final ThreadLocal<long[]> LOADS = ThreadLocal.withInitial(() -> new long[1]);
+
+  private ObjectCache<Object, String> cache;
+
+  @Setup
+  public void setUp() {
+    ObjectFactory<Object, String> factory = (key, data) -> {
+      LOADS.get()[0]++;
+      LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+      return key;
+    };
+    cache = "legacy".equals(implementation) ? new LegacyObjectCache<>(factory, new ArrayList<>()) : new ObjectCache<>(factory);
+    cache.addStrategy(new TimeExpirationCachingStrategy(expiryMillis));
+  }
+
+  /**
+   * Reports factory calls alongside throughput.
+   */
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  public static class Counters {
+    private long start;
+    int index;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+      start = LOADS.get()[0];
+    }
+
+    public long loads() {
+      return LOADS.get()[0] - start;
+    }
+  }
+
+  @Benchmark
+  public Object herd(Counters counters) throws CreationException {
+    return cache.get(KEYS[counters.index++ & 3]);
+  }
+}
@@ -0,0 +1,161 @@
+/*
+ *  Copyright 2004 David C. Brown
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sixrockets.ashkay.benchmarks;
+
+import com.sixrockets.ashkay.CacheWarmer;
+import com.sixrockets.ashkay.CreationException;
+import com.sixrockets.ashkay.JavaSerializer;
+import com.sixrockets.ashkay.KeySnapshot;
+import com.sixrockets.ashkay.ObjectCache;
+import com.sixrockets.ashkay.strategies.TinyLfuCachingStrategy;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Measures how long a restarted cache takes to get back to 90% of its steady
+ * state hit ratio, starting cold and starting from a KeySnapshot of its
+ * hottest keys loaded by a CacheWarmer. Clients replay a Zipfian trace against
+ * a bounded cache whose factory takes a fixed time per load.
+ * <br><br>
+ * Usage: WarmStartSimulator [loadMillis] [clients] [warmerConcurrency]
+ *
+ * @author <a href="mailto:dave@sixrockets.com">Dave Brown</a>
+ */
+public class WarmStartSimulator {
+
+  private static final int KEYS = 100_000;
+  private static final int CAPACITY = 10_000;
+  private static final int TRACE = 1 << 21;
+  private static final long SAMPLE_MILLIS = 50;
+  private static final long GIVE_UP_MILLIS = 120_000;
+
+  private final int[] trace = new ZipfGenerator(KEYS, 0.99).trace(TRACE, 1);
+  private final long loadNanos;
+  private final int clients;
+  private final int warmerConcurrency;
+
+  private final AtomicLong requests = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final ThreadLocal<Boolean> client = ThreadLocal.withInitial(() -> Boolean.FALSE);
+  private volatile boolean slow;
+
+  WarmStartSimulator(long loadMillis, int clients, int warmerConcurrency) {
+    loadNanos = TimeUnit.MILLISECONDS.toNanos(loadMillis);
+    this.clients = clients;
+    this.warmerConcurrency = warmerConcurrency;
+  }
+
+  public static void main(String[] args) throws Exception {
+    long loadMillis = (args.length > 0) ? Long.parseLong(args[0]) : 1;
+    int clients = (args.length > 1) ? Integer.parseInt(args[1]) : 8;
+    int warmerConcurrency = (args.length > 2) ? Integer.parseInt(args[2]) : 32;
+    new WarmStartSimulator(loadMillis, clients, warmerConcurrency).run();
+  }
+
+  private void run() throws Exception {
+    TinyLfuCachingStrategy strategy = new TinyLfuCachingStrategy(CAPACITY);
+    ObjectCache<Object, Integer> cache = newCache(strategy);
+    slow = false;
+    for (int i = 0; i < TRACE; i++) {
+      cache.get(trace[i]);
+    }
+    long before = misses.get();
+    for (int i = 0; i < TRACE; i++) {
+      cache.get(trace[i]);
+    }
+    double steady = 1.0 - (double) (misses.get() - before) / TRACE;
+    System.out.printf("steady state hit ratio %.1f%%, target %.1f%%%n", 100 * steady, 90 * steady);
+
+    File file = File.createTempFile("ashkay", ".keys");
+    file.deleteOnExit();
+    KeySnapshot<Integer> snapshot = new KeySnapshot<>(file, new JavaSerializer<>());
+    snapshot.write(strategy.<Integer>hottestKeys(CAPACITY));
+    System.out.printf("snapshot of %d keys, %d bytes%n", CAPACITY, file.length());
+
+    slow = true;
+    System.out.printf("cold start  %6d ms%n", timeToTarget(newCache(new TinyLfuCachingStrategy(CAPACITY)), null, 0.9 * steady));
+    List<Integer> keys = snapshot.read();
+    System.out.printf("warm start  %6d ms%n", timeToTarget(newCache(new TinyLfuCachingStrategy(CAPACITY)), keys, 0.9 * steady));
+  }
+
+  private ObjectCache<Object, Integer> newCache(TinyLfuCachingStrategy strategy) {
+    ObjectCache<Object, Integer> cache = new ObjectCache<>((key, data) -> {
+      if (!slow || client.get()) {
+        misses.incrementAndGet();
+      }
+      if (slow) {
+        LockSupport.parkNanos(loadNanos);
+      }
+      return key;
+    });
+    cache.addStrategy(strategy);
+    return cache;
+  }
+
+  private long timeToTarget(ObjectCache<Object, Integer> cache, List<Integer> warmKeys, double target) throws Exception {
+    long start = System.nanoTime();
+    if (null != warmKeys) {
+      new CacheWarmer<>(cache, warmerConcurrency).warm(warmKeys);
+    }
+
+    Thread[] threads = new Thread[clients];
+    AtomicBoolean stop = new AtomicBoolean();
+    for (int t = 0; t < clients; t++) {
+      int offset = t * (TRACE / clients);
+      threads[t] = new Thread(() -> {
+        client.set(Boolean.TRUE);
+        for (int i = offset; !stop.get(); i = (i + 1) & (TRACE - 1)) {
+          try {
+            cache.get(trace[i]);
+          } catch (CreationException e) {
+            throw new IllegalStateException(e);
+          }
+          requests.incrementAndGet();
+        }
+      });
+      threads[t].setDaemon(true);
+      threads[t].start();
+    }
+
+    long reached = -1;
+    long lastRequests = requests.get();
+    long lastMisses = misses.get();
+    while (TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < GIVE_UP_MILLIS) {
+      Thread.sleep(SAMPLE_MILLIS);
+      long nowRequests = requests.get();
+      long nowMisses = misses.get();
+      long window = nowRequests - lastRequests;
+      double hitRatio = (window == 0) ? 0 : 1.0 - (double) (nowMisses - lastMisses) / window;
+      lastRequests = nowRequests;
+      lastMisses = nowMisses;
+      if ((window > 0) && (hitRatio >= target)) {
+        reached = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        break;
+      }
+    }
+
+    stop.set(true);
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    return reached;
+  }
+}
@@ -0,0 +1,85 @@
+/*
+ *  Copyright 2004 David C. Brown
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sixrockets.ashkay.benchmarks;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * ZipfGenerator draws integers in [0, size) following a Zipfian distribution,
+ * so a few keys are very popular and most are rarely asked for, the way real
+ * cache traffic looks. Ranks are scrambled so popular keys are not clustered.
+ *
+ * @author <a href="mailto:dave@sixrockets.com">Dave Brown</a>
+ */
+final class ZipfGenerator {
+
+  private final double[] cumulative;
+  private final int[] scramble;
+
+  /**
+   * Creates a generator over the given number of items.
+   *
+   * @param size     - the number of distinct items
+   * @param exponent - the skew, 0.99 being a common choice
+   */
+  ZipfGenerator(int size, double exponent) {
+    cumulative = new double[size];
+    double sum = 0;
+    for (int i = 0; i < size; i++) {
+      sum += 1.0 / Math.pow(i + 1, exponent);
+      cumulative[i] = sum;
+    }
+    for (int i = 0; i < size; i++) {
+      cumulative[i] /= sum;
+    }
+
+    scramble = new int[size];
+    for (int i = 0; i < size; i++) {
+      scramble[i] = i;
+    }
+    Random random = new Random(42);
+    for (int i = size - 1; i > 0; i--) {
+      int j = random.nextInt(i + 1);
+      int swap = scramble[i];
+      scramble[i] = scramble[j];
+      scramble[j] = swap;
+    }
+  }
+
+  /**
+   * Draws the next item.
+   */
+  int next(Random random) {
+    int rank = Arrays.binarySearch(cumulative, random.nextDouble());
+    if (rank < 0) {
+      rank = -rank - 1;
+    }
+    return scramble[Math.min(rank, scramble.length - 1)];
+  }
+
+  /**
+   * Draws a whole trace up front, so benchmarks do not measure the drawing.
+   */
+  int[] trace(int length, long seed) {
+    Random random = new Random(seed);
+    int[] trace = new int[length];
+    for (int i = 0; i < length; i++) {
+      trace[i] = next(random);
+    }
+    return trace;
+  }
+}
@@ -0,0 +1,102 @@
+/*
+ *  Copyright 2004 David C. Brown
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sixrockets.ashkay.benchmarks;
+
+import com.sixrockets.ashkay.CreationException;
+import com.sixrockets.ashkay.ObjectCache;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A mixed workload with Zipfian key popularity: mostly gets, with a share of
+ * puts, over a key space larger than the bounded strategy's capacity so that
+ * misses, loads and evictions happen alongside hits.
+ *
+ * @author <a href="mailto:dave@sixrockets.com">Dave Brown</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ZipfianBenchmark {
+
+  private static final int KEYS = 1 << 14;
+  private static final int TRACE = 1 << 20;
+  private static final Object VALUE = new Object();
+
+  @Param({ "full", "soft", "time", "lastModified", "stacked", "tinyLfu" })
+  public String strategy;
+
+  @Param({ "95" })
+  public int readPercent;
+
+  private ObjectCache<Object, Object> cache;
+  private String[] keys;
+  private ZipfGenerator zipf;
+
+  @Setup
+  public void setUp() throws Exception {
+    keys = Strategies.fileKeys(KEYS);
+    zipf = new ZipfGenerator(KEYS, 0.99);
+    cache = new ObjectCache<>((key, data) -> VALUE, Strategies.create(strategy, KEYS / 4));
+  }
+
+  /**
+   * Per thread pre-drawn trace of key indexes and operations.
+   */
+  @State(Scope.Thread)
+  public static class Trace {
+    int[] keys;
+    boolean[] reads;
+    int index;
+
+    @Setup
+    public void setUp(ZipfianBenchmark benchmark) {
+      long seed = Thread.currentThread().getId();
+      keys = benchmark.zipf.trace(TRACE, seed);
+      reads = new boolean[TRACE];
+      java.util.Random random = new java.util.Random(seed);
+      for (int i = 0; i < TRACE; i++) {
+        reads[i] = random.nextInt(100) < benchmark.readPercent;
+      }
+    }
+  }
+
+  @Benchmark
+  public Object mixed(Trace trace) throws CreationException {
+    int i = trace.index++ & (TRACE - 1);
+    String key = keys[trace.keys[i]];
+    if (trace.reads[i]) {
+      return cache.get(key);
+    }
+    cache.put(key, VALUE);
+    return VALUE;
+  }
+}
@@ -0,0 +1,136 @@
+/*
+ *  Copyright 2004 David C. Brown
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sixrockets.ashkay;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+
+/**
+ * AsyncObjectCache is an ObjectCache whose lookups return futures. A hit
+ * returns a completed future; a miss starts the AsyncObjectFactory and
+ * returns a future of its result, so callers never block a thread while an
+ * object loads. Only one load per key is in flight at a time and every
+ * caller asking for the key meanwhile gets a future of that same load.
+ * <br><br>
+ * Entries live in an ordinary ObjectCache, available from synchronous(), so
+ * strategies, put and evict all work as they do there. Loads started through
+ * either view are shared with the other; a synchronous get of a key being
+ * loaded asynchronously waits on that load.
+ *
+ * @author <a href="mailto:dave@sixrockets.com">Dave Brown</a>
+ */
+public class AsyncObjectCache<T, K> {
+
+  private final ObjectCache<T, K> cache;
+  private final AsyncObjectFactory<T, K> factory;
+  private final Executor executor;
+
+  /**
+   * Constructs an AsyncObjectCache from a factory, loading on the default
+   * executor from Loaders.
+   *
+   * @param aFactory - the factory for the cache to use
+   */
+  public AsyncObjectCache(AsyncObjectFactory<T, K> aFactory) {
+    this(aFactory, Loaders.defaultExecutor(), new ArrayList<>());
+  }
+
+  /**
+   * Constructs an AsyncObjectCache that runs a synchronous factory on the
+   * given executor.
+   *
+   * @param aFactory      - the factory for the cache to use
+   * @param anExecutor    - the executor to create objects on
+   * @param theStrategies - the caching strategies for this cache
+   */
+  public AsyncObjectCache(ObjectFactory<T, K> aFactory, Executor anExecutor, List<CachingStrategy> theStrategies) {
+    this(asAsync(aFactory), anExecutor, theStrategies);
+  }
+
+  /**
+   * Constructs an AsyncObjectCache from a factory, executor and strategies.
+   *
+   * @param aFactory      - the factory for the cache to use
+   * @param anExecutor    - the executor handed to the factory
+   * @param theStrategies - the caching strategies for this cache
+   */
+  public AsyncObjectCache(AsyncObjectFactory<T, K> aFactory, Executor anExecutor, List<CachingStrategy> theStrategies) {
+    factory = aFactory;
+    executor = anExecutor;
+    cache = new ObjectCache<>(this::createObjectFor, theStrategies);
+  }
+
+  /**
+   * Returns a future of the object for the key.
+   *
+   * @param key - the key to lookup
+   * @see #getAsync(java.lang.Object, java.lang.Object)
+   */
+  public CompletableFuture<T> getAsync(K key) {
+    return getAsync(key, null);
+  }
+
+  /**
+   * Returns a future of the object for the key. If the cache holds a valid
+   * entry the future is already complete; otherwise it completes when the
+   * load started by this or an earlier call finishes. A failed load completes
+   * the future exceptionally.
+   *
+   * @param key  - the key to lookup
+   * @param data - the data to aid construction
+   */
+  public CompletableFuture<T> getAsync(K key, Object data) {
+    return cache.getAsync(key, data, factory, executor);
+  }
+
+  /**
+   * Returns the ObjectCache holding this cache's entries, for synchronous
+   * access and for adding strategies.
+   *
+   * @return the synchronous view of the cache
+   */
+  public ObjectCache<T, K> synchronous() {
+    return cache;
+  }
+
+  private T createObjectFor(K key, Object data) throws CreationException {
+    try {
+      return factory.createObjectFor(key, data, executor).get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new CreationException(e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof CreationException) {
+        throw (CreationException) e.getCause();
+      }
+      throw new CreationException(e.getCause());
+    }
+  }
+
+  private static <T, K> AsyncObjectFactory<T, K> asAsync(ObjectFactory<T, K> aFactory) {
+    return (key, data, executor) -> CompletableFuture.supplyAsync(() -> {
+      try {
+        return aFactory.createObjectFor(key, data);
+      } catch (CreationException e) {
+        throw new CompletionException(e);
+      }
+    }, executor);
+  }
+}
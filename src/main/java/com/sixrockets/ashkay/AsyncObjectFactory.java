@@ -0,0 +1,41 @@
+/*
+ *  Copyright 2004 David C. Brown
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sixrockets.ashkay;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * AsyncObjectFactory is the factory for creating objects used by the
+ * AsyncObjectCache. Rather than returning the object, it returns a future
+ * that completes with the object, so no thread has to wait while it is
+ * created. A null result means there is no object for the key; a future
+ * completed exceptionally is a failed creation.
+ *
+ * @see com.sixrockets.ashkay.AsyncObjectCache
+ * @author <a href="mailto:dave@sixrockets.com">Dave Brown</a>
+ */
+public interface AsyncObjectFactory<T, K> {
+  /**
+   * Starts creating the object for a key.
+   *
+   * @param key      - the key of the object
+   * @param data     - the data to aid construction
+   * @param executor - the cache's executor, for any work the factory runs
+   * @return a future of the created object
+   */
+  CompletableFuture<T> createObjectFor(K key, Object data, Executor executor);
+}
@@ -0,0 +1,40 @@
+/*
+ *  Copyright 2004 David C. Brown
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sixrockets.ashkay;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * BulkObjectFactory is an ObjectFactory that can create many objects in one
+ * call, for backends where one round trip for a batch of keys is much cheaper
+ * than one per key. ObjectCache.getAll sends all of its misses to a bulk
+ * factory at once.
+ *
+ * @see com.sixrockets.ashkay.ObjectCache#getAll(Collection)
+ * @author <a href="mailto:dave@sixrockets.com">Dave Brown</a>
+ */
+public interface BulkObjectFactory<T, K> extends ObjectFactory<T, K> {
+  /**
+   * Creates the objects for the given keys. Keys with no object may be left
+   * out of the returned map.
+   *
+   * @param keys - the keys to create objects for
+   * @return the created objects by key, or null if there are none
+   * @throws CreationException on any error during creation
+   */
+  Map<K, T> createObjectsFor(Collection<K> keys) throws CreationException;
+}
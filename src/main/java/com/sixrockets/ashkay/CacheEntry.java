@@ -15,6 +15,8 @@
  */
 package com.sixrockets.ashkay;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -23,6 +25,12 @@ import java.util.Map;
  * contains the cached object and properties associated with the entry. These
  * properties may be used by the CachingStrategy to detirmine if an entry
  * passes validation.
+ * <br><br>
+ * Strategies that keep metadata on every entry should prefer typed slots,
+ * EntrySlot and LongSlot, over properties. Slot values live in small arrays
+ * allocated on first use and are read without locking, though written under
+ * the entry's monitor so a write cannot be lost while an array grows; the
+ * properties map is likewise only allocated when a property is first added.
  *
  * @author <a href="mailto:dave@sixrockets.com">Dave Brown</a>
  */
@@ -32,9 +40,15 @@ public class CacheEntry<T, K> {
   private T cachedObject;
 
   private K key;
-  private Map properties;
+  private long weight = 1;
+  private volatile Map<Object, Object> properties;
+  private volatile Object[] slots;
+  private volatile long[] longSlots;
   private ObjectCache<T, K> myCache;
 
+  private static final VarHandle SLOTS = MethodHandles.arrayElementVarHandle(Object[].class);
+  private static final VarHandle LONG_SLOTS = MethodHandles.arrayElementVarHandle(long[].class);
+
   /**
    * Empty constructor for subclasses only
    */
@@ -46,7 +60,7 @@ public class CacheEntry<T, K> {
    * @param entryObject - the object this entry represents
    */
   public CacheEntry(K entryKey, T entryObject) {
-    this(entryKey, entryObject, new HashMap(), null);
+    this(entryKey, entryObject, null, null);
   }
 
   /**
@@ -92,6 +106,25 @@ public class CacheEntry<T, K> {
     cachedObject = entryObject;
   }
 
+  /**
+   * Returns the weight of this entry, as given by the cache's Weigher. An
+   * entry that has not been weighed weighs 1.
+   *
+   * @return the entry's weight
+   */
+  public long getWeight() {
+    return weight;
+  }
+
+  /**
+   * Sets the weight of this entry.
+   *
+   * @param weight - the new weight
+   */
+  public void setWeight(long weight) {
+    this.weight = weight;
+  }
+
   /**
    * Adds a property to this entry.
    *
@@ -99,8 +132,9 @@ public class CacheEntry<T, K> {
    * @param value - the value to hold in the property
    */
   public void addProperty(Object key, Object value) {
-    synchronized (properties) {
-      properties.put(key, value);
+    Map<Object, Object> props = properties();
+    synchronized (props) {
+      props.put(key, value);
     }
   }
 
@@ -111,8 +145,12 @@ public class CacheEntry<T, K> {
    * @return the value of the property or null if not set
    */
   public Object getProperty(Object key) {
-    synchronized (properties) {
-      return properties.get(key);
+    Map<Object, Object> props = properties;
+    if (null == props) {
+      return null;
+    }
+    synchronized (props) {
+      return props.get(key);
     }
   }
 
@@ -121,9 +159,10 @@ public class CacheEntry<T, K> {
    *
    * @param propertiesToAdd - map of properties to add
    */
-  public void addProperties(Map propertiesToAdd) {
-    synchronized (properties) {
-      properties.putAll(propertiesToAdd);
+  public void addProperties(Map<?, ?> propertiesToAdd) {
+    Map<Object, Object> props = properties();
+    synchronized (props) {
+      props.putAll(propertiesToAdd);
     }
   }
 
@@ -133,7 +172,124 @@ public class CacheEntry<T, K> {
    * @return the properties
    */
   public Map getProperties() {
-    return properties;
+    return properties();
+  }
+
+  private Map<Object, Object> properties() {
+    Map<Object, Object> props = properties;
+    if (null == props) {
+      synchronized (this) {
+        props = properties;
+        if (null == props) {
+          props = new HashMap<>();
+          properties = props;
+        }
+      }
+    }
+    return props;
+  }
+
+  /**
+   * Reads a slot of this entry.
+   *
+   * @param slot - the slot to read
+   * @return the slot's value, or null if it was never set
+   */
+  public <V> V get(EntrySlot<V> slot) {
+    Object[] values = slots;
+    if ((null == values) || (slot.index >= values.length)) {
+      return null;
+    }
+    return (V) SLOTS.getAcquire(values, slot.index);
+  }
+
+  /**
+   * Sets a slot of this entry.
+   *
+   * @param slot  - the slot to set
+   * @param value - the new value
+   */
+  public <V> void set(EntrySlot<V> slot, V value) {
+    synchronized (this) {
+      Object[] values = slots;
+      if ((null == values) || (slot.index >= values.length)) {
+        values = growSlots(slot.index);
+      }
+      SLOTS.setRelease(values, slot.index, value);
+    }
+  }
+
+  /**
+   * Reads a long slot of this entry.
+   *
+   * @param slot - the slot to read
+   * @return the slot's value, or its default if it was never set
+   */
+  public long get(LongSlot slot) {
+    long[] values = longSlots;
+    if ((null == values) || (slot.index >= values.length)) {
+      return slot.defaultValue;
+    }
+    return (long) LONG_SLOTS.getAcquire(values, slot.index);
+  }
+
+  /**
+   * Sets a long slot of this entry.
+   *
+   * @param slot  - the slot to set
+   * @param value - the new value
+   */
+  public void set(LongSlot slot, long value) {
+    synchronized (this) {
+      long[] values = longSlots;
+      if ((null == values) || (slot.index >= values.length)) {
+        values = growLongSlots();
+      }
+      LONG_SLOTS.setRelease(values, slot.index, value);
+    }
+  }
+
+  /**
+   * Grows the slot array to hold the index. Writes to slots are made holding
+   * the entry's monitor, as this is, so none can land in the old array after
+   * it has been copied.
+   */
+  private Object[] growSlots(int index) {
+    Object[] values = slots;
+    if ((null == values) || (index >= values.length)) {
+      Object[] grown = new Object[Math.max(EntrySlot.count(), index + 1)];
+      if (null != values) {
+        System.arraycopy(values, 0, grown, 0, values.length);
+      }
+      values = grown;
+      slots = values;
+    }
+    return values;
+  }
+
+  private long[] growLongSlots() {
+    long[] values = longSlots;
+    long[] grown = LongSlot.newValues();
+    if (null != values) {
+      if (values.length >= grown.length) {
+        return values;
+      }
+      System.arraycopy(values, 0, grown, 0, values.length);
+    }
+    longSlots = grown;
+    return grown;
+  }
+
+  /**
+   * Checks if this entry is, or stands in for, another entry. An entry
+   * returned from a strategy's prepare that wraps the original should answer
+   * true for the entry it wraps.
+   *
+   * @param other - the entry to compare
+   * @return true if the entries are the same entry
+   */
+  public boolean isEntry(CacheEntry<?, ?> other) {
+    return this == other;
   }
 
   public ObjectCache<T, K> getCache() {
@@ -0,0 +1,139 @@
+/*
+ *  Copyright 2004 David C. Brown
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sixrockets.ashkay;
+
+/**
+ * CacheEvent tells a CacheEventListener that an entry came into the cache,
+ * was replaced, or left it. The event carries the key, the object concerned
+ * (null for an entry whose object was collected) and, for entries leaving the
+ * cache, why they left. A created or updated entry also says whether it came
+ * from the cache's factory or from a put.
+ *
+ * @author <a href="mailto:dave@sixrockets.com">Dave Brown</a>
+ * @see CacheEventListener
+ */
+public final class CacheEvent<T, K> {
+
+  /**
+   * What happened to the entry.
+   */
+  public enum Type {
+    /**
+     * An object was loaded or put for a key not in the cache.
+     */
+    CREATED,
+
+    /**
+     * An object was loaded or put over an entry already in the cache.
+     */
+    UPDATED,
+
+    /**
+     * The entry was evicted explicitly or to keep the cache within bounds.
+     */
+    EVICTED,
+
+    /**
+     * The entry expired.
+     */
+    EXPIRED,
+
+    /**
+     * The garbage collector cleared the entry's object.
+     */
+    COLLECTED
+  }
+
+  private final ObjectCache<T, K> cache;
+  private final Type type;
+  private final K key;
+  private final T value;
+  private final EvictionCause cause;
+  private final boolean loaded;
+
+  CacheEvent(ObjectCache<T, K> cache, Type type, K key, T value, EvictionCause cause, boolean loaded) {
+    this.cache = cache;
+    this.type = type;
+    this.key = key;
+    this.value = value;
+    this.cause = cause;
+    this.loaded = loaded;
+  }
+
+  /**
+   * Makes the event for an entry that has left the cache, because a load
+   * found no object for it if loaded is true.
+   */
+  static <T, K> CacheEvent<T, K> removal(ObjectCache<T, K> cache, CacheEntry<T, K> entry, EvictionCause cause, boolean loaded) {
+    Type type;
+    switch (cause) {
+      case EXPIRED:
+        type = Type.EXPIRED;
+        break;
+      case COLLECTED:
+        type = Type.COLLECTED;
+        break;
+      default:
+        type = Type.EVICTED;
+        break;
+    }
+    // getEntryKey returns Object for older callers, but the key is a K
+    @SuppressWarnings("unchecked")
+    K key = (K) entry.getEntryKey();
+    return new CacheEvent<>(cache, type, key, entry.getEntryObject(), cause, loaded);
+  }
+
+  public ObjectCache<T, K> getCache() {
+    return cache;
+  }
+
+  public Type getType() {
+    return type;
+  }
+
+  public K getKey() {
+    return key;
+  }
+
+  /**
+   * Returns the new object of a created or updated entry, or the object of an
+   * entry that left the cache, if it has not been collected.
+   */
+  public T getValue() {
+    return value;
+  }
+
+  /**
+   * Returns why the entry left the cache, or null if it did not.
+   */
+  public EvictionCause getCause() {
+    return cause;
+  }
+
+  /**
+   * Returns true if the entry was created or updated by a load, left the
+   * cache because a load found no object for it, or was moved between caches
+   * with ObjectCache.moveOut and moveIn, and false if it was put or left the
+   * cache any other way.
+   */
+  public boolean isLoad() {
+    return loaded;
+  }
+
+  public String toString() {
+    return type + " " + key;
+  }
+}
@@ -0,0 +1,51 @@
+/*
+ *  Copyright 2004 David C. Brown
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sixrockets.ashkay;
+
+import java.util.List;
+
+/**
+ * A CacheEventListener is told about entries coming into and leaving an
+ * ObjectCache. Most listeners are asynchronous: the cache puts their events
+ * on a bounded ring buffer and a dispatcher thread hands them over in
+ * batches, each listener seeing the events in the order they were made. A
+ * synchronous listener is instead called by the thread that changed the
+ * cache, before that thread carries on, so it should be quick.
+ * <br><br>
+ * A listener that throws does not stop others from being told, nor the cache
+ * from working.
+ *
+ * @author <a href="mailto:dave@sixrockets.com">Dave Brown</a>
+ * @see ObjectCache#addListener(CacheEventListener)
+ */
+public interface CacheEventListener<T, K> {
+
+  /**
+   * Handles one event.
+   */
+  void onEvent(CacheEvent<T, K> event);
+
+  /**
+   * Handles a batch of events from the dispatcher, in order. By default each
+   * is passed to onEvent; override to handle a batch at once. The list is
+   * only valid for the duration of the call.
+   */
+  default void onEvents(List<CacheEvent<T, K>> events) {
+    for (CacheEvent<T, K> event : events) {
+      onEvent(event);
+    }
+  }
+}
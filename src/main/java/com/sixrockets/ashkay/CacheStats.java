@@ -0,0 +1,174 @@
+/*
+ *  Copyright 2004 David C. Brown
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sixrockets.ashkay;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * CacheStats is a snapshot of what an ObjectCache has recorded since it was
+ * asked to record statistics. Counts only grow, so the difference between two
+ * snapshots covers the time between them.
+ * <br><br>
+ * A hit is a get served from the cache, including one that starts a
+ * background refresh. A miss is a get that had to load, or wait on another
+ * thread's load. Loads are calls to the factory, a bulk load counting once;
+ * their durations, the time misses took in all and the time spent waiting on
+ * loads already in flight are kept as LatencyHistograms, though misses of
+ * getAll are counted without being timed. Evictions are counted by cause,
+ * and those a strategy makes through ObjectCache.evictEntry are also counted
+ * against that strategy. Invalidations are counted against the strategy that
+ * failed validation.
+ *
+ * @author <a href="mailto:dave@sixrockets.com">Dave Brown</a>
+ * @see ObjectCache#setRecordStats(boolean)
+ */
+public final class CacheStats {
+
+  static final CacheStats EMPTY = new CacheStats(0, 0, 0, 0, new long[EvictionCause.values().length],
+      Collections.emptyMap(), Collections.emptyMap(), LatencyHistogram.EMPTY, LatencyHistogram.EMPTY, LatencyHistogram.EMPTY);
+
+  private final long hits;
+  private final long misses;
+  private final long loadSuccesses;
+  private final long loadFailures;
+  private final long[] evictions;
+  private final Map<CachingStrategy, Long> evictionsBy;
+  private final Map<CachingStrategy, Long> invalidations;
+  private final LatencyHistogram missLatency;
+  private final LatencyHistogram loadLatency;
+  private final LatencyHistogram waitLatency;
+
+  CacheStats(long hits, long misses, long loadSuccesses, long loadFailures, long[] evictions,
+      Map<CachingStrategy, Long> evictionsBy, Map<CachingStrategy, Long> invalidations, LatencyHistogram missLatency, LatencyHistogram loadLatency,
+      LatencyHistogram waitLatency) {
+    this.hits = hits;
+    this.misses = misses;
+    this.loadSuccesses = loadSuccesses;
+    this.loadFailures = loadFailures;
+    this.evictions = evictions;
+    this.evictionsBy = Collections.unmodifiableMap(evictionsBy);
+    this.invalidations = Collections.unmodifiableMap(invalidations);
+    this.missLatency = missLatency;
+    this.loadLatency = loadLatency;
+    this.waitLatency = waitLatency;
+  }
+
+  public long hitCount() {
+    return hits;
+  }
+
+  public long missCount() {
+    return misses;
+  }
+
+  public long requestCount() {
+    return hits + misses;
+  }
+
+  /**
+   * Returns the share of requests that were hits, or 1 if there were none.
+   */
+  public double hitRate() {
+    long requests = requestCount();
+    return (0 == requests) ? 1 : (double) hits / requests;
+  }
+
+  public long loadSuccessCount() {
+    return loadSuccesses;
+  }
+
+  /**
+   * Returns the number of loads where the factory threw.
+   */
+  public long loadFailureCount() {
+    return loadFailures;
+  }
+
+  /**
+   * Returns the number of entries that left the cache for the given cause.
+   */
+  public long evictionCount(EvictionCause cause) {
+    return evictions[cause.ordinal()];
+  }
+
+  /**
+   * Returns the number of entries that left the cache for any cause.
+   */
+  public long evictionCount() {
+    long total = 0;
+    for (long count : evictions) {
+      total += count;
+    }
+    return total;
+  }
+
+  /**
+   * Returns the number of entries the strategy has evicted.
+   */
+  public long evictionCount(CachingStrategy strategy) {
+    Long count = evictionsBy.get(strategy);
+    return (null == count) ? 0 : count;
+  }
+
+  /**
+   * Returns the eviction counts of each strategy that has evicted an entry.
+   */
+  public Map<CachingStrategy, Long> evictions() {
+    return evictionsBy;
+  }
+
+  /**
+   * Returns the number of entries the strategy has failed validation of.
+   */
+  public long invalidationCount(CachingStrategy strategy) {
+    Long count = invalidations.get(strategy);
+    return (null == count) ? 0 : count;
+  }
+
+  /**
+   * Returns the invalidation counts of each strategy that has failed one.
+   */
+  public Map<CachingStrategy, Long> invalidations() {
+    return invalidations;
+  }
+
+  /**
+   * Returns how long misses took, from the lookup to having the object.
+   */
+  public LatencyHistogram missLatency() {
+    return missLatency;
+  }
+
+  /**
+   * Returns how long the factory took, successful or not.
+   */
+  public LatencyHistogram loadLatency() {
+    return loadLatency;
+  }
+
+  /**
+   * Returns how long threads waited on loads of the same key by other threads.
+   */
+  public LatencyHistogram waitLatency() {
+    return waitLatency;
+  }
+
+  public String toString() {
+    return "CacheStats[hits=" + hits + ", misses=" + misses + ", loadSuccesses=" + loadSuccesses
+        + ", loadFailures=" + loadFailures + ", evictions=" + evictionCount() + ", waits=" + waitLatency.count() + "]";
+  }
+}
@@ -0,0 +1,101 @@
+/*
+ *  Copyright 2004 David C. Brown
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sixrockets.ashkay;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * CacheWarmer loads a list of keys into an ObjectCache through its factory,
+ * with a bounded number of loads in flight so warming does not swamp the
+ * backend. Keys are started in list order, so a list of the hottest keys
+ * first, such as a KeySnapshot, makes the cache useful soonest. Ordinary
+ * traffic may use the cache while it warms; a key it asks for that is being
+ * warmed is loaded once and shared.
+ *
+ * @author <a href="mailto:dave@sixrockets.com">Dave Brown</a>
+ * @see KeySnapshot
+ */
+public class CacheWarmer<T, K> {
+
+  private final ObjectCache<T, K> cache;
+  private final int concurrency;
+  private final Executor executor;
+
+  /**
+   * Creates a warmer that loads on the default loader executor.
+   *
+   * @param cache       - the cache to warm
+   * @param concurrency - the most keys to load at once
+   */
+  public CacheWarmer(ObjectCache<T, K> cache, int concurrency) {
+    this(cache, concurrency, Loaders.defaultExecutor());
+  }
+
+  /**
+   * Creates a warmer.
+   *
+   * @param cache       - the cache to warm
+   * @param concurrency - the most keys to load at once
+   * @param executor    - the executor to load on
+   */
+  public CacheWarmer(ObjectCache<T, K> cache, int concurrency, Executor executor) {
+    if (concurrency < 1) {
+      throw new IllegalArgumentException("concurrency must be positive");
+    }
+    this.cache = cache;
+    this.concurrency = concurrency;
+    this.executor = executor;
+  }
+
+  /**
+   * Starts loading the keys. Keys already cached are not loaded again, and
+   * keys whose factory call fails are skipped.
+   *
+   * @param keys - the keys to load, most important first
+   * @return a future completed with the number of keys that loaded
+   */
+  public CompletableFuture<Integer> warm(List<K> keys) {
+    CompletableFuture<Integer> done = new CompletableFuture<>();
+    AtomicInteger next = new AtomicInteger();
+    AtomicInteger loaded = new AtomicInteger();
+    int workers = Math.max(1, Math.min(concurrency, keys.size()));
+    AtomicInteger running = new AtomicInteger(workers);
+
+    for (int i = 0; i < workers; i++) {
+      executor.execute(() -> {
+        try {
+          for (int index = next.getAndIncrement(); index < keys.size(); index = next.getAndIncrement()) {
+            try {
+              if (null != cache.get(keys.get(index))) {
+                loaded.incrementAndGet();
+              }
+            } catch (CreationException | RuntimeException e) {
+              // skip keys that fail to load
+            }
+          }
+        } finally {
+          if (0 == running.decrementAndGet()) {
+            done.complete(loaded.get());
+          }
+        }
+      });
+    }
+    return done;
+  }
+}
@@ -25,6 +25,15 @@ package com.sixrockets.ashkay;
  * When the object is looked up in the cache, the CachingStrategy is asked to
  * validate this object, if the validation fails for any strategy, the object is
  * reloaded.
+ * <br><br>
+ * A strategy may also report that a valid entry needs refreshing. The entry is
+ * still served, but the cache reloads it, in the background if it has been
+ * given a refresh executor.
+ * <br><br>
+ * When an entry leaves the cache, other than by being replaced with a newly
+ * loaded entry for the same key, each strategy is told so it may let go of
+ * anything it keeps about the entry. Explicit evictions and clearing the
+ * cache are also reported by key, even for keys the cache does not hold.
  *
  * @author <a href="mailto:dave@sixrockets.com">Dave Brown</a>
  */
@@ -41,4 +50,32 @@ public interface CachingStrategy {
    * Validates this cache entry for this caching strategy.
    */
   public abstract boolean validate(CacheEntry<?, ?> entry);
+
+  /**
+   * Checks if an entry that passed validation should be reloaded ahead of
+   * time. Only called for entries every strategy has validated.
+   */
+  public default boolean needsRefresh(CacheEntry<?, ?> entry) {
+    return false;
+  }
+
+  /**
+   * Notifies this strategy that an entry has been evicted from the cache. The
+   * entry passed is the one the cache held, which may wrap the entry this
+   * strategy saw in prepare; use CacheEntry.isEntry to compare them.
+   */
+  public default void evicted(CacheEntry<?, ?> entry, EvictionCause cause) {}
+
+  /**
+   * Notifies this strategy that a key has been explicitly evicted, whether or
+   * not the cache held an entry for it. A strategy that keeps objects outside
+   * the cache, as a tier does, should drop what it has for the key.
+   */
+  public default void invalidated(Object key) {}
+
+  /**
+   * Notifies this strategy that the cache has been cleared. Entries on the
+   * heap are each reported to evicted as well.
+   */
+  public default void cleared() {}
 }
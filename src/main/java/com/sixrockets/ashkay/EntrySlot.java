@@ -0,0 +1,66 @@
+/*
+ *  Copyright 2004 David C. Brown
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sixrockets.ashkay;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * EntrySlot is a typed piece of per-entry metadata. A strategy registers its
+ * slots once, usually in a static field, and then reads and writes them on
+ * each CacheEntry without the hashing, boxing and locking of entry
+ * properties. Each entry keeps its slot values in a small array indexed by
+ * the slot, allocated the first time a slot is set.
+ * <br><br>
+ * Slots are never unregistered, so register them once per class, not per
+ * strategy instance.
+ *
+ * @author <a href="mailto:dave@sixrockets.com">Dave Brown</a>
+ * @see LongSlot
+ * @see CacheEntry#get(EntrySlot)
+ */
+public final class EntrySlot<V> {
+
+  private static final AtomicInteger COUNT = new AtomicInteger();
+
+  private final String name;
+  final int index;
+
+  private EntrySlot(String name, int index) {
+    this.name = name;
+    this.index = index;
+  }
+
+  /**
+   * Registers a new slot.
+   *
+   * @param name - a descriptive name, used only by toString
+   * @return the slot
+   */
+  public static <V> EntrySlot<V> register(String name) {
+    return new EntrySlot<>(name, COUNT.getAndIncrement());
+  }
+
+  /**
+   * Returns the number of slots registered so far.
+   */
+  static int count() {
+    return COUNT.get();
+  }
+
+  public String toString() {
+    return name;
+  }
+}
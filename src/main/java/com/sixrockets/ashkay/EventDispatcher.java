@@ -0,0 +1,188 @@
+/*
+ *  Copyright 2004 David C. Brown
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sixrockets.ashkay;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * EventDispatcher carries cache events from the threads that make them to
+ * asynchronous listeners. Events go into a bounded ring buffer that any
+ * number of threads add to without locking: a producer claims a slot by
+ * moving the tail forward with a compare and set, writes the event, then
+ * publishes it through the slot's sequence number, so a slot is never read
+ * before it is written nor written before it is read. One daemon thread takes
+ * the events off in order, in batches of up to 256, and hands each batch to
+ * every listener in turn, so each listener sees events in the order the
+ * buffer took them. The thread parks when the buffer is empty and a producer
+ * wakes it.
+ * <br><br>
+ * A full buffer either makes the producer wait for room or drops the event,
+ * as its OverflowPolicy says. The dispatcher thread itself never waits on its
+ * own buffer; an event a listener causes while the buffer is full is dropped.
+ *
+ * @author <a href="mailto:dave@sixrockets.com">Dave Brown</a>
+ */
+final class EventDispatcher<T, K> {
+
+  private static final int BATCH = 256;
+
+  private final Object[] buffer;
+  private final AtomicLongArray sequences;
+  private final int mask;
+  private final AtomicLong tail = new AtomicLong();
+  private long head;
+
+  private final OverflowPolicy policy;
+  private final LongAdder dropped = new LongAdder();
+  private final Thread thread;
+  private volatile List<CacheEventListener<T, K>> listeners = List.of();
+  private volatile boolean waiting;
+  private volatile boolean closed;
+
+  /**
+   * Creates a dispatcher and starts its thread.
+   *
+   * @param capacity - the most events waiting, rounded up to a power of two
+   * @param policy   - what to do with events when the buffer is full
+   */
+  EventDispatcher(int capacity, OverflowPolicy policy) {
+    int size = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1);
+    buffer = new Object[size];
+    sequences = new AtomicLongArray(size);
+    for (int i = 0; i < size; i++) {
+      sequences.set(i, i);
+    }
+    mask = size - 1;
+    this.policy = policy;
+    thread = new Thread(this::run, "ashkay-event-dispatcher");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  void setListeners(List<CacheEventListener<T, K>> listeners) {
+    this.listeners = List.copyOf(listeners);
+  }
+
+  /**
+   * Adds an event to the buffer, waiting for room or dropping it if full.
+   */
+  void publish(CacheEvent<T, K> event) {
+    while (!offer(event)) {
+      if ((OverflowPolicy.DROP == policy) || closed || (Thread.currentThread() == thread)) {
+        dropped.increment();
+        return;
+      }
+      wake();
+      LockSupport.parkNanos(10000);
+    }
+    if (waiting) {
+      wake();
+    }
+  }
+
+  /**
+   * Returns the number of events dropped because the buffer was full.
+   */
+  long dropped() {
+    return dropped.sum();
+  }
+
+  /**
+   * Stops the thread once the events already buffered are delivered.
+   */
+  void close() {
+    closed = true;
+    wake();
+  }
+
+  private boolean offer(Object event) {
+    long position = tail.get();
+    while (true) {
+      int index = (int) position & mask;
+      long difference = sequences.get(index) - position;
+      if (0 == difference) {
+        if (tail.compareAndSet(position, position + 1)) {
+          buffer[index] = event;
+          sequences.set(index, position + 1);
+          return true;
+        }
+        position = tail.get();
+      } else if (difference < 0) {
+        return false;
+      } else {
+        position = tail.get();
+      }
+    }
+  }
+
+  private CacheEvent<T, K> poll() {
+    int index = (int) head & mask;
+    if (sequences.get(index) != head + 1) {
+      return null;
+    }
+    // only events published here, of this dispatcher's types, are buffered
+    @SuppressWarnings("unchecked")
+    CacheEvent<T, K> event = (CacheEvent<T, K>) buffer[index];
+    buffer[index] = null;
+    sequences.set(index, head + buffer.length);
+    head++;
+    return event;
+  }
+
+  private void wake() {
+    LockSupport.unpark(thread);
+  }
+
+  private void run() {
+    List<CacheEvent<T, K>> batch = new ArrayList<>(BATCH);
+    List<CacheEvent<T, K>> view = Collections.unmodifiableList(batch);
+    while (true) {
+      CacheEvent<T, K> event = poll();
+      while ((null != event) && (batch.size() < BATCH)) {
+        batch.add(event);
+        event = (batch.size() < BATCH) ? poll() : null;
+      }
+
+      if (batch.isEmpty()) {
+        if (closed) {
+          return;
+        }
+        waiting = true;
+        // a producer may have published before seeing the flag
+        if (sequences.get((int) head & mask) != head + 1) {
+          LockSupport.park(this);
+        }
+        waiting = false;
+        continue;
+      }
+
+      for (CacheEventListener<T, K> listener : listeners) {
+        try {
+          listener.onEvents(view);
+        } catch (RuntimeException e) {
+          // one listener failing must not keep events from the others
+        }
+      }
+      batch.clear();
+    }
+  }
+}
@@ -0,0 +1,60 @@
+/*
+ *  Copyright 2004 David C. Brown
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sixrockets.ashkay;
+
+import java.util.List;
+
+/**
+ * EventListeners is an immutable snapshot of a cache's listeners, rebuilt
+ * whenever one is added or removed, so making an event reads a single field
+ * and a cache with no listeners does no more than that.
+ *
+ * @author <a href="mailto:dave@sixrockets.com">Dave Brown</a>
+ */
+final class EventListeners<T, K> {
+
+  private final List<CacheEventListener<T, K>> synchronous;
+  private final EventDispatcher<T, K> dispatcher;
+
+  EventListeners(List<CacheEventListener<T, K>> synchronous, EventDispatcher<T, K> dispatcher) {
+    this.synchronous = List.copyOf(synchronous);
+    this.dispatcher = dispatcher;
+  }
+
+  boolean isEmpty() {
+    return synchronous.isEmpty() && (null == dispatcher);
+  }
+
+  EventDispatcher<T, K> dispatcher() {
+    return dispatcher;
+  }
+
+  /**
+   * Tells the synchronous listeners, then queues the event for the rest.
+   */
+  void fire(CacheEvent<T, K> event) {
+    for (int i = 0; i < synchronous.size(); i++) {
+      try {
+        synchronous.get(i).onEvent(event);
+      } catch (RuntimeException e) {
+        // one listener failing must not keep the event from the others
+      }
+    }
+    if (null != dispatcher) {
+      dispatcher.publish(event);
+    }
+  }
+}
@@ -0,0 +1,71 @@
+/*
+ *  Copyright 2004 David C. Brown
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sixrockets.ashkay;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * EvictionBatchEvent is the Flight Recorder event for a strategy evicting a
+ * batch of entries at once, such as a bound being enforced or expired entries
+ * being swept. A strategy begins the event before it evicts and ends it with
+ * the count; empty batches are not recorded.
+ * <br><br>
+ * Like any event, it costs next to nothing while no recording has it enabled.
+ *
+ * @author <a href="mailto:dave@sixrockets.com">Dave Brown</a>
+ */
+@Name("com.sixrockets.ashkay.EvictionBatch")
+@Label("Cache Eviction Batch")
+@Category("ashkay")
+@Description("Entries evicted together by a caching strategy")
+@StackTrace(false)
+public final class EvictionBatchEvent extends jdk.jfr.Event {
+
+  @Label("Cache")
+  String cache;
+
+  @Label("Strategy")
+  String strategy;
+
+  @Label("Cause")
+  String cause;
+
+  @Label("Entries")
+  int entries;
+
+  /**
+   * Ends the event and commits it if the recording wants it.
+   *
+   * @param owner    - the cache evicted from, or null if there were several
+   * @param evictor  - the class of the strategy that evicted
+   * @param why      - why the entries were evicted
+   * @param count    - the number of entries evicted
+   */
+  public void end(ObjectCache<?, ?> owner, Class<? extends CachingStrategy> evictor, EvictionCause why, int count) {
+    end();
+    if ((count > 0) && shouldCommit()) {
+      cache = (null == owner) ? null : owner.getName();
+      strategy = evictor.getName();
+      cause = why.name();
+      entries = count;
+      commit();
+    }
+  }
+}
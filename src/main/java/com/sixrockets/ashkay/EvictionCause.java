@@ -0,0 +1,45 @@
+/*
+ *  Copyright 2004 David C. Brown
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sixrockets.ashkay;
+
+/**
+ * EvictionCause tells a CachingStrategy why an entry left the cache.
+ *
+ * @author <a href="mailto:dave@sixrockets.com">Dave Brown</a>
+ * @see CachingStrategy#evicted(CacheEntry, EvictionCause)
+ */
+public enum EvictionCause {
+  /**
+   * The entry was removed by a call to evict or clear on the cache, or its
+   * reload produced no object.
+   */
+  EXPLICIT,
+
+  /**
+   * The entry was removed by a strategy to keep the cache within its bounds.
+   */
+  SIZE,
+
+  /**
+   * The entry was removed by a strategy because it had expired.
+   */
+  EXPIRED,
+
+  /**
+   * The entry was removed because the garbage collector cleared its object.
+   */
+  COLLECTED
+}
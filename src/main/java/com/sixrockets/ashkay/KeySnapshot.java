@@ -0,0 +1,152 @@
+/*
+ *  Copyright 2004 David C. Brown
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sixrockets.ashkay;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * KeySnapshot saves a list of keys, typically a cache's hottest keys in order
+ * of how often they are used, to a file so that a CacheWarmer can load them
+ * again when the application restarts. Only the keys are saved, one length
+ * prefixed serialized key after another, so snapshots stay small.
+ * <pre>
+ *   KeySnapshot&lt;String&gt; snapshot = new KeySnapshot&lt;&gt;(file, new JavaSerializer&lt;&gt;());
+ *   new CacheWarmer&lt;&gt;(cache, 16).warm(snapshot.read());
+ *   snapshot.schedule(scheduler, () -&gt; tinyLfu.hottestKeys(10000), 5, TimeUnit.MINUTES);
+ * </pre>
+ * A snapshot is written to a temporary file and moved into place, so readers
+ * never see half of one.
+ *
+ * @author <a href="mailto:dave@sixrockets.com">Dave Brown</a>
+ * @see CacheWarmer
+ */
+public class KeySnapshot<K> {
+
+  private static final int MAGIC = 0x61736b31;
+
+  private final File file;
+  private final Serializer<K> keySerializer;
+
+  /**
+   * Creates a snapshot kept in the given file.
+   *
+   * @param file          - the snapshot file
+   * @param keySerializer - the serializer for keys
+   */
+  public KeySnapshot(File file, Serializer<K> keySerializer) {
+    this.file = file;
+    this.keySerializer = keySerializer;
+  }
+
+  /**
+   * Replaces the snapshot with the given keys.
+   *
+   * @param keys - the keys, hottest first
+   */
+  public void write(List<K> keys) throws IOException {
+    File temp = new File(file.getPath() + ".tmp");
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+      out.writeInt(MAGIC);
+      out.writeInt(keys.size());
+      for (K key : keys) {
+        byte[] bytes = keySerializer.serialize(key);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+      }
+    }
+    Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Reads the keys in the snapshot, in the order they were written. A missing
+   * or unreadable snapshot has no keys; keys that fail to deserialize are
+   * skipped, and a truncated or corrupt snapshot gives the keys before the
+   * damage.
+   *
+   * @return the keys
+   */
+  public List<K> read() {
+    if (!file.isFile()) {
+      return Collections.emptyList();
+    }
+
+    List<K> keys = new ArrayList<>();
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      if (in.readInt() != MAGIC) {
+        return keys;
+      }
+      int count = in.readInt();
+      long remaining = file.length() - 8;
+      for (int i = 0; i < count; i++) {
+        int length = in.readInt();
+        remaining -= 4;
+        // a corrupt length ends the snapshot rather than being allocated
+        if ((length < 0) || (length > remaining)) {
+          break;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        remaining -= length;
+        try {
+          keys.add(keySerializer.deserialize(ByteBuffer.wrap(bytes)));
+        } catch (IOException e) {
+          // skip keys that no longer deserialize
+        }
+      }
+    } catch (IOException e) {
+      // keep the keys read so far
+    }
+    return keys;
+  }
+
+  /**
+   * Writes a snapshot of the supplied keys periodically, until the scheduler
+   * shuts down or the returned future is cancelled. A snapshot that fails to
+   * write is skipped.
+   *
+   * @param scheduler - the scheduler to write on
+   * @param keys      - supplies the keys to save, such as TinyLfuCachingStrategy.hottestKeys
+   * @param period    - the time between snapshots
+   * @param unit      - the unit of the period
+   * @return the scheduled task
+   */
+  public ScheduledFuture<?> schedule(ScheduledExecutorService scheduler, Supplier<List<K>> keys, long period, TimeUnit unit) {
+    return scheduler.scheduleWithFixedDelay(() -> {
+      try {
+        write(keys.get());
+      } catch (IOException e) {
+        // try again next time
+      }
+    }, period, period, unit);
+  }
+}
@@ -0,0 +1,123 @@
+/*
+ *  Copyright 2004 David C. Brown
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sixrockets.ashkay;
+
+/**
+ * LatencyHistogram is a snapshot of recorded durations, in nanoseconds, kept
+ * in log-linear buckets: each power of two is split into eight buckets, so a
+ * percentile is accurate to within an eighth of its value whatever the range.
+ * Durations of more than about five hours all fall in the last bucket.
+ *
+ * @author <a href="mailto:dave@sixrockets.com">Dave Brown</a>
+ * @see CacheStats
+ */
+public final class LatencyHistogram {
+
+  static final int SUB_BITS = 3;
+  static final int SUB_BUCKETS = 1 << SUB_BITS;
+  static final int BUCKETS = (44 - SUB_BITS + 2) * SUB_BUCKETS;
+
+  static final LatencyHistogram EMPTY = new LatencyHistogram(new long[BUCKETS], 0, 0);
+
+  private final long[] counts;
+  private final long count;
+  private final long total;
+  private final long max;
+
+  LatencyHistogram(long[] counts, long total, long max) {
+    this.counts = counts;
+    long sum = 0;
+    for (long bucket : counts) {
+      sum += bucket;
+    }
+    this.count = sum;
+    this.total = total;
+    this.max = max;
+  }
+
+  /**
+   * Finds the bucket a duration is counted in.
+   */
+  static int bucket(long nanos) {
+    if (nanos < SUB_BUCKETS) {
+      return (int) Math.max(0, nanos);
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+    int sub = (int) (nanos >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+    return Math.min(BUCKETS - 1, (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub);
+  }
+
+  /**
+   * The largest duration counted in a bucket.
+   */
+  static long highest(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    int shift = bucket / SUB_BUCKETS - 1;
+    long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+    return lowest + (1L << shift) - 1;
+  }
+
+  /**
+   * Returns the number of durations recorded.
+   */
+  public long count() {
+    return count;
+  }
+
+  /**
+   * Returns the sum of the durations recorded, in nanoseconds.
+   */
+  public long total() {
+    return total;
+  }
+
+  /**
+   * Returns the mean duration in nanoseconds, or 0 if none were recorded.
+   */
+  public double mean() {
+    return (0 == count) ? 0 : (double) total / count;
+  }
+
+  /**
+   * Returns the longest duration recorded, in nanoseconds.
+   */
+  public long max() {
+    return max;
+  }
+
+  /**
+   * Returns the duration, in nanoseconds, that the given share of the
+   * recorded durations are no longer than, or 0 if none were recorded.
+   *
+   * @param percentile - between 0 and 100
+   */
+  public long percentile(double percentile) {
+    if (0 == count) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(count * Math.min(100, percentile) / 100));
+    long seen = 0;
+    for (int i = 0; i < counts.length; i++) {
+      seen += counts[i];
+      if (seen >= rank) {
+        return Math.min(highest(i), max);
+      }
+    }
+    return max;
+  }
+}
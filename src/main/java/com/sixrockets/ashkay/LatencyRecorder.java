@@ -0,0 +1,60 @@
+/*
+ *  Copyright 2004 David C. Brown
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sixrockets.ashkay;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * LatencyRecorder counts durations into LatencyHistogram buckets from many
+ * threads at once. The buckets are striped: each thread counts into one of a
+ * few copies of the bucket array, picked by its thread id, so threads on
+ * different cores rarely write the same cache line. A snapshot adds the
+ * stripes together.
+ *
+ * @author <a href="mailto:dave@sixrockets.com">Dave Brown</a>
+ */
+final class LatencyRecorder {
+
+  // twice the processors rounded up to a power of two, at most sixteen
+  private static final int STRIPES = Math.min(16, Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1) * 2);
+  // spaces the stripes a cache line apart
+  private static final int PAD = 8;
+  private static final int STRIDE = LatencyHistogram.BUCKETS + PAD;
+
+  private final AtomicLongArray counts = new AtomicLongArray(STRIPES * STRIDE);
+  private final LongAdder total = new LongAdder();
+  private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+  void record(long nanos) {
+    int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+    counts.getAndIncrement(stripe * STRIDE + LatencyHistogram.bucket(nanos));
+    total.add(nanos);
+    max.accumulate(nanos);
+  }
+
+  LatencyHistogram snapshot() {
+    long[] buckets = new long[LatencyHistogram.BUCKETS];
+    for (int stripe = 0; stripe < STRIPES; stripe++) {
+      int base = stripe * STRIDE;
+      for (int i = 0; i < buckets.length; i++) {
+        buckets[i] += counts.get(base + i);
+      }
+    }
+    return new LatencyHistogram(buckets, total.sum(), max.get());
+  }
+}
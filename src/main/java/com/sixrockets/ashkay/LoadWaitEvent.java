@@ -0,0 +1,55 @@
+/*
+ *  Copyright 2004 David C. Brown
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sixrockets.ashkay;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+/**
+ * LoadWaitEvent is the Flight Recorder event for a thread that waited longer
+ * than its threshold, 10 ms unless the recording says otherwise, on a load of
+ * the same key by another thread.
+ *
+ * @author <a href="mailto:dave@sixrockets.com">Dave Brown</a>
+ */
+@Name("com.sixrockets.ashkay.LoadWait")
+@Label("Cache Load Wait")
+@Category("ashkay")
+@Description("A wait on a load in flight in another thread")
+@Threshold("10 ms")
+final class LoadWaitEvent extends jdk.jfr.Event {
+
+  @Label("Cache")
+  String cache;
+
+  @Label("Key")
+  String key;
+
+  /**
+   * Ends the event and commits it if the recording wants it.
+   */
+  void end(ObjectCache<?, ?> owner, Object waitedKey) {
+    end();
+    if (shouldCommit()) {
+      cache = owner.getName();
+      key = String.valueOf(waitedKey);
+      commit();
+    }
+  }
+}
@@ -0,0 +1,53 @@
+/*
+ *  Copyright 2004 David C. Brown
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sixrockets.ashkay;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loaders provides the executor ashkay uses for background loads when none is
+ * given, such as by AsyncObjectCache. Factories usually block on I/O, so the
+ * executor starts a thread per load rather than sharing a small pool. On
+ * JDK 21 and later those are virtual threads (see the multi-release classes
+ * under META-INF/versions/21); before that they are pooled daemon threads.
+ * Pass it to ObjectCache.setRefreshExecutor to refresh in the background.
+ *
+ * @author <a href="mailto:dave@sixrockets.com">Dave Brown</a>
+ */
+public final class Loaders {
+
+  private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+  private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(task -> {
+    Thread thread = new Thread(task, "ashkay-loader-" + THREAD_COUNT.incrementAndGet());
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private Loaders() {}
+
+  /**
+   * Returns the shared background load executor.
+   *
+   * @return the default executor
+   */
+  public static Executor defaultExecutor() {
+    return EXECUTOR;
+  }
+}
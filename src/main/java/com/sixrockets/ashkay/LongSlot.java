@@ -0,0 +1,78 @@
+/*
+ *  Copyright 2004 David C. Brown
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sixrockets.ashkay;
+
+import java.util.Arrays;
+
+/**
+ * LongSlot is a slot of per-entry metadata holding a primitive long, such as
+ * a timestamp, so it is stored without boxing. An entry that has never had
+ * the slot set reads the slot's default value.
+ *
+ * @author <a href="mailto:dave@sixrockets.com">Dave Brown</a>
+ * @see EntrySlot
+ * @see CacheEntry#get(LongSlot)
+ */
+public final class LongSlot {
+
+  private static long[] defaults = new long[0];
+
+  private final String name;
+  final int index;
+  final long defaultValue;
+
+  private LongSlot(String name, int index, long defaultValue) {
+    this.name = name;
+    this.index = index;
+    this.defaultValue = defaultValue;
+  }
+
+  /**
+   * Registers a new slot that reads 0 until set.
+   *
+   * @param name - a descriptive name, used only by toString
+   * @return the slot
+   */
+  public static LongSlot register(String name) {
+    return register(name, 0);
+  }
+
+  /**
+   * Registers a new slot.
+   *
+   * @param name         - a descriptive name, used only by toString
+   * @param defaultValue - the value of the slot on entries that have not set it
+   * @return the slot
+   */
+  public static synchronized LongSlot register(String name, long defaultValue) {
+    int index = defaults.length;
+    defaults = Arrays.copyOf(defaults, index + 1);
+    defaults[index] = defaultValue;
+    return new LongSlot(name, index, defaultValue);
+  }
+
+  /**
+   * Returns a new array of slot values holding the default of every slot
+   * registered so far.
+   */
+  static synchronized long[] newValues() {
+    return defaults.clone();
+  }
+
+  public String toString() {
+    return name;
+  }
+}
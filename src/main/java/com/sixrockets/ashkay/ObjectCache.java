@@ -16,12 +16,24 @@
 package com.sixrockets.ashkay;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-
-import EDU.oswego.cs.dl.util.concurrent.Latch;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * ObjectCache is the default implementation of an object caching mechanism.
@@ -54,14 +66,67 @@ import EDU.oswego.cs.dl.util.concurrent.Latch;
  * after a period of time. Any number of caching strategies may be used, but be
  * careful not to use two caching strategies that work in opposition. That is
  * a check left to the user at this point.
+ * <br><br>
+ * The cache is safe for concurrent use. Entries are held in a ConcurrentMap,
+ * so a hit never takes a lock, and concurrent misses for the same key are
+ * collapsed so that only one of them calls the factory while the others wait
+ * for its result (or its exception). Misses on different keys do not contend
+ * with each other. Loads in progress are tracked in a separate table, so the
+ * hit path never has to look past a cache entry. The strategies are compiled
+ * into an immutable pipeline whenever one is added or removed, so a hit reads
+ * them without locking, and validation stops at the first strategy to fail.
+ * <br><br>
+ * A Weigher may be set to give each entry a weight, such as its size in
+ * bytes. The cache keeps a running total, available from weight(), which
+ * weighted strategies use to bound the cache by cost rather than count.
+ * <br><br>
+ * A strategy may also ask for a valid entry to be refreshed ahead of its
+ * expiry. If the cache has a refresh executor, the current entry is returned
+ * straight away and one background reload per key is started on the executor;
+ * should that reload fail, the current entry stays in the cache. Without an
+ * executor a refresh is a plain reload made by the caller.
+ * <br><br>
+ * Many keys can be fetched at once with getAll. Hits are found in one pass
+ * and the misses are loaded together; if the factory is a BulkObjectFactory
+ * they are created in a single call. Keys already being loaded by another
+ * thread are waited on rather than loaded twice.
+ * <br><br>
+ * A cache can be asked to record statistics: hits, misses, loads, waits on
+ * loads in flight, evictions by cause and invalidations by strategy, with
+ * the time misses, loads and waits take. They are counted into striped
+ * counters, so recording threads do not contend, and a snapshot is taken
+ * with stats(). A cache that is not recording does not read the clock.
+ * <br><br>
+ * Slow loads, long waits on loads in flight and batches of evictions made by
+ * strategies are also reported to Java Flight Recorder, as events in the
+ * ashkay category, when a recording asks for them. A name set on the cache
+ * labels its events and its MBean.
+ * <br><br>
+ * CacheEventListeners may be added to hear of entries being created,
+ * updated, evicted, expired and collected. Asynchronous listeners are fed by
+ * a dispatcher thread through a bounded, lock-free buffer, so the cache only
+ * pays for queueing an event; synchronous listeners are called in line. A
+ * cache with no listeners makes no events.
  *
  * @author <a href="mailto:dave@sixrockets.com">Dave Brown</a>
  */
 public class ObjectCache<T, K> {
 
   private ObjectFactory<T, K> factory;
-  private List<CachingStrategy> strategies = new ArrayList<>();
-  private Map<K, Object> cache = new HashMap<>();
+  private List<CachingStrategy> strategies;
+  private volatile StrategyPipeline pipeline;
+  private ConcurrentMap<K, CacheEntry<T, K>> cache = new ConcurrentHashMap<>();
+  private ConcurrentMap<K, Load<T, K>> loading = new ConcurrentHashMap<>();
+  private Weigher<? super T, ? super K> weigher;
+  private Executor refreshExecutor;
+  private LongAdder totalWeight = new LongAdder();
+  private volatile StatsRecorder stats = StatsRecorder.DISABLED;
+  private String name;
+  private volatile EventListeners<T, K> events = new EventListeners<>(List.of(), null);
+  private final List<CacheEventListener<T, K>> synchronousListeners = new ArrayList<>();
+  private final List<CacheEventListener<T, K>> asynchronousListeners = new ArrayList<>();
+  private int eventCapacity = 8192;
+  private OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
 
   public ObjectCache() {
     this(null, new ArrayList<>());
@@ -96,7 +161,78 @@ public class ObjectCache<T, K> {
    */
   public ObjectCache(ObjectFactory<T, K> aFactory, List<CachingStrategy> theStrategies) {
     factory = aFactory;
-    strategies = theStrategies;
+    strategies = new ArrayList<>(theStrategies);
+    pipeline = StrategyPipeline.of(strategies);
+  }
+
+  /**
+   * Sets the weigher used to weigh entries as they are added to the cache.
+   * Entries already in the cache keep their weight. Without a weigher every
+   * entry weighs 1.
+   *
+   * @param aWeigher - the weigher to use, or null for none
+   */
+  public ObjectCache<T, K> setWeigher(Weigher<? super T, ? super K> aWeigher) {
+    weigher = aWeigher;
+    return this;
+  }
+
+  /**
+   * Names the cache, for its management bean and recorded events.
+   *
+   * @param aName - the name of the cache
+   */
+  public ObjectCache<T, K> setName(String aName) {
+    name = aName;
+    return this;
+  }
+
+  /**
+   * Returns the name of the cache, or null if it has none.
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Sets whether the cache records statistics. Turning recording on starts
+   * from nothing, and turning it off drops what was recorded.
+   *
+   * @param record - true to record statistics
+   */
+  public ObjectCache<T, K> setRecordStats(boolean record) {
+    if (record != stats.isEnabled()) {
+      stats = record ? StatsRecorder.enabled() : StatsRecorder.DISABLED;
+    }
+    return this;
+  }
+
+  /**
+   * Returns true if the cache is recording statistics.
+   */
+  public boolean isRecordingStats() {
+    return stats.isEnabled();
+  }
+
+  /**
+   * Returns a snapshot of the statistics recorded since recording was turned
+   * on, or empty statistics if the cache is not recording.
+   *
+   * @return the statistics
+   */
+  public CacheStats stats() {
+    return stats.snapshot();
+  }
+
+  /**
+   * Sets the executor used to refresh entries in the background. While a
+   * refresh runs, callers keep getting the entry being refreshed.
+   *
+   * @param anExecutor - the executor to refresh on, or null to refresh in line
+   */
+  public ObjectCache<T, K> setRefreshExecutor(Executor anExecutor) {
+    refreshExecutor = anExecutor;
+    return this;
   }
 
   /**
@@ -107,6 +243,7 @@ public class ObjectCache<T, K> {
   public ObjectCache<T, K> addStrategy(CachingStrategy aStrategy) {
     synchronized (strategies) {
       strategies.add(aStrategy);
+      pipeline = StrategyPipeline.of(strategies);
     }
 
     return this;
@@ -120,20 +257,106 @@ public class ObjectCache<T, K> {
   public ObjectCache<T, K> removeStrategy(CachingStrategy aStrategy) {
     synchronized (strategies) {
       strategies.remove(aStrategy);
+      pipeline = StrategyPipeline.of(strategies);
+    }
+
+    return this;
+  }
+
+  /**
+   * Adds a listener told of events by the dispatcher thread, in batches.
+   *
+   * @param aListener - the listener to add
+   */
+  public ObjectCache<T, K> addListener(CacheEventListener<T, K> aListener) {
+    synchronized (asynchronousListeners) {
+      asynchronousListeners.add(aListener);
+      rebuildListeners();
     }
+    return this;
+  }
+
+  /**
+   * Adds a listener told of each event by the thread that makes it, before
+   * that thread carries on.
+   *
+   * @param aListener - the listener to add
+   */
+  public ObjectCache<T, K> addSynchronousListener(CacheEventListener<T, K> aListener) {
+    synchronized (asynchronousListeners) {
+      synchronousListeners.add(aListener);
+      rebuildListeners();
+    }
+    return this;
+  }
 
+  /**
+   * Removes a listener. Once no asynchronous listeners are left, the
+   * dispatcher thread stops.
+   *
+   * @param aListener - the listener to remove
+   */
+  public ObjectCache<T, K> removeListener(CacheEventListener<T, K> aListener) {
+    synchronized (asynchronousListeners) {
+      synchronousListeners.remove(aListener);
+      asynchronousListeners.remove(aListener);
+      rebuildListeners();
+    }
     return this;
   }
 
+  /**
+   * Sizes the buffer of events waiting for asynchronous listeners and says
+   * what happens to events when it is full. The default is 8192 events and
+   * OverflowPolicy.BLOCK. Takes effect when the dispatcher next starts, so
+   * set it before adding asynchronous listeners.
+   *
+   * @param capacity - the most events waiting, rounded up to a power of two
+   * @param policy   - what to do with events when the buffer is full
+   */
+  public ObjectCache<T, K> setEventBuffer(int capacity, OverflowPolicy policy) {
+    synchronized (asynchronousListeners) {
+      eventCapacity = capacity;
+      overflowPolicy = policy;
+    }
+    return this;
+  }
+
+  /**
+   * Returns the number of events dropped because the buffer was full.
+   */
+  public long droppedEvents() {
+    EventDispatcher<T, K> dispatcher = events.dispatcher();
+    return (null == dispatcher) ? 0 : dispatcher.dropped();
+  }
+
+  /**
+   * Publishes a new listener snapshot, starting or stopping the dispatcher
+   * as asynchronous listeners come and go.
+   */
+  private void rebuildListeners() {
+    EventDispatcher<T, K> dispatcher = events.dispatcher();
+    if (asynchronousListeners.isEmpty()) {
+      if (null != dispatcher) {
+        dispatcher.close();
+      }
+      dispatcher = null;
+    } else {
+      if (null == dispatcher) {
+        dispatcher = new EventDispatcher<>(eventCapacity, overflowPolicy);
+      }
+      dispatcher.setListeners(asynchronousListeners);
+    }
+    events = new EventListeners<>(synchronousListeners, dispatcher);
+  }
+
   /**
    * Checks if this cache uses the specified caching strategy
    *
    * @param aStrategy - the strategy to check
    */
   public boolean usesStrategy(CachingStrategy aStrategy) {
-    synchronized (strategies) {
-      return strategies.contains(aStrategy);
-    }
+    return pipeline.contains(aStrategy);
   }
 
   /**
@@ -150,22 +373,89 @@ public class ObjectCache<T, K> {
   }
 
   /**
-   * Forcefully evicts an object/key from the cache. This will only evict the
-   * object if it has been created (i.e. not being created by a factory).
+   * Finds an object in the cache and returns it, waiting at most the given
+   * time for a load of the same key by another thread to finish. The timeout
+   * does not apply to a load made by the calling thread itself.
+   *
+   * @param key     - the key to lookup
+   * @param data    - the data to aid construction
+   * @param timeout - the maximum time to wait on another thread's load
+   * @param unit    - the unit of the timeout
+   * @throws CreationException on any error during creation or if the wait
+   *                           times out
+   * @see #get(java.lang.Object, java.lang.Object)
+   */
+  public T get(K key, Object data, long timeout, TimeUnit unit) throws CreationException {
+    return unwrap(getEntry(key, data, unit.toNanos(timeout)));
+  }
+
+  /**
+   * Forcefully evicts an object/key from the cache, and from any tier below
+   * it, as the strategies are told of the key. A load of the key already
+   * in flight still answers the threads waiting on it, but what it loaded is
+   * not cached, since it may have been read before whatever the eviction is
+   * for.
    *
    * @param key to the object to evict
    * @return the object evicted or null if none
    */
   public T evict(K key) {
-    T val = null;
-    Object entry = cache.get(key);
-    if (entry instanceof CacheEntry) {
-      val = ((CacheEntry<T, K>) entry).getEntryObject();
-      synchronized (cache) {
-        cache.remove(key);
+    supersede(key);
+    CacheEntry<T, K> entry = cache.remove(key);
+    if (null != entry) {
+      removed(entry, EvictionCause.EXPLICIT);
+    }
+    pipeline.invalidated(key);
+    return unwrap(entry);
+  }
+
+  /**
+   * Evicts a specific entry from the cache. Unlike evict(key), nothing is
+   * removed if the key has since been reloaded or replaced, so a strategy can
+   * use this to drop an entry it prepared without losing a newer one.
+   *
+   * @param entry - the entry to evict
+   * @param cause - why the entry is being evicted
+   * @return true if the entry was evicted
+   */
+  public boolean evictEntry(CacheEntry<?, ?> entry, EvictionCause cause) {
+    return evictEntry(entry, cause, null);
+  }
+
+  /**
+   * Evicts a specific entry from the cache on behalf of a strategy, counting
+   * the eviction against that strategy in the cache's statistics as well as
+   * against the cause.
+   *
+   * @param entry - the entry to evict
+   * @param cause - why the entry is being evicted
+   * @param strategy - the strategy evicting the entry, or null
+   * @return true if the entry was evicted
+   */
+  public boolean evictEntry(CacheEntry<?, ?> entry, EvictionCause cause, CachingStrategy strategy) {
+    Object key = entry.getEntryKey();
+    CacheEntry<T, K> current = cache.get(key);
+    if (null != current && current.isEntry(entry) && cache.remove(key, current)) {
+      if (null != strategy) {
+        stats.evictedBy(strategy);
       }
+      removed(current, cause);
+      return true;
     }
-    return val;
+    return false;
+  }
+
+  /**
+   * Returns the entry cached for a key, whether or not it is still valid,
+   * without loading, validating or counting a hit or miss. A strategy that
+   * keeps something for each entry can use this while preparing a new entry
+   * to let go of what it kept for the one about to be replaced.
+   *
+   * @param key - the key to look up
+   * @return the cached entry, or null if there is none
+   */
+  public CacheEntry<T, K> peekEntry(Object key) {
+    return cache.get(key);
   }
 
   /**
@@ -179,123 +469,559 @@ public class ObjectCache<T, K> {
    * @throws CreationException on any error during creation
    */
   public T get(K key, Object data) throws CreationException {
-    CacheEntry<T, K> entry = null;
-    entry = findCacheEntry(key);
+    return unwrap(getEntry(key, data, -1));
+  }
+
+  /**
+   * Finds the objects for many keys at once. Keys not in the cache, or whose
+   * entries fail validation, are loaded together, in one call if the factory
+   * is a BulkObjectFactory, and one key at a time otherwise. Keys with no
+   * object are left out of the result.
+   *
+   * @param keys - the keys to lookup
+   * @return the objects found, by key, in the order of the keys given
+   * @throws CreationException on any error during creation
+   */
+  public Map<K, T> getAll(Collection<K> keys) throws CreationException {
+    StatsRecorder recorder = stats;
+    Map<K, CacheEntry<T, K>> found = new HashMap<>();
+    Map<K, CacheEntry<T, K>> misses = new LinkedHashMap<>();
+    for (K key : keys) {
+      CacheEntry<T, K> entry = cache.get(key);
+      boolean valid = validateEntry(entry);
+      if (valid && !refreshNeeded(entry)) {
+        found.put(key, entry);
+      } else if (valid && (null != refreshExecutor)) {
+        refresh(key, null, entry);
+        found.put(key, entry);
+      } else {
+        misses.put(key, entry);
+      }
+    }
 
-    boolean passes = validateEntry(entry);
+    recorder.hits(found.size());
+    if (!misses.isEmpty()) {
+      recorder.misses(misses.size());
+      loadAll(misses, found);
+    }
+
+    Map<K, T> result = new LinkedHashMap<>();
+    for (K key : keys) {
+      T val = unwrap(found.get(key));
+      if (null != val) {
+        result.put(key, val);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Claims a load for each miss not already in flight, creates the claimed
+   * entries together, then waits on the loads other threads had claimed.
+   */
+  private void loadAll(Map<K, CacheEntry<T, K>> misses, Map<K, CacheEntry<T, K>> found) throws CreationException {
+    Map<K, Load<T, K>> claimed = new LinkedHashMap<>();
+    Map<K, Load<T, K>> joined = new LinkedHashMap<>();
+    for (Map.Entry<K, CacheEntry<T, K>> miss : misses.entrySet()) {
+      K key = miss.getKey();
+      Load<T, K> future = new Load<>();
+      Load<T, K> inFlight = loading.putIfAbsent(key, future);
+      if (null != inFlight) {
+        joined.put(key, inFlight);
+        continue;
+      }
+
+      CacheEntry<T, K> current = cache.get(key);
+      if (current != miss.getValue() && validateEntry(current)) {
+        loading.remove(key, future);
+        future.complete(current);
+        found.put(key, current);
+      } else {
+        future.base = current;
+        claimed.put(key, future);
+      }
+    }
+
+    try {
+      Map<K, CacheEntry<T, K>> created = createObjectsFor(claimed);
+      for (Map.Entry<K, Load<T, K>> claim : claimed.entrySet()) {
+        CacheEntry<T, K> entry = created.get(claim.getKey());
+        claim.getValue().complete(entry);
+        found.put(claim.getKey(), entry);
+      }
+    } catch (CreationException | RuntimeException | Error e) {
+      for (Load<T, K> future : claimed.values()) {
+        future.completeExceptionally(e);
+      }
+      throw e;
+    } finally {
+      for (Map.Entry<K, Load<T, K>> claim : claimed.entrySet()) {
+        loading.remove(claim.getKey(), claim.getValue());
+      }
+    }
+
+    for (Map.Entry<K, Load<T, K>> join : joined.entrySet()) {
+      found.put(join.getKey(), await(join.getKey(), join.getValue(), -1));
+    }
+  }
 
-    if (!passes) {
-      Latch buildLatch = null;
-      buildLatch = prepareLatch(key);
+  private Map<K, CacheEntry<T, K>> createObjectsFor(Map<K, Load<T, K>> loads) throws CreationException {
+    Map<K, CacheEntry<T, K>> created = new HashMap<>();
+    Set<K> keys = loads.keySet();
+    if (keys.isEmpty()) {
+      return created;
+    }
+
+    if (factory instanceof BulkObjectFactory) {
+      StatsRecorder recorder = stats;
+      long start = recorder.start();
+      LoadEvent event = new LoadEvent();
+      event.begin();
+      List<K> toLoad = new ArrayList<>(keys);
+      Map<K, T> objects;
+      try {
+        objects = ((BulkObjectFactory<T, K>) factory).createObjectsFor(toLoad);
+      } catch (CreationException | RuntimeException | Error e) {
+        recorder.loaded(start, false);
+        event.end(this, toLoad.get(0), toLoad.size(), false);
+        throw e;
+      }
+      recorder.loaded(start, true);
+      event.end(this, toLoad.get(0), toLoad.size(), true);
+      for (K key : keys) {
+        // a factory returning no map has no object for any key
+        T object = (null == objects) ? null : objects.get(key);
+        created.put(key, install(key, object, loads.get(key)));
+      }
+    } else {
+      for (K key : keys) {
+        created.put(key, createObjectFor(key, null, loads.get(key)));
+      }
+    }
+    return created;
+  }
+
+  /**
+   * Finds an object without blocking, for AsyncObjectCache. A miss claims the
+   * key in the in-flight table and starts the asynchronous factory; the entry
+   * is installed by whichever thread completes the factory's future. Entries
+   * due for a refresh are returned as they are while the refresh runs.
+   */
+  CompletableFuture<T> getAsync(K key, Object data, AsyncObjectFactory<T, K> asyncFactory, Executor executor) {
+    CacheEntry<T, K> entry = cache.get(key);
+    boolean valid = validateEntry(entry);
+    if (valid && refreshNeeded(entry)) {
+      stats.hit();
+      if (!loading.containsKey(key)) {
+        loadAsync(key, data, entry, true, asyncFactory, executor);
+      }
+      return CompletableFuture.completedFuture(unwrap(entry));
+    } else if (valid) {
+      stats.hit();
+      return CompletableFuture.completedFuture(unwrap(entry));
+    }
+    stats.misses(1);
+    return loadAsync(key, data, entry, false, asyncFactory, executor).thenApply(this::unwrap);
+  }
+
+  private CompletableFuture<CacheEntry<T, K>> loadAsync(
+    K key,
+    Object data,
+    CacheEntry<T, K> stale,
+    boolean refresh,
+    AsyncObjectFactory<T, K> asyncFactory,
+    Executor executor
+  ) {
+    Load<T, K> future = new Load<>();
+    Load<T, K> inFlight = loading.putIfAbsent(key, future);
+    if (null != inFlight) {
+      return inFlight;
+    }
+
+    CacheEntry<T, K> current = cache.get(key);
+    if (current != stale && validateEntry(current)) {
+      future.complete(current);
+      loading.remove(key, future);
+      return future;
+    }
+    if (!refresh) {
+      future.base = current;
+    }
+
+    StatsRecorder recorder = stats;
+    long start = recorder.start();
+    LoadEvent event = new LoadEvent();
+    event.begin();
+    CompletableFuture<T> created;
+    try {
+      created = asyncFactory.createObjectFor(key, data, executor);
+    } catch (RuntimeException e) {
+      created = new CompletableFuture<>();
+      created.completeExceptionally(e);
+    }
+
+    created.whenComplete((value, error) -> {
+      recorder.loaded(start, null == error);
+      event.end(this, key, 1, null == error);
       try {
-        entry = createObjectFor(key, data);
+        if (null != error) {
+          future.completeExceptionally(unwrapCompletion(error));
+        } else {
+          CacheEntry<T, K> entry = install(key, value, future);
+          future.complete((null != entry) || !refresh ? entry : current);
+        }
+      } catch (RuntimeException | Error e) {
+        future.completeExceptionally(e);
       } finally {
-        if (null == entry) {
-          synchronized (cache) {
-            cache.put(key, null);
-          }
+        loading.remove(key, future);
+      }
+    });
+    return future;
+  }
+
+  private static Throwable unwrapCompletion(Throwable error) {
+    if ((error instanceof CompletionException) && (null != error.getCause())) {
+      return error.getCause();
+    }
+    return error;
+  }
+
+  private CacheEntry<T, K> getEntry(K key, Object data, long timeoutNanos) throws CreationException {
+    StatsRecorder recorder = stats;
+    CacheEntry<T, K> entry = cache.get(key);
+    if (validateEntry(entry)) {
+      if (!refreshNeeded(entry)) {
+        recorder.hit();
+        return entry;
+      } else if (null != refreshExecutor) {
+        recorder.hit();
+        refresh(key, data, entry);
+        return entry;
+      }
+    }
+
+    long start = recorder.start();
+    try {
+      return load(key, data, entry, timeoutNanos);
+    } finally {
+      recorder.miss(start);
+    }
+  }
+
+  /**
+   * Starts a background reload of the key unless a load of it is already in
+   * flight. Callers asking for the key while the refresh runs still get the
+   * current entry, unless it stops being valid, in which case they join the
+   * refresh. A refresh that fails, or finds no object, leaves the current
+   * entry in place.
+   */
+  private void refresh(K key, Object data, CacheEntry<T, K> current) {
+    if (loading.containsKey(key)) {
+      return;
+    }
+    Load<T, K> future = new Load<>();
+    if (null != loading.putIfAbsent(key, future)) {
+      return;
+    }
+
+    try {
+      refreshExecutor.execute(() -> {
+        try {
+          CacheEntry<T, K> entry = createObjectFor(key, data, future);
+          future.complete((null != entry) ? entry : current);
+        } catch (CreationException | RuntimeException | Error e) {
+          future.completeExceptionally(e);
+        } finally {
+          loading.remove(key, future);
         }
-        buildLatch.release();
+      });
+    } catch (RejectedExecutionException e) {
+      // keep serving the current entry, a later get will try again
+      loading.remove(key, future);
+      future.complete(current);
+    }
+  }
+
+  /**
+   * Loads the entry for a key, or joins the load already in flight for it.
+   * The stale entry is the one that failed validation (or null for a plain
+   * miss); if the cache holds something else by the time the load is claimed,
+   * another thread has finished a load in the meantime and its entry is used.
+   */
+  private CacheEntry<T, K> load(K key, Object data, CacheEntry<T, K> stale, long timeoutNanos) throws CreationException {
+    Load<T, K> future = new Load<>();
+    Load<T, K> inFlight = loading.putIfAbsent(key, future);
+    if (null != inFlight) {
+      return await(key, inFlight, timeoutNanos);
+    }
+
+    try {
+      CacheEntry<T, K> current = cache.get(key);
+      if (current != stale && validateEntry(current)) {
+        future.complete(current);
+        return current;
       }
+      future.base = current;
+
+      CacheEntry<T, K> entry = createObjectFor(key, data, future);
+      future.complete(entry);
+      return entry;
+    } catch (CreationException | RuntimeException | Error e) {
+      future.completeExceptionally(e);
+      throw e;
+    } finally {
+      loading.remove(key, future);
     }
+  }
 
+  private CacheEntry<T, K> await(K key, CompletableFuture<CacheEntry<T, K>> inFlight, long timeoutNanos) throws CreationException {
+    StatsRecorder recorder = stats;
+    long start = recorder.start();
+    LoadWaitEvent event = new LoadWaitEvent();
+    event.begin();
+    try {
+      if (timeoutNanos < 0) {
+        return inFlight.get();
+      }
+      return inFlight.get(timeoutNanos, TimeUnit.NANOSECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new CreationException(e);
+    } catch (TimeoutException e) {
+      throw new CreationException("Timed out waiting on load in progress", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof CreationException) {
+        throw (CreationException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new CreationException(cause);
+    } finally {
+      recorder.waited(start);
+      event.end(this, key);
+    }
+  }
+
+  private T unwrap(CacheEntry<T, K> entry) {
     T val = null;
     if (null != entry) {
       val = entry.getEntryObject();
     }
-
     return val;
   }
 
-  private CacheEntry<T, K> createObjectFor(K key, Object data) throws CreationException {
-    CacheEntry<T, K> entry = null;
-
+  private CacheEntry<T, K> createObjectFor(K key, Object data, Load<T, K> load) throws CreationException {
+    T tempO = null;
     if (null != factory) {
-      T tempO = factory.createObjectFor(key, data);
-      if (null != tempO) {
-        entry = new CacheEntry<>(key, tempO);
-        entry.setCache(this);
-        entry = prepareEntry(entry);
+      StatsRecorder recorder = stats;
+      long start = recorder.start();
+      LoadEvent event = new LoadEvent();
+      event.begin();
+      try {
+        tempO = factory.createObjectFor(key, data);
+      } catch (CreationException | RuntimeException | Error e) {
+        recorder.loaded(start, false);
+        event.end(this, key, 1, false);
+        throw e;
       }
+      recorder.loaded(start, true);
+      event.end(this, key, 1, true);
     }
+    return install(key, tempO, load);
+  }
 
-    synchronized (cache) {
-      cache.put(key, entry);
+  /**
+   * Prepares and stores an entry for a newly created object, or removes the
+   * entry the load started from if there is no object. A load superseded by
+   * a put, evict or clear stores and removes nothing; the strategies are told
+   * its entry is gone, but its callers still get it.
+   */
+  private CacheEntry<T, K> install(K key, T value, Load<T, K> load) {
+    CacheEntry<T, K> entry = null;
+    if (null != value) {
+      entry = prepareEntry(newEntry(key, value));
+    }
+
+    if (null != entry) {
+      if (!store(key, entry, load)) {
+        notifyEvicted(entry, EvictionCause.EXPLICIT);
+      }
+    } else {
+      CacheEntry<T, K> stale = load.base;
+      if (!load.superseded && (null != stale) && cache.remove(key, stale)) {
+        removed(stale, EvictionCause.EXPLICIT, true);
+      }
     }
 
     return entry;
   }
 
-  private CacheEntry<T, K> prepareEntry(CacheEntry<T, K> entry) {
-    synchronized (strategies) {
-      Iterator<CachingStrategy> strategyIter = strategies.iterator();
-      while (strategyIter.hasNext()) {
-        CachingStrategy strat = strategyIter.next();
-        entry = strat.prepare(entry);
-      }
+  private CacheEntry<T, K> newEntry(K key, T value) {
+    CacheEntry<T, K> entry = new CacheEntry<>(key, value);
+    entry.setCache(this);
+    if (null != weigher) {
+      entry.setWeight(weigher.weigh(key, value));
     }
     return entry;
   }
 
-  private Latch prepareLatch(K key) {
-    Latch buildLatch;
-    synchronized (cache) {
-      buildLatch = new Latch();
-      cache.put(key, buildLatch);
-    }
-    return buildLatch;
+  private void store(K key, CacheEntry<T, K> entry, boolean loaded) {
+    stored(key, entry, cache.put(key, entry), loaded);
   }
 
-  private boolean validateEntry(CacheEntry<T, K> entry) {
-    boolean passes = false;
-    if (entry != null) {
-      passes = true;
-      synchronized (strategies) {
-        Iterator<CachingStrategy> strategyIter = strategies.iterator();
-        while (strategyIter.hasNext()) {
-          CachingStrategy strat = strategyIter.next();
-          if (!strat.validate(entry)) {
-            passes = false;
-          }
-        }
+  /**
+   * Stores a loaded entry unless its load has been superseded. The check is
+   * made under the map's lock for the key, so a put or evict racing the load
+   * either marks it first and wins, or comes after and replaces or removes
+   * the loaded entry.
+   *
+   * @return true if the entry was stored
+   */
+  private boolean store(K key, CacheEntry<T, K> entry, Load<T, K> load) {
+    CacheEntry<T, K> current = cache.compute(key, (k, present) -> {
+      if (load.superseded) {
+        return present;
       }
+      load.replaced = present;
+      return entry;
+    });
+    if (current != entry) {
+      return false;
     }
-    return passes;
+    stored(key, entry, load.replaced, true);
+    return true;
   }
 
-  private CacheEntry<T, K> findCacheEntry(K key) throws CreationException {
-    CacheEntry<T, K> entry = null;
-    Object cacheObject = cache.get(key);
+  private void stored(K key, CacheEntry<T, K> entry, CacheEntry<T, K> replaced, boolean loaded) {
+    totalWeight.add(entry.getWeight());
+    if (null != replaced) {
+      totalWeight.add(-replaced.getWeight());
+    }
 
-    if (cacheObject != null) {
-      if (cacheObject instanceof Latch) {
-        try {
-          ((Latch) cacheObject).acquire();
-        } catch (InterruptedException e) {
-          throw new CreationException(e);
-        }
+    EventListeners<T, K> listeners = events;
+    if (!listeners.isEmpty()) {
+      CacheEvent.Type type = (null == replaced) ? CacheEvent.Type.CREATED : CacheEvent.Type.UPDATED;
+      listeners.fire(new CacheEvent<>(this, type, key, entry.getEntryObject(), null, loaded));
+    }
+  }
 
-        entry = findCacheEntry(key);
-      } else {
-        entry = (CacheEntry<T, K>) cacheObject;
-      }
+  private void removed(CacheEntry<T, K> entry, EvictionCause cause) {
+    removed(entry, cause, false);
+  }
+
+  private void removed(CacheEntry<T, K> entry, EvictionCause cause, boolean loaded) {
+    totalWeight.add(-entry.getWeight());
+    stats.evicted(cause);
+    notifyEvicted(entry, cause);
+
+    EventListeners<T, K> listeners = events;
+    if (!listeners.isEmpty()) {
+      listeners.fire(CacheEvent.removal(this, entry, cause, loaded));
     }
+  }
 
-    return entry;
+  private CacheEntry<T, K> prepareEntry(CacheEntry<T, K> entry) {
+    return pipeline.prepare(entry);
+  }
+
+  private void notifyEvicted(CacheEntry<T, K> entry, EvictionCause cause) {
+    pipeline.evicted(entry, cause);
+  }
+
+  private boolean refreshNeeded(CacheEntry<T, K> entry) {
+    return pipeline.needsRefresh(entry);
+  }
+
+  private boolean validateEntry(CacheEntry<T, K> entry) {
+    if (entry == null) {
+      return false;
+    }
+    StatsRecorder recorder = stats;
+    if (!recorder.isEnabled()) {
+      return pipeline.validate(entry);
+    }
+    CachingStrategy invalidator = pipeline.invalidator(entry);
+    if (null != invalidator) {
+      recorder.invalidated(invalidator);
+    }
+    return null == invalidator;
   }
 
+  /**
+   * Puts an object in the cache. A load of the key already in flight still
+   * answers the threads waiting on it, but does not replace the object put.
+   *
+   * @param key   - the key of the object
+   * @param value - the object
+   */
   public void put(K key, T value) {
-    CacheEntry<T, K> entry = new CacheEntry<>(key, value);
-    entry.setCache(this);
-    entry = prepareEntry(entry);
-    cache.put(key, entry);
+    supersede(key);
+    CacheEntry<T, K> entry = prepareEntry(newEntry(key, value));
+    store(key, entry, false);
+  }
+
+  /**
+   * Takes a key's object out of the cache to move it to another, as
+   * PartitionedCache does when its shards change. The entry leaves as if
+   * evicted, but its event is marked as a load: the object has not changed,
+   * so listeners that pass writes on to other nodes, such as
+   * ClusterInvalidator, ignore it.
+   *
+   * @param key - the key of the object
+   * @return the object taken out, or null if none
+   */
+  public T moveOut(K key) {
+    supersede(key);
+    CacheEntry<T, K> entry = cache.remove(key);
+    if (null != entry) {
+      removed(entry, EvictionCause.EXPLICIT, true);
+    }
+    pipeline.invalidated(key);
+    return unwrap(entry);
+  }
+
+  /**
+   * Puts an object moved from another cache, with moveOut, into this one. It
+   * is stored as put stores it, but its event is marked as a load.
+   *
+   * @param key   - the key of the object
+   * @param value - the object
+   */
+  public void moveIn(K key, T value) {
+    supersede(key);
+    CacheEntry<T, K> entry = prepareEntry(newEntry(key, value));
+    store(key, entry, true);
+  }
+
+  /**
+   * Marks the load of a key in flight, if any, so it does not store what it
+   * loaded over a write made while it ran.
+   */
+  private void supersede(K key) {
+    Load<T, K> inFlight = loading.get(key);
+    if (null != inFlight) {
+      inFlight.superseded = true;
+    }
   }
 
   /**
-   * Clears the cache
+   * Clears the cache. Loads in flight are superseded, as by evict.
    */
   public void clear() {
-    cache.clear();
+    for (Load<T, K> inFlight : loading.values()) {
+      inFlight.superseded = true;
+    }
+    Iterator<Map.Entry<K, CacheEntry<T, K>>> entryIter = cache.entrySet().iterator();
+    while (entryIter.hasNext()) {
+      Map.Entry<K, CacheEntry<T, K>> entry = entryIter.next();
+      if (cache.remove(entry.getKey(), entry.getValue())) {
+        removed(entry.getValue(), EvictionCause.EXPLICIT);
+      }
+    }
+    pipeline.cleared();
   }
 
   /**
@@ -306,4 +1032,38 @@ public class ObjectCache<T, K> {
   public int size() {
     return cache.size();
   }
+
+  /**
+   * Returns the keys of the objects in the cache. The set is a read-only view
+   * that reflects later changes, and iterating it while the cache changes
+   * sees each key at most once, whether or not it sees the change.
+   *
+   * @return the cached keys
+   */
+  public Set<K> keys() {
+    return Collections.unmodifiableSet(cache.keySet());
+  }
+
+  /**
+   * Returns the total weight of the entries in the cache, as given by the
+   * cache's Weigher. Without a weigher this is the number of entries. The
+   * total is kept as entries come and go, so this does not walk the cache.
+   *
+   * @return long total weight of the cache
+   */
+  public long weight() {
+    return totalWeight.sum();
+  }
+
+  /**
+   * A load in flight, which threads asking for the same key wait on. Its base
+   * is the entry the load started from, the one a null result removes; a
+   * refresh has none, as it keeps its entry when it finds nothing. Once
+   * superseded by a put, evict or clear, a load no longer changes the cache.
+   */
+  private static final class Load<T, K> extends CompletableFuture<CacheEntry<T, K>> {
+    CacheEntry<T, K> base;
+    CacheEntry<T, K> replaced;
+    volatile boolean superseded;
+  }
 }
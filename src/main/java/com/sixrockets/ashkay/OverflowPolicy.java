@@ -0,0 +1,36 @@
+/*
+ *  Copyright 2004 David C. Brown
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sixrockets.ashkay;
+
+/**
+ * OverflowPolicy decides what happens to a cache event when the buffer of
+ * events waiting for asynchronous listeners is full.
+ *
+ * @author <a href="mailto:dave@sixrockets.com">Dave Brown</a>
+ * @see ObjectCache#setEventBuffer(int, OverflowPolicy)
+ */
+public enum OverflowPolicy {
+  /**
+   * The thread making the event waits for room, so no event is lost but a
+   * slow listener slows the cache down.
+   */
+  BLOCK,
+
+  /**
+   * The event is dropped and counted, so the cache never waits on listeners.
+   */
+  DROP
+}
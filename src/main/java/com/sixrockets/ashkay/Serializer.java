@@ -0,0 +1,45 @@
+/*
+ *  Copyright 2004 David C. Brown
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sixrockets.ashkay;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Serializer turns cached objects into bytes and back, for tiers that keep
+ * objects outside the Java heap.
+ *
+ * @author <a href="mailto:dave@sixrockets.com">Dave Brown</a>
+ * @see JavaSerializer
+ */
+public interface Serializer<T> {
+  /**
+   * Writes an object out as bytes.
+   *
+   * @param object - the object to write
+   * @return the object's bytes
+   */
+  byte[] serialize(T object) throws IOException;
+
+  /**
+   * Reads an object back from the bytes serialize produced. The buffer holds
+   * exactly those bytes, from its position to its limit.
+   *
+   * @param buffer - the object's bytes
+   * @return the object
+   */
+  T deserialize(ByteBuffer buffer) throws IOException;
+}
@@ -0,0 +1,181 @@
+/*
+ *  Copyright 2004 David C. Brown
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sixrockets.ashkay;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * StatsRecorder is where an ObjectCache records its statistics. A cache that
+ * is not recording holds the Disabled recorder, whose methods do nothing and
+ * which never reads the clock; the Enabled recorder counts into LongAdders and
+ * LatencyRecorders, so threads recording at once do not contend.
+ * <br><br>
+ * Durations are taken by asking for start(), which is 0 when disabled, and
+ * passing it back when the operation is over.
+ *
+ * @author <a href="mailto:dave@sixrockets.com">Dave Brown</a>
+ */
+abstract class StatsRecorder {
+
+  static final StatsRecorder DISABLED = new Disabled();
+
+  static StatsRecorder enabled() {
+    return new Enabled();
+  }
+
+  abstract boolean isEnabled();
+
+  abstract long start();
+
+  abstract void hit();
+
+  abstract void hits(int count);
+
+  abstract void miss(long start);
+
+  abstract void misses(int count);
+
+  abstract void loaded(long start, boolean success);
+
+  abstract void waited(long start);
+
+  abstract void evicted(EvictionCause cause);
+
+  abstract void evictedBy(CachingStrategy strategy);
+
+  abstract void invalidated(CachingStrategy strategy);
+
+  abstract CacheStats snapshot();
+
+  private static final class Disabled extends StatsRecorder {
+    boolean isEnabled() {
+      return false;
+    }
+
+    long start() {
+      return 0;
+    }
+
+    void hit() {}
+
+    void hits(int count) {}
+
+    void miss(long start) {}
+
+    void misses(int count) {}
+
+    void loaded(long start, boolean success) {}
+
+    void waited(long start) {}
+
+    void evicted(EvictionCause cause) {}
+
+    void evictedBy(CachingStrategy strategy) {}
+
+    void invalidated(CachingStrategy strategy) {}
+
+    CacheStats snapshot() {
+      return CacheStats.EMPTY;
+    }
+  }
+
+  private static final class Enabled extends StatsRecorder {
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder loadSuccesses = new LongAdder();
+    private final LongAdder loadFailures = new LongAdder();
+    private final LongAdder[] evictions = new LongAdder[EvictionCause.values().length];
+    private final ConcurrentMap<CachingStrategy, LongAdder> evictionsBy = new ConcurrentHashMap<>();
+    private final ConcurrentMap<CachingStrategy, LongAdder> invalidations = new ConcurrentHashMap<>();
+    private final LatencyRecorder missLatency = new LatencyRecorder();
+    private final LatencyRecorder loadLatency = new LatencyRecorder();
+    private final LatencyRecorder waitLatency = new LatencyRecorder();
+
+    Enabled() {
+      for (int i = 0; i < evictions.length; i++) {
+        evictions[i] = new LongAdder();
+      }
+    }
+
+    boolean isEnabled() {
+      return true;
+    }
+
+    long start() {
+      return System.nanoTime();
+    }
+
+    void hit() {
+      hits.increment();
+    }
+
+    void hits(int count) {
+      hits.add(count);
+    }
+
+    void miss(long start) {
+      misses.increment();
+      missLatency.record(System.nanoTime() - start);
+    }
+
+    void misses(int count) {
+      misses.add(count);
+    }
+
+    void loaded(long start, boolean success) {
+      loadLatency.record(System.nanoTime() - start);
+      (success ? loadSuccesses : loadFailures).increment();
+    }
+
+    void waited(long start) {
+      waitLatency.record(System.nanoTime() - start);
+    }
+
+    void evicted(EvictionCause cause) {
+      evictions[cause.ordinal()].increment();
+    }
+
+    void evictedBy(CachingStrategy strategy) {
+      evictionsBy.computeIfAbsent(strategy, s -> new LongAdder()).increment();
+    }
+
+    void invalidated(CachingStrategy strategy) {
+      invalidations.computeIfAbsent(strategy, s -> new LongAdder()).increment();
+    }
+
+    CacheStats snapshot() {
+      long[] evicted = new long[evictions.length];
+      for (int i = 0; i < evicted.length; i++) {
+        evicted[i] = evictions[i].sum();
+      }
+      return new CacheStats(hits.sum(), misses.sum(), loadSuccesses.sum(), loadFailures.sum(), evicted,
+          sums(evictionsBy), sums(invalidations), missLatency.snapshot(), loadLatency.snapshot(),
+          waitLatency.snapshot());
+    }
+
+    private static Map<CachingStrategy, Long> sums(Map<CachingStrategy, LongAdder> counts) {
+      Map<CachingStrategy, Long> sums = new HashMap<>();
+      for (Map.Entry<CachingStrategy, LongAdder> entry : counts.entrySet()) {
+        sums.put(entry.getKey(), entry.getValue().sum());
+      }
+      return sums;
+    }
+  }
+}
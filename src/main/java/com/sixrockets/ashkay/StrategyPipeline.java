@@ -0,0 +1,257 @@
+/*
+ *  Copyright 2004 David C. Brown
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sixrockets.ashkay;
+
+import java.util.List;
+
+/**
+ * StrategyPipeline is an immutable, compiled form of a cache's strategy list.
+ * The cache builds a new pipeline whenever a strategy is added or removed and
+ * reads it without locking on every get. Pipelines of zero, one and two
+ * strategies are specialized classes that call their strategies directly, so
+ * the common cases are straight line code the JIT can inline; longer lists
+ * walk an array. Validation stops at the first strategy that fails; a cache
+ * recording statistics asks which one that was.
+ *
+ * @author <a href="mailto:dave@sixrockets.com">Dave Brown</a>
+ */
+abstract class StrategyPipeline {
+
+  /**
+   * Compiles a snapshot of the given strategies.
+   *
+   * @param strategies - the strategies, in the order they apply
+   * @return the pipeline
+   */
+  static StrategyPipeline of(List<CachingStrategy> strategies) {
+    switch (strategies.size()) {
+      case 0:
+        return Empty.INSTANCE;
+      case 1:
+        return new One(strategies.get(0));
+      case 2:
+        return new Two(strategies.get(0), strategies.get(1));
+      default:
+        return new Many(strategies.toArray(new CachingStrategy[0]));
+    }
+  }
+
+  abstract <T, K> CacheEntry<T, K> prepare(CacheEntry<T, K> entry);
+
+  abstract boolean validate(CacheEntry<?, ?> entry);
+
+  /**
+   * Validates the entry, returning the strategy that failed it, or null.
+   */
+  abstract CachingStrategy invalidator(CacheEntry<?, ?> entry);
+
+  abstract boolean needsRefresh(CacheEntry<?, ?> entry);
+
+  abstract void evicted(CacheEntry<?, ?> entry, EvictionCause cause);
+
+  abstract void invalidated(Object key);
+
+  abstract void cleared();
+
+  abstract boolean contains(CachingStrategy strategy);
+
+  private static final class Empty extends StrategyPipeline {
+    static final Empty INSTANCE = new Empty();
+
+    <T, K> CacheEntry<T, K> prepare(CacheEntry<T, K> entry) {
+      return entry;
+    }
+
+    boolean validate(CacheEntry<?, ?> entry) {
+      return true;
+    }
+
+    CachingStrategy invalidator(CacheEntry<?, ?> entry) {
+      return null;
+    }
+
+    boolean needsRefresh(CacheEntry<?, ?> entry) {
+      return false;
+    }
+
+    void evicted(CacheEntry<?, ?> entry, EvictionCause cause) {}
+
+    void invalidated(Object key) {}
+
+    void cleared() {}
+
+    boolean contains(CachingStrategy strategy) {
+      return false;
+    }
+  }
+
+  private static final class One extends StrategyPipeline {
+    private final CachingStrategy first;
+
+    One(CachingStrategy first) {
+      this.first = first;
+    }
+
+    <T, K> CacheEntry<T, K> prepare(CacheEntry<T, K> entry) {
+      return first.prepare(entry);
+    }
+
+    boolean validate(CacheEntry<?, ?> entry) {
+      return first.validate(entry);
+    }
+
+    CachingStrategy invalidator(CacheEntry<?, ?> entry) {
+      return first.validate(entry) ? null : first;
+    }
+
+    boolean needsRefresh(CacheEntry<?, ?> entry) {
+      return first.needsRefresh(entry);
+    }
+
+    void evicted(CacheEntry<?, ?> entry, EvictionCause cause) {
+      first.evicted(entry, cause);
+    }
+
+    void invalidated(Object key) {
+      first.invalidated(key);
+    }
+
+    void cleared() {
+      first.cleared();
+    }
+
+    boolean contains(CachingStrategy strategy) {
+      return first.equals(strategy);
+    }
+  }
+
+  private static final class Two extends StrategyPipeline {
+    private final CachingStrategy first;
+    private final CachingStrategy second;
+
+    Two(CachingStrategy first, CachingStrategy second) {
+      this.first = first;
+      this.second = second;
+    }
+
+    <T, K> CacheEntry<T, K> prepare(CacheEntry<T, K> entry) {
+      return second.prepare(first.prepare(entry));
+    }
+
+    boolean validate(CacheEntry<?, ?> entry) {
+      return first.validate(entry) && second.validate(entry);
+    }
+
+    CachingStrategy invalidator(CacheEntry<?, ?> entry) {
+      if (!first.validate(entry)) {
+        return first;
+      }
+      return second.validate(entry) ? null : second;
+    }
+
+    boolean needsRefresh(CacheEntry<?, ?> entry) {
+      return first.needsRefresh(entry) || second.needsRefresh(entry);
+    }
+
+    void evicted(CacheEntry<?, ?> entry, EvictionCause cause) {
+      first.evicted(entry, cause);
+      second.evicted(entry, cause);
+    }
+
+    void invalidated(Object key) {
+      first.invalidated(key);
+      second.invalidated(key);
+    }
+
+    void cleared() {
+      first.cleared();
+      second.cleared();
+    }
+
+    boolean contains(CachingStrategy strategy) {
+      return first.equals(strategy) || second.equals(strategy);
+    }
+  }
+
+  private static final class Many extends StrategyPipeline {
+    private final CachingStrategy[] strategies;
+
+    Many(CachingStrategy[] strategies) {
+      this.strategies = strategies;
+    }
+
+    <T, K> CacheEntry<T, K> prepare(CacheEntry<T, K> entry) {
+      for (int i = 0; i < strategies.length; i++) {
+        entry = strategies[i].prepare(entry);
+      }
+      return entry;
+    }
+
+    boolean validate(CacheEntry<?, ?> entry) {
+      for (int i = 0; i < strategies.length; i++) {
+        if (!strategies[i].validate(entry)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    CachingStrategy invalidator(CacheEntry<?, ?> entry) {
+      for (int i = 0; i < strategies.length; i++) {
+        if (!strategies[i].validate(entry)) {
+          return strategies[i];
+        }
+      }
+      return null;
+    }
+
+    boolean needsRefresh(CacheEntry<?, ?> entry) {
+      for (int i = 0; i < strategies.length; i++) {
+        if (strategies[i].needsRefresh(entry)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    void evicted(CacheEntry<?, ?> entry, EvictionCause cause) {
+      for (int i = 0; i < strategies.length; i++) {
+        strategies[i].evicted(entry, cause);
+      }
+    }
+
+    void invalidated(Object key) {
+      for (int i = 0; i < strategies.length; i++) {
+        strategies[i].invalidated(key);
+      }
+    }
+
+    void cleared() {
+      for (int i = 0; i < strategies.length; i++) {
+        strategies[i].cleared();
+      }
+    }
+
+    boolean contains(CachingStrategy strategy) {
+      for (int i = 0; i < strategies.length; i++) {
+        if (strategies[i].equals(strategy)) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+}
@@ -0,0 +1,34 @@
+/*
+ *  Copyright 2004 David C. Brown
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sixrockets.ashkay;
+
+/**
+ * A Weigher estimates the cost of holding an object in the cache, typically
+ * its size in bytes. The ObjectCache weighs each object once, when its
+ * CacheEntry is built, and strategies may bound the cache by the total.
+ *
+ * @see com.sixrockets.ashkay.ObjectCache#setWeigher(Weigher)
+ * @author <a href="mailto:dave@sixrockets.com">Dave Brown</a>
+ */
+public interface Weigher<T, K> {
+  /**
+   * Returns the weight of the object, which must not be negative.
+   *
+   * @param key   - the key of the object
+   * @param value - the object to weigh
+   */
+  long weigh(K key, T value);
+}
@@ -0,0 +1,296 @@
+/*
+ *  Copyright 2004 David C. Brown
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sixrockets.ashkay.cluster;
+
+import com.sixrockets.ashkay.CacheEvent;
+import com.sixrockets.ashkay.CacheEventListener;
+import com.sixrockets.ashkay.EvictionCause;
+import com.sixrockets.ashkay.ObjectCache;
+import com.sixrockets.ashkay.Serializer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * ClusterInvalidator keeps the copies of a cache on several nodes from
+ * serving each other's stale values. When a value is put into the cache, or
+ * a key is explicitly evicted, the key is sent to the other nodes, which
+ * evict it so their next get loads the new value. Values the cache loaded
+ * itself, or dropped because a load found nothing, are not sent, nor are
+ * entries that expired or were evicted for size, as only this node's copy
+ * changed.
+ * <br><br>
+ * Keys are collected and sent together every few milliseconds, or sooner
+ * once a batch is full; a key changed many times between sends is sent
+ * once. A batch larger than the transport's largest message is split over
+ * several. Received keys are evicted on the transport's thread, which only
+ * removes them from the cache's map and so never holds up a reader, and they
+ * are not sent on again. Evicting a key also supersedes a load of it in
+ * flight, which may have read the value from before the write, so what that
+ * load returns is not cached.
+ * <br><br>
+ * Invalidation is best effort: a message the transport loses leaves the
+ * key stale on the nodes that missed it until it is evicted there some
+ * other way, so a time-based strategy is a good companion for caches that
+ * must converge.
+ *
+ * @author <a href="mailto:dave@sixrockets.com">Dave Brown</a>
+ * @see InvalidationTransport
+ */
+public class ClusterInvalidator<T, K> implements CacheEventListener<T, K>, Closeable {
+
+  private static final int MAGIC = 0x41534b49;
+  private static final int HEADER = 16;
+  private static final long DEFAULT_FLUSH_INTERVAL = 5;
+  private static final int DEFAULT_MAX_BATCH = 1024;
+
+  private final ObjectCache<T, K> cache;
+  private final InvalidationTransport transport;
+  private final Serializer<K> keySerializer;
+  private final int maxBatch;
+  private final long nodeId = ThreadLocalRandom.current().nextLong();
+
+  private final Set<K> pending = ConcurrentHashMap.newKeySet();
+  private final ThreadLocal<Boolean> applying = new ThreadLocal<>();
+  private final AtomicBoolean flushQueued = new AtomicBoolean();
+  private final ScheduledExecutorService flusher;
+
+  private final LongAdder messagesSent = new LongAdder();
+  private final LongAdder keysSent = new LongAdder();
+  private final LongAdder keysReceived = new LongAdder();
+  private final LongAdder failures = new LongAdder();
+
+  /**
+   * Joins the cache to a cluster, sending keys every 5 milliseconds or every
+   * 1024 keys, whichever comes first.
+   *
+   * @param cache         - the cache to keep in step
+   * @param transport     - carries invalidations to the other nodes
+   * @param keySerializer - writes and reads the cache's keys
+   */
+  public ClusterInvalidator(ObjectCache<T, K> cache, InvalidationTransport transport, Serializer<K> keySerializer) throws IOException {
+    this(cache, transport, keySerializer, DEFAULT_FLUSH_INTERVAL, DEFAULT_MAX_BATCH);
+  }
+
+  /**
+   * Joins the cache to a cluster.
+   *
+   * @param cache         - the cache to keep in step
+   * @param transport     - carries invalidations to the other nodes
+   * @param keySerializer - writes and reads the cache's keys
+   * @param flushInterval - the most milliseconds a key waits to be sent
+   * @param maxBatch      - the number of waiting keys that sends them at once
+   */
+  public ClusterInvalidator(ObjectCache<T, K> cache, InvalidationTransport transport, Serializer<K> keySerializer,
+      long flushInterval, int maxBatch) throws IOException {
+    if ((flushInterval < 1) || (maxBatch < 1)) {
+      throw new IllegalArgumentException("flushInterval and maxBatch must be positive");
+    }
+    this.cache = cache;
+    this.transport = transport;
+    this.keySerializer = keySerializer;
+    this.maxBatch = maxBatch;
+
+    flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread thread = new Thread(r, "ashkay-invalidation-flusher");
+      thread.setDaemon(true);
+      return thread;
+    });
+    transport.start(this::received);
+    flusher.scheduleWithFixedDelay(this::flush, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+    cache.addSynchronousListener(this);
+  }
+
+  /**
+   * Queues the key of a put or explicit eviction to be sent, unless the event
+   * comes from applying another node's invalidation.
+   */
+  public void onEvent(CacheEvent<T, K> event) {
+    if (!isShared(event) || (null != applying.get())) {
+      return;
+    }
+    if (pending.add(event.getKey()) && (pending.size() >= maxBatch) && flushQueued.compareAndSet(false, true)) {
+      flusher.execute(() -> {
+        flushQueued.set(false);
+        flush();
+      });
+    }
+  }
+
+  /**
+   * Sends the waiting keys now.
+   */
+  public synchronized void flush() {
+    if (pending.isEmpty()) {
+      return;
+    }
+    int limit = transport.maxMessageSize();
+    Batch batch = new Batch();
+    Iterator<K> keys = pending.iterator();
+    while (keys.hasNext()) {
+      K key = keys.next();
+      keys.remove();
+      byte[] bytes;
+      try {
+        bytes = keySerializer.serialize(key);
+      } catch (IOException e) {
+        failures.increment();
+        continue;
+      }
+      if (HEADER + 4 + bytes.length > limit) {
+        failures.increment();
+        continue;
+      }
+      if (batch.size() + 4 + bytes.length > limit) {
+        send(batch);
+        batch = new Batch();
+      }
+      batch.add(bytes);
+    }
+    send(batch);
+  }
+
+  /**
+   * Returns the number of messages sent.
+   */
+  public long getMessagesSent() {
+    return messagesSent.sum();
+  }
+
+  /**
+   * Returns the number of keys sent to other nodes.
+   */
+  public long getKeysSent() {
+    return keysSent.sum();
+  }
+
+  /**
+   * Returns the number of keys received from other nodes.
+   */
+  public long getKeysReceived() {
+    return keysReceived.sum();
+  }
+
+  /**
+   * Returns the number of keys and messages that could not be sent or read.
+   */
+  public long getFailures() {
+    return failures.sum();
+  }
+
+  /**
+   * Sends the waiting keys and leaves the cluster.
+   */
+  public void close() {
+    cache.removeListener(this);
+    flusher.shutdownNow();
+    flush();
+    transport.close();
+  }
+
+  private boolean isShared(CacheEvent<T, K> event) {
+    switch (event.getType()) {
+      case CREATED:
+      case UPDATED:
+        return !event.isLoad();
+      case EVICTED:
+        return (EvictionCause.EXPLICIT == event.getCause()) && !event.isLoad();
+      default:
+        return false;
+    }
+  }
+
+  private void send(Batch batch) {
+    if (0 == batch.count) {
+      return;
+    }
+    try {
+      transport.send(batch.toMessage(nodeId));
+      messagesSent.increment();
+      keysSent.add(batch.count);
+    } catch (IOException e) {
+      failures.increment();
+    }
+  }
+
+  private void received(byte[] message) {
+    ByteBuffer buffer = ByteBuffer.wrap(message);
+    try {
+      if ((MAGIC != buffer.getInt()) || (nodeId == buffer.getLong())) {
+        return;
+      }
+      int count = buffer.getInt();
+      applying.set(Boolean.TRUE);
+      try {
+        for (int i = 0; i < count; i++) {
+          int length = buffer.getInt();
+          ByteBuffer key = buffer.slice();
+          key.limit(length);
+          buffer.position(buffer.position() + length);
+          K received = keySerializer.deserialize(key);
+          keysReceived.increment();
+          cache.evict(received);
+        }
+      } finally {
+        applying.remove();
+      }
+    } catch (IOException | BufferUnderflowException | IllegalArgumentException e) {
+      failures.increment();
+    }
+  }
+
+  /**
+   * Serialized keys on their way into one message.
+   */
+  private static final class Batch {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final DataOutputStream out = new DataOutputStream(bytes);
+    int count;
+
+    int size() {
+      return HEADER + bytes.size();
+    }
+
+    void add(byte[] key) {
+      try {
+        out.writeInt(key.length);
+        out.write(key);
+      } catch (IOException e) {
+        throw new IllegalStateException(e);
+      }
+      count++;
+    }
+
+    byte[] toMessage(long sender) {
+      ByteBuffer message = ByteBuffer.allocate(size());
+      message.putInt(MAGIC).putLong(sender).putInt(count).put(bytes.toByteArray());
+      return message.array();
+    }
+  }
+}
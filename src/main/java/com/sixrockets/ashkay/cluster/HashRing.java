@@ -0,0 +1,156 @@
+/*
+ *  Copyright 2004 David C. Brown
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sixrockets.ashkay.cluster;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * HashRing assigns keys to shards by consistent hashing. Each shard is placed
+ * at many points around a ring of 64 bit hashes, its virtual nodes, and a key
+ * belongs to the shard at the first point at or after the key's hash. Adding
+ * a shard takes over only the arcs in front of its own points, and removing
+ * one hands only its arcs to the points behind them, so about 1/N of the keys
+ * change shard either way. With enough virtual nodes each shard owns close to
+ * an even share of the ring.
+ * <br><br>
+ * A ring is immutable; adding or removing a shard makes a new one. Looking a
+ * key up would be a binary search over the sorted points, but its branches
+ * cannot be predicted and cost more than the cache hit it routes. Instead the
+ * ring is cut into four to eight buckets per point by the top bits of the hash,
+ * each remembering its first point, so a lookup reads one bucket and steps
+ * over the few points, usually none, that fall inside it.
+ *
+ * @author <a href="mailto:dave@sixrockets.com">Dave Brown</a>
+ */
+final class HashRing<S> {
+
+  private final Map<String, S> shards;
+  private final int virtualNodes;
+  private final long[] points;
+  private final Object[] owners;
+  private final int[] buckets;
+  private final int shift;
+
+  HashRing(int virtualNodes) {
+    this(Collections.emptyMap(), virtualNodes);
+  }
+
+  private HashRing(Map<String, S> shards, int virtualNodes) {
+    this.shards = Collections.unmodifiableMap(shards);
+    this.virtualNodes = virtualNodes;
+
+    String[] names = shards.keySet().toArray(new String[0]);
+    long[] hashes = new long[names.length * virtualNodes];
+    for (int s = 0; s < names.length; s++) {
+      for (int v = 0; v < virtualNodes; v++) {
+        hashes[s * virtualNodes + v] = hash(names[s] + '#' + v);
+      }
+    }
+
+    // sort the points, keeping which shard each one came from
+    Integer[] index = new Integer[hashes.length];
+    for (int i = 0; i < index.length; i++) {
+      index[i] = i;
+    }
+    Arrays.sort(index, (a, b) -> Long.compareUnsigned(hashes[a], hashes[b]));
+    points = new long[hashes.length];
+    owners = new Object[hashes.length];
+    for (int i = 0; i < index.length; i++) {
+      points[i] = hashes[index[i]];
+      owners[i] = shards.get(names[index[i] / virtualNodes]);
+    }
+
+    int bits = Math.min(20, Math.max(8, 66 - Long.numberOfLeadingZeros(Math.max(1, points.length))));
+    shift = 64 - bits;
+    buckets = new int[(1 << bits) + 1];
+    int point = 0;
+    for (int b = 0; b < buckets.length; b++) {
+      while ((point < points.length) && ((int) (points[point] >>> shift) < b)) {
+        point++;
+      }
+      buckets[b] = point;
+    }
+  }
+
+  /**
+   * Returns a ring with the shard added, replacing any of the same name.
+   */
+  HashRing<S> with(String name, S shard) {
+    Map<String, S> added = new LinkedHashMap<>(shards);
+    added.put(name, shard);
+    return new HashRing<>(added, virtualNodes);
+  }
+
+  /**
+   * Returns a ring without the named shard.
+   */
+  HashRing<S> without(String name) {
+    Map<String, S> removed = new LinkedHashMap<>(shards);
+    removed.remove(name);
+    return new HashRing<>(removed, virtualNodes);
+  }
+
+  /**
+   * Returns the shard a key belongs to, or null if the ring is empty.
+   */
+  S shardFor(Object key) {
+    if (0 == points.length) {
+      return null;
+    }
+    long hash = mix(key.hashCode());
+    int bucket = (int) (hash >>> shift);
+    int i = buckets[bucket];
+    int end = buckets[bucket + 1];
+    while ((i < end) && (Long.compareUnsigned(points[i], hash) < 0)) {
+      i++;
+    }
+    // owners only ever holds shards added to this ring
+    @SuppressWarnings("unchecked")
+    S shard = (S) owners[(i == points.length) ? 0 : i];
+    return shard;
+  }
+
+  /**
+   * Returns the shards by name, in the order they were added.
+   */
+  Map<String, S> shards() {
+    return shards;
+  }
+
+  /**
+   * Hashes a virtual node's name with FNV-1a, then mixes the result.
+   */
+  private static long hash(String name) {
+    long hash = 0xcbf29ce484222325L;
+    for (byte b : name.getBytes(StandardCharsets.UTF_8)) {
+      hash = (hash ^ (b & 0xff)) * 0x100000001b3L;
+    }
+    return mix(hash);
+  }
+
+  /**
+   * Spreads a hash over all 64 bits, the finalizer of MurmurHash3.
+   */
+  private static long mix(long hash) {
+    hash = (hash ^ (hash >>> 33)) * 0xff51afd7ed558ccdL;
+    hash = (hash ^ (hash >>> 33)) * 0xc4ceb9fe1a85ec53L;
+    return hash ^ (hash >>> 33);
+  }
+}
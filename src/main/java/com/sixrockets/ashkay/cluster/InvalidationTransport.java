@@ -0,0 +1,64 @@
+/*
+ *  Copyright 2004 David C. Brown
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sixrockets.ashkay.cluster;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * InvalidationTransport carries invalidation messages between the nodes of a
+ * cluster. A message sent by one node should reach every other node, though
+ * a transport may lose messages; a node may or may not receive its own.
+ * Messages are opaque bytes made and read by ClusterInvalidator.
+ *
+ * @author <a href="mailto:dave@sixrockets.com">Dave Brown</a>
+ * @see ClusterInvalidator
+ */
+public interface InvalidationTransport extends Closeable {
+
+  /**
+   * Receives messages from other nodes, on a thread of the transport's.
+   */
+  interface Receiver {
+    void received(byte[] message);
+  }
+
+  /**
+   * Starts receiving messages.
+   *
+   * @param receiver - where received messages go
+   */
+  void start(Receiver receiver) throws IOException;
+
+  /**
+   * Sends a message to the other nodes.
+   *
+   * @param message - the message, no longer than maxMessageSize
+   */
+  void send(byte[] message) throws IOException;
+
+  /**
+   * Returns the largest message the transport can send.
+   */
+  default int maxMessageSize() {
+    return Integer.MAX_VALUE;
+  }
+
+  /**
+   * Stops sending and receiving.
+   */
+  void close();
+}
@@ -0,0 +1,79 @@
+/*
+ *  Copyright 2004 David C. Brown
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sixrockets.ashkay.cluster;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * LoopbackTransport connects the nodes of a cluster running in one JVM, for
+ * tests and benchmarks. Nodes sharing a Group receive each other's messages,
+ * each on its own daemon thread, in the order they were sent.
+ *
+ * @author <a href="mailto:dave@sixrockets.com">Dave Brown</a>
+ */
+public class LoopbackTransport implements InvalidationTransport {
+
+  /**
+   * The nodes of one in-JVM cluster.
+   */
+  public static final class Group {
+    final List<LoopbackTransport> members = new CopyOnWriteArrayList<>();
+  }
+
+  private final Group group;
+  private ExecutorService inbox;
+  private Receiver receiver;
+
+  public LoopbackTransport(Group group) {
+    this.group = group;
+  }
+
+  public void start(Receiver aReceiver) {
+    receiver = aReceiver;
+    inbox = Executors.newSingleThreadExecutor(r -> {
+      Thread thread = new Thread(r, "ashkay-loopback-receiver");
+      thread.setDaemon(true);
+      return thread;
+    });
+    group.members.add(this);
+  }
+
+  public void send(byte[] message) {
+    for (LoopbackTransport member : group.members) {
+      if (member != this) {
+        member.deliver(message);
+      }
+    }
+  }
+
+  public void close() {
+    group.members.remove(this);
+    if (null != inbox) {
+      inbox.shutdown();
+    }
+  }
+
+  private void deliver(byte[] message) {
+    try {
+      inbox.execute(() -> receiver.received(message));
+    } catch (RuntimeException e) {
+      // closed while the message was on its way
+    }
+  }
+}
@@ -0,0 +1,106 @@
+/*
+ *  Copyright 2004 David C. Brown
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sixrockets.ashkay.cluster;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.net.NetworkInterface;
+import java.util.Arrays;
+
+/**
+ * MulticastTransport sends invalidations as UDP datagrams to a multicast
+ * group, so one send reaches every node however many there are. Delivery is
+ * not guaranteed; a lost datagram leaves its keys stale on some nodes until
+ * their own strategies reload them, so pair it with expiry. Messages are kept
+ * to a size that fits an Ethernet frame, 1400 bytes unless told otherwise.
+ * Nodes receive their own datagrams, which ClusterInvalidator ignores.
+ *
+ * @author <a href="mailto:dave@sixrockets.com">Dave Brown</a>
+ */
+public class MulticastTransport implements InvalidationTransport {
+
+  private static final int DEFAULT_MESSAGE_SIZE = 1400;
+
+  private final InetAddress group;
+  private final int port;
+  private final NetworkInterface networkInterface;
+  private final int maxMessageSize;
+  private MulticastSocket socket;
+
+  /**
+   * Creates a transport for the group on the default interface.
+   *
+   * @param group - the multicast address
+   * @param port  - the port every node listens on
+   */
+  public MulticastTransport(InetAddress group, int port) {
+    this(group, port, null, DEFAULT_MESSAGE_SIZE);
+  }
+
+  /**
+   * Creates a transport for the group.
+   *
+   * @param group            - the multicast address
+   * @param port             - the port every node listens on
+   * @param networkInterface - the interface to join on, or null for the default
+   * @param maxMessageSize   - the largest datagram to send
+   */
+  public MulticastTransport(InetAddress group, int port, NetworkInterface networkInterface, int maxMessageSize) {
+    this.group = group;
+    this.port = port;
+    this.networkInterface = networkInterface;
+    this.maxMessageSize = maxMessageSize;
+  }
+
+  public void start(Receiver receiver) throws IOException {
+    socket = new MulticastSocket(port);
+    // a null interface joins on the socket's default interface
+    socket.joinGroup(new InetSocketAddress(group, port), networkInterface);
+
+    Thread thread = new Thread(() -> {
+      byte[] buffer = new byte[65536];
+      DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+      try {
+        while (true) {
+          packet.setLength(buffer.length);
+          socket.receive(packet);
+          receiver.received(Arrays.copyOfRange(buffer, packet.getOffset(), packet.getOffset() + packet.getLength()));
+        }
+      } catch (IOException e) {
+        // closed
+      }
+    }, "ashkay-multicast-receiver");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  public void send(byte[] message) throws IOException {
+    socket.send(new DatagramPacket(message, message.length, group, port));
+  }
+
+  public int maxMessageSize() {
+    return maxMessageSize;
+  }
+
+  public void close() {
+    if (null != socket) {
+      socket.close();
+    }
+  }
+}
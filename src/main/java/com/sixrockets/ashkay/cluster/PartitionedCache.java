@@ -0,0 +1,285 @@
+/*
+ *  Copyright 2004 David C. Brown
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sixrockets.ashkay.cluster;
+
+import com.sixrockets.ashkay.CreationException;
+import com.sixrockets.ashkay.ObjectCache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PartitionedCache splits its keys across several ObjectCaches, its shards,
+ * so that together they can hold more than one cache should. Keys are
+ * assigned by consistent hashing with virtual nodes (160 per shard by
+ * default), so each shard owns about an even share and adding or removing a
+ * shard moves only about 1/N of the keys.
+ * <br><br>
+ * Each shard is an independent ObjectCache with its own factory and
+ * strategies. It may hold its objects in process, or be a near cache over a
+ * CacheServer reached through a local socket by giving it a
+ * SharedCacheFactory, for instance one server per shard:
+ * <pre>
+ *   PartitionedCache&lt;Page, String&gt; pages = new PartitionedCache&lt;&gt;();
+ *   pages.addShard("hot", new ObjectCache&lt;&gt;(new PageFactory()));
+ *   pages.addShard("server-1", new ObjectCache&lt;&gt;(new SharedCacheFactory&lt;&gt;(client1, keys, values, new PageFactory())));
+ * </pre>
+ * getAll splits the keys by shard and asks the shards in parallel, one of
+ * them on the calling thread and the rest on the fan-out executor, so a
+ * batch costs the slowest shard's time rather than the sum of them.
+ * <br><br>
+ * When a shard is added, the objects now belonging to it are moved over from
+ * the shards that held them; when one is removed, its objects are moved to
+ * the shards that take over its keys. Moving takes the object out of the old
+ * shard and puts it in the new one, so nothing is loaded again; the events
+ * it fires are marked as loads, so a ClusterInvalidator on a shard does not
+ * take a move for a write. Objects a shard keeps outside its ObjectCache,
+ * such as on a CacheServer, stay where they are. While shards are being
+ * changed a key may be loaded by its new shard before its old object
+ * arrives, which then replaces it.
+ *
+ * @author <a href="mailto:dave@sixrockets.com">Dave Brown</a>
+ * @see HashRing
+ */
+public class PartitionedCache<T, K> {
+
+  private static final int DEFAULT_VIRTUAL_NODES = 160;
+
+  private volatile HashRing<ObjectCache<T, K>> ring;
+  private final ExecutorService fanout;
+  private volatile Executor executor;
+
+  /**
+   * Creates a cache with no shards and 160 virtual nodes per shard.
+   */
+  public PartitionedCache() {
+    this(DEFAULT_VIRTUAL_NODES);
+  }
+
+  /**
+   * Creates a cache with no shards.
+   *
+   * @param virtualNodes - the points each shard has on the hash ring; more
+   *                     balance the shards more evenly
+   */
+  public PartitionedCache(int virtualNodes) {
+    if (virtualNodes < 1) {
+      throw new IllegalArgumentException("virtualNodes must be positive");
+    }
+    ring = new HashRing<>(virtualNodes);
+    fanout = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS, new SynchronousQueue<>(), r -> {
+      Thread thread = new Thread(r, "ashkay-partition-fanout");
+      thread.setDaemon(true);
+      return thread;
+    });
+    executor = fanout;
+  }
+
+  /**
+   * Sets the executor getAll asks shards on. By default idle threads are
+   * kept for a minute and started as needed; the default executor is shut
+   * down when replaced, but one set here stays the caller's to shut down.
+   *
+   * @param anExecutor - the executor for fan-out
+   */
+  public synchronized PartitionedCache<T, K> setExecutor(Executor anExecutor) {
+    Executor previous = executor;
+    executor = anExecutor;
+    if (previous == fanout) {
+      fanout.shutdown();
+    }
+    return this;
+  }
+
+  /**
+   * Adds a shard and moves to it the objects it now owns.
+   *
+   * @param name  - the shard's name, which places it on the ring
+   * @param shard - the shard
+   * @return the number of objects moved
+   */
+  public synchronized int addShard(String name, ObjectCache<T, K> shard) {
+    if (ring.shards().containsKey(name)) {
+      throw new IllegalArgumentException("A shard named " + name + " exists");
+    }
+    HashRing<ObjectCache<T, K>> previous = ring;
+    ring = previous.with(name, shard);
+    return rebalance(previous.shards().values());
+  }
+
+  /**
+   * Removes a shard, moving its objects to the shards that now own them.
+   * Removing the last shard leaves its objects in it.
+   *
+   * @param name - the shard's name
+   * @return the number of objects moved
+   */
+  public synchronized int removeShard(String name) {
+    ObjectCache<T, K> shard = ring.shards().get(name);
+    if (null == shard) {
+      return 0;
+    }
+    ring = ring.without(name);
+    return ring.shards().isEmpty() ? 0 : rebalance(List.of(shard));
+  }
+
+  /**
+   * Returns the shards by name.
+   */
+  public Map<String, ObjectCache<T, K>> getShards() {
+    return ring.shards();
+  }
+
+  /**
+   * Returns the shard that holds a key.
+   *
+   * @throws IllegalStateException if there are no shards
+   */
+  public ObjectCache<T, K> shardFor(K key) {
+    ObjectCache<T, K> shard = ring.shardFor(key);
+    if (null == shard) {
+      throw new IllegalStateException("No shards");
+    }
+    return shard;
+  }
+
+  public T get(K key) throws CreationException {
+    return shardFor(key).get(key);
+  }
+
+  public T get(K key, Object data) throws CreationException {
+    return shardFor(key).get(key, data);
+  }
+
+  /**
+   * Looks many keys up, each shard's share of them in one call to that
+   * shard's getAll, the shards in parallel.
+   *
+   * @param keys - the keys to look up
+   * @return the objects found, by key, in the order of the keys given
+   * @throws CreationException if any shard fails to create an object
+   */
+  public Map<K, T> getAll(Collection<K> keys) throws CreationException {
+    HashRing<ObjectCache<T, K>> current = ring;
+    Map<ObjectCache<T, K>, List<K>> byShard = new LinkedHashMap<>();
+    for (K key : keys) {
+      ObjectCache<T, K> shard = current.shardFor(key);
+      if (null == shard) {
+        throw new IllegalStateException("No shards");
+      }
+      byShard.computeIfAbsent(shard, s -> new ArrayList<>()).add(key);
+    }
+
+    List<CompletableFuture<Map<K, T>>> others = new ArrayList<>(byShard.size());
+    Map.Entry<ObjectCache<T, K>, List<K>> own = null;
+    for (Map.Entry<ObjectCache<T, K>, List<K>> batch : byShard.entrySet()) {
+      if (null == own) {
+        own = batch;
+      } else {
+        others.add(CompletableFuture.supplyAsync(() -> {
+          try {
+            return batch.getKey().getAll(batch.getValue());
+          } catch (CreationException e) {
+            throw new CompletionException(e);
+          }
+        }, executor));
+      }
+    }
+
+    Map<K, T> objects = new HashMap<>();
+    if (null != own) {
+      objects.putAll(own.getKey().getAll(own.getValue()));
+    }
+    for (CompletableFuture<Map<K, T>> other : others) {
+      try {
+        objects.putAll(other.join());
+      } catch (CompletionException e) {
+        if (e.getCause() instanceof CreationException) {
+          throw (CreationException) e.getCause();
+        }
+        throw e;
+      }
+    }
+    Map<K, T> found = new LinkedHashMap<>();
+    for (K key : keys) {
+      T object = objects.get(key);
+      if (null != object) {
+        found.put(key, object);
+      }
+    }
+    return found;
+  }
+
+  public void put(K key, T value) {
+    shardFor(key).put(key, value);
+  }
+
+  public T evict(K key) {
+    return shardFor(key).evict(key);
+  }
+
+  /**
+   * Clears every shard.
+   */
+  public void clear() {
+    for (ObjectCache<T, K> shard : ring.shards().values()) {
+      shard.clear();
+    }
+  }
+
+  /**
+   * Returns the number of objects in all the shards.
+   */
+  public int size() {
+    int size = 0;
+    for (ObjectCache<T, K> shard : ring.shards().values()) {
+      size += shard.size();
+    }
+    return size;
+  }
+
+  /**
+   * Moves the objects of the given shards that the ring now gives to another.
+   */
+  private int rebalance(Collection<ObjectCache<T, K>> sources) {
+    HashRing<ObjectCache<T, K>> current = ring;
+    int moved = 0;
+    for (ObjectCache<T, K> source : sources) {
+      for (K key : source.keys()) {
+        ObjectCache<T, K> owner = current.shardFor(key);
+        if (owner != source) {
+          T object = source.moveOut(key);
+          if (null != object) {
+            owner.moveIn(key, object);
+            moved++;
+          }
+        }
+      }
+    }
+    return moved;
+  }
+}
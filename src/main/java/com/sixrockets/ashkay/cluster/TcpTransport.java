@@ -0,0 +1,202 @@
+/*
+ *  Copyright 2004 David C. Brown
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sixrockets.ashkay.cluster;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * TcpTransport sends invalidations over a TCP connection to each peer, for
+ * networks without multicast or when every message must arrive while both
+ * nodes are up. Each message is framed by its length, at most 16 MB; a
+ * connection sending a frame outside that is closed without reading it, and
+ * the invalidator splits its batches to fit. Connections to peers
+ * are opened on the first send and reopened on the next send after a
+ * failure; a peer that cannot be reached misses the message, and send
+ * reports the failure once every other peer has been sent to.
+ * <br><br>
+ * Every node listens on its own port and is given the addresses of the
+ * others. Incoming connections are read on a daemon thread each.
+ *
+ * @author <a href="mailto:dave@sixrockets.com">Dave Brown</a>
+ */
+public class TcpTransport implements InvalidationTransport {
+
+  private static final int CONNECT_TIMEOUT = 2000;
+  private static final int MAX_MESSAGE = 16 << 20;
+
+  private final InetSocketAddress bindAddress;
+  private final List<Peer> peers = new CopyOnWriteArrayList<>();
+  private final List<Socket> accepted = new CopyOnWriteArrayList<>();
+  private ServerSocket server;
+  private volatile boolean closed;
+
+  /**
+   * Creates a transport listening on the given address.
+   *
+   * @param bindAddress - the address to listen on, port 0 for any free port
+   */
+  public TcpTransport(InetSocketAddress bindAddress) {
+    this.bindAddress = bindAddress;
+  }
+
+  /**
+   * Adds a node to send to.
+   *
+   * @param address - the address the peer listens on
+   */
+  public void addPeer(InetSocketAddress address) {
+    peers.add(new Peer(address));
+  }
+
+  /**
+   * Returns the port this transport listens on, once started.
+   */
+  public int getLocalPort() {
+    return server.getLocalPort();
+  }
+
+  public void start(Receiver receiver) throws IOException {
+    server = new ServerSocket();
+    server.bind(bindAddress);
+    Thread thread = new Thread(() -> {
+      try {
+        while (!closed) {
+          Socket socket = server.accept();
+          accepted.add(socket);
+          Thread reader = new Thread(() -> read(socket, receiver), "ashkay-tcp-receiver");
+          reader.setDaemon(true);
+          reader.start();
+        }
+      } catch (IOException e) {
+        // closed
+      }
+    }, "ashkay-tcp-acceptor");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  public void send(byte[] message) throws IOException {
+    IOException failure = null;
+    for (Peer peer : peers) {
+      try {
+        peer.send(message);
+      } catch (IOException e) {
+        failure = e;
+      }
+    }
+    if (null != failure) {
+      throw failure;
+    }
+  }
+
+  public int maxMessageSize() {
+    return MAX_MESSAGE;
+  }
+
+  public void close() {
+    closed = true;
+    try {
+      if (null != server) {
+        server.close();
+      }
+      for (Socket socket : accepted) {
+        socket.close();
+      }
+    } catch (IOException e) {
+      // nothing more to close
+    }
+    for (Peer peer : peers) {
+      peer.disconnect();
+    }
+  }
+
+  private void read(Socket socket, Receiver receiver) {
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()))) {
+      while (true) {
+        int length = in.readInt();
+        if ((length < 1) || (length > MAX_MESSAGE)) {
+          throw new IOException("Bad frame length " + length);
+        }
+        byte[] message = new byte[length];
+        in.readFully(message);
+        receiver.received(message);
+      }
+    } catch (IOException e) {
+      // the peer went away or sent garbage, it reconnects on its next send
+    } finally {
+      accepted.remove(socket);
+      try {
+        socket.close();
+      } catch (IOException e) {
+        // already closed
+      }
+    }
+  }
+
+  /**
+   * A node sent to, and the connection to it if one is open.
+   */
+  private final class Peer {
+    final InetSocketAddress address;
+    Socket socket;
+    DataOutputStream out;
+
+    Peer(InetSocketAddress address) {
+      this.address = address;
+    }
+
+    synchronized void send(byte[] message) throws IOException {
+      if (closed) {
+        throw new IOException("Transport closed");
+      }
+      try {
+        if (null == socket) {
+          socket = new Socket();
+          socket.setTcpNoDelay(true);
+          socket.connect(address, CONNECT_TIMEOUT);
+          out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        }
+        out.writeInt(message.length);
+        out.write(message);
+        out.flush();
+      } catch (IOException e) {
+        disconnect();
+        throw e;
+      }
+    }
+
+    synchronized void disconnect() {
+      if (null != socket) {
+        try {
+          socket.close();
+        } catch (IOException e) {
+          // already broken
+        }
+      }
+      socket = null;
+      out = null;
+    }
+  }
+}
@@ -0,0 +1,223 @@
+/*
+ *  Copyright 2004 David C. Brown
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sixrockets.ashkay.management;
+
+import com.sixrockets.ashkay.CacheStats;
+import com.sixrockets.ashkay.CachingStrategy;
+import com.sixrockets.ashkay.EvictionCause;
+import com.sixrockets.ashkay.ObjectCache;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * CacheManagement registers ObjectCaches with the platform MBeanServer, each
+ * under com.sixrockets.ashkay:type=ObjectCache,name= its name, or a name made
+ * from its identity if it has none. Every attribute read takes a fresh
+ * statistics snapshot, which is cheap enough for a console polling each
+ * second.
+ * <br><br>
+ * A console can only name keys as strings, so evicting one goes through the
+ * key parser the cache was registered with. A cache registered without one is
+ * taken to be keyed by strings.
+ *
+ * @author <a href="mailto:dave@sixrockets.com">Dave Brown</a>
+ * @see ObjectCacheMXBean
+ */
+public final class CacheManagement implements ObjectCacheMXBean {
+
+  private static final String DOMAIN = "com.sixrockets.ashkay";
+  private static final double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+  private final ObjectCache<?, Object> cache;
+  private final Function<String, ?> keys;
+
+  private CacheManagement(ObjectCache<?, Object> cache, Function<String, ?> keys) {
+    this.cache = cache;
+    this.keys = keys;
+  }
+
+  /**
+   * Registers a cache keyed by strings with the platform MBeanServer.
+   *
+   * @param cache - the cache to manage
+   * @return the name it was registered under
+   * @throws JMException if the cache cannot be registered, for instance
+   *                     because another has its name
+   */
+  public static ObjectName register(ObjectCache<?, String> cache) throws JMException {
+    return register(cache, Function.identity());
+  }
+
+  /**
+   * Registers a cache with the platform MBeanServer, along with the way to
+   * turn the keys a console names into the cache's own.
+   *
+   * @param cache - the cache to manage
+   * @param keys - parses a key named by a console, throwing
+   *             IllegalArgumentException or returning null if it cannot
+   * @return the name it was registered under
+   * @throws JMException if the cache cannot be registered, for instance
+   *                     because another has its name
+   */
+  public static <K> ObjectName register(ObjectCache<?, K> cache, Function<String, ? extends K> keys)
+      throws JMException {
+    ObjectName name = nameOf(cache);
+    // keys only makes Ks, so the cache is never handed a key of another type
+    @SuppressWarnings("unchecked")
+    ObjectCache<?, Object> keyed = (ObjectCache<?, Object>) cache;
+    ManagementFactory.getPlatformMBeanServer().registerMBean(new CacheManagement(keyed, keys), name);
+    return name;
+  }
+
+  /**
+   * Unregisters a cache, if it is registered.
+   *
+   * @param cache - the cache to stop managing
+   * @throws JMException if the cache cannot be unregistered
+   */
+  public static void unregister(ObjectCache<?, ?> cache) throws JMException {
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    ObjectName name = nameOf(cache);
+    if (server.isRegistered(name)) {
+      server.unregisterMBean(name);
+    }
+  }
+
+  /**
+   * Returns the name a cache is registered under.
+   *
+   * @param cache - the cache
+   * @return its object name
+   * @throws JMException if the cache's name makes no valid object name
+   */
+  public static ObjectName nameOf(ObjectCache<?, ?> cache) throws JMException {
+    String name = cache.getName();
+    if (null == name) {
+      name = "cache-" + Integer.toHexString(System.identityHashCode(cache));
+    }
+    return new ObjectName(DOMAIN + ":type=ObjectCache,name=" + ObjectName.quote(name));
+  }
+
+  public String getName() {
+    return cache.getName();
+  }
+
+  public int getSize() {
+    return cache.size();
+  }
+
+  public long getWeight() {
+    return cache.weight();
+  }
+
+  public boolean isRecordingStats() {
+    return cache.isRecordingStats();
+  }
+
+  public void setRecordingStats(boolean record) {
+    cache.setRecordStats(record);
+  }
+
+  public long getHitCount() {
+    return cache.stats().hitCount();
+  }
+
+  public long getMissCount() {
+    return cache.stats().missCount();
+  }
+
+  public double getHitRate() {
+    return cache.stats().hitRate();
+  }
+
+  public long getLoadSuccessCount() {
+    return cache.stats().loadSuccessCount();
+  }
+
+  public long getLoadFailureCount() {
+    return cache.stats().loadFailureCount();
+  }
+
+  public double getAverageLoadTime() {
+    return cache.stats().loadLatency().mean() / NANOS_PER_MILLI;
+  }
+
+  public double getLoadTime99thPercentile() {
+    return cache.stats().loadLatency().percentile(99) / NANOS_PER_MILLI;
+  }
+
+  public long getWaitCount() {
+    return cache.stats().waitLatency().count();
+  }
+
+  public double getWaitTime99thPercentile() {
+    return cache.stats().waitLatency().percentile(99) / NANOS_PER_MILLI;
+  }
+
+  public long getEvictionCount() {
+    return cache.stats().evictionCount();
+  }
+
+  public Map<String, Long> getEvictionCounts() {
+    CacheStats stats = cache.stats();
+    Map<String, Long> counts = new TreeMap<>();
+    for (EvictionCause cause : EvictionCause.values()) {
+      counts.put(cause.name(), stats.evictionCount(cause));
+    }
+    return counts;
+  }
+
+  public Map<String, Long> getStrategyEvictionCounts() {
+    return byClassName(cache.stats().evictions());
+  }
+
+  public Map<String, Long> getInvalidationCounts() {
+    return byClassName(cache.stats().invalidations());
+  }
+
+  public void clear() {
+    cache.clear();
+  }
+
+  public boolean evict(String key) {
+    Object parsed;
+    try {
+      parsed = keys.apply(key);
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException("Not a key of " + cache.getName() + ": " + key, e);
+    }
+    if (null == parsed) {
+      throw new IllegalArgumentException("Not a key of " + cache.getName() + ": " + key);
+    }
+    return null != cache.evict(parsed);
+  }
+
+  private static Map<String, Long> byClassName(Map<CachingStrategy, Long> counts) {
+    Map<String, Long> byName = new TreeMap<>();
+    for (Map.Entry<CachingStrategy, Long> entry : counts.entrySet()) {
+      byName.merge(entry.getKey().getClass().getName(), entry.getValue(), Long::sum);
+    }
+    return byName;
+  }
+}
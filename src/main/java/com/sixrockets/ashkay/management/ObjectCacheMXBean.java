@@ -0,0 +1,89 @@
+/*
+ *  Copyright 2004 David C. Brown
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sixrockets.ashkay.management;
+
+import java.util.Map;
+
+/**
+ * ObjectCacheMXBean is the management interface of an ObjectCache, as seen
+ * through JMX. Counts and timings come from the cache's statistics and are 0
+ * while the cache is not recording them; recording can be switched on here.
+ * Times are in milliseconds.
+ *
+ * @author <a href="mailto:dave@sixrockets.com">Dave Brown</a>
+ * @see CacheManagement
+ */
+public interface ObjectCacheMXBean {
+
+  String getName();
+
+  int getSize();
+
+  long getWeight();
+
+  boolean isRecordingStats();
+
+  void setRecordingStats(boolean record);
+
+  long getHitCount();
+
+  long getMissCount();
+
+  double getHitRate();
+
+  long getLoadSuccessCount();
+
+  long getLoadFailureCount();
+
+  double getAverageLoadTime();
+
+  double getLoadTime99thPercentile();
+
+  long getWaitCount();
+
+  double getWaitTime99thPercentile();
+
+  long getEvictionCount();
+
+  /**
+   * Returns eviction counts by EvictionCause name.
+   */
+  Map<String, Long> getEvictionCounts();
+
+  /**
+   * Returns eviction counts by the class name of the strategy that evicted.
+   */
+  Map<String, Long> getStrategyEvictionCounts();
+
+  /**
+   * Returns invalidation counts by strategy class name.
+   */
+  Map<String, Long> getInvalidationCounts();
+
+  /**
+   * Removes every entry from the cache.
+   */
+  void clear();
+
+  /**
+   * Evicts a key, given as a string and parsed by the key parser the cache was
+   * registered with.
+   *
+   * @return true if there was an entry to evict
+   * @throws IllegalArgumentException if the string names no key of the cache
+   */
+  boolean evict(String key);
+}
@@ -0,0 +1,42 @@
+/*
+ *  Copyright 2004 David C. Brown
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sixrockets.ashkay.server;
+
+import java.util.Arrays;
+
+/**
+ * A key as the server sees it: the bytes a client serialized it to.
+ *
+ * @author <a href="mailto:dave@sixrockets.com">Dave Brown</a>
+ */
+final class ByteKey {
+
+  final byte[] bytes;
+  private final int hash;
+
+  ByteKey(byte[] bytes) {
+    this.bytes = bytes;
+    hash = Arrays.hashCode(bytes);
+  }
+
+  public boolean equals(Object o) {
+    return (o instanceof ByteKey) && Arrays.equals(bytes, ((ByteKey) o).bytes);
+  }
+
+  public int hashCode() {
+    return hash;
+  }
+}
@@ -0,0 +1,324 @@
+/*
+ *  Copyright 2004 David C. Brown
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sixrockets.ashkay.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * CacheClient talks to a CacheServer over one connection shared by every
+ * thread using it. Requests are pipelined: each is written as soon as it is
+ * made and answered through a future, and a single reader thread completes
+ * the futures in the order the server answers, which is the order the
+ * requests were sent. Many threads waiting on the server therefore cost one
+ * socket and no extra round trips.
+ * <br><br>
+ * Callers never touch the socket: a request is queued for a writer thread,
+ * which opens the connection, then writes whatever has queued up and flushes
+ * once. A server that is slow to accept or to read therefore delays only the
+ * futures, which callers wait on with their own timeouts. Once too many
+ * requests are queued, further ones fail at once.
+ * <br><br>
+ * The connection is opened on the first request. If it fails, every waiting
+ * request fails with the IOException and the next request opens a new one.
+ *
+ * @author <a href="mailto:dave@sixrockets.com">Dave Brown</a>
+ * @see CacheServer
+ */
+public class CacheClient implements Closeable {
+
+  private static final int CONNECT_TIMEOUT = 2000;
+  private static final int MAX_QUEUED = 10_000;
+
+  private final InetSocketAddress address;
+  private Connection connection;
+  private boolean closed;
+
+  /**
+   * Creates a client for the server at the given address.
+   *
+   * @param address - the server's address
+   */
+  public CacheClient(InetSocketAddress address) {
+    this.address = address;
+  }
+
+  /**
+   * Looks a key up.
+   *
+   * @param key - the serialized key
+   * @return the serialized value, or null if the server has none
+   */
+  public CompletableFuture<byte[]> get(byte[] key) {
+    ByteBuffer request = request(Protocol.GET, 4 + key.length);
+    put(request, key);
+    return send(request, (status, body) -> (Protocol.HIT == status) ? bytes(body) : null);
+  }
+
+  /**
+   * Looks up many keys in one request.
+   *
+   * @param keys - the serialized keys
+   * @return the serialized values in the order of the keys, null where the
+   *         server has none
+   */
+  public CompletableFuture<List<byte[]>> getAll(List<byte[]> keys) {
+    int length = 4;
+    for (byte[] key : keys) {
+      length += 4 + key.length;
+    }
+    ByteBuffer request = request(Protocol.MGET, length);
+    request.putInt(keys.size());
+    for (byte[] key : keys) {
+      put(request, key);
+    }
+    return send(request, (status, body) -> {
+      int count = body.getInt();
+      List<byte[]> values = new ArrayList<>(count);
+      for (int i = 0; i < count; i++) {
+        values.add(bytes(body));
+      }
+      return values;
+    });
+  }
+
+  /**
+   * Stores a value.
+   *
+   * @param key   - the serialized key
+   * @param value - the serialized value
+   * @return completes when the server has stored the value
+   */
+  public CompletableFuture<Void> put(byte[] key, byte[] value) {
+    ByteBuffer request = request(Protocol.PUT, 8 + key.length + value.length);
+    put(request, key);
+    put(request, value);
+    return send(request, (status, body) -> null);
+  }
+
+  /**
+   * Removes a value.
+   *
+   * @param key - the serialized key
+   * @return true if the server had a value for the key
+   */
+  public CompletableFuture<Boolean> delete(byte[] key) {
+    ByteBuffer request = request(Protocol.DELETE, 4 + key.length);
+    put(request, key);
+    return send(request, (status, body) -> Protocol.OK == status);
+  }
+
+  /**
+   * Closes the connection, failing any requests still waiting.
+   */
+  public void close() {
+    Connection current;
+    synchronized (this) {
+      closed = true;
+      current = connection;
+      connection = null;
+    }
+    if (null != current) {
+      current.fail(new IOException("Client closed"));
+    }
+  }
+
+  private <R> CompletableFuture<R> send(ByteBuffer request, Decoder<R> decoder) {
+    Pending<R> pending = new Pending<>(request.array(), decoder);
+    try {
+      connection().send(pending);
+    } catch (IOException e) {
+      pending.future.completeExceptionally(e);
+    }
+    return pending.future;
+  }
+
+  private synchronized Connection connection() throws IOException {
+    if (closed) {
+      throw new IOException("Client closed");
+    }
+    if ((null == connection) || connection.failed) {
+      connection = new Connection(address);
+    }
+    return connection;
+  }
+
+  private static ByteBuffer request(byte op, int bodyLength) {
+    ByteBuffer request = ByteBuffer.allocate(5 + bodyLength);
+    return request.putInt(1 + bodyLength).put(op);
+  }
+
+  private static void put(ByteBuffer request, byte[] bytes) {
+    request.putInt(bytes.length).put(bytes);
+  }
+
+  private static byte[] bytes(ByteBuffer body) {
+    int length = body.getInt();
+    if (length < 0) {
+      return null;
+    }
+    byte[] bytes = new byte[length];
+    body.get(bytes);
+    return bytes;
+  }
+
+  /**
+   * Reads an answer's body once its status is known.
+   */
+  private interface Decoder<R> {
+    R decode(byte status, ByteBuffer body);
+  }
+
+  /**
+   * A request waiting to be written or for its answer.
+   */
+  private static final class Pending<R> {
+    final CompletableFuture<R> future = new CompletableFuture<>();
+    final byte[] request;
+    final Decoder<R> decoder;
+
+    Pending(byte[] request, Decoder<R> decoder) {
+      this.request = request;
+      this.decoder = decoder;
+    }
+
+    void complete(byte[] frame) {
+      ByteBuffer body = ByteBuffer.wrap(frame, 1, frame.length - 1);
+      if (Protocol.ERROR == frame[0]) {
+        future.completeExceptionally(new IOException("Server rejected the request"));
+        return;
+      }
+      try {
+        future.complete(decoder.decode(frame[0], body));
+      } catch (RuntimeException e) {
+        future.completeExceptionally(new IOException("Malformed answer", e));
+      }
+    }
+  }
+
+  /**
+   * One socket to the server, with the requests queued to be written on it
+   * and those written that are waiting for their answers, oldest first.
+   */
+  private static final class Connection {
+    final InetSocketAddress address;
+    final Socket socket = new Socket();
+    final BlockingQueue<Pending<?>> queued = new LinkedBlockingQueue<>(MAX_QUEUED);
+    final Queue<Pending<?>> pending = new ConcurrentLinkedQueue<>();
+    final Thread writer;
+    volatile boolean failed;
+
+    Connection(InetSocketAddress address) {
+      this.address = address;
+      writer = new Thread(this::write, "ashkay-cache-client-writer");
+      writer.setDaemon(true);
+      writer.start();
+    }
+
+    void send(Pending<?> waiting) throws IOException {
+      if (failed) {
+        throw new IOException("Connection failed");
+      }
+      if (!queued.offer(waiting)) {
+        throw new IOException("Too many requests waiting for the server");
+      }
+      if (failed) {
+        // the connection failed while queueing, after its queue was drained
+        failQueued(new IOException("Connection failed"));
+      }
+    }
+
+    void write() {
+      try {
+        socket.setTcpNoDelay(true);
+        socket.connect(address, CONNECT_TIMEOUT);
+        OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+        Thread reader = new Thread(this::read, "ashkay-cache-client");
+        reader.setDaemon(true);
+        reader.start();
+        while (!failed) {
+          Pending<?> waiting = queued.take();
+          do {
+            // answers come back in the order requests are written
+            pending.add(waiting);
+            out.write(waiting.request);
+          } while (null != (waiting = queued.poll()));
+          out.flush();
+        }
+      } catch (IOException e) {
+        fail(e);
+      } catch (InterruptedException e) {
+        // failed elsewhere
+      }
+    }
+
+    void read() {
+      try (DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()))) {
+        while (true) {
+          int length = in.readInt();
+          if ((length < 1) || (length > Protocol.MAX_FRAME)) {
+            throw new IOException("Bad frame length " + length);
+          }
+          byte[] frame = new byte[length];
+          in.readFully(frame);
+          Pending<?> waiting = pending.poll();
+          if (null == waiting) {
+            throw new IOException("Answer to no request");
+          }
+          waiting.complete(frame);
+        }
+      } catch (IOException e) {
+        fail(e);
+      }
+    }
+
+    void fail(IOException cause) {
+      failed = true;
+      writer.interrupt();
+      try {
+        socket.close();
+      } catch (IOException e) {
+        // already broken
+      }
+      Pending<?> waiting;
+      while (null != (waiting = pending.poll())) {
+        waiting.future.completeExceptionally(cause);
+      }
+      failQueued(cause);
+    }
+
+    private void failQueued(IOException cause) {
+      Pending<?> waiting;
+      while (null != (waiting = queued.poll())) {
+        waiting.future.completeExceptionally(cause);
+      }
+    }
+  }
+}
@@ -0,0 +1,369 @@
+/*
+ *  Copyright 2004 David C. Brown
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sixrockets.ashkay.server;
+
+import com.sixrockets.ashkay.CacheStats;
+import com.sixrockets.ashkay.CreationException;
+import com.sixrockets.ashkay.ObjectCache;
+import com.sixrockets.ashkay.management.CacheManagement;
+import com.sixrockets.ashkay.strategies.TinyLfuCachingStrategy;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * CacheServer holds one large cache that the JVMs on a host share, so an
+ * object one of them has loaded need not be loaded again by the others. It
+ * stores keys and values as the bytes clients serialized them to and never
+ * loads anything itself; a client that misses loads the object and puts it.
+ * See SharedCacheFactory for the client side.
+ * <br><br>
+ * One thread serves every connection through a Selector. Requests are read
+ * as they arrive, several at a time when a client pipelines them, and are
+ * answered in order into a per-connection buffer written as the socket
+ * allows. A connection whose answers back up stops being read until they
+ * drain. The cache is bounded by the total bytes of its keys and values
+ * using TinyLfuCachingStrategy.
+ * <br><br>
+ * Run it standalone with
+ * <pre>
+ *   java com.sixrockets.ashkay.server.CacheServer [port] [capacityBytes]
+ * </pre>
+ * which listens on localhost and registers the cache's MXBean.
+ *
+ * @author <a href="mailto:dave@sixrockets.com">Dave Brown</a>
+ * @see Protocol
+ */
+public class CacheServer implements Closeable {
+
+  private static final int DEFAULT_PORT = 11311;
+  private static final long DEFAULT_CAPACITY = 256L << 20;
+  private static final int BUFFER_SIZE = 64 << 10;
+  private static final int MAX_PENDING_OUTPUT = 1 << 20;
+  private static final int ENTRY_OVERHEAD = 64;
+
+  private final InetSocketAddress bindAddress;
+  private final ObjectCache<byte[], ByteKey> cache = new ObjectCache<>();
+  private final Set<SocketChannel> channels = ConcurrentHashMap.newKeySet();
+  private Selector selector;
+  private ServerSocketChannel server;
+  private Thread thread;
+
+  /**
+   * Creates a server, which does not listen until started.
+   *
+   * @param bindAddress - the address to listen on, port 0 for any free port
+   * @param capacity    - the most bytes of keys and values to hold
+   */
+  public CacheServer(InetSocketAddress bindAddress, long capacity) {
+    this.bindAddress = bindAddress;
+    cache.setName("ashkay-server:" + bindAddress.getPort());
+    cache.setWeigher((ByteKey key, byte[] value) -> ENTRY_OVERHEAD + key.bytes.length + value.length);
+    cache.addStrategy(new TinyLfuCachingStrategy(capacity, true));
+    cache.setRecordStats(true);
+  }
+
+  public static void main(String[] args) throws Exception {
+    int port = (args.length > 0) ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+    long capacity = (args.length > 1) ? Long.parseLong(args[1]) : DEFAULT_CAPACITY;
+    CacheServer server = new CacheServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), capacity);
+    server.start();
+    CacheManagement.register(server.cache, key -> new ByteKey(key.getBytes(StandardCharsets.UTF_8)));
+    System.out.println("ashkay cache server listening on port " + server.getLocalPort());
+    server.thread.join();
+  }
+
+  /**
+   * Starts listening and serving.
+   */
+  public synchronized void start() throws IOException {
+    selector = Selector.open();
+    server = ServerSocketChannel.open();
+    server.bind(bindAddress);
+    server.configureBlocking(false);
+    server.register(selector, SelectionKey.OP_ACCEPT);
+    thread = new Thread(this::serve, "ashkay-cache-server");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Returns the port the server listens on, once started.
+   */
+  public int getLocalPort() {
+    return server.socket().getLocalPort();
+  }
+
+  /**
+   * Returns the statistics of the shared cache.
+   */
+  public CacheStats stats() {
+    return cache.stats();
+  }
+
+  /**
+   * Returns the number of objects held.
+   */
+  public int size() {
+    return cache.size();
+  }
+
+  /**
+   * Stops serving and drops every connection and object.
+   */
+  public synchronized void close() {
+    if (null == selector) {
+      return;
+    }
+    try {
+      selector.close();
+      server.close();
+      for (SocketChannel channel : channels) {
+        channel.close();
+      }
+    } catch (IOException e) {
+      // nothing more to close
+    }
+    cache.clear();
+  }
+
+  private void serve() {
+    try {
+      while (selector.isOpen()) {
+        selector.select();
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+          SelectionKey key = keys.next();
+          keys.remove();
+          try {
+            if (key.isAcceptable()) {
+              accept();
+            } else {
+              Connection connection = (Connection) key.attachment();
+              if (key.isWritable()) {
+                connection.write();
+              }
+              if (key.isValid() && key.isReadable()) {
+                connection.read();
+              }
+            }
+          } catch (IOException | RuntimeException | OutOfMemoryError e) {
+            // a broken or misbehaving client loses its connection, and only it
+            key.cancel();
+            key.channel().close();
+            channels.remove(key.channel());
+          }
+        }
+      }
+    } catch (IOException | ClosedSelectorException e) {
+      // closed
+    }
+  }
+
+  private void accept() throws IOException {
+    SocketChannel channel = server.accept();
+    if (null != channel) {
+      channels.add(channel);
+      channel.configureBlocking(false);
+      channel.socket().setTcpNoDelay(true);
+      SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+      key.attach(new Connection(key, channel));
+    }
+  }
+
+  private byte[] lookup(byte[] key) {
+    try {
+      return cache.get(new ByteKey(key));
+    } catch (CreationException e) {
+      // the cache has no factory to fail
+      return null;
+    }
+  }
+
+  /**
+   * A client connection, with the requests read but not yet complete and the
+   * answers not yet written.
+   */
+  private final class Connection {
+    final SelectionKey key;
+    final SocketChannel channel;
+    ByteBuffer in = ByteBuffer.allocate(BUFFER_SIZE);
+    ByteBuffer out = ByteBuffer.allocate(BUFFER_SIZE);
+
+    Connection(SelectionKey key, SocketChannel channel) {
+      this.key = key;
+      this.channel = channel;
+    }
+
+    void read() throws IOException {
+      if (channel.read(in) < 0) {
+        throw new IOException("Connection closed");
+      }
+      in.flip();
+      while (in.remaining() >= 4) {
+        int length = in.getInt(in.position());
+        if ((length < 1) || (length > Protocol.MAX_FRAME)) {
+          throw new IOException("Bad frame length " + length);
+        }
+        if (in.remaining() < 4 + length) {
+          if (in.capacity() < 4 + length) {
+            ByteBuffer grown = ByteBuffer.allocate(4 + length);
+            grown.put(in);
+            in = grown;
+            write();
+            return;
+          }
+          break;
+        }
+        int end = in.position() + 4 + length;
+        ByteBuffer frame = in.duplicate();
+        frame.position(in.position() + 4).limit(end);
+        in.position(end);
+        answer(frame);
+      }
+      in.compact();
+      write();
+    }
+
+    void write() throws IOException {
+      out.flip();
+      channel.write(out);
+      out.compact();
+      int interest = SelectionKey.OP_READ;
+      if (out.position() > 0) {
+        interest = (out.position() > MAX_PENDING_OUTPUT) ? SelectionKey.OP_WRITE : SelectionKey.OP_READ | SelectionKey.OP_WRITE;
+      }
+      key.interestOps(interest);
+    }
+
+    /**
+     * Answers one request, or answers ERROR if the frame's counts and lengths
+     * claim more than it holds; nothing is allocated for such a claim.
+     */
+    private void answer(ByteBuffer frame) {
+      try {
+        dispatch(frame);
+      } catch (BufferUnderflowException e) {
+        status(Protocol.ERROR);
+      }
+    }
+
+    private void dispatch(ByteBuffer frame) {
+      byte op = frame.get();
+      switch (op) {
+        case Protocol.GET: {
+          byte[] value = lookup(bytes(frame));
+          if (null == value) {
+            status(Protocol.MISS);
+          } else {
+            reserve(9 + value.length);
+            out.putInt(5 + value.length).put(Protocol.HIT).putInt(value.length).put(value);
+          }
+          break;
+        }
+        case Protocol.MGET: {
+          int count = frame.getInt();
+          // every key takes at least its length
+          require(count, frame.remaining() / 4);
+          byte[][] values = new byte[count][];
+          long length = 5;
+          for (int i = 0; i < count; i++) {
+            values[i] = lookup(bytes(frame));
+            length += 4 + ((null == values[i]) ? 0 : values[i].length);
+          }
+          if (length > Protocol.MAX_FRAME) {
+            status(Protocol.ERROR);
+            break;
+          }
+          reserve(4 + (int) length);
+          out.putInt((int) length).put(Protocol.OK).putInt(count);
+          for (byte[] value : values) {
+            if (null == value) {
+              out.putInt(-1);
+            } else {
+              out.putInt(value.length).put(value);
+            }
+          }
+          break;
+        }
+        case Protocol.PUT: {
+          ByteKey key = new ByteKey(bytes(frame));
+          cache.put(key, bytes(frame));
+          status(Protocol.OK);
+          break;
+        }
+        case Protocol.DELETE:
+          status((null != cache.evict(new ByteKey(bytes(frame)))) ? Protocol.OK : Protocol.MISS);
+          break;
+        default:
+          status(Protocol.ERROR);
+          break;
+      }
+    }
+
+    private void status(byte status) {
+      reserve(5);
+      out.putInt(1).put(status);
+    }
+
+    private void reserve(int bytes) {
+      if (out.remaining() < bytes) {
+        out = grow(out, out.position() + bytes);
+      }
+    }
+  }
+
+  private static byte[] bytes(ByteBuffer frame) {
+    int length = frame.getInt();
+    require(length, frame.remaining());
+    byte[] bytes = new byte[length];
+    frame.get(bytes);
+    return bytes;
+  }
+
+  /**
+   * Checks a count or length read from a frame against what the frame can
+   * hold.
+   */
+  private static void require(int claimed, int available) {
+    if ((claimed < 0) || (claimed > available)) {
+      throw new BufferUnderflowException();
+    }
+  }
+
+  /**
+   * Copies a buffer in fill mode into a larger one, at least minimum bytes.
+   */
+  private static ByteBuffer grow(ByteBuffer buffer, int minimum) {
+    ByteBuffer grown = ByteBuffer.allocate(Math.max(minimum, buffer.capacity() * 2));
+    buffer.flip();
+    grown.put(buffer);
+    return grown;
+  }
+}
@@ -0,0 +1,52 @@
+/*
+ *  Copyright 2004 David C. Brown
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sixrockets.ashkay.server;
+
+/**
+ * The wire format shared by CacheServer and CacheClient. Every request and
+ * response is a frame: an int giving the length of the rest, then one byte
+ * (the operation of a request, the status of a response) and the body.
+ * Byte strings in a body are an int length followed by the bytes, with a
+ * length of -1 for a missing value. Requests on a connection are answered
+ * in the order they were sent, so a client may send many before reading.
+ * A request whose counts or lengths overrun its frame is answered ERROR.
+ * <pre>
+ *   GET    key                  HIT value | MISS
+ *   MGET   count key...         OK count (value | -1)...
+ *   PUT    key value            OK
+ *   DELETE key                  OK | MISS
+ * </pre>
+ *
+ * @author <a href="mailto:dave@sixrockets.com">Dave Brown</a>
+ */
+final class Protocol {
+
+  static final byte GET = 1;
+  static final byte MGET = 2;
+  static final byte PUT = 3;
+  static final byte DELETE = 4;
+
+  static final byte OK = 0;
+  static final byte HIT = 0;
+  static final byte MISS = 1;
+  static final byte ERROR = 2;
+
+  /** The largest frame either side accepts. */
+  static final int MAX_FRAME = 64 << 20;
+
+  private Protocol() {
+  }
+}
@@ -0,0 +1,321 @@
+/*
+ *  Copyright 2004 David C. Brown
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sixrockets.ashkay.server;
+
+import com.sixrockets.ashkay.BulkObjectFactory;
+import com.sixrockets.ashkay.CacheEntry;
+import com.sixrockets.ashkay.CachingStrategy;
+import com.sixrockets.ashkay.CreationException;
+import com.sixrockets.ashkay.ObjectCache;
+import com.sixrockets.ashkay.ObjectFactory;
+import com.sixrockets.ashkay.Serializer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * SharedCacheFactory makes an ObjectCache a near cache in front of a
+ * CacheServer shared by the JVMs on a host. Given to the cache as its
+ * factory, it looks a missing key up on the server first, and only if the
+ * server does not have it asks the real factory to create the object, then
+ * puts the object on the server for the other JVMs without waiting for it to
+ * be stored. The cache, bounded by a strategy such as TinyLfuCachingStrategy,
+ * holds the hottest objects in this JVM, and the server the rest.
+ * <pre>
+ *   CacheClient client = new CacheClient(new InetSocketAddress(InetAddress.getLoopbackAddress(), 11311));
+ *   SharedCacheFactory&lt;Page, String&gt; shared = new SharedCacheFactory&lt;&gt;(client, keys, pages, new PageFactory());
+ *   ObjectCache&lt;Page, String&gt; cache = new ObjectCache&lt;&gt;(shared);
+ *   cache.addStrategy(shared).addStrategy(new TinyLfuCachingStrategy(10000));
+ * </pre>
+ * The server keeps objects until it needs the room, with no expiry of its
+ * own, so added to the cache as a strategy too the factory skips it for keys
+ * the cache still holds. Those are being reloaded because a strategy such as
+ * TimeExpirationCachingStrategy invalidated them or is refreshing them, and
+ * the server's copy is the one found wanting: the real factory creates the
+ * object, and the fresh object replaces the copy on the server. Without the
+ * strategy every load asks the server first.
+ * As a BulkObjectFactory it answers ObjectCache.getAll with one request to
+ * the server for all the missing keys, and one call to the real factory for
+ * those the server lacks if it is a BulkObjectFactory too.
+ * <br><br>
+ * If the server cannot be reached, or does not answer within the timeout,
+ * objects are created by the real factory as if the server had missed, so a
+ * server going down costs loads, not errors. Changing an object that other
+ * JVMs may hold is up to the application: put or remove it on the server
+ * here, and evict it from each JVM's cache, for instance with a
+ * ClusterInvalidator.
+ *
+ * @author <a href="mailto:dave@sixrockets.com">Dave Brown</a>
+ * @see CacheServer
+ */
+public class SharedCacheFactory<T, K> implements BulkObjectFactory<T, K>, CachingStrategy {
+
+  private static final long DEFAULT_TIMEOUT = 100;
+
+  private final CacheClient client;
+  private final Serializer<K> keySerializer;
+  private final Serializer<T> valueSerializer;
+  private final ObjectFactory<T, K> factory;
+  private final long timeout;
+
+  private final LongAdder sharedHits = new LongAdder();
+  private final LongAdder sharedMisses = new LongAdder();
+  private final LongAdder failures = new LongAdder();
+  private volatile ObjectCache<T, K> cache;
+
+  /**
+   * Creates the factory, waiting at most 100 milliseconds for the server.
+   *
+   * @param client          - the connection to the server
+   * @param keySerializer   - writes the cache's keys
+   * @param valueSerializer - writes and reads the cache's objects
+   * @param aFactory        - creates objects the server does not have, or null
+   */
+  public SharedCacheFactory(CacheClient client, Serializer<K> keySerializer, Serializer<T> valueSerializer, ObjectFactory<T, K> aFactory) {
+    this(client, keySerializer, valueSerializer, aFactory, DEFAULT_TIMEOUT);
+  }
+
+  /**
+   * Creates the factory.
+   *
+   * @param client          - the connection to the server
+   * @param keySerializer   - writes the cache's keys
+   * @param valueSerializer - writes and reads the cache's objects
+   * @param aFactory        - creates objects the server does not have, or null
+   * @param timeout         - the most milliseconds to wait for the server
+   */
+  public SharedCacheFactory(CacheClient client, Serializer<K> keySerializer, Serializer<T> valueSerializer, ObjectFactory<T, K> aFactory,
+      long timeout) {
+    this.client = client;
+    this.keySerializer = keySerializer;
+    this.valueSerializer = valueSerializer;
+    factory = aFactory;
+    this.timeout = timeout;
+  }
+
+  public T createObjectFor(K key, Object data) throws CreationException {
+    byte[] keyBytes = serializeKey(key);
+    try {
+      T shared = reloading(key) ? null : deserialize(client.get(keyBytes).get(timeout, TimeUnit.MILLISECONDS));
+      if (null != shared) {
+        return shared;
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new CreationException(e);
+    } catch (ExecutionException | TimeoutException e) {
+      failures.increment();
+    }
+
+    T object = (null == factory) ? null : factory.createObjectFor(key, data);
+    share(keyBytes, object);
+    return object;
+  }
+
+  public Map<K, T> createObjectsFor(Collection<K> keys) throws CreationException {
+    List<K> keyList = new ArrayList<>(keys);
+    List<byte[]> keyBytes = new ArrayList<>(keyList.size());
+    for (K key : keyList) {
+      keyBytes.add(serializeKey(key));
+    }
+
+    Map<K, T> objects = new HashMap<>();
+    List<K> missing = new ArrayList<>();
+    List<byte[]> missingBytes = new ArrayList<>();
+    List<K> asked = new ArrayList<>();
+    List<byte[]> askedBytes = new ArrayList<>();
+    for (int i = 0; i < keyList.size(); i++) {
+      if (reloading(keyList.get(i))) {
+        missing.add(keyList.get(i));
+        missingBytes.add(keyBytes.get(i));
+      } else {
+        asked.add(keyList.get(i));
+        askedBytes.add(keyBytes.get(i));
+      }
+    }
+
+    List<byte[]> values = null;
+    try {
+      if (!asked.isEmpty()) {
+        values = client.getAll(askedBytes).get(timeout, TimeUnit.MILLISECONDS);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new CreationException(e);
+    } catch (ExecutionException | TimeoutException e) {
+      failures.increment();
+    }
+    for (int i = 0; i < asked.size(); i++) {
+      T shared = (null == values) ? null : deserialize(values.get(i));
+      if (null != shared) {
+        objects.put(asked.get(i), shared);
+      } else {
+        missing.add(asked.get(i));
+        missingBytes.add(askedBytes.get(i));
+      }
+    }
+
+    if (missing.isEmpty() || (null == factory)) {
+      return objects;
+    }
+    if (factory instanceof BulkObjectFactory) {
+      Map<K, T> created = ((BulkObjectFactory<T, K>) factory).createObjectsFor(missing);
+      for (int i = 0; i < missing.size(); i++) {
+        T object = (null == created) ? null : created.get(missing.get(i));
+        if (null != object) {
+          objects.put(missing.get(i), object);
+          share(missingBytes.get(i), object);
+        }
+      }
+    } else {
+      for (int i = 0; i < missing.size(); i++) {
+        T object = factory.createObjectFor(missing.get(i), null);
+        if (null != object) {
+          objects.put(missing.get(i), object);
+          share(missingBytes.get(i), object);
+        }
+      }
+    }
+    return objects;
+  }
+
+  /**
+   * Notes the cache the factory loads for, so reloads can skip the server.
+   */
+  public <V, J> CacheEntry<V, J> prepare(CacheEntry<V, J> entry) {
+    if (null == cache) {
+      // the factory is only a strategy of the cache it loads for
+      @SuppressWarnings("unchecked")
+      ObjectCache<T, K> owner = (ObjectCache<T, K>) (ObjectCache<?, ?>) entry.getCache();
+      cache = owner;
+    }
+    return entry;
+  }
+
+  public boolean validate(CacheEntry<?, ?> entry) {
+    return true;
+  }
+
+  /**
+   * Stores an object on the server, replacing what the other JVMs will load.
+   *
+   * @param key    - the key
+   * @param object - the object
+   * @throws IOException if the server did not store it in time
+   */
+  public void put(K key, T object) throws IOException {
+    await(client.put(keySerializer.serialize(key), valueSerializer.serialize(object)));
+  }
+
+  /**
+   * Removes an object from the server.
+   *
+   * @param key - the key
+   * @return true if the server had an object for the key
+   * @throws IOException if the server did not answer in time
+   */
+  public boolean remove(K key) throws IOException {
+    return await(client.delete(keySerializer.serialize(key)));
+  }
+
+  /**
+   * Returns the number of objects found on the server.
+   */
+  public long getSharedHits() {
+    return sharedHits.sum();
+  }
+
+  /**
+   * Returns the number of objects looked for on the server and not found.
+   */
+  public long getSharedMisses() {
+    return sharedMisses.sum();
+  }
+
+  /**
+   * Returns the number of requests to the server that failed or timed out,
+   * and of objects that could not be written or read.
+   */
+  public long getFailures() {
+    return failures.sum();
+  }
+
+  private T deserialize(byte[] bytes) {
+    if (null != bytes) {
+      try {
+        T object = valueSerializer.deserialize(ByteBuffer.wrap(bytes));
+        sharedHits.increment();
+        return object;
+      } catch (IOException e) {
+        failures.increment();
+        return null;
+      }
+    }
+    sharedMisses.increment();
+    return null;
+  }
+
+  private void share(byte[] keyBytes, T object) {
+    if (null == object) {
+      return;
+    }
+    try {
+      client.put(keyBytes, valueSerializer.serialize(object)).whenComplete((stored, e) -> {
+        if (null != e) {
+          failures.increment();
+        }
+      });
+    } catch (IOException e) {
+      failures.increment();
+    }
+  }
+
+  private boolean reloading(K key) {
+    ObjectCache<T, K> owner = cache;
+    return (null != owner) && (null != owner.peekEntry(key));
+  }
+
+  private byte[] serializeKey(K key) throws CreationException {
+    try {
+      return keySerializer.serialize(key);
+    } catch (IOException e) {
+      throw new CreationException("Cannot serialize key " + key, e);
+    }
+  }
+
+  private <R> R await(CompletableFuture<R> future) throws IOException {
+    try {
+      return future.get(timeout, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException(e);
+    } catch (ExecutionException e) {
+      throw (e.getCause() instanceof IOException) ? (IOException) e.getCause() : new IOException(e.getCause());
+    } catch (TimeoutException e) {
+      throw new IOException("No answer from the server in " + timeout + " ms", e);
+    }
+  }
+}
@@ -0,0 +1,283 @@
+/*
+ *  Copyright 2004 David C. Brown
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sixrockets.ashkay.strategies;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * ChangeWatcher flags cached resources as changed so that validating them is
+ * a volatile read instead of a file system or network call. Files are watched
+ * through a WatchService on their directory, with one daemon thread taking
+ * the events for all of them. URLs are polled on a single daemon thread at a
+ * fixed interval, each URL checked once per round however many entries use
+ * it. A URL that cannot be checked keeps its last known state.
+ * <br><br>
+ * A Watch is flagged at most once; after that it is forgotten, and the entry
+ * holding it is expected to be reloaded and watched again.
+ *
+ * @author <a href="mailto:dave@sixrockets.com">Dave Brown</a>
+ */
+final class ChangeWatcher implements Closeable {
+
+  private final long pollInterval;
+  private final Function<URL, Object> urlVersion;
+
+  private final Map<Path, Set<Watch>> files = new HashMap<>();
+  private final Map<Path, Directory> directories = new HashMap<>();
+  private final Map<URL, Set<Watch>> urls = new HashMap<>();
+  private WatchService service;
+  private ScheduledExecutorService poller;
+  private boolean closed;
+
+  /**
+   * Creates a watcher. Nothing is started until the first resource is watched.
+   *
+   * @param pollInterval - the milliseconds between checks of watched URLs
+   * @param urlVersion   - finds the current version of a URL, or null if it
+   *                     cannot
+   */
+  ChangeWatcher(long pollInterval, Function<URL, Object> urlVersion) {
+    this.pollInterval = pollInterval;
+    this.urlVersion = urlVersion;
+  }
+
+  /**
+   * Starts watching a file.
+   *
+   * @return the watch, or null if the file's directory cannot be watched
+   */
+  synchronized Watch watch(File file) {
+    if (closed) {
+      return null;
+    }
+    Path path = file.toPath().toAbsolutePath().normalize();
+    Path directory = path.getParent();
+    try {
+      if (null == service) {
+        service = FileSystems.getDefault().newWatchService();
+        Thread thread = new Thread(this::takeEvents, "ashkay-file-watcher");
+        thread.setDaemon(true);
+        thread.start();
+      }
+      if (!directories.containsKey(directory)) {
+        directories.put(directory, new Directory(directory.register(service, StandardWatchEventKinds.ENTRY_CREATE,
+            StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY)));
+      }
+    } catch (IOException | ClosedWatchServiceException | UnsupportedOperationException e) {
+      return null;
+    }
+
+    Watch watch = new Watch(path, file.lastModified());
+    files.computeIfAbsent(path, p -> new HashSet<>()).add(watch);
+    directories.get(directory).paths.add(path);
+    return watch;
+  }
+
+  /**
+   * Starts watching a URL, polling it from now on.
+   *
+   * @param url      - the URL to watch
+   * @param version - the version the cached object was read at
+   */
+  synchronized Watch watch(URL url, Object version) {
+    if (closed) {
+      return null;
+    }
+    if (null == poller) {
+      poller = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "ashkay-url-poller");
+        thread.setDaemon(true);
+        return thread;
+      });
+      poller.scheduleWithFixedDelay(this::poll, pollInterval, pollInterval, TimeUnit.MILLISECONDS);
+    }
+
+    Watch watch = new Watch(url, version);
+    urls.computeIfAbsent(url, u -> new HashSet<>()).add(watch);
+    return watch;
+  }
+
+  /**
+   * Stops watching, for an entry that has left the cache.
+   */
+  synchronized void unwatch(Watch watch) {
+    if (watch.target instanceof Path) {
+      Path path = (Path) watch.target;
+      if (remove(files, path, watch) && !files.containsKey(path)) {
+        forget(path);
+      }
+    } else {
+      remove(urls, (URL) watch.target, watch);
+    }
+  }
+
+  /**
+   * Stops the watching threads. Watches already handed out are never flagged.
+   */
+  public synchronized void close() {
+    closed = true;
+    if (null != poller) {
+      poller.shutdownNow();
+    }
+    if (null != service) {
+      try {
+        service.close();
+      } catch (IOException e) {
+        // nothing more to stop
+      }
+    }
+  }
+
+  private void takeEvents() {
+    try {
+      while (true) {
+        WatchKey key = service.take();
+        Path directory = (Path) key.watchable();
+        List<WatchEvent<?>> events = key.pollEvents();
+        key.reset();
+        synchronized (this) {
+          for (WatchEvent<?> event : events) {
+            if (StandardWatchEventKinds.OVERFLOW == event.kind()) {
+              Directory watched = directories.get(directory);
+              if (null != watched) {
+                for (Path path : new ArrayList<>(watched.paths)) {
+                  flag(path);
+                }
+              }
+            } else {
+              flag(directory.resolve((Path) event.context()));
+            }
+          }
+        }
+      }
+    } catch (InterruptedException | ClosedWatchServiceException e) {
+      // closed
+    }
+  }
+
+  private void poll() {
+    Map<URL, Set<Watch>> snapshot;
+    synchronized (this) {
+      snapshot = new HashMap<>(urls);
+    }
+    for (URL url : snapshot.keySet()) {
+      Object version = urlVersion.apply(url);
+      if (null == version) {
+        continue;
+      }
+
+      synchronized (this) {
+        Set<Watch> watches = urls.get(url);
+        if (null == watches) {
+          continue;
+        }
+        List<Watch> changed = new ArrayList<>();
+        for (Watch watch : watches) {
+          if (!Objects.equals(watch.version, version)) {
+            changed.add(watch);
+          }
+        }
+        watches.removeAll(changed);
+        if (watches.isEmpty()) {
+          urls.remove(url);
+        }
+        flag(changed);
+      }
+    }
+  }
+
+  private void flag(Path path) {
+    Set<Watch> watches = files.remove(path);
+    if (null != watches) {
+      flag(watches);
+      forget(path);
+    }
+  }
+
+  private void forget(Path path) {
+    Directory directory = directories.get(path.getParent());
+    if ((null != directory) && directory.paths.remove(path) && directory.paths.isEmpty()) {
+      directories.remove(path.getParent());
+      directory.key.cancel();
+    }
+  }
+
+  private static void flag(Iterable<Watch> watches) {
+    if (null != watches) {
+      for (Watch watch : watches) {
+        watch.changed = true;
+      }
+    }
+  }
+
+  private static <T> boolean remove(Map<T, Set<Watch>> map, T target, Watch watch) {
+    Set<Watch> watches = map.get(target);
+    if ((null == watches) || !watches.remove(watch)) {
+      return false;
+    }
+    if (watches.isEmpty()) {
+      map.remove(target);
+    }
+    return true;
+  }
+
+  /**
+   * A registered directory and the watched files in it.
+   */
+  private static final class Directory {
+    final WatchKey key;
+    final Set<Path> paths = new HashSet<>();
+
+    Directory(WatchKey key) {
+      this.key = key;
+    }
+  }
+
+  /**
+   * A watched resource, flagged once it changes.
+   */
+  static final class Watch {
+    final Object target;
+    final Object version;
+    volatile boolean changed;
+
+    Watch(Object target, Object version) {
+      this.target = target;
+      this.version = version;
+    }
+  }
+}
@@ -0,0 +1,116 @@
+/*
+ *  Copyright 2004 David C. Brown
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sixrockets.ashkay.strategies;
+
+/**
+ * FrequencySketch is a count-min sketch of 4-bit counters used to estimate how
+ * often a key has been seen recently. Each long in the table holds sixteen
+ * counters, and each key maps to four of them, one per hash function. Once
+ * the number of increments reaches ten times the capacity, every counter is
+ * halved so that old popularity fades.
+ * <br><br>
+ * The sketch is not thread safe; callers guard it with their own lock.
+ *
+ * @author <a href="mailto:dave@sixrockets.com">Dave Brown</a>
+ */
+final class FrequencySketch {
+
+  private static final long[] SEED = { 0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+  private static final long RESET_MASK = 0x7777777777777777L;
+  private static final long ONE_MASK = 0x1111111111111111L;
+
+  private final long[] table;
+  private final int tableMask;
+  private final int sampleSize;
+  private int additions;
+
+  /**
+   * Creates a sketch sized for a cache of the given capacity.
+   *
+   * @param maximumSize - the number of entries the cache holds
+   */
+  FrequencySketch(long maximumSize) {
+    int maximum = (int) Math.min(Math.max(maximumSize, 1), 1 << 26);
+    table = new long[Math.max(Integer.highestOneBit(maximum - 1) << 1, 8)];
+    tableMask = table.length - 1;
+    sampleSize = (int) Math.min(10L * maximum, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Spreads a hash code so that keys with poor hashCodes still use the
+   * whole table.
+   */
+  static int spread(int hash) {
+    hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+    hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+    return (hash >>> 16) ^ hash;
+  }
+
+  /**
+   * Returns the estimated number of times the hash was seen, at most 15.
+   */
+  int frequency(int hash) {
+    int start = (hash & 3) << 2;
+    int frequency = 15;
+    for (int i = 0; i < 4; i++) {
+      int index = indexOf(hash, i);
+      int count = (int) ((table[index] >>> ((start + i) << 2)) & 0xfL);
+      frequency = Math.min(frequency, count);
+    }
+    return frequency;
+  }
+
+  /**
+   * Records one more sighting of the hash, halving all counters when the
+   * sample period is up.
+   */
+  void increment(int hash) {
+    int start = (hash & 3) << 2;
+    boolean added = false;
+    for (int i = 0; i < 4; i++) {
+      added |= incrementAt(indexOf(hash, i), start + i);
+    }
+
+    if (added && (++additions == sampleSize)) {
+      reset();
+    }
+  }
+
+  private boolean incrementAt(int index, int counter) {
+    int offset = counter << 2;
+    long mask = 0xfL << offset;
+    if ((table[index] & mask) != mask) {
+      table[index] += 1L << offset;
+      return true;
+    }
+    return false;
+  }
+
+  private void reset() {
+    int odd = 0;
+    for (int i = 0; i < table.length; i++) {
+      odd += Long.bitCount(table[i] & ONE_MASK);
+      table[i] = (table[i] >>> 1) & RESET_MASK;
+    }
+    additions = (additions - (odd >>> 2)) >>> 1;
+  }
+
+  private int indexOf(int hash, int i) {
+    long index = (hash + SEED[i]) * SEED[i];
+    index += index >>> 32;
+    return ((int) index) & tableMask;
+  }
+}
@@ -17,9 +17,12 @@ package com.sixrockets.ashkay.strategies;
 
 import com.sixrockets.ashkay.CacheEntry;
 import com.sixrockets.ashkay.CachingStrategy;
+import com.sixrockets.ashkay.EntrySlot;
+import com.sixrockets.ashkay.EvictionCause;
+import com.sixrockets.ashkay.LongSlot;
 
+import java.io.Closeable;
 import java.io.File;
-import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
 
@@ -31,10 +34,98 @@ import java.net.URL;
  * key. It will work with keys that are of type java.io.File, java.net.URL and java.lang.String. If the key is a string,
  * LastModifiedCachingStrategy will try to turn it first into a File and if that fails, a URL. Obviously, for URLs, your
  * java.net stuff needs to be working (ie. the network is connected).
+ * <br><br>
+ * URLs are checked through a UrlFreshnessChecker, which reuses each URL's
+ * result for a second by default, makes one request however many threads
+ * validate the URL at once, and asks HTTP servers only whether the resource
+ * has changed since its known Last-Modified time or ETag. A URL that cannot
+ * be checked is not current, so it fails validation, or keeps being served
+ * while refreshes are tried when serving stale entries.
+ * <br><br>
+ * Created to serve stale entries, LastModifiedCachingStrategy never fails
+ * validation; instead a modified resource asks the cache to refresh the entry,
+ * so callers keep getting the old object while the new one loads on the
+ * cache's refresh executor.
+ * <br><br>
+ * Normally every validation looks at the resource, which is a system call for
+ * a file and a round trip for a URL. A watching strategy instead has files
+ * watched for changes by a WatchService and URLs polled on a background
+ * thread, and flags entries whose resource has changed, so validation only
+ * reads the flag. Files whose directory cannot be watched are checked on
+ * each validation as usual. Close a watching strategy to stop its threads.
  */
-public class LastModifiedCachingStrategy implements CachingStrategy {
+public class LastModifiedCachingStrategy implements CachingStrategy, Closeable {
 
-  private static final String PROPERTY_MODIFIED_TIME = LastModifiedCachingStrategy.class.getName() + ".fileModified";
+  private static final LongSlot MODIFIED_TIME = LongSlot.register(LastModifiedCachingStrategy.class.getName() + ".fileModified", Long.MIN_VALUE);
+  private static final EntrySlot<UrlCheck> URL_CHECK = EntrySlot.register(LastModifiedCachingStrategy.class.getName() + ".urlVersion");
+  private static final EntrySlot<ChangeWatcher.Watch> WATCH = EntrySlot.register(LastModifiedCachingStrategy.class.getName() + ".watch");
+  private static final long DEFAULT_POLL_INTERVAL = 1000;
+  private static final long DEFAULT_CHECK_INTERVAL = 1000;
+  private static final int DEFAULT_CHECK_THREADS = 4;
+
+  private boolean serveStale;
+  private ChangeWatcher watcher;
+  private volatile UrlFreshnessChecker urlChecker = new UrlFreshnessChecker(DEFAULT_CHECK_INTERVAL, DEFAULT_CHECK_THREADS);
+  private boolean ownsChecker = true;
+
+  /**
+   * Creates a strategy that fails validation of modified resources.
+   */
+  public LastModifiedCachingStrategy() {
+    this(false);
+  }
+
+  /**
+   * Creates a strategy that either fails validation of modified resources or
+   * keeps serving them while they are refreshed.
+   *
+   * @param serveStale - true to refresh modified entries rather than fail them
+   */
+  public LastModifiedCachingStrategy(boolean serveStale) {
+    this.serveStale = serveStale;
+  }
+
+  /**
+   * Creates a strategy that, if asked to, watches resources for changes
+   * rather than checking them on each validation, polling URLs once a second.
+   *
+   * @param serveStale - true to refresh modified entries rather than fail them
+   * @param watch      - true to watch resources in the background
+   */
+  public LastModifiedCachingStrategy(boolean serveStale, boolean watch) {
+    this(serveStale, watch, DEFAULT_POLL_INTERVAL);
+  }
+
+  /**
+   * Creates a strategy that, if asked to, watches resources for changes
+   * rather than checking them on each validation.
+   *
+   * @param serveStale   - true to refresh modified entries rather than fail them
+   * @param watch        - true to watch resources in the background
+   * @param pollInterval - the milliseconds between checks of a watched URL
+   */
+  public LastModifiedCachingStrategy(boolean serveStale, boolean watch, long pollInterval) {
+    this(serveStale);
+    if (watch) {
+      watcher = new ChangeWatcher(pollInterval, url -> urlChecker.check(url));
+    }
+  }
+
+  /**
+   * Sets the checker used to find out whether URL resources have changed, for
+   * instance to share one between strategies or to change how often a URL may
+   * be checked. A checker set here is not closed with this strategy.
+   *
+   * @param urlChecker - the checker for URL keys
+   */
+  public void setUrlChecker(UrlFreshnessChecker urlChecker) {
+    UrlFreshnessChecker previous = this.urlChecker;
+    this.urlChecker = urlChecker;
+    if (ownsChecker) {
+      ownsChecker = false;
+      previous.close();
+    }
+  }
 
   /**
    * Prepares the cache entry for caching with this strategy.<br>
@@ -43,8 +134,24 @@ public class LastModifiedCachingStrategy implements CachingStrategy {
    * method and don't assume the symantics of pass by reference.
    */
   public <T, K> CacheEntry<T, K> prepare(CacheEntry<T, K> entry) {
-    long modifiedTime = getLastModifiedTime(entry);
-    entry.addProperty(PROPERTY_MODIFIED_TIME, new Long(modifiedTime));
+    Object resource = getResource(entry.getEntryKey());
+    if (resource instanceof File) {
+      File file = (File) resource;
+      entry.set(MODIFIED_TIME, getLastModifiedTime(file));
+      if (null != watcher) {
+        entry.set(WATCH, watcher.watch(file));
+      }
+    } else if (resource instanceof URL) {
+      URL url = (URL) resource;
+      if (!heldByOther(entry)) {
+        urlChecker.retain(url);
+      }
+      UrlFreshnessChecker.Version version = urlChecker.check(url);
+      entry.set(URL_CHECK, new UrlCheck(url, version));
+      if (null != watcher) {
+        entry.set(WATCH, watcher.watch(url, version));
+      }
+    }
     return entry;
   }
 
@@ -52,61 +159,116 @@ public class LastModifiedCachingStrategy implements CachingStrategy {
    * Validates this cache entry for this caching strategy.
    */
   public boolean validate(CacheEntry<?, ?> entry) {
-    boolean val = true;
-    Long entry_modified = (Long) entry.getProperty(PROPERTY_MODIFIED_TIME);
-    long file_modified = 0;
+    return serveStale || isCurrent(entry);
+  }
 
-    file_modified = getLastModifiedTime(entry);
+  /**
+   * Asks for a refresh of modified resources when serving stale entries.
+   */
+  public boolean needsRefresh(CacheEntry<?, ?> entry) {
+    return serveStale && !isCurrent(entry);
+  }
 
-    if (entry_modified != null) {
-      if (file_modified != entry_modified.longValue()) {
-        val = false;
-      }
+  public void evicted(CacheEntry<?, ?> entry, EvictionCause cause) {
+    ChangeWatcher.Watch watch = entry.get(WATCH);
+    if (null != watch) {
+      watcher.unwatch(watch);
+    }
+    UrlCheck check = entry.get(URL_CHECK);
+    if ((null != check) && !heldByOther(entry)) {
+      urlChecker.release(check.url);
     }
+  }
 
-    return val;
+  /**
+   * Checks if the cache holds another URL entry for the entry's key. The
+   * checker holds a URL once for each key, so a new entry takes the hold over
+   * from the one it replaces, and an entry dropped while another is cached,
+   * as a load superseded by a put is, leaves the hold alone.
+   */
+  private static <T, K> boolean heldByOther(CacheEntry<T, K> entry) {
+    if (null == entry.getCache()) {
+      return false;
+    }
+    CacheEntry<T, K> current = entry.getCache().peekEntry(entry.getEntryKey());
+    return (null != current) && !current.isEntry(entry) && (null != current.get(URL_CHECK));
   }
 
-  private long getLastModifiedTime(CacheEntry<?, ?> entry) {
-    long val = 0;
-
-    if (entry.getEntryKey() instanceof File) {
-      val = getLastModifiedTime((File) entry.getEntryKey());
-    } else if (entry.getEntryKey() instanceof URL) {
-      URL url = (URL) entry.getEntryKey();
-      val = getLastModifiedTime(url);
-    } else if (entry.getEntryKey() instanceof String) {
-      String fileName = (String) entry.getEntryKey();
-      val = getLastModifiedTime(fileName);
+  /**
+   * Stops watching and checking resources. Entries cached so far are no
+   * longer checked, and URL entries are no longer current.
+   */
+  public void close() {
+    if (null != watcher) {
+      watcher.close();
+    }
+    if (ownsChecker) {
+      urlChecker.close();
+    }
+  }
+
+  private boolean isCurrent(CacheEntry<?, ?> entry) {
+    ChangeWatcher.Watch watch = entry.get(WATCH);
+    if (null != watch) {
+      return !watch.changed;
+    }
+
+    UrlCheck check = entry.get(URL_CHECK);
+    if (null != check) {
+      UrlFreshnessChecker.Version current = urlChecker.check(check.url);
+      return (null != current) && current.equals(check.version);
     }
 
-    return val;
+    long entry_modified = entry.get(MODIFIED_TIME);
+    if (entry_modified == Long.MIN_VALUE) {
+      return true;
+    }
+    return getLastModifiedTime(entry) == entry_modified;
   }
 
-  private long getLastModifiedTime(String fileName) {
-    File aFile = new File(fileName);
-    if (aFile.exists()) {
-      return getLastModifiedTime(aFile);
-    } else {
-      try {
-        URL aUrl = new URL(fileName);
-        return getLastModifiedTime(aUrl);
-      } catch (MalformedURLException e) {
-        //not a url . . .
-      }
+  private long getLastModifiedTime(CacheEntry<?, ?> entry) {
+    Object resource = getResource(entry.getEntryKey());
+    if (resource instanceof File) {
+      return getLastModifiedTime((File) resource);
     }
     return 0;
   }
 
-  private long getLastModifiedTime(URL url) {
-    try {
-      return url.openConnection().getLastModified();
-    } catch (IOException e) {
-      return 0;
+  /**
+   * Finds the File or URL a key names, or null if it names neither.
+   */
+  private Object getResource(Object key) {
+    if ((key instanceof File) || (key instanceof URL)) {
+      return key;
+    } else if (key instanceof String) {
+      String fileName = (String) key;
+      File aFile = new File(fileName);
+      if (aFile.exists()) {
+        return aFile;
+      }
+      try {
+        return new URL(fileName);
+      } catch (MalformedURLException e) {
+        //not a url . . .
+      }
     }
+    return null;
   }
 
   private long getLastModifiedTime(File aFile) {
     return aFile.lastModified();
   }
+
+  /**
+   * A URL entry's resource and the version it was read at, null if unknown.
+   */
+  private static final class UrlCheck {
+    final URL url;
+    final UrlFreshnessChecker.Version version;
+
+    UrlCheck(URL url, UrlFreshnessChecker.Version version) {
+      this.url = url;
+      this.version = version;
+    }
+  }
 }
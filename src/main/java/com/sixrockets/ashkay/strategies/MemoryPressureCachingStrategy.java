@@ -0,0 +1,409 @@
+/*
+ *  Copyright 2004 David C. Brown
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sixrockets.ashkay.strategies;
+
+import com.sixrockets.ashkay.CacheEntry;
+import com.sixrockets.ashkay.EvictionBatchEvent;
+import com.sixrockets.ashkay.EvictionCause;
+import com.sixrockets.ashkay.ObjectCache;
+
+import java.io.Closeable;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+/**
+ * MemoryPressureCachingStrategy gives up cached objects gradually as the heap
+ * fills, rather than leaving it all to the garbage collector, which clears
+ * soft references in bulk just before running out of memory. It sets a
+ * collection usage threshold on the tenured heap pools, so after each garbage
+ * collection that leaves the heap fuller than the threshold it is notified,
+ * and evicts one batch of entries on its own daemon thread. The further the
+ * heap is over the threshold, the larger the batch: a twentieth of the
+ * tracked weight just over it, up to a fifth when the heap is full.
+ * <br><br>
+ * Entries are tracked in two LRU segments. New entries are cold, and an entry
+ * hit while cold becomes hot; the hot segment holds at most 80% of the
+ * tracked weight, and its least recently used entries go back to cold. Cold
+ * entries are further split into size classes, by powers of two of their
+ * CacheEntry weight, and a batch takes the least recently used entries of
+ * whichever class holds the most cold weight. So large cold objects go first,
+ * freeing the most memory for the fewest misses, and hot entries are evicted
+ * only once nothing is cold. Give the cache a Weigher for sizes to mean
+ * anything; without one every entry weighs the same and cold entries simply
+ * leave in LRU order.
+ * <br><br>
+ * Entries are still held through soft references, unless asked not to be, as
+ * a last resort should the heap fill faster than batches free it.
+ * <br><br>
+ * A pool has a single threshold, so strategies in one JVM should agree on it.
+ * Entries are tracked by key, so an instance should serve a single
+ * ObjectCache. Close the strategy to stop listening for notifications.
+ *
+ * @author <a href="mailto:dave@sixrockets.com">Dave Brown</a>
+ * @see SoftReferenceCachingStrategy
+ */
+public class MemoryPressureCachingStrategy extends SoftReferenceCachingStrategy implements Closeable {
+
+  private static final int CLASSES = 64;
+  private static final int COLD = 0;
+  private static final int HOT = 1;
+  private static final int RETIRED = 2;
+  private static final double HOT_SHARE = 0.8;
+  private static final double BATCH_SHARE = 0.05;
+  private static final double FULL_BATCH_SHARE = 0.2;
+
+  private final boolean softReferences;
+  private final ConcurrentMap<Object, Node> nodes = new ConcurrentHashMap<>();
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Node hot = new Node();
+  private final Node[] cold = new Node[CLASSES];
+  private final long[] coldWeights = new long[CLASSES];
+  private long hotWeight;
+  private long coldWeight;
+
+  private final double threshold;
+  private final NotificationListener listener = this::handleNotification;
+  private final ExecutorService reliever;
+  private final AtomicBoolean relieving = new AtomicBoolean();
+  private volatile long evictions;
+
+  /**
+   * Creates a strategy that starts evicting once the tenured heap is still
+   * the given share full after a collection, and keeps soft references.
+   *
+   * @param threshold - the share of the heap, between 0 and 1
+   */
+  public MemoryPressureCachingStrategy(double threshold) {
+    this(threshold, true);
+  }
+
+  /**
+   * Creates a strategy that starts evicting once the tenured heap is still
+   * the given share full after a collection.
+   *
+   * @param threshold      - the share of the heap, between 0 and 1
+   * @param softReferences - true to also hold entries through soft references
+   */
+  public MemoryPressureCachingStrategy(double threshold, boolean softReferences) {
+    if ((threshold <= 0) || (threshold >= 1)) {
+      throw new IllegalArgumentException("threshold must be between 0 and 1");
+    }
+    this.threshold = threshold;
+    this.softReferences = softReferences;
+    for (int i = 0; i < CLASSES; i++) {
+      cold[i] = new Node();
+    }
+
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+      Thread thread = new Thread(r, "ashkay-memory-pressure");
+      thread.setDaemon(true);
+      return thread;
+    });
+    executor.allowCoreThreadTimeOut(true);
+    reliever = executor;
+
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      long max = pool.getUsage().getMax();
+      if ((MemoryType.HEAP == pool.getType()) && pool.isUsageThresholdSupported()
+          && pool.isCollectionUsageThresholdSupported() && (max > 0)) {
+        pool.setCollectionUsageThreshold((long) (max * threshold));
+      }
+    }
+    ((NotificationEmitter) ManagementFactory.getMemoryMXBean()).addNotificationListener(listener, null, null);
+  }
+
+  public <T, K> CacheEntry<T, K> prepare(CacheEntry<T, K> entry) {
+    CacheEntry<T, K> prepared = softReferences ? super.prepare(entry) : entry;
+    lock.lock();
+    try {
+      Node node = nodes.get(prepared.getEntryKey());
+      if (null == node || RETIRED == node.queue) {
+        node = new Node(prepared);
+        nodes.put(node.key, node);
+        node.queue = COLD;
+        place(node, prepared.getWeight());
+      } else {
+        unlink(node);
+        node.entry = prepared;
+        place(node, prepared.getWeight());
+      }
+    } finally {
+      lock.unlock();
+    }
+    return prepared;
+  }
+
+  /**
+   * Records the hit if the lock is free. An entry with no node has been
+   * evicted by this strategy and fails validation so it is reloaded.
+   */
+  public boolean validate(CacheEntry<?, ?> entry) {
+    if (softReferences && !super.validate(entry)) {
+      return false;
+    }
+    Node node = nodes.get(entry.getEntryKey());
+    if (null == node) {
+      return false;
+    }
+
+    if (lock.tryLock()) {
+      try {
+        if (RETIRED != node.queue) {
+          unlink(node);
+          node.queue = HOT;
+          place(node, node.weight);
+        }
+      } finally {
+        lock.unlock();
+      }
+    }
+    return true;
+  }
+
+  public void evicted(CacheEntry<?, ?> entry, EvictionCause cause) {
+    Node node = nodes.get(entry.getEntryKey());
+    if (null == node) {
+      return;
+    }
+
+    lock.lock();
+    try {
+      if ((RETIRED != node.queue) && entry.isEntry(node.entry)) {
+        retire(node);
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Returns the total weight of the entries this strategy tracks.
+   *
+   * @return the tracked weight
+   */
+  public long weight() {
+    lock.lock();
+    try {
+      return hotWeight + coldWeight;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Returns the number of entries evicted because of memory pressure.
+   *
+   * @return the eviction count
+   */
+  public long evictions() {
+    return evictions;
+  }
+
+  /**
+   * Stops listening for memory notifications. The thresholds set on the
+   * memory pools are left as they are.
+   */
+  public void close() {
+    try {
+      ((NotificationEmitter) ManagementFactory.getMemoryMXBean()).removeNotificationListener(listener);
+    } catch (ListenerNotFoundException e) {
+      // already closed
+    }
+    reliever.shutdownNow();
+  }
+
+  /**
+   * Evicts one batch of entries for a heap the given fraction of the way from
+   * the threshold to full.
+   *
+   * @param overshoot - 0 at the threshold up to 1 for a full heap
+   * @return the number of entries evicted
+   */
+  int relieve(double overshoot) {
+    double share = BATCH_SHARE + (FULL_BATCH_SHARE - BATCH_SHARE) * Math.min(1, Math.max(0, overshoot));
+    List<Node> victims = new ArrayList<>();
+    lock.lock();
+    try {
+      long budget = Math.max(1, (long) ((hotWeight + coldWeight) * share));
+      long freed = 0;
+      while ((freed < budget) || victims.isEmpty()) {
+        Node victim = nextVictim();
+        if (null == victim) {
+          break;
+        }
+        freed += Math.max(1, victim.weight);
+        retire(victim);
+        victims.add(victim);
+      }
+      evictions += victims.size();
+    } finally {
+      lock.unlock();
+    }
+
+    EvictionBatchEvent event = new EvictionBatchEvent();
+    event.begin();
+    for (Node victim : victims) {
+      victim.cache.evictEntry(victim.entry, EvictionCause.SIZE, this);
+    }
+    event.end(victims.isEmpty() ? null : victims.get(0).cache, getClass(), EvictionCause.SIZE, victims.size());
+    return victims.size();
+  }
+
+  private void handleNotification(Notification notification, Object handback) {
+    if (!MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(notification.getType())) {
+      return;
+    }
+    MemoryUsage usage = MemoryNotificationInfo.from((CompositeData) notification.getUserData()).getUsage();
+    double full = (double) usage.getUsed() / usage.getMax();
+    double overshoot = (full - threshold) / (1 - threshold);
+    // one batch at a time; the next collection tells whether it was enough
+    if (relieving.compareAndSet(false, true)) {
+      try {
+        reliever.execute(() -> {
+          try {
+            relieve(overshoot);
+          } finally {
+            relieving.set(false);
+          }
+        });
+      } catch (RuntimeException e) {
+        relieving.set(false);
+      }
+    }
+  }
+
+  /**
+   * The least recently used entry of the cold class with the most weight, or
+   * of the hot segment once nothing is cold.
+   */
+  private Node nextVictim() {
+    int heaviest = -1;
+    for (int i = 0; i < CLASSES; i++) {
+      if ((cold[i].next != cold[i]) && ((heaviest < 0) || (coldWeights[i] > coldWeights[heaviest]))) {
+        heaviest = i;
+      }
+    }
+    if (heaviest >= 0) {
+      return cold[heaviest].next;
+    }
+    return (hot.next != hot) ? hot.next : null;
+  }
+
+  /**
+   * Links a node at the most recently used end of its segment with the given
+   * weight, then demotes hot entries until the hot segment is within its share.
+   */
+  private void place(Node node, long weight) {
+    node.weight = weight;
+    if (HOT == node.queue) {
+      link(hot, node);
+      hotWeight += weight;
+      while ((hotWeight > (hotWeight + coldWeight) * HOT_SHARE) && (hot.next != node)) {
+        Node demoted = hot.next;
+        unlink(demoted);
+        demoted.queue = COLD;
+        place(demoted, demoted.weight);
+      }
+    } else {
+      int sizeClass = sizeClass(weight);
+      link(cold[sizeClass], node);
+      coldWeights[sizeClass] += weight;
+      coldWeight += weight;
+    }
+  }
+
+  private void retire(Node node) {
+    unlink(node);
+    node.queue = RETIRED;
+    nodes.remove(node.key, node);
+  }
+
+  /**
+   * Takes a node out of its segment and its weight out of the totals.
+   */
+  private void unlink(Node node) {
+    if (null == node.next) {
+      return;
+    }
+    if (HOT == node.queue) {
+      hotWeight -= node.weight;
+    } else {
+      coldWeights[sizeClass(node.weight)] -= node.weight;
+      coldWeight -= node.weight;
+    }
+    node.prev.next = node.next;
+    node.next.prev = node.prev;
+    node.prev = null;
+    node.next = null;
+  }
+
+  private static int sizeClass(long weight) {
+    return 63 - Long.numberOfLeadingZeros(Math.max(1, weight));
+  }
+
+  private static void link(Node sentinel, Node node) {
+    node.prev = sentinel.prev;
+    node.next = sentinel;
+    sentinel.prev.next = node;
+    sentinel.prev = node;
+  }
+
+  /**
+   * A node in one of the access ordered segments. Each is circular around a
+   * sentinel, with the least recently used node at sentinel.next.
+   */
+  private static final class Node {
+    final Object key;
+    final ObjectCache<?, ?> cache;
+    CacheEntry<?, ?> entry;
+    long weight;
+    int queue;
+    Node prev;
+    Node next;
+
+    Node() {
+      key = null;
+      cache = null;
+      prev = this;
+      next = this;
+    }
+
+    Node(CacheEntry<?, ?> entry) {
+      this.key = entry.getEntryKey();
+      this.cache = entry.getCache();
+      this.entry = entry;
+    }
+  }
+}
@@ -16,6 +16,9 @@
 package com.sixrockets.ashkay.strategies;
 
 import com.sixrockets.ashkay.CacheEntry;
+import com.sixrockets.ashkay.CachingStrategy;
+import com.sixrockets.ashkay.EntrySlot;
+import com.sixrockets.ashkay.LongSlot;
 import com.sixrockets.ashkay.ObjectCache;
 
 import java.lang.ref.ReferenceQueue;
@@ -29,6 +32,10 @@ import java.util.Map;
  * are destroyed.
  * <br><br>
  * Often, this strategy will be used in memory sensative caches.
+ * <br><br>
+ * The SoftReference is an EntryReference that knows the entry holding it, so
+ * whoever drains the reference queue can evict that very entry without
+ * keeping a map from references to entries.
  *
  * @author <a href="mailto:dave@sixrockets.com">Dave Brown</a>
  * @see java.lang.ref.SoftReference
@@ -37,15 +44,23 @@ import java.util.Map;
 public class SoftReferenceCacheEntry<T extends Object, K> extends CacheEntry<T, K> {
 
 	private CacheEntry<Object, K> theEntry;
+	private ReferenceQueue<? super T> queue;
+	final CachingStrategy strategy;
+
+	public SoftReferenceCacheEntry(CacheEntry<T, K> originalEntry, ReferenceQueue<? super T> queue) {
+		this(originalEntry, queue, null);
+	}
 
-	public SoftReferenceCacheEntry(CacheEntry<T, K> originalEntry, ReferenceQueue<T> queue) {
+	SoftReferenceCacheEntry(CacheEntry<T, K> originalEntry, ReferenceQueue<? super T> queue, CachingStrategy strategy) {
 		super();
 		theEntry = (CacheEntry<Object, K>) originalEntry;
-		theEntry.setEntryObject(new SoftReference<T>((T) theEntry.getEntryObject(), queue));
+		this.queue = queue;
+		this.strategy = strategy;
+		theEntry.setEntryObject(new EntryReference<T>((T) theEntry.getEntryObject(), this, queue));
 	}
 
-	SoftReference<T> getEntryReference() {
-		return (SoftReference<T>) theEntry.getEntryObject();
+	EntryReference<T> getEntryReference() {
+		return (EntryReference<T>) theEntry.getEntryObject();
 	}
 
 	public T getEntryObject() {
@@ -53,7 +68,7 @@ public class SoftReferenceCacheEntry<T extends Object, K> extends CacheEntry<T,
 		return ref.get();
 	}
 
-	public void addProperties(Map propertiesToAdd) {
+	public void addProperties(Map<?, ?> propertiesToAdd) {
 		theEntry.addProperties(propertiesToAdd);
 	}
 
@@ -66,8 +81,7 @@ public class SoftReferenceCacheEntry<T extends Object, K> extends CacheEntry<T,
 	}
 
 	public void setEntryObject(Object entryObject) {
-		SoftReference ref = new SoftReference(entryObject);
-		theEntry.setEntryObject(ref);
+		theEntry.setEntryObject(new EntryReference<T>((T) entryObject, this, queue));
 	}
 
 	public Object getEntryKey() {
@@ -78,10 +92,38 @@ public class SoftReferenceCacheEntry<T extends Object, K> extends CacheEntry<T,
 		theEntry.setEntryKey(key);
 	}
 
+	public long getWeight() {
+		return theEntry.getWeight();
+	}
+
+	public void setWeight(long weight) {
+		theEntry.setWeight(weight);
+	}
+
 	public Map getProperties() {
 		return theEntry.getProperties();
 	}
 
+	public <V> V get(EntrySlot<V> slot) {
+		return theEntry.get(slot);
+	}
+
+	public <V> void set(EntrySlot<V> slot, V value) {
+		theEntry.set(slot, value);
+	}
+
+	public long get(LongSlot slot) {
+		return theEntry.get(slot);
+	}
+
+	public void set(LongSlot slot, long value) {
+		theEntry.set(slot, value);
+	}
+
+	public boolean isEntry(CacheEntry<?, ?> other) {
+		return this == other || theEntry.isEntry(other);
+	}
+
 	public ObjectCache getCache() {
 		return theEntry.getCache();
 	}
@@ -89,4 +131,17 @@ public class SoftReferenceCacheEntry<T extends Object, K> extends CacheEntry<T,
 	public void setCache(ObjectCache myCache) {
 		theEntry.setCache(myCache);
 	}
+
+	/**
+	 * A SoftReference to an entry's object that carries the entry, and so its
+	 * key and cache, for when the object has been collected.
+	 */
+	static final class EntryReference<T> extends SoftReference<T> {
+		final SoftReferenceCacheEntry<T, ?> entry;
+
+		EntryReference(T referent, SoftReferenceCacheEntry<T, ?> entry, ReferenceQueue<? super T> queue) {
+			super(referent, queue);
+			this.entry = entry;
+		}
+	}
 }
@@ -17,53 +17,82 @@ package com.sixrockets.ashkay.strategies;
 
 import com.sixrockets.ashkay.CacheEntry;
 import com.sixrockets.ashkay.CachingStrategy;
+import com.sixrockets.ashkay.EvictionBatchEvent;
+import com.sixrockets.ashkay.EvictionCause;
+import com.sixrockets.ashkay.ObjectCache;
 
 import java.lang.ref.Reference;
 import java.lang.ref.ReferenceQueue;
-import java.util.IdentityHashMap;
-import java.util.Map;
 
 /**
  * A Soft Reference caching strategy uses soft references to store objects in
  * the cache. Soft references do not prevent the garbage collection of the
  * objects.
+ * <br><br>
+ * Entries whose objects have been collected fail validation, and are evicted
+ * from the cache with EvictionCause.COLLECTED by a daemon thread that drains
+ * the reference queue of every SoftReferenceCachingStrategy, so no cleanup
+ * happens on the request path. The thread evicts the exact entry whose object
+ * was collected; if the key has been reloaded since, the new entry stays.
  *
  * @author <a href="mailto:dave@sixrockets.com">Dave Brown</a>
  */
 
 public class SoftReferenceCachingStrategy implements CachingStrategy {
 
-  private Map entryMap = new IdentityHashMap();
-  private ReferenceQueue queue = new ReferenceQueue();
-
   public <T, K> CacheEntry<T, K> prepare(CacheEntry<T, K> entry) {
-    checkQueue();
-
-    SoftReferenceCacheEntry theEntry = new SoftReferenceCacheEntry(entry, queue);
-    entryMap.put(theEntry.getEntryReference(), theEntry);
-    return theEntry;
+    return new SoftReferenceCacheEntry<T, K>(entry, Collector.QUEUE, this);
   }
 
   public boolean validate(CacheEntry<?, ?> entry) {
-    checkQueue();
+    return entry.getEntryObject() != null;
+  }
 
-    boolean val = true;
-    if (entry.getEntryObject() == null) {
-      val = false;
+  /**
+   * Drains the shared reference queue, started with the first strategy used.
+   */
+  private static final class Collector {
+    static final int BATCH = 256;
+    static final ReferenceQueue<Object> QUEUE = new ReferenceQueue<>();
+
+    static {
+      Thread thread = new Thread(Collector::drain, "ashkay-reference-collector");
+      thread.setDaemon(true);
+      thread.start();
     }
 
-    return val;
-  }
+    private static void drain() {
+      SoftReferenceCacheEntry.EntryReference<?>[] batch = new SoftReferenceCacheEntry.EntryReference<?>[BATCH];
+      while (true) {
+        int count = 0;
+        try {
+          Reference<?> ref = QUEUE.remove();
+          while ((null != ref) && (count < BATCH)) {
+            batch[count++] = (SoftReferenceCacheEntry.EntryReference<?>) ref;
+            ref = (count < BATCH) ? QUEUE.poll() : null;
+          }
+        } catch (InterruptedException e) {
+          // keep draining, this thread lives as long as the JVM
+        }
 
-  private void checkQueue() {
-    Reference ref = queue.poll();
-    while (ref != null) {
-      CacheEntry entryToClear = (CacheEntry) entryMap.get(ref);
-      if (entryToClear != null) {
-        entryToClear.getCache().evict(entryToClear.getEntryKey());
-        entryMap.remove(ref);
+        EvictionBatchEvent event = new EvictionBatchEvent();
+        event.begin();
+        for (int i = 0; i < count; i++) {
+          SoftReferenceCacheEntry.EntryReference<?> ref = batch[i];
+          SoftReferenceCacheEntry<?, ?> entry = ref.entry;
+          batch[i] = null;
+          // an entry given a new object since holds a new reference
+          ObjectCache<?, ?> cache = entry.getCache();
+          if ((entry.getEntryReference() == ref) && (null != cache)) {
+            try {
+              cache.evictEntry(entry, EvictionCause.COLLECTED, entry.strategy);
+            } catch (RuntimeException e) {
+              // a failing strategy must not stop collection for every cache
+            }
+          }
+        }
+        event.end(null, SoftReferenceCachingStrategy.class, EvictionCause.COLLECTED, count);
       }
-      ref = queue.poll();
     }
   }
 }
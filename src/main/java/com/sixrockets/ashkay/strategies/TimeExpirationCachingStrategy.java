@@ -17,18 +17,54 @@ package com.sixrockets.ashkay.strategies;
 
 import com.sixrockets.ashkay.CacheEntry;
 import com.sixrockets.ashkay.CachingStrategy;
+import com.sixrockets.ashkay.EntrySlot;
+import com.sixrockets.ashkay.EvictionBatchEvent;
+import com.sixrockets.ashkay.EvictionCause;
+import com.sixrockets.ashkay.LongSlot;
+
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * TimeExpirationCachingStrategy expires objects in the cache after a set
  * amount of time.
+ * <br><br>
+ * Expired entries are not just refused on lookup, they are removed from the
+ * cache. Each entry is scheduled on a TimerWheel when it is prepared, and the
+ * wheel is advanced as the cache is used, at most about once a second, so
+ * entries for keys nobody asks for again still go away. For caches that may
+ * sit idle, pass a ScheduledExecutorService to advance the wheel in the
+ * background as well.
+ * <br><br>
+ * A refresh time shorter than the timeout turns on refresh-ahead: once an
+ * entry is older than the refresh time it is reloaded while still being
+ * served, and only an entry older than the timeout makes callers wait.
+ * <br><br>
+ * The time an entry expires, in milliseconds since the epoch, is kept in the
+ * EXPIRES slot. A strategy ahead of this one may set the slot to have an
+ * entry expire sooner, as persistent tiers do to keep an object's original
+ * expiry when it is read back in.
  * @author <a href="mailto:dave@sixrockets.com">Dave Brown</a>
  */
 
 public class TimeExpirationCachingStrategy implements CachingStrategy {
 
-  private static final String ENTRY_KEY = "com.cepm_us.util.cache.TimeExpirationCachingStrategy.Timeout";
+  private static final EntrySlot<TimerWheel.Node> ENTRY_KEY = EntrySlot.register(TimeExpirationCachingStrategy.class.getName() + ".timeout");
+  private static final long CLEAN_UP_INTERVAL = 1000;
+
+  /**
+   * The time an entry expires, in milliseconds since the epoch.
+   */
+  public static final LongSlot EXPIRES = LongSlot.register(TimeExpirationCachingStrategy.class.getName() + ".expires", Long.MAX_VALUE);
 
   private long expirationTime;
+  private long refreshTime;
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final TimerWheel wheel = new TimerWheel(System.currentTimeMillis());
+  private volatile long nextCleanUp;
 
   /**
    * Creates the caching strategy with the specified timeout.
@@ -38,24 +74,146 @@ public class TimeExpirationCachingStrategy implements CachingStrategy {
     expirationTime = timeOut;
   }
 
+  /**
+   * Creates the caching strategy with the specified timeout, removing expired
+   * entries in the background on the given scheduler. The task runs until the
+   * scheduler is shut down.
+   * @param timeOut   - the time out length for the cache entries
+   * @param scheduler - the scheduler to run clean up on
+   */
+  public TimeExpirationCachingStrategy(long timeOut, ScheduledExecutorService scheduler) {
+    this(timeOut);
+    scheduler.scheduleWithFixedDelay(this::cleanUp, CLEAN_UP_INTERVAL, CLEAN_UP_INTERVAL, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Sets how old an entry may get before it is refreshed ahead of its
+   * expiry. Zero, the default, turns refreshing off.
+   * @param refreshTime - the age at which to refresh entries
+   */
+  public void setRefreshTime(long refreshTime) {
+    this.refreshTime = refreshTime;
+  }
+
   public <T, K> CacheEntry<T, K> prepare(CacheEntry<T, K> entry) {
-    entry.addProperty(ENTRY_KEY, new Long(System.currentTimeMillis()));
+    long currentTime = System.currentTimeMillis();
+    long expires = Math.min(currentTime + expirationTime, entry.get(EXPIRES));
+    TimerWheel.Node node = new TimerWheel.Node(entry, expires);
+    entry.set(ENTRY_KEY, node);
+    entry.set(EXPIRES, expires);
+    TimerWheel.Node replaced = replacedNode(entry);
+
+    List<TimerWheel.Node> expired;
+    lock.lock();
+    try {
+      if (null != replaced) {
+        wheel.deschedule(replaced);
+      }
+      wheel.schedule(node);
+      expired = advance(currentTime);
+    } finally {
+      lock.unlock();
+    }
+    evict(expired);
     return entry;
   }
 
+  /**
+   * Returns the node of the entry the given one is about to replace, so the
+   * wheel does not hold on to the old object until it would have expired.
+   */
+  private <T, K> TimerWheel.Node replacedNode(CacheEntry<T, K> entry) {
+    if (null == entry.getCache()) {
+      return null;
+    }
+    CacheEntry<T, K> current = entry.getCache().peekEntry(entry.getEntryKey());
+    if ((null == current) || current.isEntry(entry)) {
+      return null;
+    }
+    return current.get(ENTRY_KEY);
+  }
+
   public boolean validate(CacheEntry<?, ?> entry) {
     boolean val = true;
-    Object temp = entry.getProperty(ENTRY_KEY);
-    if ((temp != null) && (temp instanceof Long)) {
-      long cachedTime = ((Long) temp).longValue();
-      long currentTime = System.currentTimeMillis();
-      if (cachedTime + expirationTime <= currentTime) {
+    long currentTime = System.currentTimeMillis();
+    TimerWheel.Node node = entry.get(ENTRY_KEY);
+    if (node != null) {
+      if (node.time <= currentTime) {
         val = false;
       }
     } else {
       val = false;
     }
 
+    if (currentTime >= nextCleanUp) {
+      cleanUp(currentTime);
+    }
     return val;
   }
+
+  public boolean needsRefresh(CacheEntry<?, ?> entry) {
+    if (refreshTime <= 0) {
+      return false;
+    }
+
+    TimerWheel.Node node = entry.get(ENTRY_KEY);
+    if (node != null) {
+      long cachedTime = node.time - expirationTime;
+      return cachedTime + refreshTime <= System.currentTimeMillis();
+    }
+    return false;
+  }
+
+  public void evicted(CacheEntry<?, ?> entry, EvictionCause cause) {
+    TimerWheel.Node node = entry.get(ENTRY_KEY);
+    if (node != null) {
+      lock.lock();
+      try {
+        wheel.deschedule(node);
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+
+  /**
+   * Removes every expired entry from the cache. This is done as a matter of
+   * course while the cache is in use; call it to clean up an idle cache.
+   */
+  public void cleanUp() {
+    cleanUp(System.currentTimeMillis());
+  }
+
+  private void cleanUp(long currentTime) {
+    if (!lock.tryLock()) {
+      return;
+    }
+
+    List<TimerWheel.Node> expired;
+    try {
+      expired = advance(currentTime);
+    } finally {
+      lock.unlock();
+    }
+    evict(expired);
+  }
+
+  private List<TimerWheel.Node> advance(long currentTime) {
+    nextCleanUp = currentTime + CLEAN_UP_INTERVAL;
+    return wheel.advance(currentTime);
+  }
+
+  private void evict(List<TimerWheel.Node> expired) {
+    if (expired.isEmpty()) {
+      return;
+    }
+    EvictionBatchEvent event = new EvictionBatchEvent();
+    event.begin();
+    for (TimerWheel.Node node : expired) {
+      if (null != node.entry.getCache()) {
+        node.entry.getCache().evictEntry(node.entry, EvictionCause.EXPIRED, this);
+      }
+    }
+    event.end(expired.get(0).entry.getCache(), getClass(), EvictionCause.EXPIRED, expired.size());
+  }
 }
@@ -0,0 +1,173 @@
+/*
+ *  Copyright 2004 David C. Brown
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sixrockets.ashkay.strategies;
+
+import com.sixrockets.ashkay.CacheEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * TimerWheel is a hierarchical timing wheel of expiring cache entries. Each
+ * level is a ring of buckets, and each bucket spans a power of two number of
+ * milliseconds: about a second, a minute, an hour, a day and a catch-all for
+ * anything further out. Scheduling and descheduling a node are constant time.
+ * Advancing the wheel only visits the buckets whose time has passed; nodes
+ * found there are either expired or, if they belong to a later time, moved
+ * down to a finer level. A node moves at most once per level, so the work of
+ * expiring an entry is constant no matter how many entries the wheel holds.
+ * <br><br>
+ * The wheel is not thread safe; callers guard it with their own lock.
+ *
+ * @author <a href="mailto:dave@sixrockets.com">Dave Brown</a>
+ */
+final class TimerWheel {
+
+  private static final int[] BUCKETS = { 64, 64, 32, 4, 1 };
+  private static final int[] SHIFT = { 10, 16, 22, 26, 28 };
+  private static final long[] SPANS = { 1L << 10, 1L << 16, 1L << 22, 1L << 26, 1L << 28 };
+
+  private final Node[][] wheel;
+  private long time;
+
+  /**
+   * Creates an empty wheel.
+   *
+   * @param now - the current time in milliseconds
+   */
+  TimerWheel(long now) {
+    time = now;
+    wheel = new Node[BUCKETS.length][];
+    for (int i = 0; i < wheel.length; i++) {
+      wheel[i] = new Node[BUCKETS[i]];
+      for (int j = 0; j < wheel[i].length; j++) {
+        wheel[i][j] = new Node();
+      }
+    }
+  }
+
+  /**
+   * Adds the node to the bucket for its expiration time.
+   */
+  void schedule(Node node) {
+    link(findBucket(node.time), node);
+  }
+
+  /**
+   * Removes the node from the wheel if it is still scheduled.
+   */
+  void deschedule(Node node) {
+    if (null != node.next) {
+      node.prev.next = node.next;
+      node.next.prev = node.prev;
+      node.prev = null;
+      node.next = null;
+    }
+  }
+
+  /**
+   * Moves the wheel forward to the given time and returns the nodes whose
+   * expiration time has passed. Returned nodes are no longer scheduled.
+   *
+   * @param now - the current time in milliseconds
+   * @return the expired nodes
+   */
+  List<Node> advance(long now) {
+    List<Node> expired = new ArrayList<>(0);
+    long previous = time;
+    time = now;
+    for (int i = 0; i < SHIFT.length; i++) {
+      long previousTicks = previous >>> SHIFT[i];
+      long currentTicks = now >>> SHIFT[i];
+      if (currentTicks - previousTicks <= 0L) {
+        break;
+      }
+      expire(i, previousTicks, currentTicks, expired);
+    }
+    return expired;
+  }
+
+  private void expire(int level, long previousTicks, long currentTicks, List<Node> expired) {
+    Node[] buckets = wheel[level];
+    int mask = buckets.length - 1;
+    int steps = (int) Math.min(1 + (currentTicks - previousTicks), buckets.length);
+    int start = (int) (previousTicks & mask);
+    int end = start + steps;
+
+    for (int i = start; i < end; i++) {
+      Node sentinel = buckets[i & mask];
+      Node node = sentinel.next;
+      sentinel.prev = sentinel;
+      sentinel.next = sentinel;
+
+      while (node != sentinel) {
+        Node next = node.next;
+        node.prev = null;
+        node.next = null;
+        if (node.time <= time) {
+          expired.add(node);
+        } else {
+          schedule(node);
+        }
+        node = next;
+      }
+    }
+  }
+
+  private Node findBucket(long expires) {
+    // anything already due goes in the current bucket, the next one visited
+    expires = Math.max(expires, time);
+    long duration = expires - time;
+    int last = wheel.length - 1;
+    for (int i = 0; i < last; i++) {
+      if (duration < SPANS[i + 1]) {
+        long ticks = expires >>> SHIFT[i];
+        int index = (int) (ticks & (wheel[i].length - 1));
+        return wheel[i][index];
+      }
+    }
+    return wheel[last][0];
+  }
+
+  private static void link(Node sentinel, Node node) {
+    node.prev = sentinel.prev;
+    node.next = sentinel;
+    sentinel.prev.next = node;
+    sentinel.prev = node;
+  }
+
+  /**
+   * A scheduled entry. The sentinel of each bucket is a Node with no entry.
+   */
+  static final class Node {
+    final CacheEntry<?, ?> entry;
+    final long time;
+    Node prev;
+    Node next;
+
+    Node() {
+      entry = null;
+      time = 0;
+      prev = this;
+      next = this;
+    }
+
+    Node(CacheEntry<?, ?> entry, long time) {
+      this.entry = entry;
+      this.time = time;
+    }
+  }
+}
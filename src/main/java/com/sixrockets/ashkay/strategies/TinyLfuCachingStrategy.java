@@ -0,0 +1,386 @@
+/*
+ *  Copyright 2004 David C. Brown
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sixrockets.ashkay.strategies;
+
+import com.sixrockets.ashkay.CacheEntry;
+import com.sixrockets.ashkay.CachingStrategy;
+import com.sixrockets.ashkay.EvictionBatchEvent;
+import com.sixrockets.ashkay.EvictionCause;
+import com.sixrockets.ashkay.ObjectCache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * TinyLfuCachingStrategy bounds the number of entries in the cache using the
+ * W-TinyLFU policy. New entries enter a small LRU window (1% of the capacity).
+ * Entries pushed out of the window must win an admission contest against the
+ * least recently used entry of the main space, judged by how often each key
+ * has been seen according to a FrequencySketch. The main space is a segmented
+ * LRU: entries start on probation and are promoted to the protected segment
+ * (80% of the main space) when they are hit again.
+ * <br><br>
+ * Losers are evicted through ObjectCache.evictEntry, so every eviction is a
+ * constant amount of list work. Hits record themselves only if the policy
+ * lock is free; under contention an access is dropped rather than making the
+ * reader wait, which costs a little accuracy but keeps the hit path free of
+ * blocking and allocation.
+ * <br><br>
+ * A weighted strategy bounds the total CacheEntry weight rather than the
+ * number of entries; give the cache a Weigher to make use of it. An entry
+ * heavier than the whole cache stays only until the next entry is added.
+ * <br><br>
+ * Entries are tracked by key, so an instance should bound a single
+ * ObjectCache.
+ *
+ * @author <a href="mailto:dave@sixrockets.com">Dave Brown</a>
+ * @see FrequencySketch
+ */
+public class TinyLfuCachingStrategy implements CachingStrategy {
+
+  private static final int WINDOW = 0;
+  private static final int PROBATION = 1;
+  private static final int PROTECTED = 2;
+  private static final int RETIRED = 3;
+
+  private final long maximumSize;
+  private final boolean weighted;
+  private final long windowMaximum;
+  private final long protectedMaximum;
+
+  private final FrequencySketch sketch;
+  private final ConcurrentMap<Object, Node> nodes = new ConcurrentHashMap<>();
+  private final ReentrantLock lock = new ReentrantLock();
+
+  private final Node window = new Node();
+  private final Node probation = new Node();
+  private final Node protectedSegment = new Node();
+  private long windowSize;
+  private long probationSize;
+  private long protectedSize;
+
+  /**
+   * Creates the caching strategy with the specified capacity.
+   *
+   * @param maximumSize - the most entries the cache may hold
+   */
+  public TinyLfuCachingStrategy(long maximumSize) {
+    this(maximumSize, false);
+  }
+
+  /**
+   * Creates the caching strategy with the specified capacity, counted either
+   * in entries or in total entry weight.
+   *
+   * @param maximum  - the most entries, or total weight, the cache may hold
+   * @param weighted - true to bound by CacheEntry weight, false to count entries
+   */
+  public TinyLfuCachingStrategy(long maximum, boolean weighted) {
+    if (maximum < 1) {
+      throw new IllegalArgumentException("maximum must be positive");
+    }
+    this.maximumSize = maximum;
+    this.weighted = weighted;
+    windowMaximum = Math.max(1, maximumSize / 100);
+    protectedMaximum = (long) ((maximumSize - windowMaximum) * 0.8);
+    sketch = new FrequencySketch(weighted ? Math.min(maximum, 1 << 20) : maximum);
+  }
+
+  public <T, K> CacheEntry<T, K> prepare(CacheEntry<T, K> entry) {
+    List<Node> victims;
+    lock.lock();
+    try {
+      Node node = nodes.get(entry.getEntryKey());
+      long weight = weighted ? entry.getWeight() : 1;
+      if (null == node || RETIRED == node.queue) {
+        node = new Node(entry);
+        nodes.put(node.key, node);
+        sketch.increment(node.hash);
+        link(window, node);
+        node.queue = WINDOW;
+        node.weight = weight;
+        windowSize += weight;
+      } else {
+        node.entry = entry;
+        reweigh(node, weight);
+        sketch.increment(node.hash);
+        onAccess(node);
+      }
+      victims = evict(node);
+    } finally {
+      lock.unlock();
+    }
+
+    if (!victims.isEmpty()) {
+      EvictionBatchEvent event = new EvictionBatchEvent();
+      event.begin();
+      for (Node victim : victims) {
+        victim.cache.evictEntry(victim.entry, EvictionCause.SIZE, this);
+      }
+      event.end(entry.getCache(), getClass(), EvictionCause.SIZE, victims.size());
+    }
+    return entry;
+  }
+
+  /**
+   * Records the hit if the policy lock is free. An entry with no node has
+   * been evicted by this strategy and fails validation so it is reloaded
+   * (and tracked again) instead of living on outside the bound.
+   */
+  public boolean validate(CacheEntry<?, ?> entry) {
+    Node node = nodes.get(entry.getEntryKey());
+    if (null == node) {
+      return false;
+    }
+
+    if (lock.tryLock()) {
+      try {
+        if (RETIRED != node.queue) {
+          sketch.increment(node.hash);
+          onAccess(node);
+        }
+      } finally {
+        lock.unlock();
+      }
+    }
+    return true;
+  }
+
+  public void evicted(CacheEntry<?, ?> entry, EvictionCause cause) {
+    Node node = nodes.get(entry.getEntryKey());
+    if (null == node) {
+      return;
+    }
+
+    lock.lock();
+    try {
+      if ((RETIRED != node.queue) && entry.isEntry(node.entry)) {
+        retire(node);
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Returns the number of entries, or total weight, this strategy currently
+   * tracks.
+   *
+   * @return the tracked entry count or weight
+   */
+  public long size() {
+    lock.lock();
+    try {
+      return windowSize + probationSize + protectedSize;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Returns the keys of the most frequently used entries, most frequent
+   * first, as estimated by the frequency sketch. Ties go to the entries of
+   * the protected segment, then probation, then the window, most recently
+   * used first.
+   *
+   * @param limit - the most keys to return
+   * @return the hottest keys
+   */
+  public <K> List<K> hottestKeys(int limit) {
+    Object[] keys;
+    long[] order;
+    lock.lock();
+    try {
+      keys = new Object[nodes.size()];
+      order = new long[keys.length];
+      int count = 0;
+      for (Node sentinel : new Node[] { protectedSegment, probation, window }) {
+        for (Node node = sentinel.prev; (node != sentinel) && (count < keys.length); node = node.prev) {
+          keys[count] = node.key;
+          // less frequent sorts later, and ties keep the order collected
+          order[count] = ((long) (15 - sketch.frequency(node.hash)) << 32) | count;
+          count++;
+        }
+      }
+      order = Arrays.copyOf(order, count);
+    } finally {
+      lock.unlock();
+    }
+
+    Arrays.sort(order);
+    List<K> hottest = new ArrayList<>(Math.min(limit, order.length));
+    for (int i = 0; (i < limit) && (i < order.length); i++) {
+      // callers ask for the key type of the cache they gave the strategy to
+      @SuppressWarnings("unchecked")
+      K key = (K) keys[(int) order[i]];
+      hottest.add(key);
+    }
+    return hottest;
+  }
+
+  private void onAccess(Node node) {
+    switch (node.queue) {
+      case WINDOW:
+        unlink(node);
+        link(window, node);
+        break;
+      case PROBATION:
+        unlink(node);
+        link(protectedSegment, node);
+        node.queue = PROTECTED;
+        probationSize -= node.weight;
+        protectedSize += node.weight;
+        while (protectedSize > protectedMaximum) {
+          Node demoted = protectedSegment.next;
+          unlink(demoted);
+          link(probation, demoted);
+          demoted.queue = PROBATION;
+          protectedSize -= demoted.weight;
+          probationSize += demoted.weight;
+        }
+        break;
+      case PROTECTED:
+        unlink(node);
+        link(protectedSegment, node);
+        break;
+      default:
+        break;
+    }
+  }
+
+  /**
+   * Moves overflow from the window onto probation as candidates, then evicts
+   * from the main space until the cache is back within bounds. Each candidate
+   * is weighed against the probation victim and the less frequent one loses.
+   * The newest node is never chosen, as its entry is not in the cache yet.
+   */
+  private List<Node> evict(Node newest) {
+    Node candidate = null;
+    while ((windowSize > windowMaximum) && (window.next != newest)) {
+      Node demoted = window.next;
+      unlink(demoted);
+      link(probation, demoted);
+      demoted.queue = PROBATION;
+      windowSize -= demoted.weight;
+      probationSize += demoted.weight;
+      if (null == candidate) {
+        candidate = demoted;
+      }
+    }
+
+    List<Node> victims = new ArrayList<>(0);
+    while (windowSize + probationSize + protectedSize > maximumSize) {
+      Node victim = probation.next;
+      if (victim == probation) {
+        victim = (protectedSegment.next != protectedSegment) ? protectedSegment.next : window.next;
+      }
+      if (victim == newest) {
+        victim = (newest.next != window) ? newest.next : null;
+      }
+      if (null == victim) {
+        break;
+      }
+
+      Node loser;
+      if ((null == candidate) || (candidate == victim)) {
+        candidate = null;
+        loser = victim;
+      } else if (sketch.frequency(candidate.hash) > sketch.frequency(victim.hash)) {
+        loser = victim;
+      } else {
+        loser = candidate;
+        candidate = (candidate.next != probation) ? candidate.next : null;
+      }
+
+      retire(loser);
+      victims.add(loser);
+    }
+    return victims;
+  }
+
+  private void retire(Node node) {
+    unlink(node);
+    reweigh(node, 0);
+    node.queue = RETIRED;
+    nodes.remove(node.key, node);
+  }
+
+  private void reweigh(Node node, long weight) {
+    long delta = weight - node.weight;
+    switch (node.queue) {
+      case WINDOW:
+        windowSize += delta;
+        break;
+      case PROBATION:
+        probationSize += delta;
+        break;
+      case PROTECTED:
+        protectedSize += delta;
+        break;
+      default:
+        break;
+    }
+    node.weight = weight;
+  }
+
+  private static void link(Node sentinel, Node node) {
+    node.prev = sentinel.prev;
+    node.next = sentinel;
+    sentinel.prev.next = node;
+    sentinel.prev = node;
+  }
+
+  private static void unlink(Node node) {
+    node.prev.next = node.next;
+    node.next.prev = node.prev;
+    node.prev = null;
+    node.next = null;
+  }
+
+  /**
+   * A node in one of the policy's access ordered lists. Each list is circular
+   * around a sentinel, with the least recently used node at sentinel.next.
+   */
+  private static final class Node {
+    final Object key;
+    final int hash;
+    final ObjectCache<?, ?> cache;
+    CacheEntry<?, ?> entry;
+    long weight;
+    int queue;
+    Node prev;
+    Node next;
+
+    Node() {
+      key = null;
+      hash = 0;
+      cache = null;
+      prev = this;
+      next = this;
+    }
+
+    Node(CacheEntry<?, ?> entry) {
+      this.key = entry.getEntryKey();
+      this.hash = FrequencySketch.spread(key.hashCode());
+      this.cache = entry.getCache();
+      this.entry = entry;
+    }
+  }
+}
@@ -0,0 +1,293 @@
+/*
+ *  Copyright 2004 David C. Brown
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sixrockets.ashkay.strategies;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * UrlFreshnessChecker finds out which version of a remote resource is
+ * current without every caller going to the origin. The result of checking a
+ * URL is reused for a minimum interval; when it is due, the first caller
+ * starts one check and every other caller waits for that same check. Checks
+ * run on a small, fixed pool of daemon threads, so no more than that many
+ * requests are ever made at once. Idle threads go away after a minute.
+ * <br><br>
+ * HTTP URLs are checked with a HEAD request that, once a version is known,
+ * is conditional on it (If-Modified-Since and If-None-Match), so an unchanged
+ * resource costs a 304 and no body. An origin that refuses HEAD, with a 405 or
+ * 501, is asked with the same conditional GET instead, from then on, and the
+ * connection is dropped without reading a body. Other URLs, such as file and
+ * jar URLs, report their last modified time. A check that fails, by an
+ * IOException or an unexpected status, gives no version at all, which callers
+ * should treat as unknown rather than unchanged. Failures are reused for the
+ * interval too, so an origin that is down is not hammered.
+ * <br><br>
+ * What is known about a URL is kept while someone holds it with retain, until
+ * as many releases; a cache strategy holds a URL for as long as an entry for
+ * it is cached. Checks of URLs nobody holds are still coalesced while they
+ * run, but their results are not kept, so the checker does not grow with
+ * every URL it is ever asked about.
+ *
+ * @author <a href="mailto:dave@sixrockets.com">Dave Brown</a>
+ * @see LastModifiedCachingStrategy#setUrlChecker(UrlFreshnessChecker)
+ */
+public class UrlFreshnessChecker implements Closeable {
+
+  private static final Result FAILED = new Result(null);
+  private static final AtomicInteger POOLS = new AtomicInteger();
+
+  private final long minimumInterval;
+  private final ExecutorService pool;
+  private final ConcurrentMap<String, State> states = new ConcurrentHashMap<>();
+  private int timeout = 5000;
+
+  /**
+   * Creates a checker.
+   *
+   * @param minimumInterval - the milliseconds a check's result is reused for
+   * @param threads         - the most checks to run at once
+   */
+  public UrlFreshnessChecker(long minimumInterval, int threads) {
+    this.minimumInterval = TimeUnit.MILLISECONDS.toNanos(minimumInterval);
+    int id = POOLS.incrementAndGet();
+    AtomicInteger count = new AtomicInteger();
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+      Thread thread = new Thread(r, "ashkay-url-check-" + id + "-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    executor.allowCoreThreadTimeOut(true);
+    pool = executor;
+  }
+
+  /**
+   * Sets the connect and read timeout of each check. The default is five
+   * seconds.
+   *
+   * @param timeout - the timeout in milliseconds
+   */
+  public void setTimeout(int timeout) {
+    this.timeout = timeout;
+  }
+
+  /**
+   * Returns the current version of the resource, checking it if the last
+   * check is older than the minimum interval.
+   *
+   * @param url - the resource
+   * @return the version, or null if the resource could not be checked
+   */
+  public Version check(URL url) {
+    String key = url.toExternalForm();
+    State state = states.computeIfAbsent(key, k -> new State());
+    Result result = state.result;
+    if ((null != result) && (System.nanoTime() - state.checkedAt < minimumInterval)) {
+      return result.version;
+    }
+
+    CompletableFuture<Result> check;
+    synchronized (state) {
+      check = state.inFlight;
+      if (null == check) {
+        Result previous = result;
+        try {
+          check = CompletableFuture.supplyAsync(() -> fetch(url, previous, state), pool)
+            .whenComplete((checked, e) -> finished(key, state, checked));
+        } catch (RejectedExecutionException e) {
+          return null;
+        }
+        // finishing takes the state's lock, so a check not done by now is
+        // still running once this is set
+        if (!check.isDone()) {
+          state.inFlight = check;
+        }
+      }
+    }
+
+    try {
+      return check.join().version;
+    } catch (CompletionException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Records the result of a check, and forgets the URL if nobody holds it.
+   */
+  private void finished(String key, State state, Result checked) {
+    synchronized (state) {
+      state.result = (null == checked) ? FAILED : checked;
+      state.checkedAt = System.nanoTime();
+      state.inFlight = null;
+    }
+    states.computeIfPresent(key, (k, held) -> ((held == state) && (0 == held.users)) ? null : held);
+  }
+
+  /**
+   * Holds on to what is known about a URL until it is released as many times.
+   */
+  public void retain(URL url) {
+    states.compute(url.toExternalForm(), (k, state) -> {
+      State held = (null == state) ? new State() : state;
+      held.users++;
+      return held;
+    });
+  }
+
+  /**
+   * Lets go of a URL held with retain, forgetting it once nobody holds it.
+   */
+  public void release(URL url) {
+    states.computeIfPresent(url.toExternalForm(), (k, state) -> (--state.users > 0) ? state : null);
+  }
+
+  /**
+   * Forgets what is known about a URL, however many hold it.
+   */
+  public void forget(URL url) {
+    states.remove(url.toExternalForm());
+  }
+
+  /**
+   * Returns the number of URLs the checker knows about.
+   */
+  public int size() {
+    return states.size();
+  }
+
+  /**
+   * Stops the check threads. Checks asked for afterwards fail.
+   */
+  public void close() {
+    pool.shutdownNow();
+  }
+
+  private Result fetch(URL url, Result previous, State state) {
+    try {
+      URLConnection connection = url.openConnection();
+      connection.setConnectTimeout(timeout);
+      connection.setReadTimeout(timeout);
+      connection.setUseCaches(false);
+      if (!(connection instanceof HttpURLConnection)) {
+        return new Result(new Version(connection.getLastModified(), null));
+      }
+
+      HttpURLConnection http = (HttpURLConnection) connection;
+      try {
+        boolean head = !state.headRefused;
+        http.setRequestMethod(head ? "HEAD" : "GET");
+        Version known = (null == previous) ? null : previous.version;
+        if (null != known) {
+          if (known.lastModified > 0) {
+            http.setIfModifiedSince(known.lastModified);
+          }
+          if (null != known.etag) {
+            http.setRequestProperty("If-None-Match", known.etag);
+          }
+        }
+
+        int status = http.getResponseCode();
+        if (head && ((HttpURLConnection.HTTP_BAD_METHOD == status) || (HttpURLConnection.HTTP_NOT_IMPLEMENTED == status))) {
+          state.headRefused = true;
+          return fetch(url, previous, state);
+        } else if ((HttpURLConnection.HTTP_NOT_MODIFIED == status) && (null != known)) {
+          return previous;
+        } else if ((status >= 200) && (status < 300)) {
+          return new Result(new Version(http.getLastModified(), http.getHeaderField("ETag")));
+        }
+        return FAILED;
+      } finally {
+        http.disconnect();
+      }
+    } catch (IOException | RuntimeException e) {
+      return FAILED;
+    }
+  }
+
+  /**
+   * A version of a resource: its last modified time and, for HTTP, its ETag.
+   */
+  public static final class Version {
+    private final long lastModified;
+    private final String etag;
+
+    Version(long lastModified, String etag) {
+      this.lastModified = lastModified;
+      this.etag = etag;
+    }
+
+    public long getLastModified() {
+      return lastModified;
+    }
+
+    public String getETag() {
+      return etag;
+    }
+
+    public boolean equals(Object other) {
+      if (!(other instanceof Version)) {
+        return false;
+      }
+      Version version = (Version) other;
+      return (lastModified == version.lastModified) && Objects.equals(etag, version.etag);
+    }
+
+    public int hashCode() {
+      return Long.hashCode(lastModified) * 31 + Objects.hashCode(etag);
+    }
+
+    public String toString() {
+      return lastModified + (null == etag ? "" : " " + etag);
+    }
+  }
+
+  /**
+   * The outcome of one check, with no version if it failed.
+   */
+  private static final class Result {
+    final Version version;
+
+    Result(Version version) {
+      this.version = version;
+    }
+  }
+
+  /**
+   * What is known about one URL, and how many hold it.
+   */
+  private static final class State {
+    volatile Result result;
+    volatile long checkedAt;
+    volatile boolean headRefused;
+    CompletableFuture<Result> inFlight;
+    int users;
+  }
+}
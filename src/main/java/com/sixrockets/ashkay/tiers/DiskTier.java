@@ -0,0 +1,507 @@
+/*
+ *  Copyright 2004 David C. Brown
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sixrockets.ashkay.tiers;
+
+import com.sixrockets.ashkay.CacheEntry;
+import com.sixrockets.ashkay.CachingStrategy;
+import com.sixrockets.ashkay.CreationException;
+import com.sixrockets.ashkay.EvictionCause;
+import com.sixrockets.ashkay.ObjectCache;
+import com.sixrockets.ashkay.ObjectFactory;
+import com.sixrockets.ashkay.Serializer;
+import com.sixrockets.ashkay.strategies.TimeExpirationCachingStrategy;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongPredicate;
+import java.util.zip.CRC32;
+
+/**
+ * DiskTier keeps objects pushed out of an ObjectCache in memory mapped files
+ * that outlive the JVM, so a restarted cache can serve them without going
+ * back to the real factory. Like OffHeapTier it is both the cache's
+ * ObjectFactory and one of its strategies: entries evicted for size are
+ * written out, and a missing key is looked for on disk before the real
+ * factory is asked for it.
+ * <pre>
+ *   DiskTier&lt;Page, String&gt; tier = new DiskTier&lt;&gt;(new PageFactory(), new JavaSerializer&lt;&gt;(), new PageSerializer(), dir, 1L &lt;&lt; 30);
+ *   ObjectCache&lt;Page, String&gt; cache = new ObjectCache&lt;&gt;(tier);
+ *   cache.addStrategy(tier).addStrategy(new TimeExpirationCachingStrategy(HOUR)).addStrategy(new TinyLfuCachingStrategy(10000));
+ * </pre>
+ * The files are an append-only log of records, each holding the serialized
+ * key and object, the time the object expires and a checksum. The log is split
+ * into fixed size segment files; once the capacity is used the oldest segment
+ * is deleted with everything in it. A compact hash index of key hashes to log
+ * offsets is kept on the heap and rebuilt by scanning the log when the tier is
+ * opened, so it is ready as soon as the constructor returns. A record cut short
+ * by a crash fails its checksum and ends the scan of its segment.
+ * <br><br>
+ * The expiry comes from TimeExpirationCachingStrategy's EXPIRES slot. Objects
+ * read back keep their original expiry, so add the tier ahead of the time
+ * expiration strategy; expired records are never served. Objects on disk
+ * stay there when read back, and are dropped when their key is evicted,
+ * expires or is put into the cache again, whether or not the cache still
+ * holds the key; clearing the cache clears the tier. A key whose entry is
+ * still in the cache when it is loaded, because a strategy invalidated it or
+ * is refreshing it, is loaded from the real factory and its copy on disk is
+ * dropped, so a stale object is never read back in place of a fresh one. Closing the tier writes
+ * out the objects still in the cache, so a restart finds them all.
+ * <br><br>
+ * A load already looks for its key on disk, so the entry it makes is known
+ * not to have a stale copy there and preparing it costs no serialization or
+ * locking; only objects put into the cache are looked for again.
+ *
+ * @author <a href="mailto:dave@sixrockets.com">Dave Brown</a>
+ */
+public class DiskTier<T, K> implements ObjectFactory<T, K>, CachingStrategy, Closeable {
+
+  private static final int DEFAULT_SEGMENT_SIZE = 64 << 20;
+  private static final String SUFFIX = ".log";
+
+  // length, crc, type, expires, key length
+  private static final int HEADER = 4 + 4 + 1 + 8 + 4;
+  private static final int CHECKED = 8;
+  private static final byte PUT = 1;
+  private static final byte REMOVE = 2;
+  // noted for a key a load found no record of, as no record expires at 0
+  private static final Long NOT_ON_DISK = Long.valueOf(0);
+
+  private final ObjectFactory<T, K> factory;
+  private final Serializer<K> keySerializer;
+  private final Serializer<T> serializer;
+  private final File directory;
+  private final int segmentSize;
+  private final int maxSegments;
+
+  private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+  private final LogIndex index = new LogIndex();
+  private final ReentrantLock lock = new ReentrantLock();
+  private final ConcurrentMap<Object, Long> restored = new ConcurrentHashMap<>();
+  private volatile ObjectCache<T, K> cache;
+  private Segment current;
+
+  /**
+   * Opens the tier with 64 MB segments, or smaller if the capacity is less
+   * than two of them.
+   *
+   * @param aFactory      - the factory that creates objects not in either tier, or null
+   * @param keySerializer - the serializer for keys
+   * @param serializer    - the serializer for cached objects
+   * @param directory     - the directory holding the log, created if need be
+   * @param capacity      - the most bytes of disk to use
+   */
+  public DiskTier(ObjectFactory<T, K> aFactory, Serializer<K> keySerializer, Serializer<T> serializer, File directory, long capacity) throws IOException {
+    this(aFactory, keySerializer, serializer, directory, capacity, (int) Math.min(DEFAULT_SEGMENT_SIZE, Math.max(capacity / 2, HEADER)));
+  }
+
+  /**
+   * Opens the tier.
+   *
+   * @param aFactory      - the factory that creates objects not in either tier, or null
+   * @param keySerializer - the serializer for keys
+   * @param serializer    - the serializer for cached objects
+   * @param directory     - the directory holding the log, created if need be
+   * @param capacity      - the most bytes of disk to use
+   * @param segmentSize   - the size of each log file, which limits the largest object kept
+   */
+  public DiskTier(ObjectFactory<T, K> aFactory, Serializer<K> keySerializer, Serializer<T> serializer, File directory, long capacity, int segmentSize) throws IOException {
+    factory = aFactory;
+    this.keySerializer = keySerializer;
+    this.serializer = serializer;
+    this.directory = directory;
+    this.segmentSize = segmentSize;
+    maxSegments = (int) Math.max(2, Math.min(capacity / segmentSize, Integer.MAX_VALUE));
+
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Cannot create " + directory);
+    }
+    File[] files = directory.listFiles((dir, name) -> name.endsWith(SUFFIX));
+    Arrays.sort(files);
+    long now = System.currentTimeMillis();
+    for (File file : files) {
+      String name = file.getName();
+      Segment segment = new Segment(Integer.parseInt(name.substring(0, name.length() - SUFFIX.length())), file);
+      segments.put(segment.id, segment);
+      scan(segment, now);
+      current = segment;
+    }
+    if (null == current) {
+      current = newSegment(0);
+    }
+  }
+
+  public T createObjectFor(K key, Object data) throws CreationException {
+    ObjectCache<T, K> owner = cache;
+    // a key the cache still holds is being reloaded because a strategy found
+    // its entry wanting, and a copy on disk is no fresher
+    boolean reload = (null != owner) && (null != owner.peekEntry(key));
+    try {
+      byte[] keyBytes = keySerializer.serialize(key);
+      ByteBuffer record = null;
+      lock.lock();
+      try {
+        long offset = find(keyBytes);
+        if ((offset >= 0) && reload) {
+          remove(keyBytes);
+        } else if (offset >= 0) {
+          record = read(offset);
+          if (record.getLong(9) <= System.currentTimeMillis()) {
+            remove(keyBytes);
+            record = null;
+          }
+        }
+        if (null == record) {
+          restored.put(key, NOT_ON_DISK);
+        }
+      } finally {
+        lock.unlock();
+      }
+
+      if (null != record) {
+        long expires = record.getLong(9);
+        record.position(HEADER + record.getInt(17));
+        T object = serializer.deserialize(record.slice());
+        restored.put(key, Long.valueOf(expires));
+        return object;
+      }
+    } catch (IOException e) {
+      // fall through to the factory
+    }
+
+    T object = null;
+    try {
+      object = (null == factory) ? null : factory.createObjectFor(key, data);
+    } finally {
+      if (null == object) {
+        restored.remove(key, NOT_ON_DISK);
+      }
+    }
+    return object;
+  }
+
+  /**
+   * Gives objects read back from disk their original expiry, and drops the
+   * copy on disk of anything else put in the cache under the same key.
+   */
+  public <V, J> CacheEntry<V, J> prepare(CacheEntry<V, J> entry) {
+    if (null == cache) {
+      cache = cast(entry.getCache());
+    }
+    Long expires = restored.remove(entry.getEntryKey());
+    if (null == expires) {
+      evict(cast(entry.getEntryKey()));
+    } else if (!NOT_ON_DISK.equals(expires)) {
+      entry.set(TimeExpirationCachingStrategy.EXPIRES, expires.longValue());
+    }
+    return entry;
+  }
+
+  public boolean validate(CacheEntry<?, ?> entry) {
+    return true;
+  }
+
+  public void evicted(CacheEntry<?, ?> entry, EvictionCause cause) {
+    if ((EvictionCause.SIZE != cause) || (null == entry.getEntryObject())) {
+      evict(cast(entry.getEntryKey()));
+      return;
+    }
+    write(entry);
+  }
+
+  public void invalidated(Object key) {
+    evict(cast(key));
+  }
+
+  public void cleared() {
+    try {
+      clear();
+    } catch (IOException e) {
+      // the index is emptied first, so nothing stale is served
+    }
+  }
+
+  /**
+   * Drops the object held on disk for the key, if any.
+   *
+   * @return true if an object was dropped
+   */
+  public boolean evict(K key) {
+    try {
+      byte[] keyBytes = keySerializer.serialize(key);
+      lock.lock();
+      try {
+        return remove(keyBytes);
+      } finally {
+        lock.unlock();
+      }
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Deletes every object held on disk.
+   */
+  public void clear() throws IOException {
+    lock.lock();
+    try {
+      int next = current.id + 1;
+      for (Segment segment : segments.values()) {
+        segment.delete();
+      }
+      segments.clear();
+      index.removeIf(offset -> true);
+      current = newSegment(next);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Returns the number of objects held on disk.
+   */
+  public int size() {
+    lock.lock();
+    try {
+      return index.size();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Writes any changes still in memory out to the files.
+   */
+  public void flush() {
+    lock.lock();
+    try {
+      for (Segment segment : segments.values()) {
+        segment.buffer.force();
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Writes out the objects still in the cache and flushes the log files. The
+   * files stay mapped until the tier is garbage collected.
+   */
+  public void close() {
+    ObjectCache<T, K> owner = cache;
+    if (null != owner) {
+      for (K key : owner.keys()) {
+        CacheEntry<T, K> entry = owner.peekEntry(key);
+        if ((null != entry) && (null != entry.getEntryObject())) {
+          write(entry);
+        }
+      }
+    }
+    flush();
+  }
+
+  private void write(CacheEntry<?, ?> entry) {
+    Object key = entry.getEntryKey();
+    try {
+      byte[] keyBytes = keySerializer.serialize(cast(key));
+      byte[] value = serializer.serialize(cast(entry.getEntryObject()));
+      lock.lock();
+      try {
+        // a key still on disk has not changed since it was read back
+        if (find(keyBytes) < 0) {
+          append(PUT, keyBytes, value, entry.get(TimeExpirationCachingStrategy.EXPIRES));
+        }
+        // a load that found nothing must look again when its entry is prepared
+        restored.remove(key, NOT_ON_DISK);
+      } finally {
+        lock.unlock();
+      }
+    } catch (IOException e) {
+      evict(cast(key));
+    }
+  }
+
+  /**
+   * Casts what a strategy callback hands the tier back to the cache's own
+   * types. The tier is only ever a strategy of the cache it is the factory
+   * of, so every entry it sees holds one of its Ks and Ts.
+   */
+  @SuppressWarnings("unchecked")
+  private static <V> V cast(Object value) {
+    return (V) value;
+  }
+
+  private void scan(Segment segment, long now) {
+    ByteBuffer buffer = segment.buffer;
+    int position = 0;
+    while (position + HEADER <= segmentSize) {
+      int length = buffer.getInt(position);
+      if ((length < HEADER) || (length > segmentSize - position) || (buffer.getInt(position + 4) != checksum(buffer, position, length))) {
+        break;
+      }
+
+      byte type = buffer.get(position + 8);
+      long expires = buffer.getLong(position + 9);
+      byte[] keyBytes = new byte[buffer.getInt(position + 17)];
+      ByteBuffer key = buffer.duplicate();
+      key.position(position + HEADER);
+      key.get(keyBytes);
+
+      if ((PUT == type) && (expires > now)) {
+        long offset = offsetOf(segment.id, position);
+        index.put(hash(keyBytes), offset, matching(keyBytes));
+      } else {
+        index.remove(hash(keyBytes), matching(keyBytes));
+      }
+      position += length;
+    }
+    segment.position = position;
+  }
+
+  private long find(byte[] keyBytes) {
+    return index.find(hash(keyBytes), matching(keyBytes));
+  }
+
+  private boolean remove(byte[] keyBytes) {
+    if (index.remove(hash(keyBytes), matching(keyBytes))) {
+      append(REMOVE, keyBytes, new byte[0], 0);
+      return true;
+    }
+    return false;
+  }
+
+  private void append(byte type, byte[] keyBytes, byte[] value, long expires) {
+    int length = HEADER + keyBytes.length + value.length;
+    if (length > segmentSize) {
+      return;
+    }
+
+    try {
+      if (current.position + length > segmentSize) {
+        roll();
+      }
+    } catch (IOException e) {
+      return;
+    }
+
+    int position = current.position;
+    ByteBuffer buffer = current.buffer.duplicate();
+    buffer.position(position + 8);
+    buffer.put(type).putLong(expires).putInt(keyBytes.length).put(keyBytes).put(value);
+    buffer.putInt(position + 4, checksum(buffer, position, length));
+    // the length goes in last, so a torn record reads as the end of the log
+    buffer.putInt(position, length);
+    current.position += length;
+
+    if (PUT == type) {
+      index.put(hash(keyBytes), offsetOf(current.id, position), matching(keyBytes));
+    }
+  }
+
+  private void roll() throws IOException {
+    while (segments.size() >= maxSegments) {
+      Segment oldest = segments.pollFirstEntry().getValue();
+      index.removeIf(offset -> segmentOf(offset) == oldest.id);
+      oldest.delete();
+    }
+    current = newSegment(current.id + 1);
+  }
+
+  private Segment newSegment(int id) throws IOException {
+    Segment segment = new Segment(id, new File(directory, String.format("%010d%s", id, SUFFIX)));
+    segments.put(id, segment);
+    return segment;
+  }
+
+  private ByteBuffer read(long offset) {
+    ByteBuffer buffer = segments.get(segmentOf(offset)).buffer.duplicate();
+    int position = positionOf(offset);
+    buffer.position(position);
+    buffer.limit(position + buffer.getInt(position));
+    return buffer.slice();
+  }
+
+  private LongPredicate matching(byte[] keyBytes) {
+    return offset -> {
+      ByteBuffer record = read(offset);
+      if (record.getInt(17) != keyBytes.length) {
+        return false;
+      }
+      record.position(HEADER);
+      record.limit(HEADER + keyBytes.length);
+      return record.equals(ByteBuffer.wrap(keyBytes));
+    };
+  }
+
+  private static int checksum(ByteBuffer buffer, int position, int length) {
+    ByteBuffer checked = buffer.duplicate();
+    checked.limit(position + length);
+    checked.position(position + CHECKED);
+    CRC32 crc = new CRC32();
+    crc.update(checked);
+    return (int) crc.getValue();
+  }
+
+  private static int hash(byte[] keyBytes) {
+    int hash = Arrays.hashCode(keyBytes);
+    return hash ^ (hash >>> 16);
+  }
+
+  private static long offsetOf(int segment, int position) {
+    return ((long) segment << 32) | position;
+  }
+
+  private static int segmentOf(long offset) {
+    return (int) (offset >>> 32);
+  }
+
+  private static int positionOf(long offset) {
+    return (int) offset;
+  }
+
+  /**
+   * One mapped log file.
+   */
+  private final class Segment {
+    final int id;
+    final File file;
+    final MappedByteBuffer buffer;
+    int position;
+
+    Segment(int id, File file) throws IOException {
+      this.id = id;
+      this.file = file;
+      // the mapping stays valid after the file is closed
+      try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+        buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+      }
+    }
+
+    void delete() {
+      file.delete();
+    }
+  }
+}
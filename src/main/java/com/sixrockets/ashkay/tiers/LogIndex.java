@@ -0,0 +1,141 @@
+/*
+ *  Copyright 2004 David C. Brown
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sixrockets.ashkay.tiers;
+
+import java.util.function.LongPredicate;
+
+/**
+ * LogIndex is a compact open addressing hash table from key hashes to log
+ * offsets, twelve bytes a slot with no object per entry. Keys themselves are
+ * not kept; callers confirm a match by checking the key stored in the log at
+ * the offset. Linear probing is used, and removal shifts later entries back
+ * so no tombstones build up.
+ * <br><br>
+ * The index is not thread safe; callers guard it with their own lock.
+ *
+ * @author <a href="mailto:dave@sixrockets.com">Dave Brown</a>
+ */
+final class LogIndex {
+
+  private int[] hashes;
+  private long[] offsets;
+  private int mask;
+  private int size;
+
+  LogIndex() {
+    allocate(64);
+  }
+
+  int size() {
+    return size;
+  }
+
+  /**
+   * Finds the offset of a key.
+   *
+   * @param hash    - the hash of the key
+   * @param matches - tells whether the record at an offset is for the key
+   * @return the offset, or -1 if the key is not indexed
+   */
+  long find(int hash, LongPredicate matches) {
+    for (int i = hash & mask; 0 != offsets[i]; i = (i + 1) & mask) {
+      if ((hashes[i] == hash) && matches.test(offsets[i] - 1)) {
+        return offsets[i] - 1;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Indexes a key at an offset, replacing the offset it had.
+   */
+  void put(int hash, long offset, LongPredicate matches) {
+    int i = hash & mask;
+    for (; 0 != offsets[i]; i = (i + 1) & mask) {
+      if ((hashes[i] == hash) && matches.test(offsets[i] - 1)) {
+        offsets[i] = offset + 1;
+        return;
+      }
+    }
+    hashes[i] = hash;
+    offsets[i] = offset + 1;
+    if (++size > (mask + 1) / 2) {
+      resize(2 * (mask + 1), offsetToDrop -> false);
+    }
+  }
+
+  /**
+   * Removes a key from the index.
+   *
+   * @return true if the key was indexed
+   */
+  boolean remove(int hash, LongPredicate matches) {
+    for (int i = hash & mask; 0 != offsets[i]; i = (i + 1) & mask) {
+      if ((hashes[i] == hash) && matches.test(offsets[i] - 1)) {
+        delete(i);
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Removes every key whose offset matches the filter.
+   */
+  void removeIf(LongPredicate filter) {
+    resize(mask + 1, filter);
+  }
+
+  private void delete(int hole) {
+    size--;
+    for (int j = (hole + 1) & mask; 0 != offsets[j]; j = (j + 1) & mask) {
+      int home = hashes[j] & mask;
+      // move the entry back if its home slot is not between the hole and it
+      boolean movable = (hole <= j) ? ((home <= hole) || (home > j)) : ((home <= hole) && (home > j));
+      if (movable) {
+        hashes[hole] = hashes[j];
+        offsets[hole] = offsets[j];
+        hole = j;
+      }
+    }
+    hashes[hole] = 0;
+    offsets[hole] = 0;
+  }
+
+  private void resize(int capacity, LongPredicate drop) {
+    int[] oldHashes = hashes;
+    long[] oldOffsets = offsets;
+    allocate(capacity);
+    for (int i = 0; i < oldOffsets.length; i++) {
+      if ((0 != oldOffsets[i]) && !drop.test(oldOffsets[i] - 1)) {
+        int j = oldHashes[i] & mask;
+        while (0 != offsets[j]) {
+          j = (j + 1) & mask;
+        }
+        hashes[j] = oldHashes[i];
+        offsets[j] = oldOffsets[i];
+        size++;
+      }
+    }
+  }
+
+  private void allocate(int capacity) {
+    hashes = new int[capacity];
+    offsets = new long[capacity];
+    mask = capacity - 1;
+    size = 0;
+  }
+}
@@ -0,0 +1,318 @@
+/*
+ *  Copyright 2004 David C. Brown
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sixrockets.ashkay.tiers;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * OffHeapStore keeps byte arrays by key in slab allocated direct memory. Each
+ * size class keeps its own LRU list; when a class has no free chunk and no
+ * slab is left to give it, its least recently used entry is dropped, or if it
+ * has none, the emptiest slab of the class with the most slabs is cleared and
+ * handed over. Only the index is kept on the heap. It is only changed under
+ * the lock, but can be asked whether it holds a key without taking it.
+ *
+ * @author <a href="mailto:dave@sixrockets.com">Dave Brown</a>
+ * @see SlabAllocator
+ */
+final class OffHeapStore {
+
+  private final SlabAllocator allocator;
+  private final Map<Object, Chunk> index = new ConcurrentHashMap<>();
+  private final Chunk[] lru;
+  private final ReentrantLock lock = new ReentrantLock();
+  private long bytes;
+  private long evictions;
+
+  /**
+   * Creates an empty store.
+   *
+   * @param capacity - the most bytes of direct memory to use
+   * @param slabSize - the size of each slab, and so the largest value stored
+   */
+  OffHeapStore(long capacity, int slabSize) {
+    allocator = new SlabAllocator(capacity, slabSize);
+    lru = new Chunk[allocator.sizeClasses()];
+    for (int i = 0; i < lru.length; i++) {
+      lru[i] = new Chunk();
+    }
+  }
+
+  /**
+   * Stores the bytes under the key, replacing any bytes already there.
+   *
+   * @return false if the bytes are too large to store, or no room could be
+   *         made for them
+   */
+  boolean put(Object key, byte[] value) {
+    int sizeClass = allocator.sizeClass(value.length);
+    lock.lock();
+    try {
+      Chunk old = index.remove(key);
+      if (null != old) {
+        release(old);
+      }
+      if (sizeClass < 0) {
+        return false;
+      }
+
+      long address = allocate(sizeClass);
+      if (address < 0) {
+        return false;
+      }
+      allocator.write(address, value);
+      Chunk chunk = new Chunk(key, address, value.length, sizeClass);
+      index.put(key, chunk);
+      link(lru[sizeClass], chunk);
+      bytes += value.length;
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Reads the bytes stored under the key, marking them recently used.
+   *
+   * @return a copy of the bytes, or null if there are none
+   */
+  byte[] get(Object key) {
+    lock.lock();
+    try {
+      Chunk chunk = index.get(key);
+      if (null == chunk) {
+        return null;
+      }
+      unlink(chunk);
+      link(lru[chunk.sizeClass], chunk);
+      return allocator.read(chunk.address, chunk.length);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Removes the bytes stored under the key.
+   *
+   * @return the bytes removed, or null if there were none
+   */
+  byte[] remove(Object key) {
+    lock.lock();
+    try {
+      Chunk chunk = index.remove(key);
+      if (null == chunk) {
+        return null;
+      }
+      byte[] value = allocator.read(chunk.address, chunk.length);
+      release(chunk);
+      return value;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Drops the bytes stored under the key without reading them. A key the
+   * store does not hold costs no locking.
+   *
+   * @return true if there were bytes to drop
+   */
+  boolean delete(Object key) {
+    if (!index.containsKey(key)) {
+      return false;
+    }
+    lock.lock();
+    try {
+      Chunk chunk = index.remove(key);
+      if (null == chunk) {
+        return false;
+      }
+      release(chunk);
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Drops every entry. Allocated slabs are kept for reuse.
+   */
+  void clear() {
+    lock.lock();
+    try {
+      for (Chunk chunk : index.values()) {
+        unlink(chunk);
+        allocator.free(chunk.address);
+      }
+      index.clear();
+      bytes = 0;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  int size() {
+    lock.lock();
+    try {
+      return index.size();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Returns the number of value bytes stored, not counting unused chunk space.
+   */
+  long bytes() {
+    lock.lock();
+    try {
+      return bytes;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Returns the number of direct memory bytes allocated.
+   */
+  long allocated() {
+    lock.lock();
+    try {
+      return allocator.allocated();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Returns the number of entries dropped to make room.
+   */
+  long evictions() {
+    lock.lock();
+    try {
+      return evictions;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Takes a chunk of the size class, making room if need be.
+   *
+   * @return the chunk address, or -1 if no room could be made
+   */
+  private long allocate(int sizeClass) {
+    long address;
+    while ((address = allocator.allocate(sizeClass)) < 0) {
+      Chunk victim = lru[sizeClass].next;
+      if (victim != lru[sizeClass]) {
+        index.remove(victim.key);
+        release(victim);
+        evictions++;
+      } else if (!moveSlabTo(sizeClass)) {
+        return -1;
+      }
+    }
+    return address;
+  }
+
+  /**
+   * Empties a slab of the size class holding the most slabs and gives it to
+   * the starved class. The slab holding that class's least recently used
+   * entry is chosen, so the entries lost are among its coldest.
+   *
+   * @return false if no other class has a slab to give
+   */
+  private boolean moveSlabTo(int sizeClass) {
+    int donor = -1;
+    for (int i = 0; i < lru.length; i++) {
+      if ((i != sizeClass) && (allocator.slabsIn(i) > 0) && ((donor < 0) || (allocator.slabsIn(i) > allocator.slabsIn(donor)))) {
+        donor = i;
+      }
+    }
+    if (donor < 0) {
+      return false;
+    }
+
+    Chunk sentinel = lru[donor];
+    int slab = (sentinel.next != sentinel) ? SlabAllocator.slabOf(sentinel.next.address) : allocator.anySlabOf(donor);
+    if (slab < 0) {
+      return false;
+    }
+    for (Chunk chunk = sentinel.next; chunk != sentinel;) {
+      Chunk next = chunk.next;
+      if (SlabAllocator.slabOf(chunk.address) == slab) {
+        index.remove(chunk.key);
+        release(chunk);
+        evictions++;
+      }
+      chunk = next;
+    }
+    allocator.reassign(slab, sizeClass);
+    return true;
+  }
+
+  private void release(Chunk chunk) {
+    unlink(chunk);
+    allocator.free(chunk.address);
+    bytes -= chunk.length;
+  }
+
+  private static void link(Chunk sentinel, Chunk chunk) {
+    chunk.prev = sentinel.prev;
+    chunk.next = sentinel;
+    sentinel.prev.next = chunk;
+    sentinel.prev = chunk;
+  }
+
+  private static void unlink(Chunk chunk) {
+    chunk.prev.next = chunk.next;
+    chunk.next.prev = chunk.prev;
+    chunk.prev = null;
+    chunk.next = null;
+  }
+
+  /**
+   * The index record of a stored value, linked into its size class's LRU list
+   * with the least recently used at sentinel.next.
+   */
+  private static final class Chunk {
+    final Object key;
+    final long address;
+    final int length;
+    final int sizeClass;
+    Chunk prev;
+    Chunk next;
+
+    Chunk() {
+      key = null;
+      address = -1;
+      length = 0;
+      sizeClass = -1;
+      prev = this;
+      next = this;
+    }
+
+    Chunk(Object key, long address, int length, int sizeClass) {
+      this.key = key;
+      this.address = address;
+      this.length = length;
+      this.sizeClass = sizeClass;
+    }
+  }
+}
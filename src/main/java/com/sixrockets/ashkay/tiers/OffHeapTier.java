@@ -0,0 +1,177 @@
+/*
+ *  Copyright 2004 David C. Brown
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sixrockets.ashkay.tiers;
+
+import com.sixrockets.ashkay.CacheEntry;
+import com.sixrockets.ashkay.CachingStrategy;
+import com.sixrockets.ashkay.CreationException;
+import com.sixrockets.ashkay.EvictionCause;
+import com.sixrockets.ashkay.ObjectFactory;
+import com.sixrockets.ashkay.Serializer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * OffHeapTier keeps objects pushed out of an ObjectCache in direct memory, as
+ * bytes, so a large cache does not make garbage collection slower. The tier
+ * is both the cache's ObjectFactory and one of its strategies: as a strategy
+ * it is told when a bounding strategy, such as TinyLfuCachingStrategy, evicts
+ * an entry for size and serializes the object off heap; as the factory it
+ * looks a missing key up off heap, deserializing it back into the cache,
+ * before asking the real factory to create it. The objects on the heap are
+ * the hot tier, and each object lives in one tier or the other.
+ * <pre>
+ *   OffHeapTier&lt;Page, String&gt; tier = new OffHeapTier&lt;&gt;(new PageFactory(), new PageSerializer(), 8L &lt;&lt; 30);
+ *   ObjectCache&lt;Page, String&gt; cache = new ObjectCache&lt;&gt;(tier);
+ *   cache.addStrategy(new TinyLfuCachingStrategy(10000)).addStrategy(tier);
+ * </pre>
+ * The tier has its own capacity. Memory is allocated in slabs as needed, and
+ * once the capacity is reached the least recently used objects of a similar
+ * size are dropped to make room. Objects larger than a slab are not kept.
+ * Remember to allow the JVM enough direct memory (-XX:MaxDirectMemorySize).
+ * <br><br>
+ * Entries evicted for any reason other than size are dropped from the tier
+ * too, as are objects whose key is put in the cache again. Evicting a key
+ * from the cache drops its object off heap as well, and clearing the cache
+ * clears the tier. An object that fails to serialize or deserialize is simply
+ * not kept.
+ *
+ * @author <a href="mailto:dave@sixrockets.com">Dave Brown</a>
+ */
+public class OffHeapTier<T, K> implements ObjectFactory<T, K>, CachingStrategy {
+
+  private static final int DEFAULT_SLAB_SIZE = 1 << 20;
+
+  private final ObjectFactory<T, K> factory;
+  private final Serializer<T> serializer;
+  private final OffHeapStore store;
+
+  /**
+   * Creates the tier with 1 MB slabs.
+   *
+   * @param aFactory   - the factory that creates objects not in either tier, or null
+   * @param serializer - the serializer for cached objects
+   * @param capacity   - the most bytes of direct memory to use
+   */
+  public OffHeapTier(ObjectFactory<T, K> aFactory, Serializer<T> serializer, long capacity) {
+    this(aFactory, serializer, capacity, DEFAULT_SLAB_SIZE);
+  }
+
+  /**
+   * Creates the tier.
+   *
+   * @param aFactory   - the factory that creates objects not in either tier, or null
+   * @param serializer - the serializer for cached objects
+   * @param capacity   - the most bytes of direct memory to use
+   * @param slabSize   - the size of each slab, which limits the largest object kept
+   */
+  public OffHeapTier(ObjectFactory<T, K> aFactory, Serializer<T> serializer, long capacity, int slabSize) {
+    factory = aFactory;
+    this.serializer = serializer;
+    store = new OffHeapStore(capacity, slabSize);
+  }
+
+  public T createObjectFor(K key, Object data) throws CreationException {
+    byte[] bytes = store.remove(key);
+    if (null != bytes) {
+      try {
+        return serializer.deserialize(ByteBuffer.wrap(bytes));
+      } catch (IOException e) {
+        // fall through to the factory
+      }
+    }
+    return (null == factory) ? null : factory.createObjectFor(key, data);
+  }
+
+  public <T, K> CacheEntry<T, K> prepare(CacheEntry<T, K> entry) {
+    store.delete(entry.getEntryKey());
+    return entry;
+  }
+
+  public boolean validate(CacheEntry<?, ?> entry) {
+    return true;
+  }
+
+  public void evicted(CacheEntry<?, ?> entry, EvictionCause cause) {
+    Object object = entry.getEntryObject();
+    if ((EvictionCause.SIZE != cause) || (null == object)) {
+      store.delete(entry.getEntryKey());
+      return;
+    }
+
+    try {
+      // the tier only sees entries of the cache it is the factory of
+      @SuppressWarnings("unchecked")
+      T value = (T) object;
+      store.put(entry.getEntryKey(), serializer.serialize(value));
+    } catch (IOException e) {
+      store.delete(entry.getEntryKey());
+    }
+  }
+
+  public void invalidated(Object key) {
+    store.delete(key);
+  }
+
+  public void cleared() {
+    store.clear();
+  }
+
+  /**
+   * Returns the number of objects held off heap.
+   */
+  public int size() {
+    return store.size();
+  }
+
+  /**
+   * Returns the number of serialized bytes held off heap.
+   */
+  public long bytes() {
+    return store.bytes();
+  }
+
+  /**
+   * Returns the number of bytes of direct memory allocated.
+   */
+  public long allocated() {
+    return store.allocated();
+  }
+
+  /**
+   * Returns the number of objects dropped from the tier to make room.
+   */
+  public long evictions() {
+    return store.evictions();
+  }
+
+  /**
+   * Drops the object held off heap for the key, if any.
+   *
+   * @return true if an object was dropped
+   */
+  public boolean evict(K key) {
+    return store.delete(key);
+  }
+
+  /**
+   * Drops every object held off heap.
+   */
+  public void clear() {
+    store.clear();
+  }
+}
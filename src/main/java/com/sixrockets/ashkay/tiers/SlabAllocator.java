@@ -0,0 +1,219 @@
+/*
+ *  Copyright 2004 David C. Brown
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sixrockets.ashkay.tiers;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.LongPredicate;
+
+/**
+ * SlabAllocator hands out fixed size chunks of direct memory. Memory is
+ * allocated in slabs, each a direct ByteBuffer, up to a fixed capacity. A slab
+ * is given to one size class and cut into chunks of that class's size; the
+ * sizes grow by a quarter from class to class so no more than about a fifth of
+ * a chunk goes unused. Freed chunks go back on their class's free list, and a
+ * slab may be moved to another class once the caller has freed every chunk
+ * in it.
+ * <br><br>
+ * A chunk is addressed by a long holding its slab in the high word and its
+ * offset in the low word. The allocator is not thread safe; callers guard it
+ * with their own lock.
+ *
+ * @author <a href="mailto:dave@sixrockets.com">Dave Brown</a>
+ */
+final class SlabAllocator {
+
+  private static final int MIN_CHUNK = 64;
+  private static final double GROWTH = 1.25;
+
+  private final int slabSize;
+  private final int[] chunkSizes;
+  private final ByteBuffer[] slabs;
+  private final int[] slabClass;
+  private final int[] slabsPerClass;
+  private final LongStack[] free;
+  private int slabCount;
+
+  /**
+   * Creates an allocator. No memory is allocated until a chunk is asked for.
+   *
+   * @param capacity - the most bytes of direct memory to allocate
+   * @param slabSize - the size of each slab, and so the largest chunk
+   */
+  SlabAllocator(long capacity, int slabSize) {
+    if (slabSize < MIN_CHUNK) {
+      throw new IllegalArgumentException("slab size must be at least " + MIN_CHUNK);
+    }
+    this.slabSize = slabSize;
+
+    List<Integer> sizes = new ArrayList<>();
+    for (int size = MIN_CHUNK; size < slabSize; size = ((int) (size * GROWTH) + 7) & ~7) {
+      sizes.add(size);
+    }
+    sizes.add(slabSize);
+    chunkSizes = new int[sizes.size()];
+    for (int i = 0; i < chunkSizes.length; i++) {
+      chunkSizes[i] = sizes.get(i);
+    }
+
+    int maxSlabs = (int) Math.max(1, Math.min(capacity / slabSize, Integer.MAX_VALUE));
+    slabs = new ByteBuffer[maxSlabs];
+    slabClass = new int[maxSlabs];
+    slabsPerClass = new int[chunkSizes.length];
+    free = new LongStack[chunkSizes.length];
+    for (int i = 0; i < free.length; i++) {
+      free[i] = new LongStack();
+    }
+  }
+
+  /**
+   * Returns the smallest size class that fits the given length, or -1 if it
+   * is larger than a slab.
+   */
+  int sizeClass(int length) {
+    if (length > slabSize) {
+      return -1;
+    }
+    int index = Arrays.binarySearch(chunkSizes, Math.max(length, 1));
+    return (index >= 0) ? index : -index - 1;
+  }
+
+  int sizeClasses() {
+    return chunkSizes.length;
+  }
+
+  int slabsIn(int sizeClass) {
+    return slabsPerClass[sizeClass];
+  }
+
+  /**
+   * Returns the number of bytes of direct memory allocated so far.
+   */
+  long allocated() {
+    return (long) slabCount * slabSize;
+  }
+
+  /**
+   * Takes a free chunk of the size class, allocating a new slab if there is
+   * room for one.
+   *
+   * @return the chunk address, or -1 if the class is full and no slab is left
+   */
+  long allocate(int sizeClass) {
+    LongStack chunks = free[sizeClass];
+    if (chunks.isEmpty() && (slabCount < slabs.length)) {
+      int slab = slabCount++;
+      slabs[slab] = ByteBuffer.allocateDirect(slabSize);
+      carve(slab, sizeClass);
+    }
+    return chunks.isEmpty() ? -1 : chunks.pop();
+  }
+
+  /**
+   * Returns a chunk to its class's free list.
+   */
+  void free(long address) {
+    free[slabClass[slabOf(address)]].push(address);
+  }
+
+  /**
+   * Moves a slab to another size class. Every chunk in it must be free.
+   */
+  void reassign(int slab, int sizeClass) {
+    free[slabClass[slab]].removeIf(address -> slabOf(address) == slab);
+    slabsPerClass[slabClass[slab]]--;
+    carve(slab, sizeClass);
+  }
+
+  /**
+   * Finds a slab belonging to the size class, or -1 if it has none.
+   */
+  int anySlabOf(int sizeClass) {
+    for (int i = slabCount - 1; i >= 0; i--) {
+      if (slabClass[i] == sizeClass) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  void write(long address, byte[] bytes) {
+    ByteBuffer slab = slabs[slabOf(address)].duplicate();
+    slab.position(offsetOf(address));
+    slab.put(bytes);
+  }
+
+  byte[] read(long address, int length) {
+    ByteBuffer slab = slabs[slabOf(address)].duplicate();
+    slab.position(offsetOf(address));
+    byte[] bytes = new byte[length];
+    slab.get(bytes);
+    return bytes;
+  }
+
+  static int slabOf(long address) {
+    return (int) (address >>> 32);
+  }
+
+  private static int offsetOf(long address) {
+    return (int) address;
+  }
+
+  private void carve(int slab, int sizeClass) {
+    slabClass[slab] = sizeClass;
+    slabsPerClass[sizeClass]++;
+    int chunkSize = chunkSizes[sizeClass];
+    LongStack chunks = free[sizeClass];
+    for (int offset = slabSize - chunkSize - (slabSize % chunkSize); offset >= 0; offset -= chunkSize) {
+      chunks.push(((long) slab << 32) | offset);
+    }
+  }
+
+  /**
+   * A growable stack of chunk addresses.
+   */
+  private static final class LongStack {
+    private long[] values = new long[16];
+    private int size;
+
+    boolean isEmpty() {
+      return 0 == size;
+    }
+
+    void push(long value) {
+      if (size == values.length) {
+        values = Arrays.copyOf(values, size * 2);
+      }
+      values[size++] = value;
+    }
+
+    long pop() {
+      return values[--size];
+    }
+
+    void removeIf(LongPredicate filter) {
+      int kept = 0;
+      for (int i = 0; i < size; i++) {
+        if (!filter.test(values[i])) {
+          values[kept++] = values[i];
+        }
+      }
+      size = kept;
+    }
+  }
+}
@@ -0,0 +1,44 @@
+/*
+ *  Copyright 2004 David C. Brown
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sixrockets.ashkay;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Loaders provides the executor ashkay uses for background loads when none is
+ * given. This is the JDK 21 version, which starts a virtual thread per load.
+ *
+ * @author <a href="mailto:dave@sixrockets.com">Dave Brown</a>
+ */
+public final class Loaders {
+
+  private static final ExecutorService EXECUTOR = Executors.newThreadPerTaskExecutor(
+    Thread.ofVirtual().name("ashkay-loader-", 1).factory()
+  );
+
+  private Loaders() {}
+
+  /**
+   * Returns the shared background load executor.
+   *
+   * @return the default executor
+   */
+  public static Executor defaultExecutor() {
+    return EXECUTOR;
+  }
+}
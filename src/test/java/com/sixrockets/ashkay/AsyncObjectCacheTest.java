@@ -0,0 +1,71 @@
+/*
+ *  Copyright 2004 David C. Brown
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sixrockets.ashkay;
+
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+/**
+ *
+ */
+public class AsyncObjectCacheTest extends TestCase {
+
+  public void testLoadsShared() throws Exception {
+    final AtomicInteger counter = new AtomicInteger();
+    final CompletableFuture<String> pending = new CompletableFuture<>();
+    AsyncObjectCache<String, String> cache = new AsyncObjectCache<>((key, data, executor) -> {
+      counter.incrementAndGet();
+      return pending;
+    });
+
+    CompletableFuture<String> first = cache.getAsync("Test");
+    CompletableFuture<String> second = cache.getAsync("Test");
+    assertFalse("Load finished early", first.isDone());
+    assertEquals("Factory not called once", 1, counter.get());
+
+    pending.complete("value");
+    assertEquals("Wrong value", "value", first.get(1, TimeUnit.SECONDS));
+    assertEquals("Wrong value", "value", second.get(1, TimeUnit.SECONDS));
+
+    CompletableFuture<String> hit = cache.getAsync("Test");
+    assertTrue("Hit not already complete", hit.isDone());
+    assertEquals("Value not cached", "value", cache.synchronous().get("Test"));
+    assertEquals("Factory called for hit", 1, counter.get());
+  }
+
+  public void testFailure() throws Exception {
+    AsyncObjectCache<String, String> cache = new AsyncObjectCache<>(
+      (key, data) -> {
+        throw new CreationException("boom");
+      },
+      Runnable::run,
+      new ArrayList<>()
+    );
+
+    try {
+      cache.getAsync("Test").get(1, TimeUnit.SECONDS);
+      fail("Failure not reported");
+    } catch (ExecutionException e) {
+      assertTrue("Wrong cause", e.getCause() instanceof CreationException);
+    }
+    assertEquals("Failed load cached", 0, cache.synchronous().size());
+  }
+}
@@ -0,0 +1,95 @@
+/*
+ *  Copyright 2004 David C. Brown
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sixrockets.ashkay;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+/**
+ *
+ */
+public class BulkLoadTest extends TestCase {
+
+  public void testGetAll() throws Exception {
+    CountingBulkFactory factory = new CountingBulkFactory();
+    ObjectCache<String, String> cache = new ObjectCache<>(factory);
+    cache.put("a", "cached");
+
+    Map<String, String> result = cache.getAll(Arrays.asList("a", "b", "c", "missing"));
+
+    assertEquals("Bulk factory not called once", 1, factory.batches);
+    assertEquals("Wrong keys sent to factory", Arrays.asList("b", "c", "missing"), factory.lastKeys);
+    assertEquals("Hit not returned", "cached", result.get("a"));
+    assertEquals("Miss not loaded", "B", result.get("b"));
+    assertFalse("Missing key returned", result.containsKey("missing"));
+    assertEquals("Result not in key order", Arrays.asList("a", "b", "c"), Arrays.asList(result.keySet().toArray()));
+    assertEquals("Loads not cached", 3, cache.size());
+
+    cache.getAll(Arrays.asList("a", "b", "c"));
+    assertEquals("Factory called for hits", 1, factory.batches);
+  }
+
+  public void testGetAllWithPlainFactory() throws Exception {
+    ObjectCache<String, String> cache = new ObjectCache<>((key, data) -> key.toUpperCase());
+    Map<String, String> result = cache.getAll(Arrays.asList("a", "b"));
+    assertEquals("Miss not loaded", "A", result.get("a"));
+    assertEquals("Miss not loaded", "B", result.get("b"));
+  }
+
+  public void testGetAllWithNoMap() throws Exception {
+    ObjectCache<String, String> cache = new ObjectCache<>(new BulkObjectFactory<String, String>() {
+      public String createObjectFor(String key, Object data) {
+        return null;
+      }
+
+      public Map<String, String> createObjectsFor(Collection<String> keys) {
+        return null;
+      }
+    });
+    cache.put("a", "cached");
+
+    Map<String, String> result = cache.getAll(Arrays.asList("a", "b"));
+    assertEquals("Hit not returned", "cached", result.get("a"));
+    assertFalse("Missing key returned", result.containsKey("b"));
+    assertEquals(1, cache.size());
+  }
+
+  private static class CountingBulkFactory implements BulkObjectFactory<String, String> {
+    int batches;
+    List<String> lastKeys;
+
+    public String createObjectFor(String key, Object data) {
+      return key.toUpperCase();
+    }
+
+    public Map<String, String> createObjectsFor(Collection<String> keys) {
+      batches++;
+      lastKeys = Arrays.asList(keys.toArray(new String[0]));
+      Map<String, String> objects = new HashMap<>();
+      for (String key : keys) {
+        if (!"missing".equals(key)) {
+          objects.put(key, key.toUpperCase());
+        }
+      }
+      return objects;
+    }
+  }
+}
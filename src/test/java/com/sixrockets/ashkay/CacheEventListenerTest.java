@@ -0,0 +1,171 @@
+/*
+ *  Copyright 2004 David C. Brown
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sixrockets.ashkay;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ *
+ */
+public class CacheEventListenerTest extends TestCase {
+
+  public void testAsynchronousEventsInOrder() throws Exception {
+    ObjectCache<Object, String> cache = new ObjectCache<>((key, data) -> key);
+    List<CacheEntry<Object, String>> prepared = new ArrayList<>();
+    cache.addStrategy(new CachingStrategy() {
+      public <T, K> CacheEntry<T, K> prepare(CacheEntry<T, K> entry) {
+        prepared.add((CacheEntry<Object, String>) entry);
+        return entry;
+      }
+
+      public boolean validate(CacheEntry<?, ?> entry) {
+        return true;
+      }
+    });
+    Recorder recorder = new Recorder(5);
+    cache.addListener(recorder);
+
+    cache.get("a");
+    cache.put("a", "b");
+    cache.evict("a");
+    cache.put("c", "c");
+    cache.evictEntry(prepared.get(2), EvictionCause.EXPIRED);
+
+    assertTrue(recorder.await(5));
+    assertEquals("[CREATED a, UPDATED a, EVICTED a, CREATED c, EXPIRED c]", recorder.events.toString());
+    assertEquals("b", recorder.events.get(1).getValue());
+    assertEquals(EvictionCause.EXPLICIT, recorder.events.get(2).getCause());
+    cache.removeListener(recorder);
+  }
+
+  public void testSynchronousListenerCalledInLine() throws Exception {
+    ObjectCache<Object, String> cache = new ObjectCache<>((key, data) -> key);
+    Recorder recorder = new Recorder(0);
+    cache.addSynchronousListener(recorder);
+
+    cache.get("a");
+    assertEquals("[CREATED a]", recorder.events.toString());
+    cache.clear();
+    assertEquals("[CREATED a, EVICTED a]", recorder.events.toString());
+  }
+
+  public void testFailingListenerIgnored() throws Exception {
+    ObjectCache<Object, String> cache = new ObjectCache<>((key, data) -> key);
+    cache.addSynchronousListener(event -> {
+      throw new IllegalStateException("listener failed");
+    });
+    Recorder recorder = new Recorder(1);
+    cache.addSynchronousListener(recorder);
+
+    assertEquals("a", cache.get("a"));
+    assertEquals(1, recorder.events.size());
+  }
+
+  public void testOverflowDropped() throws Exception {
+    ObjectCache<Object, String> cache = new ObjectCache<>((key, data) -> key);
+    cache.setEventBuffer(4, OverflowPolicy.DROP);
+    CountDownLatch release = new CountDownLatch(1);
+    Recorder recorder = new Recorder(1) {
+      public synchronized void onEvent(CacheEvent<Object, String> event) {
+        super.onEvent(event);
+        hold(release);
+      }
+    };
+    cache.addListener(recorder);
+
+    for (int i = 0; i < 100; i++) {
+      cache.put("k" + i, "v");
+    }
+    long dropped = cache.droppedEvents();
+    release.countDown();
+
+    assertTrue("Nothing dropped", dropped > 0);
+    assertEquals(100, dropped + countDelivered(recorder, 100 - dropped));
+    cache.removeListener(recorder);
+  }
+
+  public void testOverflowBlocks() throws Exception {
+    ObjectCache<Object, String> cache = new ObjectCache<>((key, data) -> key);
+    cache.setEventBuffer(2, OverflowPolicy.BLOCK);
+    Recorder recorder = new Recorder(100) {
+      public synchronized void onEvent(CacheEvent<Object, String> event) {
+        super.onEvent(event);
+        try {
+          Thread.sleep(1);
+        } catch (InterruptedException e) {
+          // deliver anyway
+        }
+      }
+    };
+    cache.addListener(recorder);
+
+    for (int i = 0; i < 100; i++) {
+      cache.put("k" + i, "v");
+    }
+
+    assertTrue(recorder.await(10));
+    assertEquals(0, cache.droppedEvents());
+    for (int i = 0; i < 100; i++) {
+      assertEquals("k" + i, recorder.events.get(i).getKey());
+    }
+    cache.removeListener(recorder);
+  }
+
+  private static long countDelivered(Recorder recorder, long expected) throws Exception {
+    for (int i = 0; (i < 500) && (recorder.size() < expected); i++) {
+      Thread.sleep(10);
+    }
+    return recorder.size();
+  }
+
+  private static void hold(CountDownLatch latch) {
+    try {
+      latch.await(10, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Keeps the events it is told of.
+   */
+  private static class Recorder implements CacheEventListener<Object, String> {
+    final List<CacheEvent<Object, String>> events = new ArrayList<>();
+    final CountDownLatch done;
+
+    Recorder(int expected) {
+      done = new CountDownLatch(expected);
+    }
+
+    public synchronized void onEvent(CacheEvent<Object, String> event) {
+      events.add(event);
+      done.countDown();
+    }
+
+    synchronized int size() {
+      return events.size();
+    }
+
+    boolean await(int seconds) throws InterruptedException {
+      return done.await(seconds, TimeUnit.SECONDS);
+    }
+  }
+}
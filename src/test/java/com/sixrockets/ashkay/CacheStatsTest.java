@@ -0,0 +1,179 @@
+/*
+ *  Copyright 2004 David C. Brown
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sixrockets.ashkay;
+
+import com.sixrockets.ashkay.strategies.TinyLfuCachingStrategy;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ *
+ */
+public class CacheStatsTest extends TestCase {
+
+  public void testDisabledByDefault() throws Exception {
+    ObjectCache<Object, String> cache = new ObjectCache<>((key, data) -> key);
+    cache.get("a");
+    cache.get("a");
+
+    assertEquals(0, cache.stats().requestCount());
+  }
+
+  public void testHitsMissesAndLoads() throws Exception {
+    ObjectCache<Object, String> cache = new ObjectCache<>((key, data) -> {
+      if (key.startsWith("bad")) {
+        throw new CreationException("bad key");
+      }
+      return key;
+    });
+    cache.setRecordStats(true);
+
+    cache.get("a");
+    cache.get("a");
+    cache.get("b");
+    try {
+      cache.get("bad");
+      fail("Factory did not throw");
+    } catch (CreationException e) {
+      // expected
+    }
+
+    CacheStats stats = cache.stats();
+    assertEquals(1, stats.hitCount());
+    assertEquals(3, stats.missCount());
+    assertEquals(0.25, stats.hitRate(), 0.0001);
+    assertEquals(2, stats.loadSuccessCount());
+    assertEquals(1, stats.loadFailureCount());
+    assertEquals(3, stats.loadLatency().count());
+    assertEquals(3, stats.missLatency().count());
+  }
+
+  public void testEvictionsAndInvalidations() throws Exception {
+    CachingStrategy rejecting = new CachingStrategy() {
+      public <T, K> CacheEntry<T, K> prepare(CacheEntry<T, K> entry) {
+        return entry;
+      }
+
+      public boolean validate(CacheEntry<?, ?> entry) {
+        return !"stale".equals(entry.getEntryKey());
+      }
+    };
+    ObjectCache<Object, String> cache = new ObjectCache<>((key, data) -> key);
+    cache.addStrategy(rejecting);
+    cache.setRecordStats(true);
+
+    cache.get("stale");
+    cache.get("stale");
+    cache.get("a");
+    cache.evict("a");
+
+    CacheStats stats = cache.stats();
+    assertEquals(1, stats.invalidationCount(rejecting));
+    assertEquals(1, stats.evictionCount(EvictionCause.EXPLICIT));
+    assertEquals(0, stats.evictionCount(EvictionCause.SIZE));
+    assertEquals(1, stats.evictionCount());
+  }
+
+  public void testEvictionsCountedByStrategy() throws Exception {
+    TinyLfuCachingStrategy bounded = new TinyLfuCachingStrategy(10);
+    ObjectCache<Object, Integer> cache = new ObjectCache<>((key, data) -> key);
+    cache.addStrategy(bounded);
+    cache.setRecordStats(true);
+
+    for (int i = 0; i < 50; i++) {
+      cache.get(i);
+    }
+    cache.evict(49);
+
+    CacheStats stats = cache.stats();
+    assertEquals(40, stats.evictionCount(bounded));
+    assertEquals(40, stats.evictionCount(EvictionCause.SIZE));
+    assertEquals(1, stats.evictionCount(EvictionCause.EXPLICIT));
+    assertEquals(1, stats.evictions().size());
+  }
+
+  public void testWaitsOnLoadsInFlight() throws Exception {
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    ObjectCache<Object, String> cache = new ObjectCache<>((key, data) -> {
+      started.countDown();
+      try {
+        release.await(10, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        throw new CreationException(e);
+      }
+      return key;
+    });
+    cache.setRecordStats(true);
+
+    Thread loader = new Thread(() -> {
+      try {
+        cache.get("a");
+      } catch (CreationException e) {
+        // counted as a failure
+      }
+    });
+    loader.start();
+    started.await();
+    Thread waiter = new Thread(() -> {
+      try {
+        cache.get("a");
+      } catch (CreationException e) {
+        // counted as a failure
+      }
+    });
+    waiter.start();
+    Thread.sleep(50);
+    release.countDown();
+    loader.join();
+    waiter.join();
+
+    CacheStats stats = cache.stats();
+    assertEquals("Wait not recorded", 1, stats.waitLatency().count());
+    assertEquals("Waiter loaded", 1, stats.loadSuccessCount());
+    assertTrue(stats.waitLatency().max() >= TimeUnit.MILLISECONDS.toNanos(40));
+  }
+
+  public void testHistogramPercentiles() {
+    LatencyRecorder recorder = new LatencyRecorder();
+    for (long i = 1; i <= 1000; i++) {
+      recorder.record(i * 1000);
+    }
+    LatencyHistogram histogram = recorder.snapshot();
+
+    assertEquals(1000, histogram.count());
+    assertEquals(1000000, histogram.max());
+    assertEquals(500500.0, histogram.mean(), 0.1);
+    assertWithin(500000, histogram.percentile(50));
+    assertWithin(990000, histogram.percentile(99));
+    assertEquals(1000000, histogram.percentile(100));
+  }
+
+  public void testBucketBounds() {
+    for (long nanos : new long[] { 0, 1, 7, 8, 9, 15, 16, 1000, 123456789, 1L << 40 }) {
+      int bucket = LatencyHistogram.bucket(nanos);
+      assertTrue(nanos + " above its bucket", nanos <= LatencyHistogram.highest(bucket));
+      assertTrue(nanos + " in too high a bucket", (0 == bucket) || nanos > LatencyHistogram.highest(bucket - 1));
+    }
+  }
+
+  private static void assertWithin(long expected, long actual) {
+    assertTrue(actual + " not within an eighth of " + expected, Math.abs(actual - expected) <= expected / 8);
+  }
+}
@@ -0,0 +1,98 @@
+/*
+ *  Copyright 2004 David C. Brown
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sixrockets.ashkay;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import junit.framework.TestCase;
+
+/**
+ *
+ */
+public class CacheWarmerTest extends TestCase {
+
+  public void testSnapshot() throws Exception {
+    File file = File.createTempFile("ashkay", ".keys");
+    try {
+      KeySnapshot<String> snapshot = new KeySnapshot<>(file, new JavaSerializer<>());
+      snapshot.write(Arrays.asList("hot", "warm", "cold"));
+      assertEquals("Keys not kept in order", Arrays.asList("hot", "warm", "cold"), snapshot.read());
+
+      file.delete();
+      assertTrue("Missing snapshot has keys", snapshot.read().isEmpty());
+    } finally {
+      file.delete();
+    }
+  }
+
+  public void testCorruptSnapshot() throws Exception {
+    File file = File.createTempFile("ashkay", ".keys");
+    try {
+      KeySnapshot<String> snapshot = new KeySnapshot<>(file, new JavaSerializer<>());
+      snapshot.write(Arrays.asList("hot", "warm", "cold"));
+      byte[] bytes = Files.readAllBytes(file.toPath());
+      int third = bytes.length - 4 - new JavaSerializer<String>().serialize("cold").length;
+
+      for (int length : new int[] { -1, Integer.MAX_VALUE }) {
+        ByteBuffer.wrap(bytes).putInt(third, length);
+        Files.write(file.toPath(), bytes);
+        assertEquals("Keys before the damage lost", Arrays.asList("hot", "warm"), snapshot.read());
+      }
+      Files.write(file.toPath(), Arrays.copyOf(bytes, third + 2));
+      assertEquals("Keys before the damage lost", Arrays.asList("hot", "warm"), snapshot.read());
+    } finally {
+      file.delete();
+    }
+  }
+
+  public void testBoundedConcurrency() throws Exception {
+    AtomicInteger active = new AtomicInteger();
+    AtomicInteger maxActive = new AtomicInteger();
+    ObjectCache<String, Integer> cache = new ObjectCache<>((key, data) -> {
+      maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+      LockSupport.parkNanos(5_000_000);
+      active.decrementAndGet();
+      if (key == 13) {
+        throw new CreationException("unlucky");
+      }
+      return "value" + key;
+    });
+
+    List<Integer> keys = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      keys.add(i);
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      int loaded = new CacheWarmer<>(cache, 4, executor).warm(keys).get(10, TimeUnit.SECONDS);
+      assertEquals("Keys not loaded", 99, loaded);
+      assertEquals("Keys not cached", 99, cache.size());
+      assertTrue("Too many loads at once", maxActive.get() <= 4);
+    } finally {
+      executor.shutdown();
+    }
+  }
+}
@@ -0,0 +1,207 @@
+/*
+ *  Copyright 2004 David C. Brown
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sixrockets.ashkay;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+/**
+ *
+ */
+public class ConcurrentLoadTest extends TestCase {
+
+  private static final int THREADS = 8;
+
+  public void testConcurrentMissesShareOneLoad() throws Exception {
+    final AtomicInteger counter = new AtomicInteger();
+    final CountDownLatch release = new CountDownLatch(1);
+    final ObjectCache<Object, String> cache = new ObjectCache<>((key, data) -> {
+      counter.incrementAndGet();
+      await(release);
+      return new Object();
+    });
+
+    final Object[] results = new Object[THREADS];
+    Thread[] threads = new Thread[THREADS];
+    for (int i = 0; i < THREADS; i++) {
+      final int slot = i;
+      threads[i] = new Thread(() -> {
+        try {
+          results[slot] = cache.get("Test");
+        } catch (CreationException e) {
+          results[slot] = e;
+        }
+      });
+      threads[i].start();
+    }
+
+    Thread.sleep(100);
+    release.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    assertEquals("Factory not called once", 1, counter.get());
+    for (Object result : results) {
+      assertSame("Callers did not share the load", results[0], result);
+    }
+  }
+
+  public void testFailureIsShared() throws Exception {
+    final CountDownLatch release = new CountDownLatch(1);
+    final ObjectCache<Object, String> cache = new ObjectCache<>((key, data) -> {
+      await(release);
+      throw new CreationException("boom");
+    });
+
+    final Object[] results = new Object[2];
+    Thread loader = new Thread(() -> {
+      try {
+        results[0] = cache.get("Test");
+      } catch (CreationException e) {
+        results[0] = e;
+      }
+    });
+    loader.start();
+    Thread.sleep(100);
+
+    Thread waiter = new Thread(() -> {
+      try {
+        results[1] = cache.get("Test");
+      } catch (CreationException e) {
+        results[1] = e;
+      }
+    });
+    waiter.start();
+    Thread.sleep(100);
+    release.countDown();
+    loader.join();
+    waiter.join();
+
+    assertTrue("Loader did not fail", results[0] instanceof CreationException);
+    assertSame("Waiter did not see the same failure", results[0], results[1]);
+    assertEquals("Failed load left an entry", 0, cache.size());
+  }
+
+  public void testWaitTimesOut() throws Exception {
+    final CountDownLatch release = new CountDownLatch(1);
+    final ObjectCache<Object, String> cache = new ObjectCache<>((key, data) -> {
+      await(release);
+      return new Object();
+    });
+
+    Thread loader = new Thread(() -> {
+      try {
+        cache.get("Test");
+      } catch (CreationException e) {
+        // not expected
+      }
+    });
+    loader.start();
+    Thread.sleep(100);
+
+    try {
+      cache.get("Test", null, 10, TimeUnit.MILLISECONDS);
+      fail("Wait did not time out");
+    } catch (CreationException e) {
+      // expected
+    } finally {
+      release.countDown();
+      loader.join();
+    }
+    assertNotNull("Load did not complete", cache.get("Test", null, 1, TimeUnit.SECONDS));
+  }
+
+  public void testPutDuringLoadWins() throws Exception {
+    final CountDownLatch release = new CountDownLatch(1);
+    final ObjectCache<String, String> cache = new ObjectCache<>((key, data) -> {
+      await(release);
+      return "loaded";
+    });
+
+    Thread loader = load(cache, "Test");
+    Thread.sleep(100);
+    cache.put("Test", "put");
+    release.countDown();
+    loader.join();
+
+    assertEquals("Load replaced the put", "put", cache.get("Test"));
+  }
+
+  public void testEvictDuringLoadDropsResult() throws Exception {
+    final AtomicInteger counter = new AtomicInteger();
+    final CountDownLatch release = new CountDownLatch(1);
+    final ObjectCache<String, String> cache = new ObjectCache<>((key, data) -> {
+      await(release);
+      return "loaded " + counter.incrementAndGet();
+    });
+
+    Thread loader = load(cache, "Test");
+    Thread.sleep(100);
+    cache.evict("Test");
+    release.countDown();
+    loader.join();
+
+    assertEquals("Superseded load was cached", 0, cache.size());
+    assertEquals("Key was not loaded again", "loaded 2", cache.get("Test"));
+  }
+
+  public void testNullLoadKeepsPut() throws Exception {
+    final CountDownLatch release = new CountDownLatch(1);
+    final ObjectCache<String, String> cache = new ObjectCache<>((key, data) -> {
+      await(release);
+      return null;
+    });
+    final AtomicInteger evictions = new AtomicInteger();
+    cache.addSynchronousListener(event -> {
+      if (CacheEvent.Type.EVICTED == event.getType()) {
+        evictions.incrementAndGet();
+      }
+    });
+
+    Thread loader = load(cache, "Test");
+    Thread.sleep(100);
+    cache.put("Test", "put");
+    release.countDown();
+    loader.join();
+
+    assertEquals("Null load removed the put", "put", cache.get("Test"));
+    assertEquals("Null load fired an eviction", 0, evictions.get());
+  }
+
+  private static Thread load(ObjectCache<String, String> cache, String key) {
+    Thread loader = new Thread(() -> {
+      try {
+        cache.get(key);
+      } catch (CreationException e) {
+        // not expected
+      }
+    });
+    loader.start();
+    return loader;
+  }
+
+  private static void await(CountDownLatch latch) throws CreationException {
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      throw new CreationException(e);
+    }
+  }
+}
@@ -0,0 +1,54 @@
+/*
+ *  Copyright 2004 David C. Brown
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sixrockets.ashkay;
+
+import junit.framework.TestCase;
+
+/**
+ *
+ */
+public class EntrySlotTest extends TestCase {
+
+  private static final EntrySlot<String> NAME = EntrySlot.register("name");
+  private static final LongSlot STAMP = LongSlot.register("stamp", -1);
+
+  public void testUnsetSlots() {
+    CacheEntry<Object, String> entry = new CacheEntry<>("Test", new Object());
+    assertNull("Unset slot not null", entry.get(NAME));
+    assertEquals("Unset slot not default", -1, entry.get(STAMP));
+    assertNull("Unset property not null", entry.getProperty("Test"));
+  }
+
+  public void testSetSlots() {
+    CacheEntry<Object, String> entry = new CacheEntry<>("Test", new Object());
+    entry.set(NAME, "value");
+    entry.set(STAMP, 42);
+    assertEquals("Slot not set", "value", entry.get(NAME));
+    assertEquals("Long slot not set", 42, entry.get(STAMP));
+
+    EntrySlot<Integer> late = EntrySlot.register("late");
+    LongSlot lateLong = LongSlot.register("lateLong", 7);
+    assertNull("Late slot not null", entry.get(late));
+    assertEquals("Late long slot not default", 7, entry.get(lateLong));
+
+    entry.set(late, 1);
+    entry.set(lateLong, 8);
+    assertEquals("Late slot not set", Integer.valueOf(1), entry.get(late));
+    assertEquals("Late long slot not set", 8, entry.get(lateLong));
+    assertEquals("Slot lost growing", "value", entry.get(NAME));
+    assertEquals("Long slot lost growing", 42, entry.get(STAMP));
+  }
+}
@@ -0,0 +1,78 @@
+/*
+ *  Copyright 2004 David C. Brown
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sixrockets.ashkay;
+
+import com.sixrockets.ashkay.strategies.TinyLfuCachingStrategy;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import junit.framework.TestCase;
+
+/**
+ *
+ */
+public class FlightRecorderTest extends TestCase {
+
+  public void testEventsRecorded() throws Exception {
+    ObjectCache<Object, String> cache = new ObjectCache<Object, String>((key, data) -> {
+      if (key.startsWith("slow")) {
+        LockSupport.parkNanos(Duration.ofMillis(20).toNanos());
+      }
+      return key;
+    }).setName("recorded");
+    cache.addStrategy(new TinyLfuCachingStrategy(10));
+
+    Path file = Files.createTempFile("ashkay", ".jfr");
+    try (Recording recording = new Recording()) {
+      recording.enable("com.sixrockets.ashkay.Load").withThreshold(Duration.ofMillis(10));
+      recording.enable("com.sixrockets.ashkay.EvictionBatch");
+      recording.start();
+      cache.get("slow");
+      for (int i = 0; i < 20; i++) {
+        cache.get("fast" + i);
+      }
+      recording.stop();
+      recording.dump(file);
+
+      List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+      int loads = 0;
+      int evicted = 0;
+      for (RecordedEvent event : events) {
+        String type = event.getEventType().getName();
+        if ("com.sixrockets.ashkay.Load".equals(type)) {
+          loads++;
+          assertEquals("slow", event.getString("key"));
+          assertEquals("recorded", event.getString("cache"));
+        } else if ("com.sixrockets.ashkay.EvictionBatch".equals(type)) {
+          evicted += event.getInt("entries");
+          assertEquals("SIZE", event.getString("cause"));
+        }
+      }
+      assertEquals("Fast loads recorded as slow", 1, loads);
+      assertEquals("Evictions not recorded", 11, evicted);
+    } finally {
+      Files.delete(file);
+    }
+  }
+}
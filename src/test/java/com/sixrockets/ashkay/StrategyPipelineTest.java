@@ -0,0 +1,87 @@
+/*
+ *  Copyright 2004 David C. Brown
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sixrockets.ashkay;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ *
+ */
+public class StrategyPipelineTest extends TestCase {
+
+  public void testShortCircuit() throws Exception {
+    CountingStrategy failing = new CountingStrategy(false);
+    CountingStrategy after = new CountingStrategy(true);
+    ObjectCache<String, String> cache = new ObjectCache<>((key, data) -> key);
+    cache.addStrategy(new CountingStrategy(true)).addStrategy(failing).addStrategy(after);
+
+    cache.get("Test");
+    cache.get("Test");
+    assertEquals("Failing strategy not asked", 1, failing.validated);
+    assertEquals("Validation continued after a failure", 0, after.validated);
+    assertEquals("Entry not prepared by every strategy", 2, after.prepared);
+  }
+
+  public void testAddAndRemove() throws Exception {
+    List<CachingStrategy> strategies = new ArrayList<>();
+    CountingStrategy first = new CountingStrategy(true);
+    strategies.add(first);
+    ObjectCache<String, String> cache = new ObjectCache<>((key, data) -> key, strategies);
+    strategies.clear();
+    assertTrue("Constructor strategies not used", cache.usesStrategy(first));
+
+    CountingStrategy[] added = new CountingStrategy[3];
+    for (int i = 0; i < added.length; i++) {
+      added[i] = new CountingStrategy(true);
+      cache.addStrategy(added[i]);
+    }
+    cache.get("Test");
+    cache.get("Test");
+    for (CountingStrategy strategy : added) {
+      assertEquals("Strategy not prepared", 1, strategy.prepared);
+      assertEquals("Strategy not validated", 1, strategy.validated);
+    }
+
+    cache.removeStrategy(added[1]);
+    assertFalse("Strategy not removed", cache.usesStrategy(added[1]));
+    cache.get("Test");
+    assertEquals("Removed strategy still validating", 1, added[1].validated);
+    assertEquals("Remaining strategy not validating", 2, added[2].validated);
+  }
+
+  private static class CountingStrategy implements CachingStrategy {
+    private final boolean valid;
+    int prepared;
+    int validated;
+
+    CountingStrategy(boolean valid) {
+      this.valid = valid;
+    }
+
+    public <T, K> CacheEntry<T, K> prepare(CacheEntry<T, K> entry) {
+      prepared++;
+      return entry;
+    }
+
+    public boolean validate(CacheEntry<?, ?> entry) {
+      validated++;
+      return valid;
+    }
+  }
+}
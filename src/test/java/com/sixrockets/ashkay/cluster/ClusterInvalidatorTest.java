@@ -0,0 +1,228 @@
+/*
+ *  Copyright 2004 David C. Brown
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sixrockets.ashkay.cluster;
+
+import com.sixrockets.ashkay.CacheEvent;
+import com.sixrockets.ashkay.JavaSerializer;
+import com.sixrockets.ashkay.ObjectCache;
+
+import java.io.DataOutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ *
+ */
+public class ClusterInvalidatorTest extends TestCase {
+
+  public void testPutEvictsOnOtherNodes() throws Exception {
+    LoopbackTransport.Group group = new LoopbackTransport.Group();
+    ObjectCache<Object, String> a = new ObjectCache<>((key, data) -> "loaded");
+    ObjectCache<Object, String> b = new ObjectCache<>((key, data) -> "loaded");
+    ClusterInvalidator<Object, String> nodeA = join(a, new LoopbackTransport(group));
+    ClusterInvalidator<Object, String> nodeB = join(b, new LoopbackTransport(group));
+    try {
+      b.get("k");
+      CountDownLatch evicted = evictionOf(b, "k");
+      a.put("k", "new");
+      assertTrue("Put not seen by other node", evicted.await(5, TimeUnit.SECONDS));
+      assertEquals(0, b.size());
+
+      nodeB.flush();
+      assertEquals("Remote eviction sent on", 0, nodeB.getKeysSent());
+      assertEquals(1, nodeB.getKeysReceived());
+    } finally {
+      nodeA.close();
+      nodeB.close();
+    }
+  }
+
+  public void testRemoteEvictionSupersedesLoad() throws Exception {
+    LoopbackTransport.Group group = new LoopbackTransport.Group();
+    CountDownLatch release = new CountDownLatch(1);
+    ObjectCache<Object, String> a = new ObjectCache<>((key, data) -> "loaded");
+    ObjectCache<Object, String> b = new ObjectCache<>((key, data) -> {
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      return "before put";
+    });
+    ClusterInvalidator<Object, String> nodeA = join(a, new LoopbackTransport(group));
+    ClusterInvalidator<Object, String> nodeB = join(b, new LoopbackTransport(group));
+    Thread loader = new Thread(() -> {
+      try {
+        b.get("k");
+      } catch (Exception e) {
+        // not expected
+      }
+    });
+    try {
+      loader.start();
+      Thread.sleep(100);
+      a.put("k", "new");
+      for (int i = 0; (i < 100) && (0 == nodeB.getKeysReceived()); i++) {
+        Thread.sleep(50);
+      }
+      assertEquals(1, nodeB.getKeysReceived());
+      release.countDown();
+      loader.join();
+      assertEquals("Load from before the put was cached", 0, b.size());
+    } finally {
+      release.countDown();
+      nodeA.close();
+      nodeB.close();
+    }
+  }
+
+  public void testLoadsNotSent() throws Exception {
+    LoopbackTransport.Group group = new LoopbackTransport.Group();
+    ObjectCache<Object, String> a = new ObjectCache<>((key, data) -> key);
+    ClusterInvalidator<Object, String> nodeA = join(a, new LoopbackTransport(group));
+    try {
+      a.get("x");
+      a.get("y");
+      nodeA.flush();
+      assertEquals(0, nodeA.getKeysSent());
+
+      a.evict("x");
+      nodeA.flush();
+      assertEquals(1, nodeA.getKeysSent());
+    } finally {
+      nodeA.close();
+    }
+  }
+
+  public void testRepeatedKeysCompacted() throws Exception {
+    LoopbackTransport.Group group = new LoopbackTransport.Group();
+    ObjectCache<Object, String> a = new ObjectCache<>((key, data) -> key);
+    ClusterInvalidator<Object, String> nodeA = new ClusterInvalidator<>(a, new LoopbackTransport(group),
+        new JavaSerializer<>(), 60000, 1024);
+    try {
+      for (int i = 0; i < 100; i++) {
+        a.put("k", "v" + i);
+      }
+      a.evict("k");
+      nodeA.flush();
+      assertEquals(1, nodeA.getMessagesSent());
+      assertEquals(1, nodeA.getKeysSent());
+    } finally {
+      nodeA.close();
+    }
+  }
+
+  public void testBatchSplitByMessageSize() throws Exception {
+    LoopbackTransport.Group group = new LoopbackTransport.Group();
+    ObjectCache<Object, String> a = new ObjectCache<>((key, data) -> key);
+    ObjectCache<Object, String> b = new ObjectCache<>((key, data) -> key);
+    LoopbackTransport small = new LoopbackTransport(group) {
+      public int maxMessageSize() {
+        return 200;
+      }
+    };
+    ClusterInvalidator<Object, String> nodeA = new ClusterInvalidator<>(a, small, new JavaSerializer<>(), 60000, 1024);
+    ClusterInvalidator<Object, String> nodeB = join(b, new LoopbackTransport(group));
+    try {
+      for (int i = 0; i < 20; i++) {
+        b.get("k" + i);
+        a.put("k" + i, "v");
+      }
+      nodeA.flush();
+      assertTrue("Batch not split", nodeA.getMessagesSent() > 1);
+      assertEquals(20, nodeA.getKeysSent());
+      for (int i = 0; (i < 100) && (b.size() > 0); i++) {
+        Thread.sleep(50);
+      }
+      assertEquals(0, b.size());
+      assertEquals(0, nodeB.getFailures());
+    } finally {
+      nodeA.close();
+      nodeB.close();
+    }
+  }
+
+  public void testTcpTransport() throws Exception {
+    InetAddress localhost = InetAddress.getLoopbackAddress();
+    TcpTransport transportA = new TcpTransport(new InetSocketAddress(localhost, 0));
+    TcpTransport transportB = new TcpTransport(new InetSocketAddress(localhost, 0));
+    ObjectCache<Object, String> a = new ObjectCache<>((key, data) -> "loaded");
+    ObjectCache<Object, String> b = new ObjectCache<>((key, data) -> "loaded");
+    ClusterInvalidator<Object, String> nodeA = join(a, transportA);
+    ClusterInvalidator<Object, String> nodeB = join(b, transportB);
+    transportA.addPeer(new InetSocketAddress(localhost, transportB.getLocalPort()));
+    transportB.addPeer(new InetSocketAddress(localhost, transportA.getLocalPort()));
+    try {
+      a.get("k");
+      CountDownLatch evictedOnA = evictionOf(a, "k");
+      b.evict("k");
+      b.put("k", "new");
+      assertTrue("Put not seen over TCP", evictedOnA.await(5, TimeUnit.SECONDS));
+      assertEquals("loaded", a.get("k"));
+      assertEquals("new", b.get("k"));
+    } finally {
+      nodeA.close();
+      nodeB.close();
+    }
+  }
+
+  public void testTcpTransportDropsGarbageFrames() throws Exception {
+    InetAddress localhost = InetAddress.getLoopbackAddress();
+    BlockingQueue<byte[]> received = new LinkedBlockingQueue<>();
+    TcpTransport transport = new TcpTransport(new InetSocketAddress(localhost, 0));
+    transport.start(received::add);
+    try {
+      for (int length : new int[] { -5, Integer.MAX_VALUE }) {
+        try (Socket socket = new Socket(localhost, transport.getLocalPort())) {
+          DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+          out.writeInt(length);
+          out.flush();
+          socket.setSoTimeout(5000);
+          assertEquals("Garbage frame not refused", -1, socket.getInputStream().read());
+        }
+      }
+
+      TcpTransport sender = new TcpTransport(new InetSocketAddress(localhost, 0));
+      sender.addPeer(new InetSocketAddress(localhost, transport.getLocalPort()));
+      sender.send(new byte[] { 1, 2, 3 });
+      assertEquals(3, received.poll(5, TimeUnit.SECONDS).length);
+      sender.close();
+    } finally {
+      transport.close();
+    }
+  }
+
+  private static ClusterInvalidator<Object, String> join(ObjectCache<Object, String> cache, InvalidationTransport transport) throws Exception {
+    return new ClusterInvalidator<>(cache, transport, new JavaSerializer<>(), 5, 1024);
+  }
+
+  private static CountDownLatch evictionOf(ObjectCache<Object, String> cache, String key) {
+    CountDownLatch latch = new CountDownLatch(1);
+    cache.addSynchronousListener(event -> {
+      if ((CacheEvent.Type.EVICTED == event.getType()) && key.equals(event.getKey())) {
+        latch.countDown();
+      }
+    });
+    return latch;
+  }
+}
@@ -0,0 +1,207 @@
+/*
+ *  Copyright 2004 David C. Brown
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sixrockets.ashkay.cluster;
+
+import com.sixrockets.ashkay.CreationException;
+import com.sixrockets.ashkay.JavaSerializer;
+import com.sixrockets.ashkay.ObjectCache;
+import com.sixrockets.ashkay.server.CacheClient;
+import com.sixrockets.ashkay.server.CacheServer;
+import com.sixrockets.ashkay.server.SharedCacheFactory;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+/**
+ *
+ */
+public class PartitionedCacheTest extends TestCase {
+
+  private static final int KEYS = 100_000;
+
+  private final AtomicInteger loads = new AtomicInteger();
+
+  public void testKeysSpreadEvenly() throws Exception {
+    PartitionedCache<String, Integer> cache = partitioned(8);
+    fill(cache);
+    for (Map.Entry<String, ObjectCache<String, Integer>> shard : cache.getShards().entrySet()) {
+      double share = shard.getValue().size() / (double) KEYS;
+      assertTrue(shard.getKey() + " holds " + share, (share > 0.125 * 0.7) && (share < 0.125 * 1.3));
+    }
+    assertEquals(KEYS, cache.size());
+  }
+
+  public void testAddingShardMovesItsShareOnly() throws Exception {
+    PartitionedCache<String, Integer> cache = partitioned(4);
+    fill(cache);
+    Map<Integer, ObjectCache<String, Integer>> before = owners(cache);
+
+    ObjectCache<String, Integer> added = new ObjectCache<>(this::load);
+    int moved = cache.addShard("shard-4", added);
+    assertTrue("Moved " + moved, (moved > KEYS * 0.15) && (moved < KEYS * 0.25));
+    assertEquals(moved, added.size());
+    for (int i = 0; i < KEYS; i++) {
+      ObjectCache<String, Integer> owner = cache.shardFor(i);
+      assertTrue("Key moved between old shards", (owner == before.get(i)) || (owner == added));
+    }
+    assertEquals(KEYS, cache.size());
+    assertEquals("Moved objects reloaded", KEYS, loads.get());
+  }
+
+  public void testMovesNotSeenAsWrites() throws Exception {
+    PartitionedCache<String, Integer> cache = partitioned(4);
+    fill(cache);
+    AtomicInteger writes = new AtomicInteger();
+    AtomicInteger moves = new AtomicInteger();
+    ObjectCache<String, Integer> added = new ObjectCache<>(this::load);
+    for (ObjectCache<String, Integer> shard : cache.getShards().values()) {
+      shard.addSynchronousListener(event -> (event.isLoad() ? moves : writes).incrementAndGet());
+    }
+    added.addSynchronousListener(event -> (event.isLoad() ? moves : writes).incrementAndGet());
+
+    int moved = cache.addShard("shard-4", added);
+    assertTrue(moved > 0);
+    assertEquals("Move seen as a write", 0, writes.get());
+    assertEquals(2 * moved, moves.get());
+  }
+
+  public void testRemovingShardMovesItsKeysOnly() throws Exception {
+    PartitionedCache<String, Integer> cache = partitioned(5);
+    fill(cache);
+    Map<Integer, ObjectCache<String, Integer>> before = owners(cache);
+    ObjectCache<String, Integer> removed = cache.getShards().get("shard-2");
+    int held = removed.size();
+
+    assertEquals(held, cache.removeShard("shard-2"));
+    assertEquals(0, removed.size());
+    for (int i = 0; i < KEYS; i++) {
+      if (before.get(i) != removed) {
+        assertSame(before.get(i), cache.shardFor(i));
+      }
+      assertEquals("s" + i, cache.get(i));
+    }
+    assertEquals(KEYS, loads.get());
+  }
+
+  public void testGetAllFansOutInParallel() throws Exception {
+    int shards = 4;
+    CountDownLatch together = new CountDownLatch(shards);
+    Set<Thread> threads = ConcurrentHashMap.newKeySet();
+    PartitionedCache<String, Integer> cache = new PartitionedCache<>();
+    for (int s = 0; s < shards; s++) {
+      cache.addShard("shard-" + s, new ObjectCache<>((key, data) -> {
+        threads.add(Thread.currentThread());
+        together.countDown();
+        // every shard waits for the others, so this only finishes in parallel
+        try {
+          together.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          throw new CreationException(e);
+        }
+        return "s" + key;
+      }));
+    }
+
+    List<Integer> keys = new ArrayList<>();
+    Map<ObjectCache<String, Integer>, Integer> firstKey = new HashMap<>();
+    for (int i = 0; firstKey.size() < shards; i++) {
+      if (null == firstKey.putIfAbsent(cache.shardFor(i), i)) {
+        keys.add(i);
+      }
+    }
+    Map<Integer, String> found = cache.getAll(keys);
+    assertEquals(0, together.getCount());
+    assertEquals(shards, threads.size());
+    assertEquals(new ArrayList<>(keys), new ArrayList<>(found.keySet()));
+    for (Integer key : keys) {
+      assertEquals("s" + key, found.get(key));
+    }
+  }
+
+  public void testCallersExecutorLeftRunning() throws Exception {
+    ExecutorService mine = Executors.newSingleThreadExecutor();
+    try {
+      PartitionedCache<String, Integer> cache = new PartitionedCache<>();
+      cache.addShard("a", new ObjectCache<>((key, data) -> "s" + key));
+      cache.setExecutor(mine);
+      cache.setExecutor(Runnable::run);
+
+      assertFalse(mine.isShutdown());
+      assertEquals("s1", cache.getAll(Arrays.asList(1, 2)).get(1));
+    } finally {
+      mine.shutdown();
+    }
+  }
+
+  public void testSocketShard() throws Exception {
+    CacheServer server = new CacheServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1 << 20);
+    server.start();
+    CacheClient client = new CacheClient(new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getLocalPort()));
+    try {
+      PartitionedCache<String, Integer> cache = partitioned(1);
+      cache.addShard("remote", new ObjectCache<>(new SharedCacheFactory<>(client, new JavaSerializer<>(), new JavaSerializer<>(),
+          this::load, 5000)));
+      for (int i = 0; i < 100; i++) {
+        assertEquals("s" + i, cache.get(i));
+      }
+      assertTrue(cache.getShards().get("remote").size() > 0);
+    } finally {
+      client.close();
+      server.close();
+    }
+  }
+
+  private PartitionedCache<String, Integer> partitioned(int shards) {
+    PartitionedCache<String, Integer> cache = new PartitionedCache<>();
+    for (int s = 0; s < shards; s++) {
+      cache.addShard("shard-" + s, new ObjectCache<>(this::load));
+    }
+    return cache;
+  }
+
+  private String load(Integer key, Object data) {
+    loads.incrementAndGet();
+    return "s" + key;
+  }
+
+  private static void fill(PartitionedCache<String, Integer> cache) throws Exception {
+    for (int i = 0; i < KEYS; i++) {
+      cache.get(i);
+    }
+  }
+
+  private static Map<Integer, ObjectCache<String, Integer>> owners(PartitionedCache<String, Integer> cache) {
+    Map<Integer, ObjectCache<String, Integer>> owners = new HashMap<>();
+    for (int i = 0; i < KEYS; i++) {
+      owners.put(i, cache.shardFor(i));
+    }
+    return owners;
+  }
+}
@@ -0,0 +1,101 @@
+/*
+ *  Copyright 2004 David C. Brown
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sixrockets.ashkay.management;
+
+import com.sixrockets.ashkay.ObjectCache;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+
+import javax.management.Attribute;
+import javax.management.JMX;
+import javax.management.RuntimeMBeanException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.TabularData;
+
+import junit.framework.TestCase;
+
+/**
+ *
+ */
+public class CacheManagementTest extends TestCase {
+
+  private final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+  private ObjectCache<Object, String> cache;
+  private ObjectName name;
+
+  protected void setUp() throws Exception {
+    cache = new ObjectCache<Object, String>((key, data) -> key).setName("test:cache");
+    name = CacheManagement.register(cache);
+  }
+
+  protected void tearDown() throws Exception {
+    CacheManagement.unregister(cache);
+  }
+
+  public void testAttributes() throws Exception {
+    assertEquals("com.sixrockets.ashkay:type=ObjectCache,name=\"test:cache\"", name.toString());
+    server.setAttribute(name, new Attribute("RecordingStats", true));
+    cache.get("a");
+    cache.get("a");
+    cache.get("b");
+
+    assertEquals(2, server.getAttribute(name, "Size"));
+    assertEquals(1L, server.getAttribute(name, "HitCount"));
+    assertEquals(2L, server.getAttribute(name, "MissCount"));
+    assertEquals(2L, server.getAttribute(name, "LoadSuccessCount"));
+    TabularData evictions = (TabularData) server.getAttribute(name, "EvictionCounts");
+    assertEquals(4, evictions.size());
+  }
+
+  public void testOperations() throws Exception {
+    cache.setRecordStats(true);
+    cache.get("a");
+    cache.get("b");
+
+    assertEquals(Boolean.TRUE, server.invoke(name, "evict", new Object[] { "a" }, new String[] { String.class.getName() }));
+    assertEquals(1, cache.size());
+    server.invoke(name, "clear", null, null);
+    assertEquals(0, cache.size());
+
+    Map<String, Long> evictions = JMX.newMXBeanProxy(server, name, ObjectCacheMXBean.class).getEvictionCounts();
+    assertEquals(Long.valueOf(2), evictions.get("EXPLICIT"));
+  }
+
+  public void testEvictParsesKeys() throws Exception {
+    ObjectCache<Object, Integer> numbers = new ObjectCache<Object, Integer>((key, data) -> key).setName("test:numbers");
+    ObjectName numbersName = CacheManagement.register(numbers, Integer::valueOf);
+    try {
+      numbers.get(1);
+      numbers.get(2);
+      ObjectCacheMXBean bean = JMX.newMXBeanProxy(server, numbersName, ObjectCacheMXBean.class);
+
+      assertTrue(bean.evict("1"));
+      assertFalse(bean.evict("1"));
+      assertEquals(1, numbers.size());
+      try {
+        server.invoke(numbersName, "evict", new Object[] { "two" }, new String[] { String.class.getName() });
+        fail("expected the key to be refused");
+      } catch (RuntimeMBeanException e) {
+        assertTrue(e.getCause() instanceof IllegalArgumentException);
+      }
+      assertEquals(1, numbers.size());
+    } finally {
+      CacheManagement.unregister(numbers);
+    }
+  }
+}
@@ -0,0 +1,170 @@
+/*
+ *  Copyright 2004 David C. Brown
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sixrockets.ashkay.server;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ *
+ */
+public class CacheServerTest extends TestCase {
+
+  private CacheServer server;
+  private CacheClient client;
+
+  protected void setUp() throws Exception {
+    server = new CacheServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1 << 20);
+    server.start();
+    client = new CacheClient(address());
+  }
+
+  protected void tearDown() {
+    client.close();
+    server.close();
+  }
+
+  public void testGetPutDelete() throws Exception {
+    assertNull(wait(client.get(b("a"))));
+    wait(client.put(b("a"), b("1")));
+    assertEquals("1", s(wait(client.get(b("a")))));
+    assertTrue(wait(client.delete(b("a"))));
+    assertFalse(wait(client.delete(b("a"))));
+    assertNull(wait(client.get(b("a"))));
+  }
+
+  public void testMultiGet() throws Exception {
+    wait(client.put(b("a"), b("1")));
+    wait(client.put(b("c"), b("3")));
+    List<byte[]> values = wait(client.getAll(Arrays.asList(b("a"), b("b"), b("c"))));
+    assertEquals(3, values.size());
+    assertEquals("1", s(values.get(0)));
+    assertNull(values.get(1));
+    assertEquals("3", s(values.get(2)));
+  }
+
+  public void testPipelinedRequestsAnsweredInOrder() throws Exception {
+    List<CompletableFuture<Void>> puts = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      puts.add(client.put(b("k" + i), b("v" + i)));
+    }
+    List<CompletableFuture<byte[]>> gets = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      gets.add(client.get(b("k" + i)));
+    }
+    for (int i = 0; i < 1000; i++) {
+      assertEquals("v" + i, s(wait(gets.get(i))));
+    }
+  }
+
+  public void testLargeValue() throws Exception {
+    byte[] value = new byte[300_000];
+    Arrays.fill(value, (byte) 7);
+    wait(client.put(b("big"), value));
+    assertTrue(Arrays.equals(value, wait(client.get(b("big")))));
+  }
+
+  public void testBadClientDropped() throws Exception {
+    try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getLocalPort())) {
+      DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+      out.writeInt(-5);
+      out.flush();
+      assertEquals(-1, socket.getInputStream().read());
+    }
+    wait(client.put(b("a"), b("1")));
+    assertEquals("1", s(wait(client.get(b("a")))));
+  }
+
+  public void testOversizedClaimsRejected() throws Exception {
+    try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getLocalPort())) {
+      DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+      out.writeInt(5);
+      out.writeByte(Protocol.MGET);
+      out.writeInt(Integer.MAX_VALUE);
+      out.writeInt(9);
+      out.writeByte(Protocol.PUT);
+      out.writeInt(Integer.MAX_VALUE);
+      out.writeInt(0);
+      out.flush();
+
+      DataInputStream in = new DataInputStream(socket.getInputStream());
+      for (int i = 0; i < 2; i++) {
+        assertEquals(1, in.readInt());
+        assertEquals(Protocol.ERROR, in.readByte());
+      }
+    }
+    wait(client.put(b("a"), b("1")));
+    assertEquals("1", s(wait(client.get(b("a")))));
+  }
+
+  public void testStalledServerDoesNotBlockCallers() throws Exception {
+    try (ServerSocket stalled = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        CacheClient stalledClient = new CacheClient(
+            new InetSocketAddress(InetAddress.getLoopbackAddress(), stalled.getLocalPort()))) {
+      byte[] value = new byte[1 << 20];
+      List<CompletableFuture<Void>> puts = new ArrayList<>();
+      long start = System.nanoTime();
+      for (int i = 0; i < 32; i++) {
+        puts.add(stalledClient.put(b("k" + i), value));
+      }
+      assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1000);
+      assertFalse(puts.get(31).isDone());
+    }
+  }
+
+  public void testReconnectsAfterServerRestart() throws Exception {
+    wait(client.put(b("a"), b("1")));
+    int port = server.getLocalPort();
+    server.close();
+    try {
+      wait(client.get(b("a")));
+      fail("Request to a stopped server succeeded");
+    } catch (Exception e) {
+      // expected
+    }
+
+    server = new CacheServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 1 << 20);
+    server.start();
+    assertNull(wait(client.get(b("a"))));
+  }
+
+  private InetSocketAddress address() {
+    return new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getLocalPort());
+  }
+
+  private static <R> R wait(CompletableFuture<R> future) throws Exception {
+    return future.get(5, TimeUnit.SECONDS);
+  }
+
+  private static byte[] b(String s) {
+    return s.getBytes();
+  }
+
+  private static String s(byte[] b) {
+    return (null == b) ? null : new String(b);
+  }
+}
@@ -0,0 +1,172 @@
+/*
+ *  Copyright 2004 David C. Brown
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sixrockets.ashkay.server;
+
+import com.sixrockets.ashkay.BulkObjectFactory;
+import com.sixrockets.ashkay.CacheEntry;
+import com.sixrockets.ashkay.CachingStrategy;
+import com.sixrockets.ashkay.JavaSerializer;
+import com.sixrockets.ashkay.ObjectCache;
+import com.sixrockets.ashkay.strategies.TinyLfuCachingStrategy;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+/**
+ *
+ */
+public class SharedCacheFactoryTest extends TestCase {
+
+  private CacheServer server;
+
+  protected void setUp() throws Exception {
+    server = new CacheServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1 << 20);
+    server.start();
+  }
+
+  protected void tearDown() {
+    server.close();
+  }
+
+  public void testNearCachesShareLoads() throws Exception {
+    CountingFactory loads = new CountingFactory();
+    CacheClient clientA = client();
+    CacheClient clientB = client();
+    try {
+      ObjectCache<String, String> a = nearCache(new SharedCacheFactory<>(clientA, new JavaSerializer<>(), new JavaSerializer<>(), loads, 5000));
+      SharedCacheFactory<String, String> sharedB = new SharedCacheFactory<>(clientB, new JavaSerializer<>(), new JavaSerializer<>(), loads, 5000);
+      ObjectCache<String, String> b = nearCache(sharedB);
+
+      assertEquals("value of k", a.get("k"));
+      awaitShared("k");
+      assertEquals("value of k", b.get("k"));
+      assertEquals("Loaded twice", 1, loads.count.get());
+      assertEquals(1, sharedB.getSharedHits());
+    } finally {
+      clientA.close();
+      clientB.close();
+    }
+  }
+
+  public void testGetAllInOneRequest() throws Exception {
+    CountingFactory loads = new CountingFactory();
+    CacheClient client = client();
+    try {
+      SharedCacheFactory<String, String> shared = new SharedCacheFactory<>(client, new JavaSerializer<>(), new JavaSerializer<>(), loads, 5000);
+      shared.put("a", "shared a");
+      ObjectCache<String, String> cache = nearCache(shared);
+
+      Map<String, String> values = cache.getAll(Arrays.asList("a", "b", "c"));
+      assertEquals("shared a", values.get("a"));
+      assertEquals("value of b", values.get("b"));
+      assertEquals("value of c", values.get("c"));
+      assertEquals(1, loads.bulkCalls.get());
+      assertEquals(2, loads.count.get());
+    } finally {
+      client.close();
+    }
+  }
+
+  public void testServerDownFallsBackToFactory() throws Exception {
+    CountingFactory loads = new CountingFactory();
+    CacheClient client = client();
+    server.close();
+    try {
+      SharedCacheFactory<String, String> shared = new SharedCacheFactory<>(client, new JavaSerializer<>(), new JavaSerializer<>(), loads);
+      ObjectCache<String, String> cache = nearCache(shared);
+      assertEquals("value of k", cache.get("k"));
+      assertEquals(1, loads.count.get());
+      assertTrue(shared.getFailures() > 0);
+    } finally {
+      client.close();
+    }
+  }
+
+  public void testReloadSkipsServer() throws Exception {
+    AtomicInteger version = new AtomicInteger();
+    AtomicBoolean stale = new AtomicBoolean();
+    CacheClient client = client();
+    try {
+      SharedCacheFactory<String, String> shared = new SharedCacheFactory<>(client, new JavaSerializer<>(), new JavaSerializer<>(),
+          (key, data) -> "v" + version.get(), 5000);
+      ObjectCache<String, String> cache = new ObjectCache<>(shared);
+      cache.addStrategy(shared).addStrategy(new CachingStrategy() {
+        public <T, K> CacheEntry<T, K> prepare(CacheEntry<T, K> entry) {
+          return entry;
+        }
+
+        public boolean validate(CacheEntry<?, ?> entry) {
+          return !stale.get();
+        }
+      });
+      assertEquals("v0", cache.get("k"));
+      awaitShared("k");
+
+      version.set(1);
+      stale.set(true);
+      assertEquals("Invalidated object read back from the server", "v1", cache.get("k"));
+      assertEquals("Reload asked the server", 0, shared.getSharedHits());
+      assertEquals("v1", cache.getAll(Arrays.asList("k")).get("k"));
+      assertEquals("Reload asked the server", 0, shared.getSharedHits());
+      assertEquals("Only the first load asked the server", 1, shared.getSharedMisses());
+    } finally {
+      client.close();
+    }
+  }
+
+  private CacheClient client() {
+    return new CacheClient(new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getLocalPort()));
+  }
+
+  private static ObjectCache<String, String> nearCache(SharedCacheFactory<String, String> shared) {
+    ObjectCache<String, String> cache = new ObjectCache<>(shared);
+    cache.addStrategy(new TinyLfuCachingStrategy(100));
+    return cache;
+  }
+
+  private void awaitShared(String key) throws Exception {
+    for (int i = 0; (i < 100) && (0 == server.size()); i++) {
+      Thread.sleep(20);
+    }
+  }
+
+  private static final class CountingFactory implements BulkObjectFactory<String, String> {
+    final AtomicInteger count = new AtomicInteger();
+    final AtomicInteger bulkCalls = new AtomicInteger();
+
+    public String createObjectFor(String key, Object data) {
+      count.incrementAndGet();
+      return "value of " + key;
+    }
+
+    public Map<String, String> createObjectsFor(Collection<String> keys) {
+      bulkCalls.incrementAndGet();
+      Map<String, String> objects = new HashMap<>();
+      for (String key : keys) {
+        objects.put(key, createObjectFor(key, null));
+      }
+      return objects;
+    }
+  }
+}
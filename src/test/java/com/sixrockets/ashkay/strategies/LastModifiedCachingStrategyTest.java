@@ -0,0 +1,101 @@
+/*
+ *  Copyright 2004 David C. Brown
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sixrockets.ashkay.strategies;
+
+import com.sixrockets.ashkay.ObjectCache;
+
+import java.io.File;
+import java.net.URL;
+import java.nio.file.Files;
+
+import junit.framework.TestCase;
+
+/**
+ *
+ */
+public class LastModifiedCachingStrategyTest extends TestCase {
+
+  private File file;
+
+  protected void setUp() throws Exception {
+    file = File.createTempFile("ashkay", ".txt");
+    file.setLastModified(System.currentTimeMillis() - 60000);
+  }
+
+  protected void tearDown() {
+    file.delete();
+  }
+
+  public void testModifiedFileReloaded() throws Exception {
+    MockObjectFactory factory = new MockObjectFactory();
+    ObjectCache cache = new ObjectCache(factory);
+    cache.addStrategy(new LastModifiedCachingStrategy());
+
+    cache.get(file);
+    cache.get(file);
+    assertEquals("Unmodified file reloaded", 1, factory.counter);
+
+    file.setLastModified(System.currentTimeMillis());
+    cache.get(file);
+    assertEquals("Modified file not reloaded", 2, factory.counter);
+  }
+
+  public void testWatchedFileReloaded() throws Exception {
+    MockObjectFactory factory = new MockObjectFactory();
+    LastModifiedCachingStrategy strategy = new LastModifiedCachingStrategy(false, true);
+    ObjectCache cache = new ObjectCache(factory);
+    cache.addStrategy(strategy);
+    try {
+      cache.get(file.getPath());
+      cache.get(file.getPath());
+      assertEquals("Unmodified file reloaded", 1, factory.counter);
+
+      Files.write(file.toPath(), "changed".getBytes());
+      assertTrue("Modified file not reloaded", awaitReload(cache, file.getPath(), factory, 2));
+    } finally {
+      strategy.close();
+    }
+  }
+
+  public void testPolledUrlReloaded() throws Exception {
+    MockObjectFactory factory = new MockObjectFactory();
+    LastModifiedCachingStrategy strategy = new LastModifiedCachingStrategy(false, true, 50);
+    ObjectCache cache = new ObjectCache(factory);
+    cache.addStrategy(strategy);
+    URL url = file.toURI().toURL();
+    try {
+      cache.get(url);
+      cache.get(url);
+      assertEquals("Unmodified URL reloaded", 1, factory.counter);
+
+      file.setLastModified(System.currentTimeMillis());
+      assertTrue("Modified URL not reloaded", awaitReload(cache, url, factory, 2));
+    } finally {
+      strategy.close();
+    }
+  }
+
+  private static boolean awaitReload(ObjectCache cache, Object key, MockObjectFactory factory, int loads) throws Exception {
+    for (int i = 0; i < 100; i++) {
+      cache.get(key);
+      if (factory.counter >= loads) {
+        return true;
+      }
+      Thread.sleep(100);
+    }
+    return false;
+  }
+}
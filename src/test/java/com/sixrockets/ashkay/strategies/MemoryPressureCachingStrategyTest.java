@@ -0,0 +1,91 @@
+/*
+ *  Copyright 2004 David C. Brown
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sixrockets.ashkay.strategies;
+
+import com.sixrockets.ashkay.ObjectCache;
+
+import junit.framework.TestCase;
+
+/**
+ *
+ */
+public class MemoryPressureCachingStrategyTest extends TestCase {
+
+  private MemoryPressureCachingStrategy strategy;
+
+  protected void setUp() {
+    strategy = new MemoryPressureCachingStrategy(0.99);
+  }
+
+  protected void tearDown() {
+    strategy.close();
+  }
+
+  public void testColdEvictedBeforeHot() throws Exception {
+    MockObjectFactory factory = new MockObjectFactory();
+    ObjectCache cache = new ObjectCache(factory);
+    cache.addStrategy(strategy);
+
+    for (int i = 0; i < 100; i++) {
+      cache.get(Integer.valueOf(i));
+    }
+    for (int i = 0; i < 20; i++) {
+      cache.get(Integer.valueOf(i));
+    }
+
+    assertEquals("Batch not a twentieth", 5, strategy.relieve(0));
+    assertEquals(95, cache.size());
+    for (int i = 0; i < 20; i++) {
+      cache.get(Integer.valueOf(i));
+    }
+    assertEquals("Hot entry evicted", 100, factory.counter);
+    for (int i = 20; i < 25; i++) {
+      cache.get(Integer.valueOf(i));
+    }
+    assertEquals("Oldest cold entries not evicted", 105, factory.counter);
+  }
+
+  public void testBatchGrowsWithPressure() throws Exception {
+    ObjectCache cache = new ObjectCache(new MockObjectFactory());
+    cache.addStrategy(strategy);
+
+    for (int i = 0; i < 100; i++) {
+      cache.get(Integer.valueOf(i));
+    }
+
+    assertEquals("Batch not a fifth at a full heap", 20, strategy.relieve(1));
+    assertEquals(80, cache.size());
+    assertEquals(20, strategy.evictions());
+  }
+
+  public void testLargeColdEntriesFirst() throws Exception {
+    ObjectCache<String, String> cache = new ObjectCache<>((key, data) -> key);
+    cache.setWeigher((key, value) -> value.length());
+    cache.addStrategy(strategy);
+
+    String large = String.format("%01000d", 0);
+    for (int i = 0; i < 50; i++) {
+      cache.get("s" + i);
+    }
+    for (int i = 0; i < 5; i++) {
+      cache.get(i + large);
+    }
+
+    assertEquals("More than one large entry evicted", 1, strategy.relieve(0));
+    assertEquals("Small entry evicted", 54, cache.size());
+    assertEquals("Weight not tracked", cache.weight(), strategy.weight());
+  }
+}
@@ -0,0 +1,105 @@
+/*
+ *  Copyright 2004 David C. Brown
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sixrockets.ashkay.strategies;
+
+import com.sixrockets.ashkay.CacheEntry;
+import com.sixrockets.ashkay.CachingStrategy;
+import com.sixrockets.ashkay.EvictionCause;
+import com.sixrockets.ashkay.ObjectCache;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ *
+ */
+public class SoftReferenceCachingStrategyTest extends TestCase {
+
+  public void testClearedEntryReloaded() throws Exception {
+    MockObjectFactory factory = new MockObjectFactory();
+    ObjectCache cache = new ObjectCache(factory);
+    cache.addStrategy(new SoftReferenceCachingStrategy());
+    Recorder recorder = new Recorder();
+    cache.addStrategy(recorder);
+
+    cache.get("key");
+    recorder.prepared.getEntryReference().clear();
+    cache.get("key");
+    assertEquals("Cleared entry not reloaded", 2, factory.counter);
+  }
+
+  public void testCollectedEntryEvicted() throws Exception {
+    MockObjectFactory factory = new MockObjectFactory();
+    ObjectCache cache = new ObjectCache(factory);
+    cache.addStrategy(new SoftReferenceCachingStrategy());
+    Recorder recorder = new Recorder();
+    cache.addStrategy(recorder);
+
+    cache.get("key");
+    recorder.prepared.getEntryReference().enqueue();
+    assertTrue("Collected entry not evicted", recorder.collected.await(10, TimeUnit.SECONDS));
+    assertEquals(0, cache.size());
+  }
+
+  public void testReloadedEntryKept() throws Exception {
+    MockObjectFactory factory = new MockObjectFactory();
+    ObjectCache cache = new ObjectCache(factory);
+    cache.addStrategy(new SoftReferenceCachingStrategy());
+    Recorder recorder = new Recorder();
+    cache.addStrategy(recorder);
+
+    cache.get("key");
+    SoftReferenceCacheEntry<?, ?> stale = recorder.prepared;
+    stale.getEntryReference().clear();
+    Object reloaded = cache.get("key");
+    stale.getEntryReference().enqueue();
+    while (stale.getEntryReference().isEnqueued()) {
+      Thread.sleep(10);
+    }
+
+    // an entry collected after it shows the collector is done with the stale one
+    cache.get("other");
+    recorder.prepared.getEntryReference().enqueue();
+    assertTrue(recorder.collected.await(10, TimeUnit.SECONDS));
+    assertSame("Reloaded entry dropped", reloaded, cache.get("key"));
+    assertEquals(3, factory.counter);
+  }
+
+  /**
+   * Remembers the soft entry last prepared and counts collected evictions.
+   */
+  private static final class Recorder implements CachingStrategy {
+    volatile SoftReferenceCacheEntry<?, ?> prepared;
+    final CountDownLatch collected = new CountDownLatch(1);
+
+    public <T, K> CacheEntry<T, K> prepare(CacheEntry<T, K> entry) {
+      prepared = (SoftReferenceCacheEntry<?, ?>) entry;
+      return entry;
+    }
+
+    public boolean validate(CacheEntry<?, ?> entry) {
+      return true;
+    }
+
+    public void evicted(CacheEntry<?, ?> entry, EvictionCause cause) {
+      if (EvictionCause.COLLECTED == cause) {
+        collected.countDown();
+      }
+    }
+  }
+}
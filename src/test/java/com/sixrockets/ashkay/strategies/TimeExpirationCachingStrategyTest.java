@@ -0,0 +1,158 @@
+/*
+ *  Copyright 2004 David C. Brown
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sixrockets.ashkay.strategies;
+
+import com.sixrockets.ashkay.CreationException;
+import com.sixrockets.ashkay.ObjectCache;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+/**
+ *
+ */
+public class TimeExpirationCachingStrategyTest extends TestCase {
+
+  public void testExpires() throws Exception {
+    MockObjectFactory factory = new MockObjectFactory();
+    ObjectCache cache = new ObjectCache(factory);
+    cache.addStrategy(new TimeExpirationCachingStrategy(100));
+
+    cache.get("Test");
+    cache.get("Test");
+    assertEquals("Factory called again before expiry", 1, factory.counter);
+
+    Thread.sleep(150);
+    cache.get("Test");
+    assertEquals("Factory not called after expiry", 2, factory.counter);
+  }
+
+  public void testColdKeysRemoved() throws Exception {
+    TimeExpirationCachingStrategy strategy = new TimeExpirationCachingStrategy(100);
+    ObjectCache cache = new ObjectCache(new MockObjectFactory());
+    cache.addStrategy(strategy);
+
+    for (int i = 0; i < 100; i++) {
+      cache.get(Integer.valueOf(i));
+    }
+    assertEquals("Entries not cached", 100, cache.size());
+
+    Thread.sleep(2200);
+    strategy.cleanUp();
+    assertEquals("Expired entries not removed", 0, cache.size());
+  }
+
+  public void testReplacedEntryDescheduled() throws Exception {
+    ObjectCache<Object, String> cache = new ObjectCache<>();
+    cache.addStrategy(new TimeExpirationCachingStrategy(60000));
+
+    Object old = new Object();
+    WeakReference<Object> ref = new WeakReference<>(old);
+    cache.put("Test", old);
+    old = null;
+    cache.put("Test", new Object());
+
+    for (int i = 0; (i < 50) && (null != ref.get()); i++) {
+      System.gc();
+      Thread.sleep(10);
+    }
+    assertNull("Replaced object still held until expiry", ref.get());
+    assertEquals(1, cache.size());
+  }
+
+  public void testBackgroundCleanUp() throws Exception {
+    ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    try {
+      ObjectCache cache = new ObjectCache(new MockObjectFactory());
+      cache.addStrategy(new TimeExpirationCachingStrategy(100, scheduler));
+
+      for (int i = 0; i < 100; i++) {
+        cache.get(Integer.valueOf(i));
+      }
+
+      Thread.sleep(3500);
+      assertEquals("Expired entries not removed", 0, cache.size());
+    } finally {
+      scheduler.shutdownNow();
+    }
+  }
+
+  public void testRefreshAhead() throws Exception {
+    final AtomicInteger counter = new AtomicInteger();
+    final AtomicInteger failures = new AtomicInteger();
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      TimeExpirationCachingStrategy strategy = new TimeExpirationCachingStrategy(10000);
+      strategy.setRefreshTime(100);
+      ObjectCache<Integer, String> cache = new ObjectCache<>((key, data) -> {
+        if (failures.get() > 0) {
+          failures.decrementAndGet();
+          throw new CreationException("backend down");
+        }
+        return Integer.valueOf(counter.incrementAndGet());
+      });
+      cache.addStrategy(strategy);
+      cache.setRefreshExecutor(executor);
+
+      assertEquals("Bad initial value", Integer.valueOf(1), cache.get("Test"));
+
+      Thread.sleep(150);
+      assertEquals("Stale value not served", Integer.valueOf(1), cache.get("Test"));
+      drain(executor);
+      assertEquals("Value not refreshed", Integer.valueOf(2), cache.get("Test"));
+
+      failures.set(1);
+      Thread.sleep(150);
+      assertEquals("Stale value not served", Integer.valueOf(2), cache.get("Test"));
+      drain(executor);
+      assertEquals("Failed refresh dropped value", Integer.valueOf(2), cache.get("Test"));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  public void testRefreshFindingNothingKeepsEntry() throws Exception {
+    final AtomicInteger counter = new AtomicInteger();
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      TimeExpirationCachingStrategy strategy = new TimeExpirationCachingStrategy(10000);
+      strategy.setRefreshTime(100);
+      ObjectCache<Integer, String> cache = new ObjectCache<>(
+        (key, data) -> (counter.incrementAndGet() == 1) ? Integer.valueOf(1) : null);
+      cache.addStrategy(strategy);
+      cache.setRefreshExecutor(executor);
+
+      assertEquals(Integer.valueOf(1), cache.get("Test"));
+      Thread.sleep(150);
+      assertEquals("Stale value not served", Integer.valueOf(1), cache.get("Test"));
+      drain(executor);
+      assertEquals("Refresh was not tried", 2, counter.get());
+      assertEquals("Empty refresh dropped value", 1, cache.size());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static void drain(ExecutorService executor) throws Exception {
+    executor.submit(() -> {}).get(1, TimeUnit.SECONDS);
+  }
+}
@@ -0,0 +1,108 @@
+/*
+ *  Copyright 2004 David C. Brown
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sixrockets.ashkay.strategies;
+
+import com.sixrockets.ashkay.ObjectCache;
+
+import junit.framework.TestCase;
+
+/**
+ *
+ */
+public class TinyLfuCachingStrategyTest extends TestCase {
+
+  public void testBounded() throws Exception {
+    MockObjectFactory factory = new MockObjectFactory();
+    TinyLfuCachingStrategy strategy = new TinyLfuCachingStrategy(100);
+    ObjectCache cache = new ObjectCache(factory);
+    cache.addStrategy(strategy);
+
+    for (int i = 0; i < 1000; i++) {
+      cache.get(Integer.valueOf(i));
+    }
+
+    assertEquals("Factory not called for each key", 1000, factory.counter);
+    assertEquals("Cache not bounded", 100, cache.size());
+    assertEquals("Strategy lost track", 100, strategy.size());
+  }
+
+  public void testFrequentKeysRetained() throws Exception {
+    MockObjectFactory factory = new MockObjectFactory();
+    ObjectCache cache = new ObjectCache(factory);
+    cache.addStrategy(new TinyLfuCachingStrategy(100));
+
+    for (int round = 0; round < 5; round++) {
+      for (int i = 0; i < 50; i++) {
+        cache.get("hot" + i);
+      }
+    }
+    int loads = factory.counter;
+
+    for (int i = 0; i < 1000; i++) {
+      cache.get("cold" + i);
+    }
+    for (int i = 0; i < 50; i++) {
+      cache.get("hot" + i);
+    }
+
+    assertEquals("Hot keys pushed out by a scan", loads + 1000, factory.counter);
+  }
+
+  public void testWeighted() throws Exception {
+    ObjectCache<String, String> cache = new ObjectCache<>((key, data) -> key);
+    cache.setWeigher((key, value) -> value.length());
+    cache.addStrategy(new TinyLfuCachingStrategy(1000, true));
+
+    for (int i = 0; i < 100; i++) {
+      cache.get(String.format("%050d", i));
+    }
+
+    assertTrue("Cache over weight", cache.weight() <= 1000);
+    assertEquals("Weight not the sum of entries", cache.size() * 50L, cache.weight());
+
+    cache.clear();
+    assertEquals("Weight not cleared", 0, cache.weight());
+  }
+
+  public void testExplicitEviction() throws Exception {
+    TinyLfuCachingStrategy strategy = new TinyLfuCachingStrategy(10);
+    ObjectCache cache = new ObjectCache(new MockObjectFactory());
+    cache.addStrategy(strategy);
+
+    cache.get("Test");
+    cache.evict("Test");
+    assertEquals("Evicted entry still tracked", 0, strategy.size());
+
+    cache.get("Test");
+    cache.clear();
+    assertEquals("Cleared entry still tracked", 0, strategy.size());
+  }
+
+  public void testHottestKeys() throws Exception {
+    TinyLfuCachingStrategy strategy = new TinyLfuCachingStrategy(100);
+    ObjectCache cache = new ObjectCache(new MockObjectFactory());
+    cache.addStrategy(strategy);
+
+    for (int i = 0; i < 12; i++) {
+      for (int j = 0; j <= i; j++) {
+        cache.get("key" + i);
+      }
+    }
+
+    assertEquals("Hottest keys out of order", java.util.Arrays.asList("key11", "key10", "key9"), strategy.hottestKeys(3));
+    assertEquals("Not every key returned", 12, strategy.hottestKeys(1000).size());
+  }
+}
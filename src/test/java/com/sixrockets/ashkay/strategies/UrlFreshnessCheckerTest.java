@@ -0,0 +1,209 @@
+/*
+ *  Copyright 2004 David C. Brown
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sixrockets.ashkay.strategies;
+
+import com.sixrockets.ashkay.ObjectCache;
+import com.sun.net.httpserver.HttpServer;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+/**
+ *
+ */
+public class UrlFreshnessCheckerTest extends TestCase {
+
+  private HttpServer server;
+  private URL url;
+  private final AtomicInteger requests = new AtomicInteger();
+  private final AtomicInteger notModified = new AtomicInteger();
+  private volatile String etag = "\"1\"";
+  private volatile int status = 200;
+  private volatile long delay;
+  private volatile boolean headAllowed = true;
+  private final AtomicInteger gets = new AtomicInteger();
+
+  protected void setUp() throws Exception {
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    server.createContext("/resource", exchange -> {
+      requests.incrementAndGet();
+      if ("GET".equals(exchange.getRequestMethod())) {
+        gets.incrementAndGet();
+      } else if (!headAllowed) {
+        exchange.sendResponseHeaders(405, -1);
+        exchange.close();
+        return;
+      }
+      try {
+        Thread.sleep(delay);
+      } catch (InterruptedException e) {
+        // answer now
+      }
+      String current = etag;
+      exchange.getResponseHeaders().set("ETag", current);
+      if (200 == status && current.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+        notModified.incrementAndGet();
+        exchange.sendResponseHeaders(304, -1);
+      } else {
+        exchange.sendResponseHeaders(status, -1);
+      }
+      exchange.close();
+    });
+    server.start();
+    url = new URL("http://localhost:" + server.getAddress().getPort() + "/resource");
+  }
+
+  protected void tearDown() {
+    server.stop(0);
+  }
+
+  public void testConcurrentChecksCoalesced() throws Exception {
+    UrlFreshnessChecker checker = new UrlFreshnessChecker(60000, 2);
+    checker.retain(url);
+    delay = 200;
+    try {
+      CountDownLatch start = new CountDownLatch(1);
+      List<Thread> threads = new ArrayList<>();
+      List<UrlFreshnessChecker.Version> versions = new ArrayList<>();
+      for (int i = 0; i < 20; i++) {
+        Thread thread = new Thread(() -> {
+          try {
+            start.await();
+          } catch (InterruptedException e) {
+            return;
+          }
+          UrlFreshnessChecker.Version version = checker.check(url);
+          synchronized (versions) {
+            versions.add(version);
+          }
+        });
+        threads.add(thread);
+        thread.start();
+      }
+      start.countDown();
+      for (Thread thread : threads) {
+        thread.join();
+      }
+
+      assertEquals("Concurrent checks not coalesced", 1, requests.get());
+      for (UrlFreshnessChecker.Version version : versions) {
+        assertEquals("\"1\"", version.getETag());
+      }
+      checker.check(url);
+      assertEquals("Checked again within the interval", 1, requests.get());
+    } finally {
+      checker.close();
+    }
+  }
+
+  public void testConditionalCheck() throws Exception {
+    UrlFreshnessChecker checker = new UrlFreshnessChecker(0, 1);
+    checker.retain(url);
+    try {
+      UrlFreshnessChecker.Version first = checker.check(url);
+      assertEquals(first, checker.check(url));
+      assertEquals("Unchanged resource not answered with 304", 1, notModified.get());
+
+      etag = "\"2\"";
+      UrlFreshnessChecker.Version changed = checker.check(url);
+      assertFalse("Change not seen", first.equals(changed));
+      assertEquals("\"2\"", changed.getETag());
+    } finally {
+      checker.close();
+    }
+  }
+
+  public void testGetWhenHeadRefused() throws Exception {
+    UrlFreshnessChecker checker = new UrlFreshnessChecker(0, 1);
+    checker.retain(url);
+    headAllowed = false;
+    try {
+      UrlFreshnessChecker.Version first = checker.check(url);
+      assertNotNull("Refused HEAD gave no version", first);
+      assertEquals("\"1\"", first.getETag());
+      assertEquals(first, checker.check(url));
+      assertEquals("Unchanged resource not answered with 304", 1, notModified.get());
+      assertEquals("HEAD asked again once refused", 3, requests.get());
+      assertEquals(2, gets.get());
+    } finally {
+      checker.close();
+    }
+  }
+
+  public void testUrlsForgottenWithTheirEntries() throws Exception {
+    LastModifiedCachingStrategy strategy = new LastModifiedCachingStrategy();
+    UrlFreshnessChecker checker = new UrlFreshnessChecker(60000, 1);
+    strategy.setUrlChecker(checker);
+    ObjectCache cache = new ObjectCache(new MockObjectFactory());
+    cache.addStrategy(strategy);
+    try {
+      checker.check(new URL(url, "/other"));
+      assertEquals("Unheld URL kept", 0, checker.size());
+
+      cache.get(url);
+      cache.put(url, "replaced");
+      assertEquals("Cached URL not kept", 1, checker.size());
+      cache.evict(url);
+      assertEquals("Evicted URL kept", 0, checker.size());
+    } finally {
+      checker.close();
+    }
+  }
+
+  public void testFailedCheckUnknown() throws Exception {
+    UrlFreshnessChecker checker = new UrlFreshnessChecker(0, 1);
+    try {
+      assertNotNull(checker.check(url));
+      status = 500;
+      assertNull("Failed check gave a version", checker.check(url));
+      server.stop(0);
+      assertNull("Unreachable URL gave a version", checker.check(url));
+    } finally {
+      checker.close();
+    }
+  }
+
+  public void testStrategyReloadsChangedAndUncheckableUrls() throws Exception {
+    MockObjectFactory factory = new MockObjectFactory();
+    LastModifiedCachingStrategy strategy = new LastModifiedCachingStrategy();
+    UrlFreshnessChecker checker = new UrlFreshnessChecker(0, 1);
+    strategy.setUrlChecker(checker);
+    ObjectCache cache = new ObjectCache(factory);
+    cache.addStrategy(strategy);
+    try {
+      cache.get(url);
+      cache.get(url);
+      assertEquals("Unchanged URL reloaded", 1, factory.counter);
+
+      etag = "\"2\"";
+      cache.get(url);
+      assertEquals("Changed URL not reloaded", 2, factory.counter);
+
+      status = 503;
+      cache.get(url);
+      assertEquals("Uncheckable URL served as fresh", 3, factory.counter);
+    } finally {
+      checker.close();
+    }
+  }
+}
@@ -0,0 +1,196 @@
+/*
+ *  Copyright 2004 David C. Brown
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sixrockets.ashkay.tiers;
+
+import com.sixrockets.ashkay.CacheEntry;
+import com.sixrockets.ashkay.CachingStrategy;
+import com.sixrockets.ashkay.JavaSerializer;
+import com.sixrockets.ashkay.ObjectCache;
+import com.sixrockets.ashkay.strategies.TimeExpirationCachingStrategy;
+import com.sixrockets.ashkay.strategies.TinyLfuCachingStrategy;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+/**
+ *
+ */
+public class DiskTierTest extends TestCase {
+
+  private File directory;
+  private AtomicInteger loads;
+
+  protected void setUp() throws Exception {
+    directory = Files.createTempDirectory("ashkay").toFile();
+    loads = new AtomicInteger();
+  }
+
+  protected void tearDown() {
+    for (File file : directory.listFiles()) {
+      file.delete();
+    }
+    directory.delete();
+  }
+
+  public void testSurvivesRestart() throws Exception {
+    DiskTier<String, Integer> tier = open(1 << 20);
+    ObjectCache<String, Integer> cache = cache(tier, 10, 60000);
+    for (int i = 0; i < 50; i++) {
+      cache.get(i);
+    }
+    assertEquals("Evicted objects not written", 40, tier.size());
+    tier.close();
+    assertEquals("Cached objects not written on close", 50, tier.size());
+
+    tier = open(1 << 20);
+    assertEquals("Objects not found on reopening", 50, tier.size());
+    cache = cache(tier, 100, 60000);
+    for (int i = 0; i < 50; i++) {
+      assertEquals("Wrong object", "value" + i, cache.get(i));
+    }
+    assertEquals("Objects on disk recreated", 50, loads.get());
+  }
+
+  public void testExpiredNotRevived() throws Exception {
+    DiskTier<String, Integer> tier = open(1 << 20);
+    ObjectCache<String, Integer> cache = cache(tier, 1, 500);
+    cache.get(1);
+    cache.get(2);
+    tier.close();
+
+    tier = open(1 << 20);
+    cache = cache(tier, 10, 60000);
+    cache.get(1);
+    assertEquals("Object on disk recreated", 2, loads.get());
+    Thread.sleep(700);
+    cache.get(1);
+    assertEquals("Original expiry not kept", 3, loads.get());
+
+    cache.evict(1);
+    tier.close();
+    tier = open(1 << 20);
+    assertEquals("Expired object revived", 0, tier.size());
+  }
+
+  public void testEvictionIsPersistent() throws Exception {
+    DiskTier<String, Integer> tier = open(1 << 20);
+    ObjectCache<String, Integer> cache = cache(tier, 1, 60000);
+    cache.get(1);
+    cache.get(2);
+    cache.get(3);
+    assertEquals("Evicted objects not written", 2, tier.size());
+    tier.evict(1);
+    cache.put(2, "replaced");
+    tier.close();
+
+    tier = open(1 << 20);
+    cache = cache(tier, 10, 60000);
+    cache.get(1);
+    assertEquals("Evicted object revived", "value1", cache.get(1));
+    assertEquals("Replaced object revived", "replaced", cache.get(2));
+    assertEquals("Dropped object read from disk", 4, loads.get());
+  }
+
+  public void testCacheEvictReachesDisk() throws Exception {
+    DiskTier<String, Integer> tier = open(1 << 20);
+    ObjectCache<String, Integer> cache = cache(tier, 1, 60000);
+    for (int i = 0; i < 4; i++) {
+      cache.get(i);
+    }
+    int onDisk = cache.keys().contains(0) ? 1 : 0;
+    assertNull("Key evicted was in the cache", cache.evict(onDisk));
+    assertEquals("Evicted key kept on disk", 2, tier.size());
+
+    cache.clear();
+    assertEquals("Cleared cache kept objects on disk", 0, tier.size());
+    tier.close();
+    assertEquals("Objects revived after clear", 0, open(1 << 20).size());
+  }
+
+  public void testLoadLooksUpKeyOnce() throws Exception {
+    AtomicInteger keysSerialized = new AtomicInteger();
+    JavaSerializer<Integer> keys = new JavaSerializer<Integer>() {
+      public byte[] serialize(Integer key) throws IOException {
+        keysSerialized.incrementAndGet();
+        return super.serialize(key);
+      }
+    };
+    DiskTier<String, Integer> tier = new DiskTier<>(this::load, keys, new JavaSerializer<>(), directory, 1 << 20);
+    ObjectCache<String, Integer> cache = cache(tier, 10, 60000);
+    cache.get(1);
+    assertEquals("Loaded key looked up again", 1, keysSerialized.get());
+    cache.put(1, "replaced");
+    assertEquals("Put key not looked up", 2, keysSerialized.get());
+  }
+
+  public void testReloadAfterInvalidationSkipsDisk() throws Exception {
+    AtomicInteger version = new AtomicInteger();
+    AtomicBoolean stale = new AtomicBoolean();
+    DiskTier<String, Integer> tier = new DiskTier<>((key, data) -> "v" + version.get(), new JavaSerializer<>(),
+        new JavaSerializer<>(), directory, 1 << 20);
+    ObjectCache<String, Integer> cache = new ObjectCache<>(tier);
+    cache.addStrategy(tier).addStrategy(new CachingStrategy() {
+      public <T, K> CacheEntry<T, K> prepare(CacheEntry<T, K> entry) {
+        return entry;
+      }
+
+      public boolean validate(CacheEntry<?, ?> entry) {
+        return !stale.get();
+      }
+    });
+    assertEquals("v0", cache.get(1));
+    tier.close();
+    assertEquals("Cached object not written on close", 1, tier.size());
+
+    version.set(1);
+    stale.set(true);
+    assertEquals("Invalidated object read back from disk", "v1", cache.get(1));
+    assertEquals("Stale copy kept on disk", 0, tier.size());
+  }
+
+  public void testBounded() throws Exception {
+    DiskTier<String, Integer> tier = new DiskTier<>(this::load, new JavaSerializer<>(), new JavaSerializer<>(), directory, 8192, 4096);
+    ObjectCache<String, Integer> cache = cache(tier, 1, 60000);
+    for (int i = 0; i < 1000; i++) {
+      cache.get(i);
+    }
+    assertTrue("Disk not bounded", tier.size() < 1000);
+    assertTrue("Old segments kept", directory.listFiles().length <= 2);
+
+    cache.get(998);
+    assertEquals("Recent object not kept", 1000, loads.get());
+  }
+
+  private DiskTier<String, Integer> open(long capacity) throws Exception {
+    return new DiskTier<>(this::load, new JavaSerializer<>(), new JavaSerializer<>(), directory, capacity);
+  }
+
+  private ObjectCache<String, Integer> cache(DiskTier<String, Integer> tier, int size, long timeout) {
+    ObjectCache<String, Integer> cache = new ObjectCache<>(tier);
+    cache.addStrategy(tier).addStrategy(new TimeExpirationCachingStrategy(timeout)).addStrategy(new TinyLfuCachingStrategy(size));
+    return cache;
+  }
+
+  private String load(Integer key, Object data) {
+    loads.incrementAndGet();
+    return "value" + key;
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ *  Copyright 2004 David C. Brown
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sixrockets.ashkay.tiers;
+
+import com.sixrockets.ashkay.JavaSerializer;
+import com.sixrockets.ashkay.ObjectCache;
+import com.sixrockets.ashkay.strategies.TinyLfuCachingStrategy;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+/**
+ *
+ */
+public class OffHeapTierTest extends TestCase {
+
+  public void testSpillAndReload() throws Exception {
+    AtomicInteger loads = new AtomicInteger();
+    OffHeapTier<String, Integer> tier = new OffHeapTier<>((key, data) -> {
+      loads.incrementAndGet();
+      return "value" + key;
+    }, new JavaSerializer<>(), 1 << 20, 1 << 12);
+    ObjectCache<String, Integer> cache = new ObjectCache<>(tier);
+    cache.addStrategy(new TinyLfuCachingStrategy(10)).addStrategy(tier);
+
+    for (int i = 0; i < 100; i++) {
+      cache.get(i);
+    }
+    assertEquals("Heap tier not bounded", 10, cache.size());
+    assertEquals("Evicted objects not spilled", 90, tier.size());
+
+    for (int i = 0; i < 100; i++) {
+      assertEquals("Wrong object", "value" + i, cache.get(i));
+    }
+    assertEquals("Spilled objects recreated", 100, loads.get());
+    assertEquals("Objects in both tiers", 100, cache.size() + tier.size());
+  }
+
+  public void testExplicitEvictionDropsObject() throws Exception {
+    OffHeapTier<String, Integer> tier = new OffHeapTier<>((key, data) -> "value" + key, new JavaSerializer<>(), 1 << 20);
+    ObjectCache<String, Integer> cache = new ObjectCache<>(tier);
+    cache.addStrategy(new TinyLfuCachingStrategy(1)).addStrategy(tier);
+
+    cache.get(1);
+    cache.get(2);
+    assertEquals("Object not spilled", 1, tier.size());
+    cache.evict(2);
+    cache.put(1, "replaced");
+    assertEquals("Stale objects kept off heap", 0, tier.size());
+  }
+
+  public void testEvictAndClearReachOffHeap() throws Exception {
+    OffHeapTier<String, Integer> tier = new OffHeapTier<>((key, data) -> "value" + key, new JavaSerializer<>(), 1 << 20);
+    ObjectCache<String, Integer> cache = new ObjectCache<>(tier);
+    cache.addStrategy(new TinyLfuCachingStrategy(1)).addStrategy(tier);
+
+    for (int i = 0; i < 4; i++) {
+      cache.get(i);
+    }
+    assertEquals("Objects not spilled", 3, tier.size());
+    int offHeap = cache.keys().contains(0) ? 1 : 0;
+    assertNull("Key evicted was on the heap", cache.evict(offHeap));
+    assertEquals("Evicted key kept off heap", 2, tier.size());
+
+    cache.clear();
+    assertEquals("Cleared cache kept objects off heap", 0, tier.size());
+  }
+
+  public void testSlabMovesBetweenSizeClasses() {
+    OffHeapStore store = new OffHeapStore(2048, 1024);
+    for (int i = 0; i < 100; i++) {
+      assertTrue(store.put(i, new byte[100]));
+    }
+    assertTrue("Store not bounded", store.size() < 100);
+    assertEquals("Capacity exceeded", 2048, store.allocated());
+
+    byte[] large = new byte[900];
+    Arrays.fill(large, (byte) 7);
+    assertTrue("Large value not stored", store.put("large", large));
+    assertTrue("Large value corrupted", Arrays.equals(large, store.get("large")));
+    assertFalse("Oversized value stored", store.put("huge", new byte[2000]));
+    assertEquals("Capacity exceeded", 2048, store.allocated());
+  }
+
+  public void testDeleteFreesChunk() {
+    OffHeapStore store = new OffHeapStore(1024, 1024);
+    assertFalse("Absent key deleted", store.delete("a"));
+    assertTrue(store.put("a", new byte[900]));
+    assertTrue("Stored key not deleted", store.delete("a"));
+    assertFalse("Key deleted twice", store.delete("a"));
+    assertEquals(0, store.size());
+    assertEquals(0, store.bytes());
+    assertTrue("Chunk not freed", store.put("b", new byte[900]));
+  }
+}
@@ -0,0 +1,131 @@
+/*
+ *  Copyright 2004 David C. Brown
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.sixrockets.ashkay;
+
+import com.sixrockets.ashkay.strategies.TimeExpirationCachingStrategy;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import junit.framework.TestCase;
+
+/**
+ * Runs 100,000 virtual threads against a slow factory while recording
+ * jdk.VirtualThreadPinned events; a load or wait that blocked while holding
+ * a monitor would pin its carrier and show up in the recording. A platform
+ * thread reads a cached key throughout, and no read may stall behind the
+ * loads.
+ */
+public class VirtualThreadStressTest extends TestCase {
+
+  private static final int THREADS = 100_000;
+  private static final int KEYS = 1_000;
+
+  public void testSlowFactory() throws Exception {
+    AtomicInteger loads = new AtomicInteger();
+    ObjectCache<String, Integer> cache = new ObjectCache<>((key, data) -> {
+      loads.incrementAndGet();
+      try {
+        Thread.sleep(200);
+      } catch (InterruptedException e) {
+        throw new CreationException(e);
+      }
+      return "value" + key;
+    });
+    cache.addStrategy(new TimeExpirationCachingStrategy(60_000));
+    cache.put(Integer.valueOf(-1), "hot");
+
+    AtomicInteger failures = new AtomicInteger();
+    AtomicBoolean flooding = new AtomicBoolean(true);
+    AtomicLong slowestHot = new AtomicLong();
+    Thread reader = Thread.ofPlatform().start(() -> {
+      while (flooding.get()) {
+        long start = System.nanoTime();
+        try {
+          if (!"hot".equals(cache.get(Integer.valueOf(-1)))) {
+            failures.incrementAndGet();
+          }
+        } catch (CreationException e) {
+          failures.incrementAndGet();
+        }
+        slowestHot.accumulateAndGet(System.nanoTime() - start, Math::max);
+        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+      }
+    });
+
+    Path file = Files.createTempFile("ashkay", ".jfr");
+    try (Recording recording = new Recording()) {
+      recording.enable("jdk.VirtualThreadPinned").withThreshold(Duration.ZERO).withStackTrace();
+      recording.start();
+
+      CountDownLatch done = new CountDownLatch(THREADS);
+      try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+        for (int i = 0; i < THREADS; i++) {
+          Integer key = Integer.valueOf(i % KEYS);
+          executor.execute(() -> {
+            try {
+              if (!("value" + key).equals(cache.get(key))) {
+                failures.incrementAndGet();
+              }
+            } catch (CreationException e) {
+              failures.incrementAndGet();
+            } finally {
+              done.countDown();
+            }
+          });
+        }
+        assertTrue("Lookups did not finish", done.await(60, TimeUnit.SECONDS));
+      } finally {
+        flooding.set(false);
+        reader.join();
+      }
+
+      recording.stop();
+      recording.dump(file);
+      int pinned = 0;
+      RecordedEvent first = null;
+      for (RecordedEvent event : RecordingFile.readAllEvents(file)) {
+        if ("jdk.VirtualThreadPinned".equals(event.getEventType().getName())) {
+          pinned++;
+          if (null == first) {
+            first = event;
+          }
+        }
+      }
+      assertEquals("Carrier threads pinned, first at " + first, 0, pinned);
+    } finally {
+      Files.delete(file);
+    }
+
+    long hotMillis = TimeUnit.NANOSECONDS.toMillis(slowestHot.get());
+    assertTrue("Cached lookup stalled behind slow loads: " + hotMillis + "ms", hotMillis < 1_000);
+    assertEquals("Lookups failed", 0, failures.get());
+    assertEquals("Loads not shared", KEYS, loads.get());
+  }
+}